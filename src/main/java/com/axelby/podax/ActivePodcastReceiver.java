@@ -27,6 +27,10 @@ public class ActivePodcastReceiver extends BroadcastReceiver {
 			PodcastProvider.movePositionBy(context, activePodcastUri, 30);
 		else if (intent.getData().equals(Constants.ACTIVE_PODCAST_DATA_END))
 			PodcastProvider.skipToEnd(context, activePodcastUri);
+		else if (intent.getData().equals(Constants.ACTIVE_PODCAST_DATA_NEXT_CHAPTER))
+			PodcastProvider.skipChapter(context, activePodcastUri, true);
+		else if (intent.getData().equals(Constants.ACTIVE_PODCAST_DATA_PREVIOUS_CHAPTER))
+			PodcastProvider.skipChapter(context, activePodcastUri, false);
 	}
 
 	public static void notifyExternal(Context context) {
@@ -14,6 +14,8 @@ public class Constants {
 	public static final Uri ACTIVE_PODCAST_DATA_BACK = Uri.parse("podax://activepodcast/back");
 	public static final Uri ACTIVE_PODCAST_DATA_FORWARD = Uri.parse("podax://activepodcast/forward");
 	public static final Uri ACTIVE_PODCAST_DATA_END = Uri.parse("podax://activepodcast/end");
+	public static final Uri ACTIVE_PODCAST_DATA_NEXT_CHAPTER = Uri.parse("podax://activepodcast/next_chapter");
+	public static final Uri ACTIVE_PODCAST_DATA_PREVIOUS_CHAPTER = Uri.parse("podax://activepodcast/previous_chapter");
 
 	public static final String ACTION_REFRESH_ALL_SUBSCRIPTIONS = "com.axelby.podax.REFRESH_ALL_SUBSCRIPTIONS";
 	public static final String ACTION_REFRESH_SUBSCRIPTION = "com.axelby.podax.REFRESH_SUBSCRIPTION";
@@ -6,7 +6,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public class DBAdapter extends SQLiteOpenHelper {
 	private static final String DATABASE_NAME = "podax.db";
-	private static final int DATABASE_VERSION = 12;
+	private static final int DATABASE_VERSION = 17;
 
 	public DBAdapter(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -24,7 +24,9 @@ public class DBAdapter extends SQLiteOpenHelper {
 				"thumbnail VARCHAR, " +
 				"titleOverride VARCHAR," +
 				"queueNew INTEGER NOT NULL DEFAULT 1," +
-				"expirationDays INTEGER);");
+				"expirationDays INTEGER," +
+				"partialRefreshes INTEGER NOT NULL DEFAULT 0," +
+				"bodyHash VARCHAR);");
 		db.execSQL("CREATE UNIQUE INDEX subscription_url ON subscriptions(url)");
 
 		db.execSQL("CREATE TABLE podcasts(" +
@@ -42,11 +44,18 @@ public class DBAdapter extends SQLiteOpenHelper {
 				"downloadId INTEGER," +
 				"needsGpodderUpdate INTEGER DEFAULT 0," +
 				"gpodderUpdateTimestamp INTEGER," +
-				"payment VARCHAR)"
+				"payment VARCHAR," +
+				"gain REAL," +
+				"mediaFormat VARCHAR," +
+				"chapterCount INTEGER," +
+				"artworkOffset INTEGER," +
+				"artworkLength INTEGER)"
 		);
 		db.execSQL("CREATE UNIQUE INDEX podcasts_mediaUrl ON podcasts(mediaUrl)");
 		db.execSQL("CREATE INDEX podcasts_queuePosition ON podcasts(queuePosition)");
 
+		createChaptersTable(db);
+
 		db.execSQL("CREATE TABLE podax(lastPodcastId INTEGER, activeDownloadId INTEGER)");
 		db.execSQL("INSERT INTO podax(lastPodcastId, activeDownloadId) VALUES(NULL, NULL)");
 
@@ -191,5 +200,47 @@ public class DBAdapter extends SQLiteOpenHelper {
 				db.execSQL("ALTER TABLE podcasts ADD COLUMN gpodderUpdateTimestamp INTEGER");
 			} catch (Exception ignored) {}
 		}
+
+		if (oldVersion < 13) {
+			// gain from loudness analysis, null until the episode is analyzed
+			db.execSQL("ALTER TABLE podcasts ADD COLUMN gain REAL");
+		}
+
+		if (oldVersion < 14) {
+			// container format sniffed from the downloaded file, null until it is downloaded
+			db.execSQL("ALTER TABLE podcasts ADD COLUMN mediaFormat VARCHAR");
+		}
+
+		if (oldVersion < 15) {
+			// chapters and artwork from the file's tags, chapterCount is null until the file is scanned
+			db.execSQL("ALTER TABLE podcasts ADD COLUMN chapterCount INTEGER");
+			db.execSQL("ALTER TABLE podcasts ADD COLUMN artworkOffset INTEGER");
+			db.execSQL("ALTER TABLE podcasts ADD COLUMN artworkLength INTEGER");
+			createChaptersTable(db);
+		}
+
+		if (oldVersion < 16) {
+			// refreshes since the feed was last parsed all the way through
+			db.execSQL("ALTER TABLE subscriptions ADD COLUMN partialRefreshes INTEGER NOT NULL DEFAULT 0");
+		}
+
+		if (oldVersion < 17) {
+			// hash of the last feed body that was parsed, null until the next refresh
+			db.execSQL("ALTER TABLE subscriptions ADD COLUMN bodyHash VARCHAR");
+		}
+	}
+
+	// times are in milliseconds, artwork is an offset and length in the downloaded file
+	private static void createChaptersTable(SQLiteDatabase db) {
+		db.execSQL("CREATE TABLE chapters(" +
+				"_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+				"podcastId INTEGER NOT NULL, " +
+				"startTime INTEGER NOT NULL, " +
+				"endTime INTEGER, " +
+				"title VARCHAR, " +
+				"artworkOffset INTEGER, " +
+				"artworkLength INTEGER)");
+		// chapter skips look up the next start time in the episode
+		db.execSQL("CREATE INDEX chapters_podcastId_startTime ON chapters(podcastId, startTime)");
 	}
 }
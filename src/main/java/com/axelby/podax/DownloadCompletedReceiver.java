@@ -27,13 +27,8 @@ public class DownloadCompletedReceiver extends BroadcastReceiver {
 					Cursor pc = context.getContentResolver().query(PodcastProvider.URI, null, "downloadId = ?", new String[]{String.valueOf(downloadId)}, null);
 					if (pc != null) {
 						if (pc.moveToNext()) {
-							PodcastCursor podcast = new PodcastCursor(pc);
-							podcast.determineDuration(context);
-
-							ContentValues values = new ContentValues();
-							int totalSize = c.getInt(c.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
-							values.put(PodcastProvider.COLUMN_FILE_SIZE, totalSize);
-							context.getContentResolver().update(PodcastProvider.getContentUri(podcast.getId()), values, null, null);
+							long totalSize = c.getLong(c.getColumnIndex(DownloadManager.COLUMN_TOTAL_SIZE_BYTES));
+							downloadCompleted(context, new PodcastCursor(pc), totalSize);
 						}
 						pc.close();
 					}
@@ -90,4 +85,18 @@ public class DownloadCompletedReceiver extends BroadcastReceiver {
 			context.startActivity(mainActivity);
 		}
 	}
+
+	// the media file is complete, whether the download manager or streaming wrote it
+	// runs on the main thread, anything that reads the file is handed to UpdateService
+	public static void downloadCompleted(Context context, PodcastCursor podcast, long fileSize) {
+		ContentValues values = new ContentValues();
+		values.put(PodcastProvider.COLUMN_FILE_SIZE, fileSize);
+		context.getContentResolver().update(PodcastProvider.getContentUri(podcast.getId()), values, null, null);
+
+		// the rest need the format this saves
+		UpdateService.inspectDownload(context, podcast.getId());
+		UpdateService.buildSeekIndex(context, podcast.getId());
+		UpdateService.buildWaveform(context, podcast.getId());
+		UpdateService.analyzeLoudness(context);
+	}
 }
@@ -0,0 +1,349 @@
+package com.axelby.podax;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// fetches feeds a few at a time, parses them on their own threads and sends every write through one thread
+// a feed's body is handed from its fetch thread to its parse thread as it arrives
+// nothing in here knows about subscriptions or the database
+class FeedRefreshEngine {
+	// how much of a body can be waiting on a parser that's fallen behind
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	abstract static class Job {
+		final String host;
+
+		Job(String host) {
+			this.host = host == null ? "" : host.toLowerCase(Locale.US);
+		}
+
+		// runs on a fetch thread, returns the body to parse or null if there's nothing to parse
+		abstract InputStream fetch() throws IOException;
+
+		// runs on a parse thread while the fetch thread is still reading the body into it
+		// the job is done when this returns, closing the body early stops the download
+		abstract void parse(InputStream body);
+	}
+
+	private final int _feedsPerHost;
+	private final long _deadlineMs;
+	private final long _graceMs;
+	private final ExecutorService _fetchers;
+	private final ExecutorService _parsers;
+	private final ThreadPoolExecutor _writer;
+	private final Object _writeLock = new Object();
+	private final ArrayList<Job> _jobs = new ArrayList<Job>();
+	private final LinkedHashMap<String, Semaphore> _hostLimits = new LinkedHashMap<String, Semaphore>();
+	private long _deadline;
+
+	// feeds that haven't started by the deadline wait for the next refresh
+	// the ones that have get the grace period to finish
+	FeedRefreshEngine(int feedsAtOnce, int feedsPerHost, int parsers, long deadlineMs, long graceMs) {
+		_feedsPerHost = feedsPerHost;
+		_deadlineMs = deadlineMs;
+		_graceMs = graceMs;
+		_fetchers = Executors.newFixedThreadPool(feedsAtOnce, namedThreads("feed fetch"));
+		_parsers = Executors.newFixedThreadPool(parsers, namedThreads("feed parse"));
+		_writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), namedThreads("feed writer"));
+	}
+
+	// writes run one at a time in the order they're handed over
+	Executor getWriter() {
+		return _serialWriter;
+	}
+
+	void add(Job job) {
+		_jobs.add(job);
+	}
+
+	// returns once every job has finished or been given up on
+	void run() {
+		_deadline = System.currentTimeMillis() + _deadlineMs;
+		for (final Job job : orderByHost(_jobs)) {
+			_fetchers.execute(new Runnable() {
+				@Override
+				public void run() {
+					refresh(job);
+				}
+			});
+		}
+
+		try {
+			_fetchers.shutdown();
+			if (!_fetchers.awaitTermination(remaining(), TimeUnit.MILLISECONDS)) {
+				Log.w("Podax", "feed refresh ran past its deadline, skipping " + _fetchers.shutdownNow().size() + " feeds");
+				_fetchers.awaitTermination(_graceMs, TimeUnit.MILLISECONDS);
+			}
+			// each fetch thread waits on its parse, so once they're done there's nothing left to parse or write
+			_parsers.shutdown();
+			if (!_parsers.awaitTermination(_graceMs, TimeUnit.MILLISECONDS)) {
+				Log.w("Podax", "feed parsing didn't finish in time");
+				_parsers.shutdownNow();
+			}
+			_writer.shutdown();
+			if (!_writer.awaitTermination(_graceMs, TimeUnit.MILLISECONDS))
+				Log.w("Podax", "feed writes didn't finish in time");
+		} catch (InterruptedException e) {
+			_fetchers.shutdownNow();
+			_parsers.shutdownNow();
+			_writer.shutdown();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void refresh(final Job job) {
+		Semaphore hostLimit = getHostLimit(job.host);
+		try {
+			if (!hostLimit.tryAcquire(remaining(), TimeUnit.MILLISECONDS))
+				return;
+		} catch (InterruptedException e) {
+			return;
+		}
+
+		Future<?> parse = null;
+		try {
+			InputStream body = job.fetch();
+			if (body == null)
+				return;
+			final Pipe pipe = new Pipe(PIPE_SIZE);
+			parse = _parsers.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						job.parse(pipe);
+					} finally {
+						pipe.close();
+					}
+				}
+			});
+			pump(body, pipe);
+		} catch (IOException e) {
+			Log.w("Podax", "couldn't fetch feed: " + e.getMessage());
+		} catch (RejectedExecutionException e) {
+			// the parsers were shut down past the deadline
+		} finally {
+			// the connection is done with, the host can take another one while this feed is parsed
+			hostLimit.release();
+		}
+
+		if (parse == null)
+			return;
+		try {
+			parse.get();
+		} catch (InterruptedException e) {
+			parse.cancel(true);
+		} catch (ExecutionException e) {
+			Log.e("Podax", "error while parsing feed", e.getCause());
+		}
+	}
+
+	// reads the body into the pipe until it ends or the parser stops reading
+	private static void pump(InputStream body, Pipe pipe) {
+		byte[] buffer = new byte[8192];
+		try {
+			int read;
+			while ((read = body.read(buffer)) != -1) {
+				if (!pipe.write(buffer, 0, read))
+					break;
+			}
+			pipe.finish();
+		} catch (IOException e) {
+			// the parser gets the same error the fetch thread did
+			pipe.fail(e);
+		} finally {
+			try {
+				body.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	private final Executor _serialWriter = new Executor() {
+		@Override
+		public void execute(final Runnable write) {
+			try {
+				_writer.execute(new Runnable() {
+					@Override
+					public void run() {
+						runWrite(write);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// a parse that outlived the grace period, what it found still gets written
+				Log.w("Podax", "writing feed changes on the parse thread, the writer has shut down");
+				runWrite(write);
+			}
+		}
+	};
+
+	private void runWrite(Runnable write) {
+		synchronized (_writeLock) {
+			try {
+				write.run();
+			} catch (Exception e) {
+				Log.e("Podax", "error writing feed changes", e);
+			}
+		}
+	}
+
+	private long remaining() {
+		return Math.max(0, _deadline - System.currentTimeMillis());
+	}
+
+	private Semaphore getHostLimit(String host) {
+		synchronized (_hostLimits) {
+			Semaphore limit = _hostLimits.get(host);
+			if (limit == null) {
+				limit = new Semaphore(_feedsPerHost);
+				_hostLimits.put(host, limit);
+			}
+			return limit;
+		}
+	}
+
+	// takes turns between hosts so a big host's feeds don't sit at the front of the queue waiting on each other
+	private static ArrayList<Job> orderByHost(ArrayList<Job> jobs) {
+		LinkedHashMap<String, ArrayList<Job>> byHost = new LinkedHashMap<String, ArrayList<Job>>();
+		for (Job job : jobs) {
+			ArrayList<Job> hostJobs = byHost.get(job.host);
+			if (hostJobs == null) {
+				hostJobs = new ArrayList<Job>();
+				byHost.put(job.host, hostJobs);
+			}
+			hostJobs.add(job);
+		}
+
+		ArrayList<Job> ordered = new ArrayList<Job>(jobs.size());
+		for (int round = 0; ordered.size() < jobs.size(); ++round) {
+			for (ArrayList<Job> hostJobs : byHost.values()) {
+				if (round < hostJobs.size())
+					ordered.add(hostJobs.get(round));
+			}
+		}
+		return ordered;
+	}
+
+	private static ThreadFactory namedThreads(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger _count = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, name + " " + _count.incrementAndGet());
+			}
+		};
+	}
+
+	// bounded hand-off of a body from the thread reading it to the thread parsing it
+	static class Pipe extends InputStream {
+		private final byte[] _buffer;
+		private final byte[] _single = new byte[1];
+		private int _start = 0;
+		private int _length = 0;
+		private boolean _finished = false;
+		private boolean _closed = false;
+		private IOException _error = null;
+
+		Pipe(int size) {
+			_buffer = new byte[size];
+		}
+
+		/* writer side */
+
+		// blocks while the pipe is full, returns false once the reader has closed it
+		synchronized boolean write(byte[] data, int offset, int count) throws InterruptedIOException {
+			while (count > 0) {
+				while (_length == _buffer.length && !_closed)
+					waitForChange();
+				if (_closed)
+					return false;
+				int end = (_start + _length) % _buffer.length;
+				int chunk = Math.min(count, Math.min(_buffer.length - _length, _buffer.length - end));
+				System.arraycopy(data, offset, _buffer, end, chunk);
+				_length += chunk;
+				offset += chunk;
+				count -= chunk;
+				notifyAll();
+			}
+			return true;
+		}
+
+		synchronized void finish() {
+			_finished = true;
+			notifyAll();
+		}
+
+		// the reader gets the error once it has read what came before it
+		synchronized void fail(IOException error) {
+			_error = error;
+			_finished = true;
+			notifyAll();
+		}
+
+		/* reader side */
+
+		@Override
+		public synchronized int read(byte[] data, int offset, int count) throws IOException {
+			if (count == 0)
+				return 0;
+			while (_length == 0 && !_finished && !_closed)
+				waitForChange();
+			if (_closed)
+				throw new IOException("pipe closed");
+			if (_length == 0) {
+				if (_error != null)
+					throw _error;
+				return -1;
+			}
+			int chunk = Math.min(count, Math.min(_length, _buffer.length - _start));
+			System.arraycopy(_buffer, _start, data, offset, chunk);
+			_start = (_start + chunk) % _buffer.length;
+			_length -= chunk;
+			notifyAll();
+			return chunk;
+		}
+
+		@Override
+		public synchronized int read() throws IOException {
+			return read(_single, 0, 1) == -1 ? -1 : _single[0] & 0xff;
+		}
+
+		@Override
+		public synchronized int available() {
+			return _length;
+		}
+
+		@Override
+		public synchronized void close() {
+			_closed = true;
+			notifyAll();
+		}
+
+		private void waitForChange() throws InterruptedIOException {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("interrupted waiting on the feed body");
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.axelby.podax;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.axelby.podax.player.AudioPlayer;
+import com.axelby.podax.player.IMediaDecoder;
+import com.axelby.podax.player.LoudnessMeter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// decodes downloaded episodes once to measure their loudness and stores the gain the player should apply
+// episodes are analyzed in parallel, and a long analysis checkpoints so it can continue after being interrupted
+public class LoudnessAnalyzer {
+	public static final String CHECKPOINT_SUFFIX = ".loudness";
+
+	// podcast loudness target and the highest the peak may be pushed, both from AES TD1004
+	private static final double TARGET_LOUDNESS = -16.0;
+	private static final double PEAK_CEILING = -1.0;
+	private static final double MAX_GAIN = 12.0;
+	// how much audio is measured between checkpoints
+	private static final int CHECKPOINT_SECONDS = 5 * 60;
+
+	private Context _context;
+
+	public LoudnessAnalyzer(Context context) {
+		_context = context;
+	}
+
+	// analyzes every downloaded queue entry that doesn't have a gain yet, returns when all are done
+	public void analyzePending() {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = _context.getContentResolver().query(PodcastProvider.QUEUE_URI, projection, "gain IS NULL", null, null);
+		if (c == null)
+			return;
+		final ArrayList<Long> ids = new ArrayList<Long>();
+		final ArrayList<String> filenames = new ArrayList<String>();
+		final ArrayList<String> formats = new ArrayList<String>();
+		while (c.moveToNext()) {
+			PodcastCursor podcast = new PodcastCursor(c);
+			if (podcast.isPlayable(_context)) {
+				ids.add(podcast.getId());
+				filenames.add(podcast.getFilename(_context));
+				formats.add(podcast.getMediaFormat(_context));
+			}
+		}
+		c.close();
+		if (ids.isEmpty())
+			return;
+
+		// leave a core for the UI and the player
+		int threads = Math.max(1, Math.min(ids.size(), Runtime.getRuntime().availableProcessors() - 1));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int i = 0; i < ids.size(); ++i) {
+			final long podcastId = ids.get(i);
+			final String filename = filenames.get(i);
+			final String format = formats.get(i);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					analyze(podcastId, filename, format);
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Log.e("Podax", "loudness analysis interrupted", e);
+		}
+	}
+
+	private void analyze(long podcastId, String filename, String format) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(filename, format);
+		if (decoder == null)
+			return;
+		try {
+			LoudnessMeter meter = new LoudnessMeter(decoder.getRate(), decoder.getNumChannels());
+			File checkpoint = new File(filename + CHECKPOINT_SUFFIX);
+			if (restoreCheckpoint(checkpoint, meter) && meter.getFramesMeasured() > 0)
+				decoder.seek((float) meter.getFramesMeasured() / decoder.getRate());
+
+			short[] buffer = new short[decoder.getRate() * decoder.getNumChannels() / 10];
+			long checkpointFrames = (long) CHECKPOINT_SECONDS * decoder.getRate();
+			long nextCheckpoint = meter.getFramesMeasured() + checkpointFrames;
+			int read;
+			while ((read = decoder.readSamples(buffer, 0, buffer.length)) > 0) {
+				if (Thread.currentThread().isInterrupted())
+					return;
+				meter.process(buffer, read);
+				if (meter.getFramesMeasured() >= nextCheckpoint) {
+					saveCheckpoint(checkpoint, meter);
+					nextCheckpoint = meter.getFramesMeasured() + checkpointFrames;
+				}
+			}
+
+			ContentValues values = new ContentValues();
+			values.put(PodcastProvider.COLUMN_GAIN, meter.getGain(TARGET_LOUDNESS, PEAK_CEILING, MAX_GAIN));
+			_context.getContentResolver().update(PodcastProvider.getContentUri(podcastId), values, null, null);
+			checkpoint.delete();
+		} finally {
+			decoder.close();
+		}
+	}
+
+	private static boolean restoreCheckpoint(File checkpoint, LoudnessMeter meter) {
+		if (!checkpoint.exists())
+			return false;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint)));
+			return meter.restore(in);
+		} catch (IOException e) {
+			Log.e("Podax", "unable to read loudness checkpoint", e);
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+
+	private static void saveCheckpoint(File checkpoint, LoudnessMeter meter) {
+		File tempFile = new File(checkpoint.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				meter.save(out);
+			} finally {
+				out.close();
+			}
+			if (!tempFile.renameTo(checkpoint))
+				Log.e("Podax", "unable to rename loudness checkpoint");
+		} catch (IOException e) {
+			Log.e("Podax", "unable to save loudness checkpoint", e);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.axelby.podax;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+// live position of the playing podcast
+// the player reports its position every second but it's only written to the database every
+// positionSaveSeconds, and when playback pauses, stops or moves to another podcast
+public class PlaybackPosition {
+	private PlaybackPosition() { }
+
+	private static final float DEFAULT_SAVE_SECONDS = 30f;
+
+	private static long _podcastId = -1;
+	private static int _position = 0;
+	private static boolean _dirty = false;
+	private static long _lastSave = 0;
+
+	// called on every player pulse, saves if it's been long enough since the last save
+	public static void update(Context context, long podcastId, int positionMs) {
+		boolean save;
+		synchronized (PlaybackPosition.class) {
+			if (podcastId != _podcastId) {
+				_podcastId = podcastId;
+				_lastSave = SystemClock.elapsedRealtime();
+			}
+			_position = positionMs;
+			_dirty = true;
+			save = SystemClock.elapsedRealtime() - _lastSave >= getSaveInterval(context);
+		}
+		if (save)
+			save(context);
+	}
+
+	// record the position and write it now
+	public static void save(Context context, long podcastId, int positionMs) {
+		synchronized (PlaybackPosition.class) {
+			_podcastId = podcastId;
+			_position = positionMs;
+			_dirty = true;
+		}
+		save(context);
+	}
+
+	// write the position if it changed since the last save
+	public static void save(Context context) {
+		ContentValues values = new ContentValues(2);
+		synchronized (PlaybackPosition.class) {
+			_lastSave = SystemClock.elapsedRealtime();
+			if (!_dirty || _podcastId == -1)
+				return;
+			_dirty = false;
+			values.put(PodcastProvider.COLUMN_ID, _podcastId);
+			values.put(PodcastProvider.COLUMN_LAST_POSITION, _position);
+		}
+		context.getContentResolver().update(PodcastProvider.PLAYER_UPDATE_URI, values, null, null);
+	}
+
+	// the position was set from somewhere else so the unsaved one is out of date
+	public static void discard(long podcastId) {
+		synchronized (PlaybackPosition.class) {
+			if (podcastId != _podcastId)
+				return;
+			_podcastId = -1;
+			_dirty = false;
+		}
+	}
+
+	// live position of the podcast, or savedPosition if the player isn't playing it
+	public static int get(long podcastId, int savedPosition) {
+		synchronized (PlaybackPosition.class) {
+			if (podcastId != _podcastId)
+				return savedPosition;
+			return _position;
+		}
+	}
+
+	private static long getSaveInterval(Context context) {
+		float seconds = PreferenceManager.getDefaultSharedPreferences(context).getFloat("positionSaveSeconds", DEFAULT_SAVE_SECONDS);
+		return (long) (seconds * 1000);
+	}
+}
@@ -10,16 +10,24 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.database.ContentObserver;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
+import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
+import android.util.Log;
 
 import com.axelby.podax.PlayerStatus.PlayerStates;
+import com.axelby.podax.player.PlayerMetrics;
+import com.axelby.podax.player.ProgressiveSource;
 import com.axelby.podax.ui.MainActivity;
 
+import java.io.File;
+import java.io.IOException;
+
 // this class handles connects the app to the player
 // it handles events on two sides - app and player
 // app events are handled in onStartCommand and are send to the player
@@ -56,10 +64,12 @@ public class PlayerService extends Service {
 
 	// static functions for easier controls
 	public static void play(Context context) {
+		PlayerMetrics.playRequested();
 		PlayerService.sendCommand(context, Constants.PLAYER_COMMAND_PLAY);
 	}
 
 	public static void play(Context context, long podcastId) {
+		PlayerMetrics.playRequested();
 		QueueManager.changeActivePodcast(context, podcastId);
 		PlayerService.sendCommand(context, Constants.PLAYER_COMMAND_PLAY);
 	}
@@ -101,9 +111,20 @@ public class PlayerService extends Service {
 
 	@Override
 	public void onDestroy() {
+		PlaybackPosition.save(this);
 		unregisterReceiver(_stopReceiver);
 	}
 
+	@Override
+	public void onTaskRemoved(Intent rootIntent) {
+		PlaybackPosition.save(this);
+	}
+
+	@Override
+	public void onLowMemory() {
+		PlaybackPosition.save(this);
+	}
+
 	private class PodcastEventHandler implements PodcastPlayer.OnCompletionListener,
 			PodcastPlayer.OnPauseListener,
 			PodcastPlayer.OnPlayListener,
@@ -129,7 +150,7 @@ public class PlayerService extends Service {
 
 		@Override
 		public void onPause(float positionInSeconds) {
-			updateActivePodcastPosition(positionInSeconds);
+			saveActivePodcastPosition(positionInSeconds);
 			PlayerStatus.updateState(PlayerService.this, PlayerStatus.PlayerStates.PAUSED);
 			_lockscreenManager.setLockscreenPaused(positionInSeconds);
 			showNotification();
@@ -137,16 +158,26 @@ public class PlayerService extends Service {
 
 		@Override
 		public void onStop(float positionInSeconds) {
-			updateActivePodcastPosition(positionInSeconds);
+			saveActivePodcastPosition(positionInSeconds);
 			_lockscreenManager.removeLockscreenControls(positionInSeconds);
 			removeNotification();
 			getContentResolver().unregisterContentObserver(_podcastChangeObserver);
 			PlayerStatus.updateState(PlayerService.this, PlayerStatus.PlayerStates.STOPPED);
+			// next to podax.log so it can be pulled off test devices
+			if (PodaxLog.isDebuggable(PlayerService.this)) {
+				try {
+					PlayerMetrics.dump(new File(getExternalFilesDir(null), "player_metrics.txt"));
+				} catch (IOException e) {
+					Log.e("Podax", "unable to write player metrics", e);
+				}
+			}
 			stopSelf();
 		}
 
 		@Override
 		public void onCompletion() {
+			// count the listening time since the last save
+			PlaybackPosition.save(PlayerService.this);
 			QueueManager.moveToNextInQueue(PlayerService.this);
 		}
 
@@ -162,9 +193,10 @@ public class PlayerService extends Service {
 			showNotification();
 		}
 
+		// called every second while playing
 		@Override
 		public void onSeek(float positionInSeconds) {
-			updateActivePodcastPosition(positionInSeconds);
+			PlaybackPosition.update(PlayerService.this, _currentPodcastId, (int)(positionInSeconds * 1000));
 		}
 	}
 	private PodcastEventHandler _podcastEventHandler = new PodcastEventHandler();
@@ -235,11 +267,44 @@ public class PlayerService extends Service {
 		}
 
 		if (status.getPodcastId() != _currentPodcastId) {
-			_player.changePodcast(status.getFilename(), status.getPosition() / 1000.0f);
+			PlaybackPosition.save(this);
+			if (!status.isDownloaded())
+				startStreaming(status);
+			_player.changePodcast(status.getFilename(), status.getPosition() / 1000.0f, status.getGain());
 		} else
 			_player.seekTo(status.getPosition() / 1000.0f);
 	}
 
+	// whether an episode that isn't downloaded yet can be played while it downloads
+	public static boolean canStream(Context context) {
+		return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("streamWhileDownloading", true)
+				&& Helper.ensureWifi(context);
+	}
+
+	// plays the episode while it downloads instead of waiting on the download manager
+	private void startStreaming(PlayerStatus status) {
+		if (status.getMediaUrl() == null || !canStream(this))
+			return;
+
+		final long podcastId = status.getPodcastId();
+		PodcastDownloader.cancel(this, podcastId);
+		Integer fileSize = status.getFileSize();
+		final Context context = getApplicationContext();
+		ProgressiveSource.start(status.getMediaUrl(), status.getFilename(), fileSize == null ? 0 : fileSize,
+				new ProgressiveSource.OnCompleteListener() {
+					@Override
+					public void onComplete(String filename, long length) {
+						Cursor c = context.getContentResolver().query(PodcastProvider.getContentUri(podcastId), null, null, null, null);
+						if (c == null)
+							return;
+						if (c.moveToNext())
+							DownloadCompletedReceiver.downloadCompleted(context, new PodcastCursor(c), length);
+						c.close();
+						context.getContentResolver().notifyChange(PodcastProvider.ACTIVE_PODCAST_URI, null);
+					}
+				});
+	}
+
 	private void showNotification() {
 		PlayerStatus playerStatus = PlayerStatus.getCurrentState(this);
 
@@ -293,9 +358,7 @@ public class PlayerService extends Service {
 		getContentResolver().update(PodcastProvider.ACTIVE_PODCAST_URI, values, null, null);
 	}
 
-	private void updateActivePodcastPosition(float positionInSeconds) {
-		ContentValues values = new ContentValues();
-		values.put(PodcastProvider.COLUMN_LAST_POSITION, (int)(positionInSeconds * 1000));
-		getContentResolver().update(PodcastProvider.PLAYER_UPDATE_URI, values, null, null);
+	private void saveActivePodcastPosition(float positionInSeconds) {
+		PlaybackPosition.save(this, _currentPodcastId, (int)(positionInSeconds * 1000));
 	}
 }
@@ -15,6 +15,8 @@ public class PlayerStatus {
 				PodcastProvider.COLUMN_LAST_POSITION,
 				PodcastProvider.COLUMN_DURATION,
 				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_GAIN,
 		};
 		Cursor cursor = context.getContentResolver().query(PodcastProvider.ACTIVE_PODCAST_URI, projection, null, null, null);
 		PlayerStatus status = new PlayerStatus();
@@ -30,9 +32,14 @@ public class PlayerStatus {
 			status._subscriptionId = podcast.getSubscriptionId();
 			status._title = podcast.getTitle();
 			status._subscriptionTitle = podcast.getSubscriptionTitle();
-			status._position = podcast.getLastPosition();
+			status._position = PlaybackPosition.get(podcast.getId(), podcast.getLastPosition());
 			status._duration = podcast.getDuration();
 			status._filename = podcast.getFilename(context);
+			status._mediaUrl = podcast.getMediaUrl();
+			status._fileSize = podcast.getFileSize();
+			status._downloaded = podcast.isDownloaded(context);
+			Float gain = podcast.getGain();
+			status._gain = gain == null ? 0f : gain;
 		}
 		cursor.close();
 		return status;
@@ -83,6 +90,10 @@ public class PlayerStatus {
 	private String _title;
 	private String _subscriptionTitle;
 	private String _filename;
+	private String _mediaUrl;
+	private Integer _fileSize;
+	private boolean _downloaded;
+	private float _gain;
 
 	private PlayerStatus() {
 		_state = PlayerStates.QUEUEEMPTY;
@@ -119,6 +130,15 @@ public class PlayerStatus {
 
 	public String getFilename() { return _filename; }
 
+	public String getMediaUrl() { return _mediaUrl; }
+
+	// size from the feed until the download finishes, null if the feed didn't say
+	public Integer getFileSize() { return _fileSize; }
+
+	public boolean isDownloaded() { return _downloaded; }
+
+	public float getGain() { return _gain; }
+
 	public boolean hasActivePodcast() {
 		return getState() != PlayerStates.QUEUEEMPTY;
 	}
@@ -7,12 +7,18 @@ import android.database.Cursor;
 import android.net.Uri;
 
 import com.axelby.podax.player.AudioPlayer;
+import com.axelby.podax.player.DecoderRegistry;
+import com.axelby.podax.player.DurationProbe;
 import com.axelby.podax.player.IMediaDecoder;
+import com.axelby.podax.player.TagScanner;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
 
 public class PodcastCursor {
+	// saved when neither the headers nor a decoder could tell how long the file is
+	public static final int UNKNOWN_DURATION = -1;
 
 	private Cursor _cursor;
 
@@ -32,6 +38,9 @@ public class PodcastCursor {
 	private Integer _downloadIdColumn = null;
 	private Integer _gpodderUpdateTimestampColumn = null;
 	private Integer _paymentColumn = null;
+	private Integer _gainColumn = null;
+	private Integer _mediaFormatColumn = null;
+	private Integer _chapterCountColumn = null;
 
 	public PodcastCursor(Cursor cursor) {
 		_cursor = cursor;
@@ -132,7 +141,8 @@ public class PodcastCursor {
 			_durationColumn = _cursor.getColumnIndexOrThrow(PodcastProvider.COLUMN_DURATION);
 		if (_cursor.isNull(_durationColumn))
 			return null;
-		return _cursor.getInt(_durationColumn);
+		// callers treat 0 as not known
+		return Math.max(0, _cursor.getInt(_durationColumn));
 	}
 
 	public Date getPubDate() {
@@ -143,6 +153,44 @@ public class PodcastCursor {
 		return new Date(_cursor.getLong(_durationColumn) * 1000);
 	}
 
+	public Float getGain() {
+		if (_gainColumn == null)
+			_gainColumn = _cursor.getColumnIndexOrThrow(PodcastProvider.COLUMN_GAIN);
+		if (_cursor.isNull(_gainColumn))
+			return null;
+		return _cursor.getFloat(_gainColumn);
+	}
+
+	public String getMediaFormat() {
+		if (_mediaFormatColumn == null)
+			_mediaFormatColumn = _cursor.getColumnIndexOrThrow(PodcastProvider.COLUMN_MEDIA_FORMAT);
+		if (_cursor.isNull(_mediaFormatColumn))
+			return null;
+		return _cursor.getString(_mediaFormatColumn);
+	}
+
+	// the saved format, or sniffed from the file and saved if it hasn't been yet
+	public String getMediaFormat(Context context) {
+		String format = getMediaFormat();
+		if (format == null)
+			format = determineMediaFormat(context);
+		return format;
+	}
+
+	// null until the downloaded file's tags are scanned
+	public Integer getChapterCount() {
+		if (_chapterCountColumn == null)
+			_chapterCountColumn = _cursor.getColumnIndexOrThrow(PodcastProvider.COLUMN_CHAPTER_COUNT);
+		if (_cursor.isNull(_chapterCountColumn))
+			return null;
+		return _cursor.getInt(_chapterCountColumn);
+	}
+
+	// downloaded and in a format there's a decoder for
+	public boolean isPlayable(Context context) {
+		return isDownloaded(context) && DecoderRegistry.supports(getMediaFormat(context));
+	}
+
 	public Long getDownloadId() {
 		if (_downloadIdColumn == null)
 			_downloadIdColumn = _cursor.getColumnIndexOrThrow(PodcastProvider.COLUMN_DOWNLOAD_ID);
@@ -231,16 +279,70 @@ public class PodcastCursor {
 		context.getContentResolver().update(getContentUri(), values, null, null);
 	}
 
-	public int determineDuration(Context context) {
-		IMediaDecoder decoder = AudioPlayer.loadFile(getFilename(context));
-		if (decoder == null)
-			return 0;
-		int duration = (int) (decoder.getDuration() * 1000);
-		decoder.close();
+	public String determineMediaFormat(Context context) {
+		String format = DecoderRegistry.detectFormat(getFilename(context));
+		if (format == null)
+			return null;
+
+		ContentValues values = new ContentValues();
+		values.put(PodcastProvider.COLUMN_MEDIA_FORMAT, format);
+		context.getContentResolver().update(getContentUri(), values, null, null);
+		return format;
+	}
 
+	public int determineDuration(Context context) {
+		String filename = getFilename(context);
+		int duration = (int) (DurationProbe.probe(filename) * 1000);
+		// only open a decoder when the headers don't say
+		if (duration == 0) {
+			IMediaDecoder decoder = AudioPlayer.loadFile(filename, getMediaFormat(context));
+			if (decoder != null) {
+				duration = Math.max(0, (int) (decoder.getDuration() * 1000));
+				decoder.close();
+			}
+		}
+
+		// a duration nothing could determine is saved as unknown so the backfill doesn't keep probing the file
 		ContentValues values = new ContentValues();
-		values.put(PodcastProvider.COLUMN_DURATION, duration);
+		values.put(PodcastProvider.COLUMN_DURATION, duration > 0 ? duration : UNKNOWN_DURATION);
 		context.getContentResolver().update(getContentUri(), values, null, null);
 		return duration;
 	}
-}
+
+	// replaces the chapters and artwork offsets with the ones in the downloaded file's tags
+	public int scanChapters(Context context) {
+		TagScanner.Tags tags = TagScanner.scan(getFilename(context), getMediaFormat(context));
+		// tags that can't be read count as no chapters so the file isn't scanned again on every pass
+		ArrayList<TagScanner.Chapter> chapters = tags == null ? new ArrayList<TagScanner.Chapter>() : tags.getChapters();
+		ContentValues[] rows = new ContentValues[chapters.size()];
+		for (int i = 0; i < rows.length; ++i) {
+			TagScanner.Chapter chapter = chapters.get(i);
+			ContentValues row = new ContentValues();
+			row.put(PodcastProvider.CHAPTER_COLUMN_START_TIME, chapter.getStartMs());
+			if (chapter.getEndMs() >= 0)
+				row.put(PodcastProvider.CHAPTER_COLUMN_END_TIME, chapter.getEndMs());
+			row.put(PodcastProvider.CHAPTER_COLUMN_TITLE, chapter.getTitle());
+			if (chapter.getArtworkOffset() >= 0) {
+				row.put(PodcastProvider.CHAPTER_COLUMN_ARTWORK_OFFSET, chapter.getArtworkOffset());
+				row.put(PodcastProvider.CHAPTER_COLUMN_ARTWORK_LENGTH, chapter.getArtworkLength());
+			}
+			rows[i] = row;
+		}
+		Uri chaptersUri = PodcastProvider.getChaptersUri(getId());
+		context.getContentResolver().delete(chaptersUri, null, null);
+		if (rows.length > 0)
+			context.getContentResolver().bulkInsert(chaptersUri, rows);
+
+		ContentValues values = new ContentValues();
+		values.put(PodcastProvider.COLUMN_CHAPTER_COUNT, rows.length);
+		if (tags != null && tags.getArtworkOffset() >= 0) {
+			values.put(PodcastProvider.COLUMN_ARTWORK_OFFSET, tags.getArtworkOffset());
+			values.put(PodcastProvider.COLUMN_ARTWORK_LENGTH, tags.getArtworkLength());
+		} else {
+			values.putNull(PodcastProvider.COLUMN_ARTWORK_OFFSET);
+			values.putNull(PodcastProvider.COLUMN_ARTWORK_LENGTH);
+		}
+		context.getContentResolver().update(getContentUri(), values, null, null);
+		return rows.length;
+	}
+}
\ No newline at end of file
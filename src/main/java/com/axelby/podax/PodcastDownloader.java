@@ -9,6 +9,8 @@ import android.os.Environment;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.axelby.podax.player.ProgressiveSource;
+
 import java.io.File;
 
 class PodcastDownloader {
@@ -35,6 +37,9 @@ class PodcastDownloader {
 			PodcastCursor podcast = new PodcastCursor(cursor);
 			if (podcast.isDownloaded(_context))
 				return;
+			// the player is already downloading it
+			if (ProgressiveSource.get(podcast.getFilename(_context)) != null)
+				return;
 
 			if (new File(podcast.getOldFilename(_context)).exists()) {
 				if (!new File(podcast.getOldFilename(_context)).renameTo(new File(podcast.getFilename(_context))))
@@ -89,4 +94,26 @@ class PodcastDownloader {
 				cursor.close();
 		}
 	}
+
+	// stops a queued download so it doesn't write over a streamed copy
+	public static void cancel(Context context, long podcastId) {
+		Cursor cursor = context.getContentResolver().query(PodcastProvider.getContentUri(podcastId),
+				new String[]{PodcastProvider.COLUMN_ID, PodcastProvider.COLUMN_DOWNLOAD_ID}, null, null, null);
+		if (cursor == null)
+			return;
+		try {
+			if (!cursor.moveToNext())
+				return;
+			Long downloadId = new PodcastCursor(cursor).getDownloadId();
+			if (downloadId == null)
+				return;
+			DownloadManager downloadManager = (DownloadManager) context.getSystemService(Context.DOWNLOAD_SERVICE);
+			downloadManager.remove(downloadId);
+			ContentValues values = new ContentValues();
+			values.putNull(PodcastProvider.COLUMN_DOWNLOAD_ID);
+			context.getContentResolver().update(PodcastProvider.getContentUri(podcastId), values, null, null);
+		} finally {
+			cursor.close();
+		}
+	}
 }
\ No newline at end of file
@@ -2,16 +2,20 @@ package com.axelby.podax;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.media.AudioManager;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.axelby.podax.player.AudioPlayer;
+import com.axelby.podax.player.SkipSilenceProcessor;
 
 import java.util.ArrayList;
 
 public class PodcastPlayer {
+    // start decoding the next queued episode when this close to the end of the current one
+    private static final float PREPARE_NEXT_SECONDS = 15f;
 
     // listen for audio focus changes - another app started/stopped, phone call, etc
     private final AudioManager.OnAudioFocusChangeListener _afChangeListener = new AudioManager.OnAudioFocusChangeListener() {
@@ -27,6 +31,15 @@ public class PodcastPlayer {
         }
     };
 
+    // speed changes in the settings apply to the episode that's already playing
+    private final SharedPreferences.OnSharedPreferenceChangeListener _prefChangeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (_player != null && key.equals("playbackRate"))
+                _player.setPlaybackRate(prefs.getFloat("playbackRate", 1.0f));
+        }
+    };
+
     protected Context _context;
     private ArrayList<Boolean> _pausingFor = new ArrayList<Boolean>(2);
 
@@ -39,14 +52,25 @@ public class PodcastPlayer {
 
     private Thread _playerThread = null;
     private AudioPlayer _player = null;
+    private boolean _nextPrepared = false;
 
     public PodcastPlayer(Context context) {
         _context = context;
         _pausingFor.add(false);
         _pausingFor.add(false);
+        PreferenceManager.getDefaultSharedPreferences(context).registerOnSharedPreferenceChangeListener(_prefChangeListener);
     }
 
-    public boolean changePodcast(String filename, float positionInSeconds) {
+    public boolean changePodcast(String filename, float positionInSeconds, float gain) {
+        // the player already moved on to this episode without a gap
+        if (_player != null && filename.equals(_player.getFilename())) {
+            _nextPrepared = false;
+            if (_onChangeListener != null)
+                _onChangeListener.onChange();
+            return true;
+        }
+
+        _nextPrepared = false;
         if (_player != null) {
             _player.stop();
             _player = null;
@@ -63,11 +87,16 @@ public class PodcastPlayer {
         try {
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(_context);
             float playbackRate = prefs.getFloat("playbackRate", 1.0f);
+            String stretchEngine = prefs.getString("timeStretchEngine", AudioPlayer.STRETCH_ENGINE_STREAMING);
             if (!AudioPlayer.supports(filename)) {
-                Toast.makeText(_context, "This podcast is not an MP3 or Ogg Vorbis file and cannot be played.", Toast.LENGTH_LONG).show();
+                Toast.makeText(_context, "This podcast is not in a format Podax can play.", Toast.LENGTH_LONG).show();
                 return false;
             }
-            _player = new AudioPlayer(filename, positionInSeconds, playbackRate);
+            _player = new AudioPlayer(filename, positionInSeconds, playbackRate, stretchEngine);
+            _player.setReadAhead(prefs.getFloat("readAheadSeconds", 2f));
+            _player.setGain(gain);
+            if (prefs.getBoolean("skipSilence", false))
+                _player.addProcessor(new SkipSilenceProcessor());
             _playerThread = new Thread(_player, "AudioPlayer");
 
             _player.setOnCompletionListener(new AudioPlayer.OnCompletionListener() {
@@ -80,6 +109,8 @@ public class PodcastPlayer {
             _player.setPeriodicListener(new AudioPlayer.PeriodicListener() {
                 @Override
                 public void pulse(float position) {
+                    if (!_nextPrepared && _player.getDuration() - position < PREPARE_NEXT_SECONDS)
+                        prepareNext();
                     if (_onSeekListener != null)
                         _onSeekListener.onSeek(position);
                 }
@@ -117,6 +148,8 @@ public class PodcastPlayer {
 
     // change position of podcast
     public void seekTo(float offsetInSeconds) {
+        // seeking drops an episode that was already lined up
+        _nextPrepared = false;
         _player.seekTo(offsetInSeconds);
     }
 
@@ -202,6 +235,36 @@ public class PodcastPlayer {
             _onPauseListener.onPause(_player.getPosition());
     }
 
+    // give the player the episode the queue moves on to
+    private void prepareNext() {
+        _nextPrepared = true;
+        String current = _player.getFilename();
+        String[] projection = new String[] {
+                PodcastProvider.COLUMN_ID,
+                PodcastProvider.COLUMN_MEDIA_URL,
+                PodcastProvider.COLUMN_FILE_SIZE,
+                PodcastProvider.COLUMN_LAST_POSITION,
+                PodcastProvider.COLUMN_GAIN,
+                PodcastProvider.COLUMN_MEDIA_FORMAT,
+        };
+        Cursor c = _context.getContentResolver().query(PodcastProvider.QUEUE_URI, projection, null, null, null);
+        if (c == null)
+            return;
+        try {
+            // the same pick the queue makes once the current episode completes
+            // if it can't be played there's nothing to line up, the player stops and the service deals with it
+            if (!PodcastProvider.moveToFirstDownloaded(_context, c, current))
+                return;
+            PodcastCursor podcast = new PodcastCursor(c);
+            if (!podcast.isPlayable(_context))
+                return;
+            float gain = podcast.getGain() == null ? 0f : podcast.getGain();
+            _player.prepareNext(podcast.getFilename(_context), podcast.getLastPosition() / 1000.0f, gain);
+        } finally {
+            c.close();
+        }
+    }
+
     private void internalStop() {
         if (_player == null)
             return;
@@ -1,24 +1,34 @@
 package com.axelby.podax;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.util.Log;
+
+import com.axelby.podax.player.ProgressiveSource;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 public class PodcastProvider extends ContentProvider {
@@ -26,6 +36,7 @@ public class PodcastProvider extends ContentProvider {
 	public static Uri URI = Uri.parse("content://" + AUTHORITY + "/podcasts");
 	public static final String ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd.axelby.podcast";
 	public static final String DIR_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.axelby.podcast";
+	public static final String CHAPTER_DIR_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd.axelby.chapter";
 	public static final Uri QUEUE_URI = Uri.withAppendedPath(PodcastProvider.URI, "queue");
 	public static final Uri SEARCH_URI = Uri.withAppendedPath(PodcastProvider.URI, "search");
 	public static final Uri EXPIRED_URI = Uri.withAppendedPath(PodcastProvider.URI, "expired");
@@ -42,6 +53,7 @@ public class PodcastProvider extends ContentProvider {
 	private final static int PODCASTS_EXPIRED = 7;
 	private final static int PODCAST_PLAYER_UPDATE = 8;
 	private final static int PODCASTS_NEED_GPODDER_UPDATE = 9;
+	private final static int PODCAST_CHAPTERS = 10;
 
 	public static final String COLUMN_ID = "_id";
 	public static final String COLUMN_TITLE = "title";
@@ -60,6 +72,22 @@ public class PodcastProvider extends ContentProvider {
 	public static final String COLUMN_NEEDS_GPODDER_UPDATE = "needsGpodderUpdate";
 	public static final String COLUMN_GPODDER_UPDATE_TIMESTAMP = "gpodderUpdateTimestamp";
 	public static final String COLUMN_PAYMENT = "payment";
+	public static final String COLUMN_GAIN = "gain";
+	public static final String COLUMN_MEDIA_FORMAT = "mediaFormat";
+	public static final String COLUMN_CHAPTER_COUNT = "chapterCount";
+	public static final String COLUMN_ARTWORK_OFFSET = "artworkOffset";
+	public static final String COLUMN_ARTWORK_LENGTH = "artworkLength";
+
+	// columns of getChaptersUri
+	public static final String CHAPTER_COLUMN_ID = "_id";
+	public static final String CHAPTER_COLUMN_START_TIME = "startTime";
+	public static final String CHAPTER_COLUMN_END_TIME = "endTime";
+	public static final String CHAPTER_COLUMN_TITLE = "title";
+	public static final String CHAPTER_COLUMN_ARTWORK_OFFSET = "artworkOffset";
+	public static final String CHAPTER_COLUMN_ARTWORK_LENGTH = "artworkLength";
+
+	// going back this far into a chapter restarts it instead of going to the one before
+	private static final int CHAPTER_RESTART_MS = 3000;
 
 	static final String PREF_ACTIVE = "active";
 
@@ -77,6 +105,7 @@ public class PodcastProvider extends ContentProvider {
 		uriMatcher.addURI(AUTHORITY, "active", PODCAST_ACTIVE);
 		uriMatcher.addURI(AUTHORITY, "player_update", PODCAST_PLAYER_UPDATE);
 		uriMatcher.addURI(AUTHORITY, "podcasts/need_gpodder_update", PODCASTS_NEED_GPODDER_UPDATE);
+		uriMatcher.addURI(AUTHORITY, "podcasts/#/chapters", PODCAST_CHAPTERS);
 
 		_columnMap = new HashMap<String, String>();
 		_columnMap.put(COLUMN_ID, "podcasts._id AS _id");
@@ -96,13 +125,25 @@ public class PodcastProvider extends ContentProvider {
 		_columnMap.put(COLUMN_NEEDS_GPODDER_UPDATE, "needsGpodderUpdate");
 		_columnMap.put(COLUMN_GPODDER_UPDATE_TIMESTAMP, "gpodderUpdateTimestamp");
 		_columnMap.put(COLUMN_PAYMENT, "payment");
+		_columnMap.put(COLUMN_GAIN, "gain");
+		_columnMap.put(COLUMN_MEDIA_FORMAT, "mediaFormat");
+		_columnMap.put(COLUMN_CHAPTER_COUNT, "chapterCount");
+		_columnMap.put(COLUMN_ARTWORK_OFFSET, "artworkOffset");
+		_columnMap.put(COLUMN_ARTWORK_LENGTH, "artworkLength");
 	}
 
 	public static Uri getContentUri(long id) {
 		return ContentUris.withAppendedId(URI, id);
 	}
 
+	// the podcast's chapters in order
+	public static Uri getChaptersUri(long id) {
+		return Uri.withAppendedPath(getContentUri(id), "chapters");
+	}
+
 	DBAdapter _dbAdapter;
+	// uris changed by the batch running on this thread, notified once it commits
+	private final ThreadLocal<LinkedHashSet<Uri>> _batchChanges = new ThreadLocal<LinkedHashSet<Uri>>();
 
 	@Override
 	public boolean onCreate() {
@@ -120,6 +161,8 @@ public class PodcastProvider extends ContentProvider {
 			case PODCAST_ID:
 			case PODCAST_ACTIVE:
 				return ITEM_TYPE;
+			case PODCAST_CHAPTERS:
+				return CHAPTER_DIR_TYPE;
 			default:
 				throw new IllegalArgumentException("Unknown URI");
 		}
@@ -127,6 +170,9 @@ public class PodcastProvider extends ContentProvider {
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		if (uriMatcher.match(uri) == PODCAST_CHAPTERS)
+			return queryChapters(uri, projection, selection, selectionArgs, sortOrder);
+
 		SQLiteQueryBuilder sqlBuilder = new SQLiteQueryBuilder();
 		sqlBuilder.setProjectionMap(_columnMap);
 		if (projection != null) {
@@ -202,6 +248,18 @@ public class PodcastProvider extends ContentProvider {
 		return c;
 	}
 
+	private Cursor queryChapters(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		SQLiteQueryBuilder sqlBuilder = new SQLiteQueryBuilder();
+		sqlBuilder.setTables("chapters");
+		sqlBuilder.appendWhere("podcastId = " + uri.getPathSegments().get(1));
+		if (sortOrder == null)
+			sortOrder = CHAPTER_COLUMN_START_TIME;
+		Cursor c = sqlBuilder.query(_dbAdapter.getReadableDatabase(), projection, selection, selectionArgs, null, null, sortOrder);
+		if (c != null)
+			c.setNotificationUri(getContext().getContentResolver(), uri);
+		return c;
+	}
+
 	private long getFirstDownloadedId() {
 		String[] projection = {
 				PodcastProvider.COLUMN_ID,
@@ -211,19 +269,25 @@ public class PodcastProvider extends ContentProvider {
 		Cursor c = query(QUEUE_URI, projection, null, null, null);
 		long podcastId = -1;
 		try {
-			while (c.moveToNext()) {
-				PodcastCursor podcast = new PodcastCursor(c);
-				if (podcast.isDownloaded(getContext())) {
-					podcastId = podcast.getId();
-					break;
-				}
-			}
+			if (moveToFirstDownloaded(getContext(), c, null))
+				podcastId = new PodcastCursor(c).getId();
 		} finally {
 			c.close();
 		}
 		return podcastId;
 	}
 
+	// moves a queue cursor to the episode the queue goes on to when the active one is finished
+	// skips the finished episode, which is on its way out of the queue
+	static boolean moveToFirstDownloaded(Context context, Cursor queue, String finishedFilename) {
+		while (queue.moveToNext()) {
+			PodcastCursor podcast = new PodcastCursor(queue);
+			if (podcast.isDownloaded(context) && !podcast.getFilename(context).equals(finishedFilename))
+				return true;
+		}
+		return false;
+	}
+
 	private String getNeedsDownloadIds() {
 		SQLiteDatabase db = _dbAdapter.getReadableDatabase();
 		SQLiteQueryBuilder queueBuilder = new SQLiteQueryBuilder();
@@ -262,7 +326,7 @@ public class PodcastProvider extends ContentProvider {
 		if (uriMatch == PODCASTS) {
 			int count = db.update("podcasts", values, where, whereArgs);
 			// only main uri is notified
-			getContext().getContentResolver().notifyChange(URI, null);
+			notifyChange(URI);
 			return count;
 		}
 
@@ -276,6 +340,12 @@ public class PodcastProvider extends ContentProvider {
 		if (uriMatch == PODCAST_PLAYER_UPDATE) {
 			if (activePodcastId == -1)
 				return 0;
+			// a late save for a podcast that is no longer active
+			if (values.containsKey(COLUMN_ID)) {
+				if (values.getAsLong(COLUMN_ID) != activePodcastId.longValue())
+					return 0;
+				values.remove(COLUMN_ID);
+			}
 
 			// saved the watched time to the stats
 			Cursor lastPositionCursor = db.rawQuery("SELECT " + COLUMN_LAST_POSITION + " FROM podcasts WHERE _id = ?", new String[] { String.valueOf(activePodcastId) });
@@ -285,8 +355,8 @@ public class PodcastProvider extends ContentProvider {
 			lastPositionCursor.close();
 
 			db.update("podcasts", values, "_id = ?", new String[] { String.valueOf(activePodcastId) });
-			getContext().getContentResolver().notifyChange(ACTIVE_PODCAST_URI, null);
-			getContext().getContentResolver().notifyChange(ContentUris.withAppendedId(URI, activePodcastId), null);
+			notifyChange(ACTIVE_PODCAST_URI);
+			notifyChange(ContentUris.withAppendedId(URI, activePodcastId));
 			ActivePodcastReceiver.notifyExternal(getContext());
 			return 1;
 		}
@@ -297,7 +367,13 @@ public class PodcastProvider extends ContentProvider {
 				break;
 			case PODCAST_ACTIVE:
 				if (values.containsKey(COLUMN_ID)) {
-					activePodcastId = values.getAsLong(COLUMN_ID);
+					// write the outgoing podcast's unsaved position while it's still active
+					// once the active id changes, the player update would be dropped as a late save
+					Long newActivePodcastId = values.getAsLong(COLUMN_ID);
+					if (newActivePodcastId == null || newActivePodcastId.longValue() != activePodcastId.longValue())
+						PlaybackPosition.save(getContext());
+
+					activePodcastId = newActivePodcastId;
 					Editor editor = prefs.edit();
 					if (activePodcastId != null)
 						editor.putLong(PREF_ACTIVE, values.getAsLong(COLUMN_ID));
@@ -307,7 +383,7 @@ public class PodcastProvider extends ContentProvider {
 
 					// if we're clearing the active podcast or updating just the ID, don't go to the DB
 					if (activePodcastId == null || values.size() == 1) {
-						getContext().getContentResolver().notifyChange(ACTIVE_PODCAST_URI, null);
+						notifyChange(ACTIVE_PODCAST_URI);
 						return 0;
 					}
 				}
@@ -354,26 +430,34 @@ public class PodcastProvider extends ContentProvider {
 				activePodcastId = podcastId;
 		}
 
+		// the player's unsaved position is older than this one
+		if (values.containsKey(COLUMN_LAST_POSITION))
+			PlaybackPosition.discard(podcastId);
+
 		int count = 0;
 		if (values.size() > 0)
 			count += db.update("podcasts", values, where, whereArgs);
-		getContext().getContentResolver().notifyChange(ContentUris.withAppendedId(URI, podcastId), null);
+		notifyChange(ContentUris.withAppendedId(URI, podcastId));
 		if (values.containsKey(COLUMN_FILE_SIZE))
-			getContext().getContentResolver().notifyChange(Uri.withAppendedPath(URI, "to_download"), null);
+			notifyChange(Uri.withAppendedPath(URI, "to_download"));
 		if (podcastId == activePodcastId) {
-			getContext().getContentResolver().notifyChange(ACTIVE_PODCAST_URI, null);
+			notifyChange(ACTIVE_PODCAST_URI);
 			ActivePodcastReceiver.notifyExternal(getContext());
 		}
 		// if the current podcast has updated the position but it's not from the player, tell the player to update
 		if (podcastId == activePodcastId && values.containsKey(COLUMN_LAST_POSITION))
-			getContext().getContentResolver().notifyChange(PLAYER_UPDATE_URI, null);
+			notifyChange(PLAYER_UPDATE_URI);
 
 		return count;
 	}
 
 	public void updateQueuePosition(long podcastId, Integer newPosition) {
-		SQLiteDatabase db = _dbAdapter.getWritableDatabase();
+		if (moveInQueue(_dbAdapter.getWritableDatabase(), podcastId, newPosition))
+			notifyChange(QUEUE_URI);
+	}
 
+	// returns whether the queue changed, notifying about it is left to the caller
+	private boolean moveInQueue(SQLiteDatabase db, long podcastId, Integer newPosition) {
 		// get the old position
 		Cursor c = db.query("podcasts", new String[]{"queuePosition"},
 				"_id = ?", new String[]{String.valueOf(podcastId)}, null, null, null);
@@ -385,7 +469,7 @@ public class PodcastProvider extends ContentProvider {
 
 		// no need to remove from queue if it's not in queue
 		if (oldPosition == null && newPosition == null)
-			return;
+			return false;
 
 		if (oldPosition == null && newPosition != null) {
 			// new at 3: 1 2 3 4 5 do: 3++ 4++ 5++
@@ -430,65 +514,196 @@ public class PodcastProvider extends ContentProvider {
 		// update specified podcast
 		db.execSQL("UPDATE podcasts SET queuePosition = ? WHERE _id = ?",
 				new Object[]{newPosition, podcastId});
-		getContext().getContentResolver().notifyChange(QUEUE_URI, null);
+		return true;
 	}
 
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
 		SQLiteDatabase db = _dbAdapter.getWritableDatabase();
 
+		if (uriMatcher.match(uri) == PODCAST_CHAPTERS) {
+			values.put("podcastId", Long.valueOf(uri.getPathSegments().get(1)));
+			long chapterId = db.insert("chapters", null, values);
+			notifyChange(uri);
+			return ContentUris.withAppendedId(uri, chapterId);
+		}
+
 		if (!(uriMatcher.match(uri) == PODCASTS))
 			throw new IllegalArgumentException("Illegal URI for insert");
-		if (values.get(COLUMN_MEDIA_URL) == null)
-			throw new IllegalArgumentException("mediaUrl is required field for podcast");
-
-		Cursor mediaUrlCursor = db.rawQuery(
-				"SELECT _id FROM podcasts WHERE mediaUrl = ?",
-				new String[]{values.getAsString(COLUMN_MEDIA_URL)});
-		Long podcastId = null;
-		if (mediaUrlCursor.moveToNext())
-			podcastId = mediaUrlCursor.getLong(0);
-		mediaUrlCursor.close();
-
-		if (podcastId != null) {
-			if (values.containsKey(COLUMN_MEDIA_URL) && values.containsKey(COLUMN_FILE_SIZE)) {
-				String file = PodcastCursor.getStoragePath(getContext()) +
-						String.valueOf(podcastId) + "." +
-						PodcastCursor.getExtension(values.getAsString(COLUMN_MEDIA_URL));
-				// possible bug: file size shrinks for some reason -- don't use new one
-				if (new File(file).length() > values.getAsInteger(COLUMN_FILE_SIZE))
-					values.remove(COLUMN_FILE_SIZE);
+
+		PodcastUpserter upserter = new PodcastUpserter(db);
+		long podcastId;
+		try {
+			podcastId = upserter.upsert(values);
+		} finally {
+			upserter.close();
+		}
+
+		notifyChange(uri);
+		if (upserter.queueChanged)
+			notifyChange(QUEUE_URI);
+		return PodcastProvider.getContentUri(podcastId);
+	}
+
+	// all of the rows go in one transaction with one change notification at the end
+	// podcasts without a mediaUrl are skipped instead of failing the rest
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		int uriMatch = uriMatcher.match(uri);
+		if (uriMatch != PODCASTS && uriMatch != PODCAST_CHAPTERS)
+			throw new IllegalArgumentException("Illegal URI for insert");
+
+		SQLiteDatabase db = _dbAdapter.getWritableDatabase();
+		int count = 0;
+		boolean queueChanged = false;
+		db.beginTransaction();
+		try {
+			if (uriMatch == PODCAST_CHAPTERS) {
+				Long podcastId = Long.valueOf(uri.getPathSegments().get(1));
+				for (ContentValues chapter : values) {
+					chapter.put("podcastId", podcastId);
+					if (db.insert("chapters", null, chapter) != -1)
+						++count;
+				}
+			} else {
+				PodcastUpserter upserter = new PodcastUpserter(db);
+				try {
+					for (ContentValues podcast : values) {
+						try {
+							upserter.upsert(podcast);
+							++count;
+						} catch (IllegalArgumentException e) {
+							Log.w("Podax", "skipping podcast in bulk insert: " + e.getMessage());
+						}
+					}
+				} finally {
+					upserter.close();
+				}
+				queueChanged = upserter.queueChanged;
 			}
-			db.update("podcasts", values, COLUMN_ID + " = ?", new String[]{String.valueOf(podcastId)});
-		} else {
-			podcastId = db.insert("podcasts", null, values);
-
-			// find out if we should download new podcasts
-			Cursor queueNewCursor = db.query("subscriptions",
-					new String[]{SubscriptionProvider.COLUMN_QUEUE_NEW},
-					"_id = ?",
-					new String[]{String.valueOf(values.getAsLong(COLUMN_SUBSCRIPTION_ID))},
-					null, null, null);
-			queueNewCursor.moveToFirst();
-			boolean queueNew = queueNewCursor.getInt(0) != 0;
-			queueNewCursor.close();
-
-			// if the new podcast is less than 5 days old , and add it to the queue
-			if (queueNew && values.containsKey(COLUMN_PUB_DATE)) {
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		notifyChange(uri);
+		if (queueChanged)
+			notifyChange(QUEUE_URI);
+		return count;
+	}
+
+	// the operations are applied in one transaction, all or nothing
+	// each uri they change is notified once after it commits instead of once per operation
+	@Override
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+		SQLiteDatabase db = _dbAdapter.getWritableDatabase();
+		LinkedHashSet<Uri> changed = new LinkedHashSet<Uri>();
+		_batchChanges.set(changed);
+		ContentProviderResult[] results;
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			_batchChanges.remove();
+		}
+		for (Uri uri : changed)
+			notifyChange(uri);
+		return results;
+	}
+
+	// held back until the end of a batch when one is running on this thread
+	private void notifyChange(Uri uri) {
+		LinkedHashSet<Uri> batch = _batchChanges.get();
+		if (batch != null)
+			batch.add(uri);
+		else
+			getContext().getContentResolver().notifyChange(uri, null);
+	}
+
+	// inserts podcasts or updates the ones with the same mediaUrl
+	// keeps the mediaUrl lookup compiled and each subscription's queueNew setting for as long as it's open
+	private class PodcastUpserter {
+		private final SQLiteDatabase _db;
+		private final SQLiteStatement _findByMediaUrl;
+		private final HashMap<Long, Boolean> _queueNew = new HashMap<Long, Boolean>();
+		boolean queueChanged = false;
+
+		PodcastUpserter(SQLiteDatabase db) {
+			_db = db;
+			_findByMediaUrl = db.compileStatement("SELECT _id FROM podcasts WHERE mediaUrl = ?");
+		}
+
+		long upsert(ContentValues values) {
+			String mediaUrl = values.getAsString(COLUMN_MEDIA_URL);
+			if (mediaUrl == null)
+				throw new IllegalArgumentException("mediaUrl is required field for podcast");
+
+			Long podcastId = null;
+			_findByMediaUrl.bindString(1, mediaUrl);
+			try {
+				podcastId = _findByMediaUrl.simpleQueryForLong();
+			} catch (SQLiteDoneException e) {
+				// no podcast with that mediaUrl yet
+			}
+
+			if (podcastId != null) {
+				if (values.containsKey(COLUMN_FILE_SIZE)) {
+					String file = PodcastCursor.getStoragePath(getContext()) +
+							String.valueOf(podcastId) + "." +
+							PodcastCursor.getExtension(mediaUrl);
+					// possible bug: file size shrinks for some reason -- don't use new one
+					if (new File(file).length() > values.getAsInteger(COLUMN_FILE_SIZE))
+						values.remove(COLUMN_FILE_SIZE);
+				}
+				_db.update("podcasts", values, COLUMN_ID + " = ?", new String[]{String.valueOf(podcastId)});
+				return podcastId;
+			}
+
+			podcastId = _db.insert("podcasts", null, values);
+
+			// if the new podcast is less than 5 days old and the subscription wants new podcasts, add it to the queue
+			if (getQueueNew(values.getAsLong(COLUMN_SUBSCRIPTION_ID)) && values.containsKey(COLUMN_PUB_DATE)) {
 				Calendar c = Calendar.getInstance();
 				c.add(Calendar.DATE, -5);
-				if (new Date(values.getAsLong(COLUMN_PUB_DATE) * 1000L).after(c.getTime())) {
-					updateQueuePosition(podcastId, Integer.MAX_VALUE);
-				}
+				if (new Date(values.getAsLong(COLUMN_PUB_DATE) * 1000L).after(c.getTime()))
+					queueChanged |= moveInQueue(_db, podcastId, Integer.MAX_VALUE);
 			}
+			return podcastId;
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
-		return PodcastProvider.getContentUri(podcastId);
+		private boolean getQueueNew(Long subscriptionId) {
+			Boolean queueNew = _queueNew.get(subscriptionId);
+			if (queueNew == null) {
+				Cursor queueNewCursor = _db.query("subscriptions",
+						new String[]{SubscriptionProvider.COLUMN_QUEUE_NEW},
+						"_id = ?",
+						new String[]{String.valueOf(subscriptionId)},
+						null, null, null);
+				queueNew = queueNewCursor.moveToFirst() && queueNewCursor.getInt(0) != 0;
+				queueNewCursor.close();
+				_queueNew.put(subscriptionId, queueNew);
+			}
+			return queueNew;
+		}
+
+		void close() {
+			_findByMediaUrl.close();
+		}
 	}
 
 	@Override
 	public int delete(Uri uri, String where, String[] whereArgs) {
+		if (uriMatcher.match(uri) == PODCAST_CHAPTERS) {
+			String chaptersWhere = "podcastId = " + uri.getPathSegments().get(1);
+			if (where != null)
+				chaptersWhere = chaptersWhere + " AND " + where;
+			int count = _dbAdapter.getWritableDatabase().delete("chapters", chaptersWhere, whereArgs);
+			notifyChange(uri);
+			return count;
+		}
+
 		switch (uriMatcher.match(uri)) {
 			case PODCASTS:
 				break;
@@ -517,22 +732,31 @@ public class PodcastProvider extends ContentProvider {
 		c.close();
 
 		int count = db.delete("podcasts", where, whereArgs);
+		db.delete("chapters", "podcastId NOT IN (SELECT _id FROM podcasts)", null);
 		if (!uri.equals(URI))
-			getContext().getContentResolver().notifyChange(URI, null);
-		getContext().getContentResolver().notifyChange(uri, null);
+			notifyChange(URI);
+		notifyChange(uri);
 		return count;
 	}
 
 	public static void deleteDownload(Context context, final long podcastId) {
 		File storage = new File(PodcastCursor.getStoragePath(context));
+		// the media file is named by id with any extension, and its seek index, waveform and loudness checkpoint share that name
 		File[] files = storage.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
-				return pathname.getName().startsWith(String.valueOf(podcastId)) &&
-						pathname.getPath().endsWith(".mp3");
+				return pathname.getName().startsWith(String.valueOf(podcastId) + ".");
 			}
 		});
-		for (File f : files)
+		if (files == null)
+			return;
+		for (File f : files) {
+			// stop the player's download before its file goes away
+			if (f.getName().endsWith(ProgressiveSource.PARTIAL_SUFFIX)) {
+				String path = f.getPath();
+				ProgressiveSource.cancel(path.substring(0, path.length() - ProgressiveSource.PARTIAL_SUFFIX.length()));
+			}
 			f.delete();
+		}
 	}
 
 	public static void restart(Context context, long podcastId) {
@@ -560,25 +784,79 @@ public class PodcastProvider extends ContentProvider {
 	}
 
 	public static void movePositionBy(Context context, Uri uri, int delta) {
-		String[] projection = new String[]{PodcastProvider.COLUMN_LAST_POSITION, PodcastProvider.COLUMN_DURATION};
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_LAST_POSITION,
+				PodcastProvider.COLUMN_DURATION,
+		};
 		Cursor c = context.getContentResolver().query(uri, projection, null, null, null);
+		if (c == null)
+			return;
 		if (!c.moveToFirst()) {
 			c.close();
 			return;
 		}
-		int position = c.getInt(0);
-		int duration = c.getInt(1);
+		// the saved position lags behind while playing, the live one is what the listener hears
+		int position = PlaybackPosition.get(c.getLong(0), c.getInt(1));
+		int duration = c.getInt(2);
 		c.close();
 
 		int newPosition = position + delta * 1000;
 		if (newPosition < 0)
 			newPosition = 0;
-		if (duration != 0 && newPosition > duration)
+		if (duration > 0 && newPosition > duration)
 			newPosition = duration;
 
 		movePositionTo(context, uri, newPosition);
 	}
 
+	public static void skipChapter(Context context, long podcastId, boolean forward) {
+		skipChapter(context, PodcastProvider.getContentUri(podcastId), forward);
+	}
+
+	// forward goes to the start of the next chapter, back goes to the start of the current one
+	// or the one before it if the current one just started
+	public static void skipChapter(Context context, Uri uri, boolean forward) {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_LAST_POSITION,
+				PodcastProvider.COLUMN_CHAPTER_COUNT,
+		};
+		Cursor c = context.getContentResolver().query(uri, projection, null, null, null);
+		if (c == null)
+			return;
+		if (!c.moveToFirst() || c.getInt(2) == 0) {
+			c.close();
+			return;
+		}
+		long podcastId = c.getLong(0);
+		int position = PlaybackPosition.get(podcastId, c.getInt(1));
+		c.close();
+
+		String[] chapterProjection = new String[]{CHAPTER_COLUMN_START_TIME};
+		Uri chaptersUri = getChaptersUri(podcastId);
+		if (forward)
+			c = context.getContentResolver().query(chaptersUri, chapterProjection,
+					CHAPTER_COLUMN_START_TIME + " > ?", new String[]{String.valueOf(position)},
+					CHAPTER_COLUMN_START_TIME);
+		else
+			c = context.getContentResolver().query(chaptersUri, chapterProjection,
+					CHAPTER_COLUMN_START_TIME + " < ?", new String[]{String.valueOf(position - CHAPTER_RESTART_MS)},
+					CHAPTER_COLUMN_START_TIME + " DESC");
+		if (c == null)
+			return;
+		Integer chapterStart = null;
+		if (c.moveToFirst())
+			chapterStart = c.getInt(0);
+		c.close();
+
+		// back from the first chapter goes to the start
+		if (chapterStart == null && !forward)
+			chapterStart = 0;
+		if (chapterStart != null)
+			movePositionTo(context, uri, chapterStart);
+	}
+
 	public static void skipToEnd(Context context, long podcastId) {
 		skipToEnd(context, PodcastProvider.getContentUri(podcastId));
 	}
@@ -596,8 +874,8 @@ public class PodcastProvider extends ContentProvider {
 			c.close();
 			return;
 		}
-		int duration = c.getInt(0);
-		if (duration == 0)
+		int duration = c.getInt(2);
+		if (duration <= 0)
 			duration = new PodcastCursor(c).determineDuration(context);
 		c.close();
 
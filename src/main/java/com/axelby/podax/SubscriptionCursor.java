@@ -29,6 +29,8 @@ public class SubscriptionCursor {
 	private Integer _titleOverrideColumn = null;
 	private Integer _queueNewColumn = null;
 	private Integer _expirationDaysColumn = null;
+	private Integer _partialRefreshesColumn = null;
+	private Integer _bodyHashColumn = null;
 
 	public SubscriptionCursor(Cursor cursor) {
 		if (cursor.isAfterLast())
@@ -162,4 +164,20 @@ public class SubscriptionCursor {
 			return null;
 		return _cursor.getInt(_expirationDaysColumn);
 	}
+
+	// refreshes that stopped at the newest known episode since the last full parse
+	public int getPartialRefreshes() {
+		if (_partialRefreshesColumn == null)
+			_partialRefreshesColumn = _cursor.getColumnIndexOrThrow(SubscriptionProvider.COLUMN_PARTIAL_REFRESHES);
+		return _cursor.getInt(_partialRefreshesColumn);
+	}
+
+	// SHA-1 of the feed the last time it was parsed
+	public String getBodyHash() {
+		if (_bodyHashColumn == null)
+			_bodyHashColumn = _cursor.getColumnIndexOrThrow(SubscriptionProvider.COLUMN_BODY_HASH);
+		if (_cursor.isNull(_bodyHashColumn))
+			return null;
+		return _cursor.getString(_bodyHashColumn);
+	}
 }
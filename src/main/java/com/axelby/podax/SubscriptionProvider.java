@@ -34,6 +34,8 @@ public class SubscriptionProvider extends ContentProvider {
 	public static final String COLUMN_TITLE_OVERRIDE = "titleOverride";
 	public static final String COLUMN_QUEUE_NEW = "queueNew";
 	public static final String COLUMN_EXPIRATION = "expirationDays";
+	public static final String COLUMN_PARTIAL_REFRESHES = "partialRefreshes";
+	public static final String COLUMN_BODY_HASH = "bodyHash";
 
 	private static final int SUBSCRIPTIONS = 1;
 	private static final int SUBSCRIPTION_ID = 2;
@@ -63,6 +65,8 @@ public class SubscriptionProvider extends ContentProvider {
 		_columnMap.put(COLUMN_TITLE_OVERRIDE, "titleOverride");
 		_columnMap.put(COLUMN_QUEUE_NEW, "queueNew");
 		_columnMap.put(COLUMN_EXPIRATION, "expirationDays");
+		_columnMap.put(COLUMN_PARTIAL_REFRESHES, "partialRefreshes");
+		_columnMap.put(COLUMN_BODY_HASH, "bodyHash");
 	}
 
 	DBAdapter _dbAdapter;
@@ -0,0 +1,74 @@
+package com.axelby.podax;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// refreshes every subscription, fetching and parsing several feeds at a time
+// the database is written to from one thread so feeds don't fight over it
+class SubscriptionRefresher {
+	private static final int FEEDS_AT_ONCE = 6;
+	// hosts serving many of the subscriptions shouldn't see all of the connections
+	private static final int FEEDS_PER_HOST = 2;
+	// parsing is cpu bound, more parsers than cores just take turns
+	private static final int PARSERS = Math.max(1, Math.min(FEEDS_AT_ONCE, Runtime.getRuntime().availableProcessors()));
+	// feeds that haven't started by then wait for the next refresh
+	private static final long DEADLINE_MS = 5 * 60 * 1000;
+	// how long feeds started before the deadline get to finish
+	private static final long GRACE_MS = 60 * 1000;
+
+	private final Context _context;
+	private final AtomicInteger _changed = new AtomicInteger(0);
+
+	SubscriptionRefresher(Context context) {
+		_context = context;
+	}
+
+	public void refreshAll() {
+		FeedRefreshEngine engine = new FeedRefreshEngine(FEEDS_AT_ONCE, FEEDS_PER_HOST, PARSERS, DEADLINE_MS, GRACE_MS);
+		SubscriptionUpdater updater = new SubscriptionUpdater(_context, engine.getWriter());
+
+		String[] projection = {SubscriptionProvider.COLUMN_ID, SubscriptionProvider.COLUMN_URL};
+		Cursor c = _context.getContentResolver().query(SubscriptionProvider.URI, projection, null, null, null);
+		if (c != null) {
+			while (c.moveToNext()) {
+				String host = c.isNull(1) ? null : Uri.parse(c.getString(1)).getHost();
+				engine.add(new SubscriptionJob(updater, c.getLong(0), host));
+			}
+			c.close();
+		}
+		engine.run();
+
+		if (_changed.get() > 0)
+			updater.writeSubscriptionOPML();
+		UpdateService.downloadPodcastsSilently(_context);
+	}
+
+	private class SubscriptionJob extends FeedRefreshEngine.Job {
+		private final SubscriptionUpdater _updater;
+		private final long _subscriptionId;
+		private SubscriptionUpdater.FetchedFeed _feed;
+
+		SubscriptionJob(SubscriptionUpdater updater, long subscriptionId, String host) {
+			super(host);
+			_updater = updater;
+			_subscriptionId = subscriptionId;
+		}
+
+		@Override
+		InputStream fetch() throws IOException {
+			_feed = _updater.fetch(_subscriptionId);
+			return _feed == null ? null : _feed.connection.getInputStream();
+		}
+
+		@Override
+		void parse(InputStream body) {
+			if (_updater.parse(_feed, body))
+				_changed.incrementAndGet();
+		}
+	}
+}
@@ -26,32 +26,100 @@ import org.xmlpull.v1.XmlSerializer;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 
 public class SubscriptionUpdater {
+	// give up on a feed that stops answering instead of holding up the rest of the refresh
+	private static final int CONNECT_TIMEOUT_MS = 15 * 1000;
+	private static final int READ_TIMEOUT_MS = 30 * 1000;
+	// episodes are written this many at a time while the feed is still being parsed
+	private static final int EPISODE_BATCH_SIZE = 50;
+	// feeds are parsed all the way through at least this often in case old episodes were added or changed
+	private static final int FULL_PARSE_EVERY = 10;
+
+	private static final Executor INLINE = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
 	private Context _context;
+	// every database write goes through here, in order
+	private Executor _writer;
 
 	public SubscriptionUpdater(Context context) {
+		this(context, INLINE);
+	}
+
+	// updates can run on several threads at once as long as they share a writer that runs one write at a time
+	public SubscriptionUpdater(Context context, Executor writer) {
 		_context = context;
+		_writer = writer;
+	}
+
+	public void update(long subscriptionId) {
+		try {
+			if (refresh(subscriptionId))
+				writeSubscriptionOPML();
+		} finally {
+			UpdateService.downloadPodcastsSilently(_context);
+		}
 	}
 
-	public void update(final long subscriptionId) {
+	// fetches and parses the feed and hands its changes to the writer
+	// returns whether the subscription changed, the writes may not have happened yet
+	boolean refresh(long subscriptionId) {
+		FetchedFeed feed = fetch(subscriptionId);
+		if (feed == null)
+			return false;
+		InputStream body;
+		try {
+			body = feed.connection.getInputStream();
+		} catch (IOException e) {
+			Log.e("Podax", "error while updating", e);
+			return false;
+		}
+		return parse(feed, body);
+	}
+
+	// a subscription whose feed answered with a body that needs parsing
+	static class FetchedFeed {
+		long subscriptionId;
+		Uri subscriptionUri;
+		String title;
+		String thumbnail;
+		int partialRefreshes;
+		String bodyHash;
+		HttpURLConnection connection;
+		String encoding;
+		final ContentValues subscriptionValues = new ContentValues();
+	}
+
+	// connects to the subscription's feed, null if there's nothing to parse
+	FetchedFeed fetch(long subscriptionId) {
 		Cursor cursor = null;
 		try {
 			if (!Helper.ensureWifi(_context))
-				return;
+				return null;
 
-			Uri subscriptionUri = ContentUris.withAppendedId(SubscriptionProvider.URI, subscriptionId);
+			final Uri subscriptionUri = ContentUris.withAppendedId(SubscriptionProvider.URI, subscriptionId);
 			if (subscriptionUri == null)
-				return;
+				return null;
 			String[] projection = new String[]{
 					SubscriptionProvider.COLUMN_ID,
 					SubscriptionProvider.COLUMN_TITLE,
@@ -59,18 +127,22 @@ public class SubscriptionUpdater {
 					SubscriptionProvider.COLUMN_ETAG,
 					SubscriptionProvider.COLUMN_LAST_MODIFIED,
 					SubscriptionProvider.COLUMN_THUMBNAIL,
+					SubscriptionProvider.COLUMN_PARTIAL_REFRESHES,
+					SubscriptionProvider.COLUMN_BODY_HASH,
 			};
 			cursor = _context.getContentResolver().query(subscriptionUri, projection,
 					SubscriptionProvider.COLUMN_ID + " = ?",
 					new String[]{String.valueOf(subscriptionId)}, null);
 			if (cursor == null || !cursor.moveToNext())
-				return;
+				return null;
 			SubscriptionCursor subscription = new SubscriptionCursor(cursor);
 
 			showNotification(subscription);
 
 			URL url = new URL(subscription.getUrl());
 			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+			connection.setReadTimeout(READ_TIMEOUT_MS);
 			if (subscription.getETag() != null)
 				connection.setRequestProperty("If-None-Match", subscription.getETag());
 			if (subscription.getLastModified() != null && subscription.getLastModified().getTime() > 0) {
@@ -83,18 +155,18 @@ public class SubscriptionUpdater {
 			// 304 (content not modified) is OK too
 			if (code != 200) {
 				ensureThumbnail(subscriptionId, subscription.getThumbnail());
-				return;
+				return null;
 			}
 
-			final ContentValues subscriptionValues = new ContentValues();
+			FetchedFeed feed = new FetchedFeed();
 
 			String eTag = connection.getHeaderField("ETag");
 			if (eTag != null) {
 				if (eTag.equals(subscription.getETag())) {
 					ensureThumbnail(subscriptionId, subscription.getThumbnail());
-					return;
+					return null;
 				}
-				subscriptionValues.put(SubscriptionProvider.COLUMN_ETAG, eTag);
+				feed.subscriptionValues.put(SubscriptionProvider.COLUMN_ETAG, eTag);
 			}
 
 			String encoding = connection.getContentEncoding();
@@ -105,12 +177,77 @@ public class SubscriptionUpdater {
 				}
 			}
 
-			InputStream inputStream = connection.getInputStream();;
+			feed.subscriptionId = subscriptionId;
+			feed.subscriptionUri = subscriptionUri;
+			feed.title = subscription.getTitle();
+			feed.thumbnail = subscription.getThumbnail();
+			feed.partialRefreshes = subscription.getPartialRefreshes();
+			feed.bodyHash = subscription.getBodyHash();
+			feed.connection = connection;
+			feed.encoding = encoding;
+			return feed;
+		} catch (Exception e) {
+			Log.e("Podax", "error while updating", e);
+			return null;
+		} finally {
+			if (cursor != null)
+				cursor.close();
+		}
+	}
+
+	// parses the body fetch connected to, can run on a different thread than the fetch
+	// returns whether the subscription changed, the writes may not have happened yet
+	boolean parse(FetchedFeed feed, InputStream body) {
+		try {
+			FeedParser feedParser = new FeedParser();
+			// a watermark lets the parser stop partway, hashing would need the whole body first
+			if (feed.partialRefreshes < FULL_PARSE_EVERY - 1 && setKnownItemWatermark(feedParser, feed.subscriptionId))
+				return parseBody(feed, feedParser, new BufferedInputStream(body), null);
+
+			// the whole body gets read anyway, it's saved and hashed first so an unchanged feed isn't parsed
+			File saved = File.createTempFile("feed", ".xml", _context.getCacheDir());
+			try {
+				String bodyHash = saveBody(body, saved);
+				if (bodyHash.equals(feed.bodyHash)) {
+					// same body as last time, only the etag and the time it was checked need saving
+					ContentValues checkedValues = new ContentValues();
+					if (feed.subscriptionValues.containsKey(SubscriptionProvider.COLUMN_ETAG))
+						checkedValues.put(SubscriptionProvider.COLUMN_ETAG, feed.subscriptionValues.getAsString(SubscriptionProvider.COLUMN_ETAG));
+					checkedValues.put(SubscriptionProvider.COLUMN_LAST_UPDATE, new Date().getTime() / 1000);
+					writeSubscription(feed.subscriptionUri, checkedValues);
+					ensureThumbnail(feed.subscriptionId, feed.thumbnail);
+					return false;
+				}
+				InputStream input = new BufferedInputStream(new FileInputStream(saved));
+				try {
+					return parseBody(feed, feedParser, input, bodyHash);
+				} finally {
+					input.close();
+				}
+			} finally {
+				saved.delete();
+			}
+		} catch (IOException e) {
+			Log.w("Podax", "couldn't read feed body: " + e.getMessage());
+			return false;
+		} finally {
+			try {
+				body.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	// bodyHash is null when the parser may stop early, the old hash is kept since it still describes a fully written body
+	private boolean parseBody(FetchedFeed feed, FeedParser feedParser, InputStream inputStream, String bodyHash) {
+		final long subscriptionId = feed.subscriptionId;
+		final ContentValues subscriptionValues = feed.subscriptionValues;
+		try {
+			final ArrayList<ContentValues> episodes = new ArrayList<ContentValues>(EPISODE_BATCH_SIZE);
 			try {
 				XmlPullParser parser = Xml.newPullParser();
-				parser.setInput(inputStream, encoding);
+				parser.setInput(inputStream, feed.encoding);
 
-				FeedParser feedParser = new FeedParser();
 				feedParser.setOnFeedInfoHandler(new FeedParser.FeedInfoHandler() {
 					@Override
 					public void OnFeedInfo(FeedParser feedParser, Feed feed) {
@@ -136,41 +273,113 @@ public class SubscriptionUpdater {
 							podcastValues.put(PodcastProvider.COLUMN_PUB_DATE, podcastValues.getAsLong(PodcastProvider.COLUMN_PUB_DATE) / 1000);
 
 						if (podcastValues.containsKey(PodcastProvider.COLUMN_MEDIA_URL)) {
-							try {
-								_context.getContentResolver().insert(PodcastProvider.URI, podcastValues);
-							} catch (IllegalArgumentException e) {
-								Log.w("Podax", "error while inserting podcast: " + e.getMessage());
-							}
+							episodes.add(podcastValues);
+							if (episodes.size() == EPISODE_BATCH_SIZE)
+								writeEpisodes(episodes);
 						}
 					}
 				});
 				feedParser.parseFeed(parser);
-
 			} catch (XmlPullParserException e) {
 				// not much we can do about this
 				Log.w("Podax", "error in subscription xml: " + e.getMessage());
-				showUpdateErrorNotification(subscription, _context.getString(R.string.rss_not_valid));
-			} finally {
-				if (inputStream != null)
-					inputStream.close();
+				showUpdateErrorNotification(feed.title, _context.getString(R.string.rss_not_valid));
+			} catch (IOException e) {
+				// the connection dropped partway, keep what was parsed and leave the rest for the next refresh
+				Log.w("Podax", "feed body cut off: " + e.getMessage());
+				writeEpisodes(episodes);
+				return false;
 			}
+			writeEpisodes(episodes);
 
 			// finish grabbing subscription values and update
+			if (bodyHash != null)
+				subscriptionValues.put(SubscriptionProvider.COLUMN_BODY_HASH, bodyHash);
 			subscriptionValues.put(SubscriptionProvider.COLUMN_LAST_UPDATE, new Date().getTime() / 1000);
-			_context.getContentResolver().update(subscriptionUri, subscriptionValues, null, null);
+			subscriptionValues.put(SubscriptionProvider.COLUMN_PARTIAL_REFRESHES,
+					feedParser.stoppedAtWatermark() ? feed.partialRefreshes + 1 : 0);
+			writeSubscription(feed.subscriptionUri, subscriptionValues);
 
-			String oldThumbnail = subscription.getThumbnail();
 			String newThumbnail = subscriptionValues.getAsString(SubscriptionProvider.COLUMN_THUMBNAIL);
-			downloadThumbnailImage(subscriptionId, oldThumbnail, newThumbnail);
-
-			writeSubscriptionOPML();
+			downloadThumbnailImage(subscriptionId, feed.thumbnail, newThumbnail);
+			return true;
 		} catch (Exception e) {
 			Log.e("Podax", "error while updating", e);
+			return false;
+		}
+	}
+
+	// copies the body to the file and returns the SHA-1 of what was copied
+	private static String saveBody(InputStream input, File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available", e);
+		}
+
+		OutputStream output = new FileOutputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				output.write(buffer, 0, read);
+			}
 		} finally {
-			if (cursor != null)
-				cursor.close();
-			UpdateService.downloadPodcastsSilently(_context);
+			output.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
 		}
+		return hex.toString();
+	}
+
+	private void writeSubscription(final Uri subscriptionUri, final ContentValues subscriptionValues) {
+		_writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				_context.getContentResolver().update(subscriptionUri, subscriptionValues, null, null);
+			}
+		});
+	}
+
+	// the newest episode already in the database, the parser skips everything published before it
+	// returns whether there was one
+	private boolean setKnownItemWatermark(FeedParser feedParser, long subscriptionId) {
+		String[] projection = {PodcastProvider.COLUMN_MEDIA_URL, PodcastProvider.COLUMN_PUB_DATE};
+		Uri podcastsUri = Uri.withAppendedPath(ContentUris.withAppendedId(SubscriptionProvider.URI, subscriptionId), "podcasts");
+		Cursor c = _context.getContentResolver().query(podcastsUri, projection, null, null, null);
+		if (c == null)
+			return false;
+		boolean found = false;
+		// newest first
+		if (c.moveToFirst() && !c.isNull(1)) {
+			feedParser.setKnownItemWatermark(new Date(c.getLong(1) * 1000), c.getString(0));
+			found = true;
+		}
+		c.close();
+		return found;
+	}
+
+	// hands the episodes to the writer as one transaction and empties the list
+	private void writeEpisodes(ArrayList<ContentValues> episodes) {
+		if (episodes.size() == 0)
+			return;
+		final ContentValues[] batch = episodes.toArray(new ContentValues[episodes.size()]);
+		episodes.clear();
+		_writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				_context.getContentResolver().bulkInsert(PodcastProvider.URI, batch);
+			}
+		});
 	}
 
 	private void ensureThumbnail(long subscriptionId, String thumbnailUrl) {
@@ -252,7 +461,7 @@ public class SubscriptionUpdater {
 		return false;
 	}
 
-	private void showUpdateErrorNotification(SubscriptionCursor subscription, String reason) {
+	private void showUpdateErrorNotification(String title, String reason) {
 		Intent notificationIntent = new Intent(_context, MainActivity.class);
 		notificationIntent.putExtra(Constants.EXTRA_FRAGMENT, 4);
 		PendingIntent contentIntent = PendingIntent.getActivity(_context, 0, notificationIntent, 0);
@@ -261,7 +470,7 @@ public class SubscriptionUpdater {
 				.setSmallIcon(R.drawable.icon)
 				.setTicker("Error Updating Subscription")
 				.setWhen(System.currentTimeMillis())
-				.setContentTitle("Error updating " + subscription.getTitle())
+				.setContentTitle("Error updating " + title)
 				.setContentText(reason)
 				.setContentIntent(contentIntent)
 				.setOngoing(false)
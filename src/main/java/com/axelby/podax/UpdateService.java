@@ -8,15 +8,41 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Process;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.axelby.podax.player.ProgressiveSource;
+import com.axelby.podax.player.SeekIndex;
+import com.axelby.podax.player.WaveformSummary;
+
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UpdateService extends IntentService {
+	// seek indexes, waveforms and loudness decode whole files, they get their own thread so refreshes and downloads don't wait behind them
+	// what they write is renamed into place or checkpointed, work lost with the process is picked up on a later pass
+	private static final ExecutorService _mediaWork = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			return new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					runnable.run();
+				}
+			}, "media analysis");
+		}
+	});
+	// a loudness pass handles every episode that needs one, so only one has to wait in line
+	private static final AtomicBoolean _loudnessQueued = new AtomicBoolean(false);
+
 	Handler _uiHandler = new Handler();
 
 	public UpdateService() {
@@ -56,6 +82,51 @@ public class UpdateService extends IntentService {
 		context.startService(intent);
 	}
 
+	// sniffs the format, probes the duration and scans the chapters of a file that just finished downloading
+	// work handed over after this sees what it saved, there's one thread and it takes work in order
+	public static void inspectDownload(Context context, final long podcastId) {
+		final Context appContext = context.getApplicationContext();
+		_mediaWork.execute(new Runnable() {
+			@Override
+			public void run() {
+				inspectFile(appContext, podcastId);
+			}
+		});
+	}
+
+	public static void buildSeekIndex(Context context, final long podcastId) {
+		final Context appContext = context.getApplicationContext();
+		_mediaWork.execute(new Runnable() {
+			@Override
+			public void run() {
+				indexFile(appContext, podcastId);
+			}
+		});
+	}
+
+	public static void buildWaveform(Context context, final long podcastId) {
+		final Context appContext = context.getApplicationContext();
+		_mediaWork.execute(new Runnable() {
+			@Override
+			public void run() {
+				summarizeFile(appContext, podcastId);
+			}
+		});
+	}
+
+	public static void analyzeLoudness(Context context) {
+		if (!_loudnessQueued.compareAndSet(false, true))
+			return;
+		final Context appContext = context.getApplicationContext();
+		_mediaWork.execute(new Runnable() {
+			@Override
+			public void run() {
+				_loudnessQueued.set(false);
+				new LoudnessAnalyzer(appContext).analyzePending();
+			}
+		});
+	}
+
 	private static Intent createUpdateSubscriptionIntent(Context context, long subscriptionId) {
 		Intent intent = new Intent(context, UpdateService.class);
 		intent.setAction(Constants.ACTION_REFRESH_SUBSCRIPTION);
@@ -97,13 +168,7 @@ public class UpdateService extends IntentService {
 		}
 
 		if (action.equals(Constants.ACTION_REFRESH_ALL_SUBSCRIPTIONS)) {
-			String[] projection = new String[]{SubscriptionProvider.COLUMN_ID};
-			Cursor c = getContentResolver().query(SubscriptionProvider.URI, projection, null, null, null);
-			if (c != null) {
-				while (c.moveToNext())
-					handleIntent(createUpdateSubscriptionIntent(this, c.getLong(0)));
-				c.close();
-			}
+			new SubscriptionRefresher(this).refreshAll();
 		} else if (action.equals(Constants.ACTION_REFRESH_SUBSCRIPTION)) {
 			long subscriptionId = intent.getLongExtra(Constants.EXTRA_SUBSCRIPTION_ID, -1);
 			if (subscriptionId == -1)
@@ -112,6 +177,10 @@ public class UpdateService extends IntentService {
 		} else if (action.equals(Constants.ACTION_DOWNLOAD_PODCASTS)) {
 			verifyDownloadedFiles();
 			expireDownloadedFiles();
+			backfillDurations();
+			backfillChapters();
+			// picks up episodes whose analysis was interrupted
+			analyzeLoudness(this);
 
 			String[] projection = {PodcastProvider.COLUMN_ID};
 			Cursor c = getContentResolver().query(PodcastProvider.QUEUE_URI, projection, null, null, null);
@@ -133,6 +202,76 @@ public class UpdateService extends IntentService {
 		removeNotification();
 	}
 
+	private static void inspectFile(Context context, long podcastId) {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = context.getContentResolver().query(PodcastProvider.getContentUri(podcastId), projection, null, null, null);
+		if (c == null)
+			return;
+		try {
+			if (!c.moveToNext())
+				return;
+			PodcastCursor podcast = new PodcastCursor(c);
+			if (!podcast.isDownloaded(context))
+				return;
+			podcast.determineMediaFormat(context);
+			podcast.determineDuration(context);
+			podcast.scanChapters(context);
+		} finally {
+			c.close();
+		}
+	}
+
+	// walk the downloaded file once so later seeks don't have to scan it
+	private static void indexFile(Context context, long podcastId) {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = context.getContentResolver().query(PodcastProvider.getContentUri(podcastId), projection, null, null, null);
+		if (c == null)
+			return;
+		try {
+			if (!c.moveToNext())
+				return;
+			PodcastCursor podcast = new PodcastCursor(c);
+			String filename = podcast.getFilename(context);
+			if (podcast.isPlayable(context) && !SeekIndex.getIndexFile(filename).exists())
+				SeekIndex.build(filename);
+		} finally {
+			c.close();
+		}
+	}
+
+	// summarize the levels of the downloaded file so the detail screen can draw it
+	private static void summarizeFile(Context context, long podcastId) {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = context.getContentResolver().query(PodcastProvider.getContentUri(podcastId), projection, null, null, null);
+		if (c == null)
+			return;
+		try {
+			if (!c.moveToNext())
+				return;
+			PodcastCursor podcast = new PodcastCursor(c);
+			String filename = podcast.getFilename(context);
+			if (podcast.isPlayable(context) && !WaveformSummary.getSummaryFile(filename).exists())
+				WaveformSummary.build(filename);
+		} finally {
+			c.close();
+		}
+	}
+
 	// make sure all media files in the folder are for existing podcasts
 	private void verifyDownloadedFiles() {
 		ArrayList<String> validMediaFilenames = new ArrayList<String>();
@@ -156,10 +295,27 @@ public class UpdateService extends IntentService {
 		if (files == null)
 			return;
 		for (File f : files) {
-			// make sure the file is a media file
-			String extension = PodcastCursor.getExtension(f.getName());
-			String[] mediaExtensions = new String[]{"mp3", "ogg", "wma", "m4a",};
-			if (Arrays.binarySearch(mediaExtensions, extension) < 0)
+			// seek indexes, waveforms, loudness checkpoints and partial streams go with their media file
+			String suffix = null;
+			if (f.getName().endsWith(SeekIndex.FILE_SUFFIX))
+				suffix = SeekIndex.FILE_SUFFIX;
+			else if (f.getName().endsWith(WaveformSummary.FILE_SUFFIX))
+				suffix = WaveformSummary.FILE_SUFFIX;
+			else if (f.getName().endsWith(LoudnessAnalyzer.CHECKPOINT_SUFFIX))
+				suffix = LoudnessAnalyzer.CHECKPOINT_SUFFIX;
+			else if (f.getName().endsWith(ProgressiveSource.PARTIAL_SUFFIX))
+				suffix = ProgressiveSource.PARTIAL_SUFFIX;
+			if (suffix != null) {
+				String mediaPath = f.getAbsolutePath();
+				mediaPath = mediaPath.substring(0, mediaPath.length() - suffix.length());
+				if (!validMediaFilenames.contains(mediaPath))
+					f.delete();
+				continue;
+			}
+
+			// media files are named by podcast id, the extension is whatever the url had
+			int dot = f.getName().indexOf('.');
+			if (dot <= 0 || !TextUtils.isDigitsOnly(f.getName().substring(0, dot)))
 				continue;
 			if (!validMediaFilenames.contains(f.getAbsolutePath())) {
 				Log.w("Podax", "deleting file " + f.getName());
@@ -168,6 +324,48 @@ public class UpdateService extends IntentService {
 		}
 	}
 
+	// fill in missing durations from file headers so the UI never has to open a decoder
+	// files that couldn't be measured are saved as UNKNOWN_DURATION and skipped from then on
+	private void backfillDurations() {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = getContentResolver().query(PodcastProvider.QUEUE_URI, projection,
+				"duration IS NULL OR duration = 0", null, null);
+		if (c == null)
+			return;
+		while (c.moveToNext()) {
+			PodcastCursor podcast = new PodcastCursor(c);
+			if (podcast.isPlayable(this))
+				podcast.determineDuration(this);
+		}
+		c.close();
+	}
+
+	// scan the tags of files downloaded before chapters were supported, a file whose tags can't be read gets a count of 0
+	// one file at a time and only the tag region of each, so a big library doesn't need much memory
+	private void backfillChapters() {
+		String[] projection = new String[]{
+				PodcastProvider.COLUMN_ID,
+				PodcastProvider.COLUMN_MEDIA_URL,
+				PodcastProvider.COLUMN_FILE_SIZE,
+				PodcastProvider.COLUMN_MEDIA_FORMAT,
+		};
+		Cursor c = getContentResolver().query(PodcastProvider.QUEUE_URI, projection,
+				"chapterCount IS NULL", null, null);
+		if (c == null)
+			return;
+		while (c.moveToNext()) {
+			PodcastCursor podcast = new PodcastCursor(c);
+			if (podcast.isDownloaded(this))
+				podcast.scanChapters(this);
+		}
+		c.close();
+	}
+
 	private void expireDownloadedFiles() {
 		String[] projection = new String[]{
 				PodcastProvider.COLUMN_ID,
@@ -5,50 +5,163 @@ import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.util.Log;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class AudioPlayer implements Runnable {
-	IMediaDecoder _decoder;
-	AudioTrack _track;
+	// number of samples decoded per pass through the playback loop
+	static final int PCM_CHUNK_SIZE = 1024 * 5;
 
-	// avoid tying up main thread by having thread check these variables to make changes
-	boolean _stopping = false;
-	Float _seekTo = null;
+	// time-stretch engines that can be picked at runtime
+	public static final String STRETCH_ENGINE_STREAMING = "streaming";
+	public static final String STRETCH_ENGINE_NATIVE = "native";
+	public static final String STRETCH_ENGINE_JAVA = "java";
 
-	private boolean _isPlaying = false;
-	private float _seekbase = 0;
-	private float _playbackRate = 1f;
+	// how long the consumer waits on an empty ring, posted commands wake it sooner
+	private static final long RING_WAIT_NANOS = 20 * 1000 * 1000;
+
+	IMediaDecoder _decoder;
+	AudioTrack _track;
+	PCMBufferPool _bufferPool;
+	PCMTrackWriter _trackWriter;
+	ITimeStretcher _stretcher;
+	final PCMProcessorChain _processors = new PCMProcessorChain();
+	private final DroppedFrames _droppedFrames = new DroppedFrames();
+	private final GainProcessor _gain = new GainProcessor();
+	PCMRingBuffer _ring;
+	volatile DecodeAhead _decodeAhead;
+	private float _readAheadSeconds = 2f;
+	private volatile String _filename;
+
+	// avoid tying up main thread by posting changes for the playback thread to apply
+	private final PlayerCommandQueue _commands = new PlayerCommandQueue();
+	// requested state, the playback thread applies it to the track
+	private volatile boolean _isPlaying = false;
+	// only touched by the playback thread
+	private boolean _trackPlaying = false;
+	private boolean _primed = false;
+	// the track was started and hasn't been written to since
+	private boolean _awaitingFirstAudio = false;
+	// when the seek being applied was posted, 0 if none is waiting for audio
+	private long _seekPostedAt = 0;
+	private volatile long _lastCommandLatency = 0;
+	private volatile long _maxCommandLatency = 0;
+
+	// position once the track is gone
+	private volatile float _seekbase = 0;
+	private volatile float _playbackRate = 1f;
+	// rates below this would overflow the stretch buffers
+	private final float _minPlaybackRate;
+
+	// output frames written to the current track, counted the same way as the playback head
+	private long _framesWritten = 0;
+	private final PlaybackTimeline _timeline;
+	// track frame where the next episode becomes audible, -1 if there isn't one coming
+	private long _pendingTransitionFrame = -1;
+	private String _pendingTransitionFile = null;
+	private float _pendingTransitionStart = 0;
 
 	public AudioPlayer(String audioFile, float positionInSeconds, float playbackRate) {
+		this(audioFile, positionInSeconds, playbackRate, STRETCH_ENGINE_STREAMING);
+	}
+
+	public AudioPlayer(String audioFile, float positionInSeconds, float playbackRate, String stretchEngine) {
 		_playbackRate = playbackRate;
+		_minPlaybackRate = Math.min(playbackRate, 1f);
+		_filename = audioFile;
 		_decoder = loadFile(audioFile);
 		if (_decoder == null)
-			throw new IllegalArgumentException("audioFile must be .mp3, .ogg, or .oga");
+			throw new IllegalArgumentException("audioFile is not in a supported format");
 		if (positionInSeconds != 0) {
 			_seekbase = positionInSeconds;
 			_decoder.seek(positionInSeconds);
 		}
 		_track = createTrackFromDecoder(_decoder);
 		_track.setPlaybackPositionUpdateListener(_playbackPositionListener);
+		_timeline = new PlaybackTimeline(_decoder.getRate(), positionInSeconds, playbackRate);
+		_stretcher = createStretcher(stretchEngine, _decoder.getRate(), _decoder.getNumChannels());
+		_stretcher.setSpeedRatio(playbackRate);
+		_bufferPool = createBufferPool(_stretcher, playbackRate);
+		_trackWriter = PCMTrackWriter.create(_bufferPool.getBufferSize());
+		_processors.setFormat(_decoder.getRate(), _decoder.getNumChannels());
+	}
+
+	// processors run in order between the decoder and the time-stretcher, must be added before the player starts
+	public void addProcessor(IPCMProcessor processor) {
+		_processors.add(processor);
+	}
+
+	// buffers for audio read from the ring and for stretched audio, sized for the slowest rate
+	private static PCMBufferPool createBufferPool(ITimeStretcher stretcher, float playbackRate) {
+		int stretchedSize = stretcher.getMaxOutputSize(PCM_CHUNK_SIZE, Math.min(playbackRate, 1f));
+		return new PCMBufferPool(2, Math.max(PCM_CHUNK_SIZE, stretchedSize));
+	}
+
+	// how much decoded audio to keep ready ahead of the AudioTrack, must be set before the player starts
+	public void setReadAhead(float seconds) {
+		_readAheadSeconds = seconds;
+	}
+
+	public float getReadAheadOccupancy() {
+		PCMRingBuffer ring = _ring;
+		return ring == null ? 0 : ring.getOccupancy();
+	}
+
+	public int getUnderrunCount() {
+		PCMRingBuffer ring = _ring;
+		return ring == null ? 0 : ring.getUnderrunCount();
+	}
+
+	// fixed gain from loudness analysis, applied after the processor chain
+	public void setGain(float decibels) {
+		_gain.setGain(decibels);
 	}
 
+	// the file currently being heard, changes when playback moves on to a prepared episode
+	public String getFilename() {
+		return _filename;
+	}
+
+	// decode the start of the next episode ahead of time so it follows this one without a gap
+	// the completion listener fires when it becomes audible, after which getFilename() returns it
+	public void prepareNext(String audioFile, float positionInSeconds, float gain) {
+		DecodeAhead decodeAhead = _decodeAhead;
+		if (decodeAhead != null)
+			decodeAhead.prepareNext(audioFile, positionInSeconds, gain);
+	}
+
+	public boolean hasNextSource() {
+		DecodeAhead decodeAhead = _decodeAhead;
+		return decodeAhead != null && decodeAhead.hasNext();
+	}
+
+	public static ITimeStretcher createStretcher(String engine, int sampleRate, int channels) {
+		if (STRETCH_ENGINE_NATIVE.equals(engine))
+			return new WSOLA(sampleRate, channels);
+		if (STRETCH_ENGINE_JAVA.equals(engine))
+			return new JavaWSOLA(sampleRate, channels);
+		return new StreamingStretcher(sampleRate, channels);
+	}
+
+	// looks at the file's contents, use DecoderRegistry.supports when the format is already known
 	public static boolean supports(String audioFile) {
-		int lastDot = audioFile.lastIndexOf('.');
-		if (lastDot <= 0)
-			return false;
-		String extension = audioFile.substring(lastDot + 1);
-		return extension.equals("mp3") || extension.equals("ogg") || extension.equals("oga");
+		return DecoderRegistry.supports(DecoderRegistry.detectFormat(audioFile));
 	}
 
 	public static IMediaDecoder loadFile(String audioFile) {
-		int lastDot = audioFile.lastIndexOf('.');
-		if (lastDot <= 0)
-			throw new IllegalArgumentException("audioFile must be .mp3, .ogg, or .oga");
+		return loadFile(audioFile, null);
+	}
+
+	// format is the one detected when the file was downloaded, null to detect it now
+	public static IMediaDecoder loadFile(String audioFile, String format) {
+		IMediaDecoder decoder = DecoderRegistry.open(audioFile, format);
+		if (decoder == null)
+			return null;
 
-		String extension = audioFile.substring(lastDot + 1);
-		if (extension.equals("mp3"))
-			return new MPG123(audioFile);
-		else if (extension.equals("ogg") || extension.equals("oga"))
-			return new Vorbis(audioFile);
-		return null;
+		SeekIndex seekIndex = SeekIndex.load(audioFile);
+		if (seekIndex != null)
+			decoder.setSeekIndex(seekIndex);
+		return decoder;
 	}
 
 	private static AudioTrack createTrackFromDecoder(IMediaDecoder decoder) {
@@ -71,6 +184,25 @@ public class AudioPlayer implements Runnable {
 	public void setOnCompletionListener(OnCompletionListener completionListener) {
 		this._completionListener = completionListener;
 	}
+	// the listener saves positions and moves the queue, which would stall the track mid-transition
+	// so it's called in order on its own thread instead of the playback thread
+	private final ExecutorService _completionCallbacks = Executors.newSingleThreadExecutor();
+
+	private void postCompletion() {
+		final OnCompletionListener listener = _completionListener;
+		if (listener == null)
+			return;
+		_completionCallbacks.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					listener.onCompletion();
+				} catch (Exception e) {
+					Log.e("Podax", "exception during completion", e);
+				}
+			}
+		});
+	}
 
 	public static interface PeriodicListener { public void pulse(float position); }
 	private PeriodicListener _periodicListener = null;
@@ -89,7 +221,7 @@ public class AudioPlayer implements Runnable {
 				return;
 			try {
 				if (audioTrack != null && _periodicListener != null)
-					_periodicListener.pulse(_seekbase + _playbackRate * audioTrack.getPlaybackHeadPosition() / audioTrack.getSampleRate());
+					_periodicListener.pulse(getTrackPosition(audioTrack));
 			} catch (Exception e) {
 				Log.e("Podax", "exception during periodic notification", e);
 			}
@@ -101,25 +233,34 @@ public class AudioPlayer implements Runnable {
 	}
 
 	public void pause() {
-		if (_track == null)
-			return;
-		_track.pause();
 		_isPlaying = false;
+		_commands.post(PlayerCommandQueue.PAUSE);
 	}
 
 	public void resume() {
-		if (_track == null)
-			return;
-		_track.play();
 		_isPlaying = true;
+		_commands.post(PlayerCommandQueue.PLAY);
 	}
 
 	public void seekTo(float offsetInSeconds) {
-		_seekTo = offsetInSeconds;
+		_commands.post(PlayerCommandQueue.SEEK, offsetInSeconds);
+	}
+
+	public void setPlaybackRate(float playbackRate) {
+		_commands.post(PlayerCommandQueue.RATE, playbackRate);
 	}
 
 	public void stop() {
-		_stopping = true;
+		_commands.post(PlayerCommandQueue.STOP);
+	}
+
+	// time from posting a command to the playback thread applying it
+	public long getLastCommandLatencyNanos() {
+		return _lastCommandLatency;
+	}
+
+	public long getMaxCommandLatencyNanos() {
+		return _maxCommandLatency;
 	}
 
 	public float getDuration() {
@@ -134,76 +275,217 @@ public class AudioPlayer implements Runnable {
 			return _seekbase;
 		if (_decoder == null)
 			return 0;
-		return _seekbase + _playbackRate * _track.getPlaybackHeadPosition() / _track.getSampleRate();
+		return getTrackPosition(_track);
+	}
+
+	private float getTrackPosition(AudioTrack track) {
+		// dropped audio was never played but the episode still moved past it
+		return _timeline.getPosition(track.getPlaybackHeadPosition(), _droppedFrames.getPlayed());
+	}
+
+	// the decoder has moved on to the next episode, everything read from the ring from now on belongs to it
+	private void beginTransition() {
+		_pendingTransitionFile = _decodeAhead.getTransitionFile();
+		_pendingTransitionStart = _decodeAhead.getTransitionStart();
+		_gain.setGain(_decodeAhead.getTransitionGain());
+		IMediaDecoder previous = _decoder;
+		_decoder = _decodeAhead.completeTransition();
+		previous.close();
+		_pendingTransitionFrame = _framesWritten;
+	}
+
+	// the track has played up to the first frame of the next episode
+	private void finishTransition() {
+		_droppedFrames.advance(_pendingTransitionFrame);
+		_droppedFrames.clearPlayed();
+		_timeline.rebase(_pendingTransitionFrame, _pendingTransitionStart);
+		_filename = _pendingTransitionFile;
+		_pendingTransitionFrame = -1;
+		postCompletion();
 	}
 
 	private void changeTrackOffset(float offsetInSeconds) {
 		if (_decoder == null)
 			return;
 
-		// close the current AudioTrack
+		// throw away what the track hasn't played yet and keep using it
 		_track.pause();
 		_track.flush();
 
-		_seekbase = offsetInSeconds;
-		_decoder.seek(offsetInSeconds);
+		// a seek before the next episode is heard is treated as a seek in it
+		if (_pendingTransitionFrame >= 0)
+			finishTransition();
+
+		_decodeAhead.seek(offsetInSeconds);
+		_ring.discardUpTo(_decodeAhead.getSeekPosition());
+		_processors.reset();
+		_droppedFrames.reset();
+		_stretcher.reset();
+
+		// some versions keep counting the playback head across a flush
+		_framesWritten = _track.getPlaybackHeadPosition();
+		_timeline.reset(_framesWritten, offsetInSeconds, _playbackRate);
+		if (_trackPlaying)
+			_track.play();
+		_primed = false;
+	}
 
-		AudioTrack toRelease = _track;
-		_track = createTrackFromDecoder(_decoder);
-		_track.setPlaybackPositionUpdateListener(_playbackPositionListener);
-		_track.play();
-		toRelease.release();
+	// audio stretched from now on uses the new rate, what is already in the track plays out at the old one
+	private void changePlaybackRate(float playbackRate) {
+		playbackRate = Math.max(playbackRate, _minPlaybackRate);
+		if (playbackRate == _playbackRate)
+			return;
+		_playbackRate = playbackRate;
+		_stretcher.setSpeedRatio(playbackRate);
+		_timeline.changeRate(_framesWritten, playbackRate, _track.getPlaybackHeadPosition());
+	}
+
+	// applies everything posted since the last buffer, returns false if the player should stop
+	private boolean applyCommands() {
+		PlayerCommandQueue.Command command;
+		while ((command = _commands.poll()) != null) {
+			switch (command.type) {
+				case PlayerCommandQueue.PLAY:
+					if (!_trackPlaying) {
+						_track.play();
+						_trackPlaying = true;
+						_awaitingFirstAudio = true;
+					} else {
+						PlayerMetrics.cancelPlayRequest();
+					}
+					break;
+				case PlayerCommandQueue.PAUSE:
+					if (_trackPlaying) {
+						_track.pause();
+						_trackPlaying = false;
+					}
+					break;
+				case PlayerCommandQueue.SEEK:
+					changeTrackOffset(command.value);
+					// while paused a seek is done once the decoder has moved
+					if (_trackPlaying)
+						_seekPostedAt = command.postedAt;
+					else
+						PlayerMetrics.seek.record(System.nanoTime() - command.postedAt);
+					break;
+				case PlayerCommandQueue.RATE:
+					changePlaybackRate(command.value);
+					break;
+				case PlayerCommandQueue.STOP:
+					return false;
+			}
+			long latency = System.nanoTime() - command.postedAt;
+			_lastCommandLatency = latency;
+			if (latency > _maxCommandLatency)
+				_maxCommandLatency = latency;
+			PlayerMetrics.command.record(latency);
+		}
+		return true;
 	}
 
 	@Override
 	public void run() {
-		_track.play();
-		_isPlaying = true;
+		_commands.setConsumer(Thread.currentThread());
+		PlayerMetrics.playbackThread.begin();
 
-		WSOLA wsola = new WSOLA();
-		wsola.init();
-		WSOLA.Error wsolaError = new WSOLA.Error();
+		int ringSize = (int) (_readAheadSeconds * _decoder.getRate() * _decoder.getNumChannels());
+		_ring = new PCMRingBuffer(Math.max(ringSize, PCM_CHUNK_SIZE * 2));
+		_decodeAhead = new DecodeAhead(_filename, _decoder, _ring);
+		Thread decodeThread = _decodeAhead.start();
 
+		short[] pcm = _bufferPool.acquire();
+		short[] wsolapcm = _bufferPool.acquire();
 		try {
-			short[] pcm = new short[1024 * 5];
 			do {
-				if (_seekTo != null) {
-					changeTrackOffset(_seekTo);
-					_seekTo = null;
-				}
-				if (_stopping)
+				if (!applyCommands())
 					return;
-				if (!_isPlaying) {
-					Thread.sleep(50);
+				// nothing to do until the next command
+				if (!_trackPlaying) {
+					_commands.await();
 					continue;
 				}
-				int sampleCount = _decoder.readSamples(pcm, 0, pcm.length);
-				if (sampleCount == 0)
-					break;
-				short[] wsolapcm = wsola.stretch(pcm, _decoder.getRate(), _decoder.getNumChannels() == 2, _playbackRate, 1, wsolaError);
-				if (wsolaError.code == WSOLA.Error.SUCCESS)
-					_track.write(wsolapcm, 0, wsolapcm.length);
+				if (_pendingTransitionFrame >= 0 && _track.getPlaybackHeadPosition() >= _pendingTransitionFrame)
+					finishTransition();
+
+				// don't read past the start of the next episode in one go
+				int toRead = PCM_CHUNK_SIZE;
+				long transition = _decodeAhead.getTransitionPosition();
+				if (transition >= 0) {
+					long remaining = transition - _ring.getReadPosition();
+					if (remaining <= 0) {
+						beginTransition();
+						continue;
+					}
+					toRead = (int) Math.min(toRead, remaining);
+				}
+
+				int sampleCount = _ring.read(pcm, 0, toRead);
+				if (sampleCount == 0) {
+					if (_ring.isDrained())
+						break;
+					// underruns only count once audio has started flowing after a start or seek
+					if (_primed) {
+						_ring.countUnderrun();
+						PlayerMetrics.underrun();
+					}
+					_ring.awaitData(RING_WAIT_NANOS);
+					continue;
+				}
+				_primed = true;
+
+				long processStart = System.nanoTime();
+				int processedCount = _processors.process(pcm, sampleCount);
+				if (processedCount != sampleCount)
+					_droppedFrames.add(_framesWritten, (sampleCount - processedCount) / _decoder.getNumChannels());
+				_droppedFrames.advance(_track.getPlaybackHeadPosition());
+				if (processedCount == 0)
+					continue;
+				sampleCount = _gain.process(pcm, processedCount);
+
+				int stretchedCount = _stretcher.process(pcm, sampleCount, wsolapcm, 0);
+				PlayerMetrics.stretch.record(System.nanoTime() - processStart);
+				PlayerMetrics.playbackThread.update();
+				if (stretchedCount > 0) {
+					_trackWriter.write(_track, wsolapcm, stretchedCount);
+					_framesWritten += stretchedCount / _decoder.getNumChannels();
+					if (_awaitingFirstAudio) {
+						PlayerMetrics.firstAudioWritten();
+						_awaitingFirstAudio = false;
+					}
+					if (_seekPostedAt != 0) {
+						PlayerMetrics.seek.record(System.nanoTime() - _seekPostedAt);
+						_seekPostedAt = 0;
+					}
+				}
 			} while (_track != null);
 
 			waitAndCloseTrack();
 
-			if (_completionListener != null)
-				_completionListener.onCompletion();
-		} catch (InterruptedException e) {
-			Log.e("Podax", "InterruptedException", e);
+			postCompletion();
 		} catch (IllegalStateException e) {
 			Log.e("Podax", "IllegalStateException", e);
 		} finally {
+			PlayerMetrics.playbackThread.update();
+			// lets a posted completion finish and the thread go away
+			_completionCallbacks.shutdown();
+			_decodeAhead.stop();
+			try {
+				decodeThread.join();
+			} catch (InterruptedException e) {
+				Log.e("Podax", "InterruptedException", e);
+			}
 			_decoder.close();
 			_decoder = null;
 
-			wsola.close();
+			_stretcher.close();
+			_bufferPool.release(wsolapcm);
+			_bufferPool.release(pcm);
 
 			// close track without waiting
 			if (_track != null) {
 				_track.pause();
 				// store stop point in case something asks for position
-				_seekbase = _seekbase + _playbackRate * _track.getPlaybackHeadPosition() / _track.getSampleRate();
+				_seekbase = getTrackPosition(_track);
 				_track.flush();
 				_track.release();
 				_track = null;
@@ -224,7 +506,7 @@ public class AudioPlayer implements Runnable {
 		}
 
 		// store stop point in case something asks for position
-		_seekbase = _seekbase + _playbackRate * _track.getPlaybackHeadPosition() / _track.getSampleRate();
+		_seekbase = getTrackPosition(_track);
 
 		_track.release();
 		_track = null;
@@ -0,0 +1,295 @@
+package com.axelby.podax.player;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// decodes on its own thread into a PCMRingBuffer so slow decoder reads don't starve the AudioTrack
+// the thread parks without a timeout when the ring is full or the episode is over
+// and is woken by the consumer reading, a seek, a stop or a prepared next episode
+class DecodeAhead implements Runnable {
+	// how much of the next episode is decoded before the current one ends
+	private static final int PREROLL_MS = 300;
+
+	private volatile IMediaDecoder _decoder;
+	// the file _decoder reads, a read waiting on its download is the one a seek or stop gives up
+	private volatile String _file;
+	private final PCMRingBuffer _ring;
+	// the decoders write into native memory so decoded audio is copied once, into the ring
+	private final ShortBuffer _pcm = ByteBuffer.allocateDirect(AudioPlayer.PCM_CHUNK_SIZE * 2)
+			.order(ByteOrder.nativeOrder()).asShortBuffer();
+
+	private volatile boolean _stopping = false;
+	private volatile Float _seekTo = null;
+	private volatile long _seekPosition = 0;
+	private volatile Thread _thread = null;
+	// consumer waiting in seek for the decoder to move
+	private volatile Thread _seekWaiter = null;
+
+	// next episode requested by prepareNext, opened and pre-decoded on the decode thread
+	private volatile String _nextRequest = null;
+	// the next episode while it's being opened and pre-decoded
+	private volatile String _opening = null;
+	private volatile float _nextRequestPosition = 0;
+	private volatile float _nextRequestGain = 0;
+	private volatile String _nextFile = null;
+	private volatile IMediaDecoder _nextDecoder = null;
+	private float _nextStart = 0;
+	private float _nextGain = 0;
+	private short[] _preroll = null;
+	private int _prerollLength = 0;
+
+	// set once the ring holds audio from the next episode, starting at _transitionPosition
+	private volatile long _transitionPosition = -1;
+	private volatile IMediaDecoder _previousDecoder = null;
+	private volatile String _previousFile = null;
+	private volatile String _transitionFile = null;
+	private volatile float _transitionStart = 0;
+	private volatile float _transitionGain = 0;
+
+	DecodeAhead(String filename, IMediaDecoder decoder, PCMRingBuffer ring) {
+		_file = filename;
+		_decoder = decoder;
+		_ring = ring;
+	}
+
+	public Thread start() {
+		Thread thread = new Thread(this, "AudioPlayer decoder");
+		_thread = thread;
+		thread.start();
+		return thread;
+	}
+
+	public void stop() {
+		_stopping = true;
+		// don't wait on a download for audio nobody will hear
+		abortReads(_file);
+		abortReads(_opening);
+		wake();
+		wakeSeekWaiter();
+	}
+
+	// called from the consumer thread, returns once the decoder has moved
+	// everything in the ring before getSeekPosition() is from before the seek
+	public void seek(float offsetInSeconds) {
+		_seekWaiter = Thread.currentThread();
+		_seekTo = offsetInSeconds;
+		abortReads(_file);
+		wake();
+		while (_seekTo != null && !_stopping)
+			LockSupport.park(this);
+		_seekWaiter = null;
+	}
+
+	public long getSeekPosition() {
+		return _seekPosition;
+	}
+
+	// open the next episode so it can follow the current one without a gap
+	public void prepareNext(String filename, float positionInSeconds, float gain) {
+		_nextRequestPosition = positionInSeconds;
+		_nextRequestGain = gain;
+		_nextRequest = filename;
+		wake();
+	}
+
+	public boolean hasNext() {
+		return _nextRequest != null || _nextDecoder != null || _transitionPosition >= 0;
+	}
+
+	// ring position where the next episode starts, or -1 if the decoder hasn't moved on
+	public long getTransitionPosition() {
+		return _transitionPosition;
+	}
+
+	public String getTransitionFile() {
+		return _transitionFile;
+	}
+
+	public float getTransitionStart() {
+		return _transitionStart;
+	}
+
+	public float getTransitionGain() {
+		return _transitionGain;
+	}
+
+	// called from the consumer thread once it has read up to the transition
+	// returns the decoder for the new episode, the caller now owns and closes the previous one
+	public IMediaDecoder completeTransition() {
+		_previousDecoder = null;
+		_previousFile = null;
+		_transitionPosition = -1;
+		return _decoder;
+	}
+
+	// other episodes still streaming keep their waiting reads
+	private static void abortReads(String filename) {
+		if (filename == null)
+			return;
+		ProgressiveSource source = ProgressiveSource.get(filename);
+		if (source != null)
+			source.abortReads();
+	}
+
+	private void wake() {
+		Thread thread = _thread;
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+
+	private void wakeSeekWaiter() {
+		Thread waiter = _seekWaiter;
+		if (waiter != null)
+			LockSupport.unpark(waiter);
+	}
+
+	@Override
+	public void run() {
+		boolean endOfStream = false;
+		PlayerMetrics.decodeThread.begin();
+		try {
+			while (!_stopping) {
+				Float seekTo = _seekTo;
+				if (seekTo != null) {
+					// the consumer is still in the previous episode so go back to it
+					if (_transitionPosition >= 0) {
+						_decoder.close();
+						_decoder = _previousDecoder;
+						_file = _previousFile;
+						_previousDecoder = null;
+						_previousFile = null;
+						_transitionPosition = -1;
+					}
+					_decoder.seek(seekTo);
+					endOfStream = false;
+					_ring.setEndOfStream(false);
+					_seekPosition = _ring.getWritePosition();
+					_seekTo = null;
+					wakeSeekWaiter();
+				}
+
+				if (_nextRequest != null)
+					openNext();
+
+				// nothing left to decode until a seek or stop
+				if (endOfStream) {
+					LockSupport.park(this);
+					continue;
+				}
+
+				_pcm.clear();
+				long decodeStart = System.nanoTime();
+				int sampleCount = _decoder.readSamples(_pcm, AudioPlayer.PCM_CHUNK_SIZE);
+				PlayerMetrics.decode.record(System.nanoTime() - decodeStart);
+				PlayerMetrics.decodeThread.update();
+				if (sampleCount == 0) {
+					// a read given up for a seek or stop isn't the end of the episode
+					if (_seekTo != null || _stopping)
+						continue;
+					if (switchToNext())
+						continue;
+					endOfStream = true;
+					_ring.setEndOfStream(true);
+					continue;
+				}
+
+				_pcm.flip();
+				writeToRing(_pcm);
+			}
+		} finally {
+			PlayerMetrics.decodeThread.update();
+			// a seek can't finish once the thread is gone
+			_stopping = true;
+			wakeSeekWaiter();
+			if (_nextDecoder != null)
+				_nextDecoder.close();
+			// the consumer owns the previous decoder, the new one was never handed over
+			if (_transitionPosition >= 0)
+				_decoder.close();
+		}
+	}
+
+	private void writeToRing(short[] pcm, int sampleCount) {
+		int written = 0;
+		while (written < sampleCount && !_stopping && _seekTo == null) {
+			int count = _ring.write(pcm, written, sampleCount - written);
+			written += count;
+			if (count == 0)
+				_ring.awaitSpace();
+		}
+	}
+
+	private void writeToRing(ShortBuffer pcm) {
+		while (pcm.hasRemaining() && !_stopping && _seekTo == null) {
+			if (_ring.write(pcm) == 0)
+				_ring.awaitSpace();
+		}
+	}
+
+	private void openNext() {
+		String filename = _nextRequest;
+		float position = _nextRequestPosition;
+		float gain = _nextRequestGain;
+		_nextRequest = null;
+		if (filename.equals(_nextFile) && _nextDecoder != null) {
+			_nextGain = gain;
+			return;
+		}
+
+		if (_nextDecoder != null) {
+			_nextDecoder.close();
+			_nextDecoder = null;
+		}
+		_nextFile = null;
+		_preroll = null;
+
+		_opening = filename;
+		IMediaDecoder next;
+		try {
+			next = AudioPlayer.loadFile(filename);
+			if (next == null)
+				return;
+			if (position != 0)
+				next.seek(position);
+
+			_preroll = new short[next.getRate() * next.getNumChannels() * PREROLL_MS / 1000];
+			_prerollLength = next.readSamples(_preroll, 0, _preroll.length);
+		} finally {
+			_opening = null;
+		}
+		_nextStart = position;
+		_nextGain = gain;
+		_nextFile = filename;
+		_nextDecoder = next;
+	}
+
+	// continues with the prepared episode if it can be played on the same AudioTrack
+	private boolean switchToNext() {
+		IMediaDecoder next = _nextDecoder;
+		if (next == null)
+			return false;
+		_nextDecoder = null;
+
+		if (next.getRate() != _decoder.getRate() || next.getNumChannels() != _decoder.getNumChannels()) {
+			next.close();
+			_preroll = null;
+			return false;
+		}
+
+		_previousDecoder = _decoder;
+		_previousFile = _file;
+		_decoder = next;
+		_file = _nextFile;
+		_transitionFile = _nextFile;
+		_transitionStart = _nextStart;
+		_transitionGain = _nextGain;
+		_transitionPosition = _ring.getWritePosition();
+
+		writeToRing(_preroll, _prerollLength);
+		_preroll = null;
+		_nextFile = null;
+		return true;
+	}
+}
@@ -0,0 +1,174 @@
+package com.axelby.podax.player;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+// picks a decoder from the first few KB of a file instead of its extension
+// feed URLs often have no extension or the wrong one
+public class DecoderRegistry {
+	public static final String FORMAT_MP3 = "mp3";
+	public static final String FORMAT_OGG = "ogg";
+	public static final String FORMAT_MP4 = "mp4";
+
+	private static final int SNIFF_SIZE = 4 * 1024;
+
+	private static final ArrayList<IDecoderFactory> _factories = new ArrayList<IDecoderFactory>();
+
+	static {
+		// Ogg is checked first because its magic is exact and MPEG sync can show up by chance
+		register(new IDecoderFactory() {
+			public String getFormat() { return FORMAT_OGG; }
+			public boolean sniff(byte[] head, int length) { return sniffOggVorbis(head, length); }
+			public IMediaDecoder open(String filename) { return new Vorbis(filename); }
+		});
+		register(new IDecoderFactory() {
+			public String getFormat() { return FORMAT_MP3; }
+			public boolean sniff(byte[] head, int length) { return sniffMP3(head, length); }
+			public IMediaDecoder open(String filename) { return new MPG123(filename); }
+		});
+		// AAC is decoded by the platform codec so it needs MediaCodec
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			register(new IDecoderFactory() {
+				public String getFormat() { return FORMAT_MP4; }
+				public boolean sniff(byte[] head, int length) { return matches(head, length, 4, "ftyp"); }
+				public IMediaDecoder open(String filename) {
+					try {
+						return new MP4Decoder(filename, new MediaCodecAudioDecoder());
+					} catch (IOException e) {
+						Log.e("Podax", "unable to open " + filename + " as MP4", e);
+						return null;
+					}
+				}
+			});
+		}
+	}
+
+	public static synchronized void register(IDecoderFactory factory) {
+		_factories.add(factory);
+	}
+
+	// format name of the file's contents, null if no decoder recognizes it or it can't be read
+	public static String detectFormat(String filename) {
+		byte[] head = new byte[SNIFF_SIZE];
+		int length = 0;
+		FileInputStream in = null;
+		// a file that's being streamed is sniffed once its first bytes are in
+		ProgressiveSource source = ProgressiveSource.get(filename);
+		if (source != null) {
+			if (source.awaitRange(0, SNIFF_SIZE) < 0)
+				return null;
+			filename = source.getCacheFilename();
+		}
+		try {
+			in = new FileInputStream(filename);
+			int read;
+			while (length < head.length && (read = in.read(head, length, head.length - length)) > 0)
+				length += read;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignored) { }
+			}
+		}
+
+		synchronized (DecoderRegistry.class) {
+			for (IDecoderFactory factory : _factories)
+				if (factory.sniff(head, length))
+					return factory.getFormat();
+		}
+		return null;
+	}
+
+	public static synchronized boolean supports(String format) {
+		return getFactory(format) != null;
+	}
+
+	// opens the file with the decoder for format, or sniffs it if the format isn't known yet
+	public static IMediaDecoder open(String filename, String format) {
+		if (format == null)
+			format = detectFormat(filename);
+		IDecoderFactory factory;
+		synchronized (DecoderRegistry.class) {
+			factory = getFactory(format);
+		}
+		if (factory == null)
+			return null;
+		try {
+			return factory.open(filename);
+		} catch (Exception e) {
+			Log.e("Podax", "unable to open " + filename + " as " + format, e);
+			return null;
+		}
+	}
+
+	private static IDecoderFactory getFactory(String format) {
+		if (format == null)
+			return null;
+		for (IDecoderFactory factory : _factories)
+			if (factory.getFormat().equals(format))
+				return factory;
+		return null;
+	}
+
+	// first page is the Vorbis identification header
+	private static boolean sniffOggVorbis(byte[] head, int length) {
+		if (!matches(head, length, 0, "OggS") || length < 27)
+			return false;
+		int packet = 27 + (head[26] & 0xFF);
+		return packet + 7 <= length && head[packet] == 1 && matches(head, length, packet + 1, "vorbis");
+	}
+
+	// an ID3 tag, or two MPEG audio frame headers one frame apart
+	private static boolean sniffMP3(byte[] head, int length) {
+		if (matches(head, length, 0, "ID3"))
+			return true;
+		for (int i = 0; i + 4 <= length; ++i) {
+			int frameLength = mpegFrameLength(head, i);
+			if (frameLength <= 0)
+				continue;
+			// a single header at the very end can't be confirmed, take it
+			if (i + frameLength + 4 > length)
+				return true;
+			if (mpegFrameLength(head, i + frameLength) > 0)
+				return true;
+		}
+		return false;
+	}
+
+	private static final int[] MPEG1_LAYER3_BITRATES = { 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 };
+	private static final int[] MPEG2_LAYER3_BITRATES = { 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 };
+	private static final int[] SAMPLE_RATES = { 44100, 48000, 32000 };
+
+	// length of the layer III frame whose header starts at offset, 0 if it isn't one
+	private static int mpegFrameLength(byte[] data, int offset) {
+		if ((data[offset] & 0xFF) != 0xFF || (data[offset + 1] & 0xE0) != 0xE0)
+			return 0;
+		int version = (data[offset + 1] >> 3) & 3; // 0 = 2.5, 2 = 2, 3 = 1
+		int layer = (data[offset + 1] >> 1) & 3; // 1 = layer III
+		int bitrateIndex = (data[offset + 2] >> 4) & 0xF;
+		int rateIndex = (data[offset + 2] >> 2) & 3;
+		int padding = (data[offset + 2] >> 1) & 1;
+		if (version == 1 || layer != 1 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3)
+			return 0;
+		boolean mpeg1 = version == 3;
+		int sampleRate = SAMPLE_RATES[rateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+		int bitrate = (mpeg1 ? MPEG1_LAYER3_BITRATES : MPEG2_LAYER3_BITRATES)[bitrateIndex] * 1000;
+		return (mpeg1 ? 144 : 72) * bitrate / sampleRate + padding;
+	}
+
+	private static boolean matches(byte[] data, int length, int offset, String magic) {
+		if (offset < 0 || offset + magic.length() > length)
+			return false;
+		for (int i = 0; i < magic.length(); ++i)
+			if (data[offset + i] != magic.charAt(i))
+				return false;
+		return true;
+	}
+}
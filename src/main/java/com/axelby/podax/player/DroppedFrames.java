@@ -0,0 +1,63 @@
+package com.axelby.podax.player;
+
+// remembers where in the output audio was dropped by the processor chain
+// so positions can include it once the track plays past that point
+class DroppedFrames {
+	private static final int CAPACITY = 64;
+
+	// output frame where each drop happened and how many input frames were dropped there
+	private final long[] _atFrame = new long[CAPACITY];
+	private final long[] _frames = new long[CAPACITY];
+	private int _first = 0;
+	private int _count = 0;
+
+	// total dropped before the playback head, read from other threads
+	private volatile long _played = 0;
+
+	// called from the player thread
+	public void add(long atFrame, long frames) {
+		if (_count > 0) {
+			int last = (_first + _count - 1) % CAPACITY;
+			if (_atFrame[last] == atFrame) {
+				_frames[last] += frames;
+				return;
+			}
+		}
+		// out of room so fold the oldest drop in early
+		if (_count == CAPACITY) {
+			_played += _frames[_first];
+			_first = (_first + 1) % CAPACITY;
+			--_count;
+		}
+		int slot = (_first + _count) % CAPACITY;
+		_atFrame[slot] = atFrame;
+		_frames[slot] = frames;
+		++_count;
+	}
+
+	// counts every drop at or before playedFrame as heard
+	public void advance(long playedFrame) {
+		long played = _played;
+		while (_count > 0 && _atFrame[_first] <= playedFrame) {
+			played += _frames[_first];
+			_first = (_first + 1) % CAPACITY;
+			--_count;
+		}
+		_played = played;
+	}
+
+	public long getPlayed() {
+		return _played;
+	}
+
+	// start counting again from the current playback head, pending drops are kept
+	public void clearPlayed() {
+		_played = 0;
+	}
+
+	public void reset() {
+		_first = 0;
+		_count = 0;
+		_played = 0;
+	}
+}
@@ -0,0 +1,217 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+// finds the duration of a media file from its headers without opening a decoder
+// MP3 uses the Xing/Info or VBRI frame count, then ID3 TLEN, then a CBR estimate
+// Ogg uses the granule position of the last page
+// MP4 uses the audio track's media header
+public class DurationProbe {
+	// how far past the ID3 tag to look for the first MPEG frame
+	private static final int MP3_SYNC_SEARCH = 64 * 1024;
+	// TLEN is near the start of the tag so don't read large embedded artwork
+	private static final int ID3_READ_LIMIT = 64 * 1024;
+	// how much of the end of an Ogg file to search for the last page
+	private static final int OGG_TAIL_SIZE = 64 * 1024;
+
+	private static final int[][] MP3_BITRATES = {
+		// MPEG1 layer I, II, III
+		{ 0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448 },
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384 },
+		{ 0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320 },
+		// MPEG2/2.5 layer I, II/III
+		{ 0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256 },
+		{ 0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160 },
+	};
+	private static final int[] MP3_SAMPLE_RATES = { 44100, 48000, 32000 };
+
+	// duration in seconds, 0 if it can't be found from the headers
+	public static float probe(String audioFile) {
+		RandomAccessFile file = null;
+		try {
+			String format = DecoderRegistry.detectFormat(audioFile);
+			file = new RandomAccessFile(audioFile, "r");
+			if (DecoderRegistry.FORMAT_MP3.equals(format))
+				return probeMP3(file);
+			if (DecoderRegistry.FORMAT_OGG.equals(format))
+				return probeOgg(file);
+			if (DecoderRegistry.FORMAT_MP4.equals(format))
+				return probeMP4(audioFile);
+			return 0;
+		} catch (IOException e) {
+			Log.e("Podax", "unable to probe duration of " + audioFile, e);
+			return 0;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+
+	private static float probeMP3(RandomAccessFile file) throws IOException {
+		long audioStart = 0;
+		float tagDuration = 0;
+
+		byte[] header = new byte[10];
+		if (readAt(file, 0, header) == header.length && header[0] == 'I' && header[1] == 'D' && header[2] == '3') {
+			int tagSize = syncsafe(header, 6);
+			audioStart = 10 + tagSize + ((header[5] & 0x10) != 0 ? 10 : 0);
+			byte[] tag = new byte[Math.min(tagSize, ID3_READ_LIMIT)];
+			int read = readAt(file, 10, tag);
+			tagDuration = findTLEN(tag, read, header[3]) / 1000f;
+		}
+
+		byte[] search = new byte[MP3_SYNC_SEARCH];
+		int searchLength = readAt(file, audioStart, search);
+		for (int i = 0; i + 4 <= searchLength; ++i) {
+			if ((search[i] & 0xFF) != 0xFF || (search[i + 1] & 0xE0) != 0xE0)
+				continue;
+
+			int h = ((search[i] & 0xFF) << 24) | ((search[i + 1] & 0xFF) << 16) | ((search[i + 2] & 0xFF) << 8) | (search[i + 3] & 0xFF);
+			int version = (h >> 19) & 3; // 0 = 2.5, 2 = 2, 3 = 1
+			int layer = 4 - ((h >> 17) & 3);
+			int bitrateIndex = (h >> 12) & 0xF;
+			int rateIndex = (h >> 10) & 3;
+			boolean mono = ((h >> 6) & 3) == 3;
+			if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3)
+				continue;
+
+			boolean mpeg1 = version == 3;
+			int sampleRate = MP3_SAMPLE_RATES[rateIndex] >> (mpeg1 ? 0 : version == 2 ? 1 : 2);
+			int bitrate = MP3_BITRATES[mpeg1 ? layer - 1 : (layer == 1 ? 3 : 4)][bitrateIndex];
+			int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && !mpeg1) ? 576 : 1152;
+
+			long frames = findFrameCount(search, i, searchLength, mpeg1, mono);
+			if (frames > 0)
+				return (float) frames * samplesPerFrame / sampleRate;
+			if (tagDuration > 0)
+				return tagDuration;
+
+			// no VBR header so assume a constant bitrate
+			long audioBytes = file.length() - (audioStart + i);
+			return audioBytes * 8f / (bitrate * 1000f);
+		}
+		return tagDuration;
+	}
+
+	// frame count from a Xing/Info or VBRI header in the first frame, 0 if there isn't one
+	private static long findFrameCount(byte[] data, int frameStart, int length, boolean mpeg1, boolean mono) {
+		int xing = frameStart + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+		if (xing + 12 <= length && (matches(data, xing, "Xing") || matches(data, xing, "Info"))) {
+			int flags = readInt(data, xing + 4);
+			if ((flags & 1) != 0)
+				return readInt(data, xing + 8) & 0xFFFFFFFFL;
+			return 0;
+		}
+
+		int vbri = frameStart + 4 + 32;
+		if (vbri + 18 <= length && matches(data, vbri, "VBRI"))
+			return readInt(data, vbri + 14) & 0xFFFFFFFFL;
+		return 0;
+	}
+
+	// TLEN frame value in milliseconds, 0 if missing
+	private static long findTLEN(byte[] tag, int length, int majorVersion) {
+		boolean v22 = majorVersion == 2;
+		int headerSize = v22 ? 6 : 10;
+		int pos = 0;
+		while (pos + headerSize <= length) {
+			if (tag[pos] == 0)
+				break;
+			int size;
+			if (v22)
+				size = ((tag[pos + 3] & 0xFF) << 16) | ((tag[pos + 4] & 0xFF) << 8) | (tag[pos + 5] & 0xFF);
+			else if (majorVersion >= 4)
+				size = syncsafe(tag, pos + 4);
+			else
+				size = readInt(tag, pos + 4);
+			if (size <= 0 || pos + headerSize + size > length)
+				break;
+
+			if (v22 ? matches(tag, pos, "TLE") : matches(tag, pos, "TLEN")) {
+				// skip the text encoding byte
+				String value = new String(tag, pos + headerSize + 1, size - 1).trim();
+				try {
+					return Long.parseLong(value.replace("\u0000", ""));
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+			pos += headerSize + size;
+		}
+		return 0;
+	}
+
+	private static float probeMP4(String audioFile) throws IOException {
+		MP4Demuxer demuxer = new MP4Demuxer(audioFile);
+		try {
+			return demuxer.getDuration();
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	private static float probeOgg(RandomAccessFile file) throws IOException {
+		// sample rate is in the identification header on the first page
+		byte[] head = new byte[256];
+		int headLength = readAt(file, 0, head);
+		if (headLength < 28 || !matches(head, 0, "OggS"))
+			return 0;
+		int packet = 27 + (head[26] & 0xFF);
+		if (packet + 16 > headLength || head[packet] != 1 || !matches(head, packet + 1, "vorbis"))
+			return 0;
+		int sampleRate = readIntLE(head, packet + 12);
+		if (sampleRate <= 0)
+			return 0;
+
+		long tailStart = Math.max(0, file.length() - OGG_TAIL_SIZE);
+		byte[] tail = new byte[(int) (file.length() - tailStart)];
+		int tailLength = readAt(file, tailStart, tail);
+		for (int i = tailLength - 27; i >= 0; --i) {
+			if (!matches(tail, i, "OggS"))
+				continue;
+			long granule = (readIntLE(tail, i + 6) & 0xFFFFFFFFL) | ((long) readIntLE(tail, i + 10) << 32);
+			if (granule > 0)
+				return (float) granule / sampleRate;
+		}
+		return 0;
+	}
+
+	private static int readAt(RandomAccessFile file, long position, byte[] buffer) throws IOException {
+		file.seek(position);
+		int total = 0;
+		while (total < buffer.length) {
+			int read = file.read(buffer, total, buffer.length - total);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+	private static boolean matches(byte[] data, int offset, String magic) {
+		if (offset < 0 || offset + magic.length() > data.length)
+			return false;
+		for (int i = 0; i < magic.length(); ++i)
+			if (data[offset + i] != magic.charAt(i))
+				return false;
+		return true;
+	}
+
+	private static int syncsafe(byte[] data, int offset) {
+		return ((data[offset] & 0x7F) << 21) | ((data[offset + 1] & 0x7F) << 14) | ((data[offset + 2] & 0x7F) << 7) | (data[offset + 3] & 0x7F);
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+	}
+
+	private static int readIntLE(byte[] data, int offset) {
+		return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+	}
+}
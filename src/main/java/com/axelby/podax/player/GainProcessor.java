@@ -0,0 +1,35 @@
+package com.axelby.podax.player;
+
+// applies a fixed gain with a fixed-point multiply, does nothing at unity gain
+public class GainProcessor implements IPCMProcessor {
+	private static final int UNITY_SHIFT = 12;
+	private static final int UNITY = 1 << UNITY_SHIFT;
+
+	private volatile int _factor = UNITY;
+
+	public void setGain(float decibels) {
+		_factor = (int) Math.round(Math.pow(10.0, decibels / 20.0) * UNITY);
+	}
+
+	@Override
+	public void setFormat(int sampleRate, int channels) { }
+
+	@Override
+	public int process(short[] buffer, int length) {
+		int factor = _factor;
+		if (factor == UNITY)
+			return length;
+		for (int i = 0; i < length; ++i) {
+			int sample = (buffer[i] * factor) >> UNITY_SHIFT;
+			if (sample > Short.MAX_VALUE)
+				sample = Short.MAX_VALUE;
+			else if (sample < Short.MIN_VALUE)
+				sample = Short.MIN_VALUE;
+			buffer[i] = (short) sample;
+		}
+		return length;
+	}
+
+	@Override
+	public void reset() { }
+}
@@ -0,0 +1,19 @@
+package com.axelby.podax.player;
+
+import java.nio.ByteBuffer;
+
+// turns compressed access units from a container into PCM
+// MP4Decoder does the demuxing and hands each unit to one of these
+public interface IAudioUnitDecoder {
+	// codecConfig is the decoder specific info from the container, e.g. the AAC AudioSpecificConfig
+	boolean configure(byte[] codecConfig, int sampleRate, int numChannels);
+	// queues unit and copies whatever PCM is ready into out, returns the number of samples copied
+	// unit is null at the end of the stream, then it returns 0 once everything is out
+	int decode(ByteBuffer unit, short[] out);
+	// drops queued input and output after a seek
+	void flush();
+	void release();
+	// output format, can differ from the container's when the stream uses SBR or PS
+	int getRate();
+	int getNumChannels();
+}
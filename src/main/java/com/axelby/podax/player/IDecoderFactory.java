@@ -0,0 +1,9 @@
+package com.axelby.podax.player;
+
+public interface IDecoderFactory {
+	// short name stored in the database, e.g. "mp3"
+	String getFormat();
+	// true if the start of a file looks like this format
+	boolean sniff(byte[] head, int length);
+	IMediaDecoder open(String filename);
+}
@@ -1,12 +1,19 @@
 package com.axelby.podax.player;
 
+import java.nio.ShortBuffer;
+
 public interface IMediaDecoder {
 	void close();
 	int readSamples(short[] buffer, int offset, int numSamples);
+	// buffer must be direct and in native order, samples are decoded into it from its position and the position moves past them
+	int readSamples(ShortBuffer buffer, int numSamples);
 	int skipSamples(int numSamples);
 	int seek(float offsetInSeconds);
 	float getPosition();
 	int getNumChannels();
 	int getRate();
 	float getDuration();
+	// walks the whole file, only used on a decoder opened for that purpose
+	SeekIndex buildSeekIndex();
+	void setSeekIndex(SeekIndex index);
 }
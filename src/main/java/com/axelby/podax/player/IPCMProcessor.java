@@ -0,0 +1,11 @@
+package com.axelby.podax.player;
+
+// a stage between the decoder and the time-stretcher that works in place on pooled buffers
+public interface IPCMProcessor {
+	void setFormat(int sampleRate, int channels);
+	// processes length interleaved samples in buffer and returns how many are left in it
+	// a processor may drop samples but never returns more than buffer.length
+	int process(short[] buffer, int length);
+	// forget any state, used after seeking
+	void reset();
+}
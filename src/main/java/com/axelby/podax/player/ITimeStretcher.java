@@ -0,0 +1,9 @@
+package com.axelby.podax.player;
+
+public interface ITimeStretcher {
+	void setSpeedRatio(float speedRatio);
+	int getMaxOutputSize(int inputSamples, float speedRatio);
+	int process(short[] input, int inputLength, short[] output, int outputOffset);
+	void reset();
+	void close();
+}
@@ -0,0 +1,290 @@
+package com.axelby.podax.player;
+
+// Pure Java port of the native WSOLA time-stretcher in jni/wsola/wsola.c.
+// stretch and stretchInto follow the same contract as the WSOLA class and produce the same output,
+// so this engine can be swapped in and profiled with regular JVM tools.
+public class JavaWSOLA implements ITimeStretcher {
+	// Overlap-and-add window size in milliseconds.
+	private static final int OLA_WIN_MS = 20;
+	// Hann window copy flags:
+	private static final int HANN_FULL = 1;
+	private static final int HANN_1HALF = 2;
+	private static final int HANN_2HALF = 3;
+
+	private int _inRate = 0;
+	private boolean _stereo = false;
+	private float _speedRatio = -1.0f;
+	private int _olaWin = 0;
+	private int _olaStep = 0;
+	private short[] _inBuf;
+	private short[] _outBuf;
+	private int _outOffset;
+	private float[] _calcBuf;
+	private int _inBufFrames;
+	private int _outBufLen;
+	private int _outBufFrames;
+	private float[] _hann;
+	private int _decimate = 5;
+
+	// settings used by the ITimeStretcher methods
+	private int _sampleRate;
+	private boolean _streamStereo;
+	private float _streamSpeedRatio = 1f;
+	private final WSOLA.Error _processError = new WSOLA.Error();
+
+	public JavaWSOLA() {
+	}
+
+	public JavaWSOLA(int sampleRate, int channels) {
+		_sampleRate = sampleRate;
+		_streamStereo = channels == 2;
+	}
+
+	// same as WSOLA.stretch
+	public short[] stretch(short[] audioBuffer, int sampleRate, boolean stereo, float speedRatio, int quality, WSOLA.Error err) {
+		if (audioBuffer == null || audioBuffer.length == 0) {
+			if (err != null)
+				err.code = WSOLA.Error.ERR_INVALIDPARAMS;
+			return null;
+		}
+
+		short[] stretchBuffer = new short[getStretchedSize(audioBuffer.length, stereo, speedRatio)];
+		int result = stretchInto(audioBuffer, audioBuffer.length, stretchBuffer, 0, sampleRate, stereo, speedRatio, quality, err);
+		return result < 0 ? null : stretchBuffer;
+	}
+
+	// same as WSOLA.stretchInto
+	public int stretchInto(short[] audioBuffer, int audioLength, short[] stretchBuffer, int stretchOffset,
+						   int sampleRate, boolean stereo, float speedRatio, int quality, WSOLA.Error err) {
+		if (audioBuffer == null
+				|| stretchBuffer == null
+				|| audioLength <= 0
+				|| audioLength > audioBuffer.length
+				|| stretchOffset < 0
+				|| sampleRate <= 0
+				|| speedRatio <= 0.0f) {
+			if (err != null)
+				err.code = WSOLA.Error.ERR_INVALIDPARAMS;
+			return WSOLA.Error.ERR_INVALIDPARAMS;
+		}
+
+		if (quality < 1)
+			quality = 1;
+
+		int stretchSize = getStretchedSize(audioLength, stereo, speedRatio);
+		if (stretchOffset + stretchSize > stretchBuffer.length) {
+			if (err != null)
+				err.code = WSOLA.Error.ERR_INVALIDPARAMS;
+			return WSOLA.Error.ERR_INVALIDPARAMS;
+		}
+
+		timeStretch(audioBuffer, audioLength, stretchBuffer, stretchOffset, stretchSize, sampleRate, stereo, speedRatio, quality);
+
+		if (err != null)
+			err.code = WSOLA.Error.SUCCESS;
+		return stretchSize;
+	}
+
+	@Override
+	public void setSpeedRatio(float speedRatio) {
+		_streamSpeedRatio = speedRatio;
+	}
+
+	@Override
+	public int getMaxOutputSize(int inputSamples, float speedRatio) {
+		return getStretchedSize(inputSamples, _streamStereo, speedRatio);
+	}
+
+	@Override
+	public int process(short[] input, int inputLength, short[] output, int outputOffset) {
+		int written = stretchInto(input, inputLength, output, outputOffset, _sampleRate, _streamStereo, _streamSpeedRatio, 1, _processError);
+		return written < 0 ? 0 : written;
+	}
+
+	@Override
+	public void reset() {
+		// no state is kept between chunks
+	}
+
+	@Override
+	public void close() {
+		_calcBuf = null;
+		_hann = null;
+		_inRate = 0;
+	}
+
+	// same as WSOLA.getStretchedSize, repeated so using this class never loads the native library
+	public static int getStretchedSize(int plainSize, boolean stereo, float speedRatio) {
+		int stretchSize = (int) Math.floor((float) plainSize / speedRatio + 0.5f);
+		if (stereo)
+			stretchSize = (stretchSize / 2) * 2;
+		return stretchSize;
+	}
+
+	private void makeHann(int len) {
+		_hann = new float[len];
+		float scale = 2.0f * (float) Math.PI / (float) len;
+		for (int k = 0; k < len; ++k)
+			_hann[k] = 0.5f * (1.0f - (float) Math.cos((float) k * scale));
+	}
+
+	// Copy in new values and allocate buffers as needed:
+	private void prepare(short[] inBuf, int inBufLen, short[] outBuf, int outOffset, int outBufLen,
+						 int inRate, boolean stereo, float speedRatio, int decimate) {
+		// if rate changed, recalc windows
+		if (inRate != _inRate) {
+			_olaWin = (OLA_WIN_MS * inRate) / 1000;
+			_olaStep = _olaWin / 2;
+			_olaWin = _olaStep * 2;
+			makeHann(_olaWin);
+			_inRate = inRate;
+		}
+
+		_speedRatio = speedRatio;
+		_decimate = decimate;
+		_inBuf = inBuf;
+		_stereo = stereo;
+		_inBufFrames = stereo ? inBufLen / 2 : inBufLen;
+
+		// only grows, so the steady state doesn't allocate
+		if (_calcBuf == null || _calcBuf.length < _inBufFrames)
+			_calcBuf = new float[_inBufFrames];
+
+		// copy and mix down PCM data to be used in the similarity calculation
+		if (stereo) {
+			for (int k = 0, s = 0; k < _inBufFrames; ++k, s += 2)
+				_calcBuf[k] = (float) (inBuf[s] + inBuf[s + 1]);
+		} else {
+			for (int k = 0; k < _inBufFrames; ++k)
+				_calcBuf[k] = (float) inBuf[k];
+		}
+
+		_outBuf = outBuf;
+		_outOffset = outOffset;
+		_outBufLen = outBufLen;
+		_outBufFrames = stereo ? outBufLen / 2 : outBufLen;
+	}
+
+	// Copies a windowed block from input to output audio buffer.
+	// Returns number of frames copied:
+	private int hannCopy(int inStartFrame, int outStartFrame, int mode) {
+		if (inStartFrame < 0 || outStartFrame < 0)
+			return 0;
+
+		int copyFrames = (mode == HANN_FULL) ? _olaWin : _olaStep;
+		copyFrames = Math.min(copyFrames, _inBufFrames - inStartFrame);
+		copyFrames = Math.min(copyFrames, _outBufFrames - outStartFrame);
+		if (copyFrames <= 0)
+			return 0;
+
+		int hann = (mode == HANN_2HALF) ? _olaStep : 0;
+		if (_stereo) {
+			int in = inStartFrame * 2;
+			int out = _outOffset + outStartFrame * 2;
+			for (int k = 0; k < copyFrames; ++k, in += 2, out += 2, ++hann) {
+				float h = _hann[hann];
+				_outBuf[out] += (short) ((float) _inBuf[in] * h);
+				_outBuf[out + 1] += (short) ((float) _inBuf[in + 1] * h);
+			}
+		} else {
+			int in = inStartFrame;
+			int out = _outOffset + outStartFrame;
+			for (int k = 0; k < copyFrames; ++k, ++in, ++out, ++hann)
+				_outBuf[out] += (short) ((float) _inBuf[in] * _hann[hann]);
+		}
+
+		return copyFrames;
+	}
+
+	// Copies a direct block from input to output audio buffer.
+	// Stops on end of input or output buffer.
+	// Returns number of frames copied:
+	private int endCopy(int inStartFrame, int outStartFrame) {
+		if (inStartFrame < 0 || outStartFrame < 0)
+			return 0;
+
+		int copyFrames = Math.min(_inBufFrames - inStartFrame, _outBufFrames - outStartFrame);
+		if (copyFrames <= 0)
+			return 0;
+
+		int channels = _stereo ? 2 : 1;
+		System.arraycopy(_inBuf, inStartFrame * channels, _outBuf, _outOffset + outStartFrame * channels, copyFrames * channels);
+		return copyFrames;
+	}
+
+	// Get a simplified correlation coefficient for source and target buffers:
+	private float compare(int like, int win) {
+		float sum = 0.0f;
+		for (int k = 0; k < _olaWin; k += _decimate)
+			sum += _calcBuf[like + k] * _calcBuf[win + k];
+		return sum;
+	}
+
+	// get best target match for source buffer:
+	private int match(int like, int center) {
+		if (like > _inBufFrames - _olaWin)
+			return center; // give up
+
+		int start = Math.max(center - _olaStep, 0);
+		int end = Math.min(center + _olaStep, _inBufFrames - _olaWin);
+		if (start >= end)
+			return center; // give up
+
+		int best = center;
+		float bestval = -1;
+		for (int k = start; k < end; ++k) {
+			float val = compare(like, k);
+			if (val > bestval) {
+				bestval = val;
+				best = k;
+			}
+		}
+		return best;
+	}
+
+	private void timeStretch(short[] inBuf, int inBufLen, short[] outBuf, int outOffset, int outBufLen,
+							 int inRate, boolean stereo, float speedRatio, int decimate) {
+		// if speed 1.0 just copy in to out and return:
+		if (speedRatio == 1.0f) {
+			System.arraycopy(inBuf, 0, outBuf, outOffset, Math.min(inBufLen, outBufLen));
+			return;
+		}
+
+		prepare(inBuf, inBufLen, outBuf, outOffset, outBufLen, inRate, stereo, speedRatio, decimate);
+
+		// zero outbuf:
+		for (int k = 0; k < _outBufLen; ++k)
+			_outBuf[_outOffset + k] = 0;
+
+		// calc total number of windows to copy:
+		int winCnt = _outBufFrames / _olaStep;
+
+		// copy second Hann half of inbuf start directly:
+		hannCopy(0, 0, HANN_2HALF);
+
+		// copy only full length WSOLA windows:
+		int out = 0;
+		int like = 0;
+		for (int k = 0; k < winCnt && out < _outBufFrames - _olaWin; ++k, out += _olaStep) {
+			// find target center:
+			int center = (int) ((float) out * _speedRatio);
+			// get best target match:
+			int match = match(like, center);
+			// copy target to output:
+			if (hannCopy(match, out, HANN_FULL) < _olaWin)
+				break;
+			// increment source:
+			like = match + _olaStep;
+		}
+
+		// fade in and copy original till the end of output buffer
+		// this ensures smooth transition between buffers on playback
+		int endSeg = _outBufFrames - out;
+		hannCopy(_inBufFrames - endSeg, out, HANN_1HALF);
+		endCopy(_inBufFrames - (endSeg - _olaStep), out + _olaStep);
+
+		// don't hold on to the caller's buffers
+		_inBuf = null;
+		_outBuf = null;
+	}
+}
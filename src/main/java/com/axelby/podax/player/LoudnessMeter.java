@@ -0,0 +1,194 @@
+package com.axelby.podax.player;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// integrated loudness (ITU-R BS.1770) and sample peak of a stream of interleaved PCM
+// gated block loudness is kept in a fixed histogram so the state is small enough to checkpoint
+public class LoudnessMeter {
+	private static final double ABSOLUTE_GATE = -70.0;
+	private static final double RELATIVE_GATE = -10.0;
+	private static final double HISTOGRAM_MAX = 5.0;
+	private static final int HISTOGRAM_BINS_PER_LU = 10;
+	private static final int HISTOGRAM_SIZE = (int) ((HISTOGRAM_MAX - ABSOLUTE_GATE) * HISTOGRAM_BINS_PER_LU);
+	private static final int VERSION = 1;
+
+	private final int _channels;
+	private final int _subBlockFrames;
+
+	// K-weighting: high shelf followed by high pass, direct form I state per channel
+	private final double _sb0, _sb1, _sb2, _sa1, _sa2;
+	private final double _hb0, _hb1, _hb2, _ha1, _ha2;
+	private final double[] _state;
+
+	// 400ms blocks overlap by 75% so each one is four 100ms sub-blocks
+	private final double[] _subBlocks = new double[4];
+	private int _subBlockCount = 0;
+	private double _subBlockSum = 0;
+	private int _subBlockFill = 0;
+
+	private final long[] _histogram = new long[HISTOGRAM_SIZE];
+	private int _peak = 0;
+	private long _framesMeasured = 0;
+
+	public LoudnessMeter(int sampleRate, int channels) {
+		_channels = channels;
+		_subBlockFrames = sampleRate / 10;
+		_state = new double[channels * 8];
+
+		double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+		double q = 0.7071752369554196;
+		double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+		double vb = Math.pow(vh, 0.4996667741545416);
+		double a0 = 1.0 + k / q + k * k;
+		_sb0 = (vh + vb * k / q + k * k) / a0;
+		_sb1 = 2.0 * (k * k - vh) / a0;
+		_sb2 = (vh - vb * k / q + k * k) / a0;
+		_sa1 = 2.0 * (k * k - 1.0) / a0;
+		_sa2 = (1.0 - k / q + k * k) / a0;
+
+		k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+		q = 0.5003270373238773;
+		a0 = 1.0 + k / q + k * k;
+		_hb0 = 1.0;
+		_hb1 = -2.0;
+		_hb2 = 1.0;
+		_ha1 = 2.0 * (k * k - 1.0) / a0;
+		_ha2 = (1.0 - k / q + k * k) / a0;
+	}
+
+	public void process(short[] buffer, int length) {
+		int frames = length / _channels;
+		int in = 0;
+		for (int f = 0; f < frames; ++f) {
+			for (int c = 0; c < _channels; ++c) {
+				int sample = buffer[in++];
+				int magnitude = sample < 0 ? -sample : sample;
+				if (magnitude > _peak)
+					_peak = magnitude;
+
+				double x = sample / 32768.0;
+				int s = c * 8;
+				double y = _sb0 * x + _sb1 * _state[s] + _sb2 * _state[s + 1] - _sa1 * _state[s + 2] - _sa2 * _state[s + 3];
+				_state[s + 1] = _state[s];
+				_state[s] = x;
+				_state[s + 3] = _state[s + 2];
+				_state[s + 2] = y;
+
+				double z = _hb0 * y + _hb1 * _state[s + 4] + _hb2 * _state[s + 5] - _ha1 * _state[s + 6] - _ha2 * _state[s + 7];
+				_state[s + 5] = _state[s + 4];
+				_state[s + 4] = y;
+				_state[s + 7] = _state[s + 6];
+				_state[s + 6] = z;
+
+				_subBlockSum += z * z;
+			}
+
+			if (++_subBlockFill == _subBlockFrames)
+				finishSubBlock();
+		}
+		_framesMeasured += frames;
+	}
+
+	private void finishSubBlock() {
+		_subBlocks[_subBlockCount % 4] = _subBlockSum / _subBlockFrames;
+		++_subBlockCount;
+		_subBlockSum = 0;
+		_subBlockFill = 0;
+		if (_subBlockCount < 4)
+			return;
+
+		double energy = (_subBlocks[0] + _subBlocks[1] + _subBlocks[2] + _subBlocks[3]) / 4;
+		double loudness = toLoudness(energy);
+		if (loudness < ABSOLUTE_GATE)
+			return;
+		int bin = (int) ((loudness - ABSOLUTE_GATE) * HISTOGRAM_BINS_PER_LU);
+		++_histogram[Math.min(bin, HISTOGRAM_SIZE - 1)];
+	}
+
+	// integrated loudness in LUFS, or -infinity if nothing was above the absolute gate
+	public double getIntegratedLoudness() {
+		double energySum = 0;
+		long blocks = 0;
+		for (int i = 0; i < HISTOGRAM_SIZE; ++i) {
+			energySum += _histogram[i] * toEnergy(binLoudness(i));
+			blocks += _histogram[i];
+		}
+		if (blocks == 0)
+			return Double.NEGATIVE_INFINITY;
+
+		double relativeGate = toLoudness(energySum / blocks) + RELATIVE_GATE;
+		energySum = 0;
+		blocks = 0;
+		for (int i = 0; i < HISTOGRAM_SIZE; ++i) {
+			if (binLoudness(i) < relativeGate)
+				continue;
+			energySum += _histogram[i] * toEnergy(binLoudness(i));
+			blocks += _histogram[i];
+		}
+		if (blocks == 0)
+			return Double.NEGATIVE_INFINITY;
+		return toLoudness(energySum / blocks);
+	}
+
+	// sample peak in dBFS
+	public double getPeak() {
+		if (_peak == 0)
+			return Double.NEGATIVE_INFINITY;
+		return 20.0 * Math.log10(_peak / 32768.0);
+	}
+
+	public long getFramesMeasured() {
+		return _framesMeasured;
+	}
+
+	// gain in dB that brings the stream to targetLoudness without pushing the peak over peakCeiling
+	public float getGain(double targetLoudness, double peakCeiling, double maxGain) {
+		double loudness = getIntegratedLoudness();
+		if (Double.isInfinite(loudness))
+			return 0f;
+		double gain = Math.min(targetLoudness - loudness, maxGain);
+		if (!Double.isInfinite(getPeak()))
+			gain = Math.min(gain, peakCeiling - getPeak());
+		return (float) gain;
+	}
+
+	// histogram and peak are enough to continue later, filter state and partial blocks are not kept
+	public void save(DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeLong(_framesMeasured);
+		out.writeInt(_peak);
+		out.writeInt(HISTOGRAM_SIZE);
+		for (long count : _histogram)
+			out.writeLong(count);
+	}
+
+	public boolean restore(DataInputStream in) throws IOException {
+		if (in.readInt() != VERSION)
+			return false;
+		long framesMeasured = in.readLong();
+		int peak = in.readInt();
+		if (in.readInt() != HISTOGRAM_SIZE)
+			return false;
+		long[] histogram = new long[HISTOGRAM_SIZE];
+		for (int i = 0; i < HISTOGRAM_SIZE; ++i)
+			histogram[i] = in.readLong();
+		System.arraycopy(histogram, 0, _histogram, 0, HISTOGRAM_SIZE);
+		_framesMeasured = framesMeasured;
+		_peak = peak;
+		return true;
+	}
+
+	private static double binLoudness(int bin) {
+		return ABSOLUTE_GATE + (bin + 0.5) / HISTOGRAM_BINS_PER_LU;
+	}
+
+	private static double toLoudness(double energy) {
+		return -0.691 + 10.0 * Math.log10(energy);
+	}
+
+	private static double toEnergy(double loudness) {
+		return Math.pow(10.0, (loudness + 0.691) / 10.0);
+	}
+}
@@ -0,0 +1,146 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+// AAC in an MP4/M4A container, demuxed here and decoded by whichever IAudioUnitDecoder it's given
+public class MP4Decoder implements IMediaDecoder {
+	// room for a few HE-AAC frames, which are 2048 samples per channel
+	private static final int PCM_SIZE = 4 * 2048 * 2;
+	// the first unit after a seek decodes wrong without the one before it
+	private static final int SEEK_PREROLL_UNITS = 1;
+
+	private final MP4Demuxer _demuxer;
+	private final IAudioUnitDecoder _codec;
+
+	// decoded samples not handed out yet
+	private final short[] _pcm = new short[PCM_SIZE];
+	private int _pcmOffset = 0;
+	private int _pcmLength = 0;
+	private boolean _ended = false;
+	// samples still to throw away to land exactly on the seek target
+	private long _discard = 0;
+	// position is _base plus the frames handed out since
+	private float _base = 0;
+	private long _framesOut = 0;
+
+	public MP4Decoder(String filename, IAudioUnitDecoder codec) throws IOException {
+		_demuxer = new MP4Demuxer(filename);
+		_codec = codec;
+		if (!_codec.configure(_demuxer.getCodecConfig(), _demuxer.getSampleRate(), _demuxer.getNumChannels())) {
+			_demuxer.close();
+			throw new IOException("unable to configure decoder for " + filename);
+		}
+		// decode until the first output so the codec has reported its real rate and channels
+		while (_pcmLength == 0 && fill()) { }
+	}
+
+	@Override
+	public void close() {
+		_codec.release();
+		_demuxer.close();
+	}
+
+	@Override
+	public int readSamples(short[] buffer, int offset, int numSamples) {
+		int read = 0;
+		while (read < numSamples) {
+			if (_pcmOffset == _pcmLength && !fill())
+				break;
+			int count = Math.min(numSamples - read, _pcmLength - _pcmOffset);
+			System.arraycopy(_pcm, _pcmOffset, buffer, offset + read, count);
+			_pcmOffset += count;
+			read += count;
+		}
+		_framesOut += read / getNumChannels();
+		return read;
+	}
+
+	@Override
+	public int readSamples(ShortBuffer buffer, int numSamples) {
+		int read = 0;
+		numSamples = Math.min(numSamples, buffer.remaining());
+		while (read < numSamples) {
+			if (_pcmOffset == _pcmLength && !fill())
+				break;
+			int count = Math.min(numSamples - read, _pcmLength - _pcmOffset);
+			buffer.put(_pcm, _pcmOffset, count);
+			_pcmOffset += count;
+			read += count;
+		}
+		_framesOut += read / getNumChannels();
+		return read;
+	}
+
+	@Override
+	public int skipSamples(int numSamples) {
+		int skipped = 0;
+		while (skipped < numSamples) {
+			if (_pcmOffset == _pcmLength && !fill())
+				break;
+			int count = Math.min(numSamples - skipped, _pcmLength - _pcmOffset);
+			_pcmOffset += count;
+			skipped += count;
+		}
+		_framesOut += skipped / getNumChannels();
+		return skipped;
+	}
+
+	// decodes the next unit into _pcm, false at the end of the stream
+	private boolean fill() {
+		while (!_ended) {
+			ByteBuffer unit;
+			try {
+				unit = _demuxer.readSample();
+			} catch (IOException e) {
+				Log.e("Podax", "unable to read MP4 sample", e);
+				unit = null;
+			}
+			_pcmOffset = 0;
+			_pcmLength = _codec.decode(unit, _pcm);
+			if (unit == null && _pcmLength == 0)
+				_ended = true;
+			if (_discard > 0) {
+				int count = (int) Math.min(_discard, _pcmLength);
+				_pcmOffset = count;
+				_discard -= count;
+			}
+			if (_pcmOffset < _pcmLength)
+				return true;
+		}
+		_pcmOffset = _pcmLength = 0;
+		return false;
+	}
+
+	@Override
+	public int seek(float offsetInSeconds) {
+		try {
+			_demuxer.seek(offsetInSeconds);
+			// start a unit early, the pre-roll is discarded along with the rest of the way to the target
+			_demuxer.seekToSample(Math.max(0, _demuxer.getSample() - SEEK_PREROLL_UNITS));
+			float start = _demuxer.getTime();
+			_codec.flush();
+			_pcmOffset = _pcmLength = 0;
+			_ended = false;
+			_discard = Math.max(0, (long) ((offsetInSeconds - start) * getRate()) * getNumChannels());
+			_base = Math.max(offsetInSeconds, start);
+			_framesOut = 0;
+			return 0;
+		} catch (IOException e) {
+			Log.e("Podax", "unable to seek MP4", e);
+			return -1;
+		}
+	}
+
+	@Override public float getPosition() { return _base + (float) _framesOut / getRate(); }
+	@Override public int getNumChannels() { return _codec.getNumChannels(); }
+	@Override public int getRate() { return _codec.getRate(); }
+	@Override public float getDuration() { return _demuxer.getDuration(); }
+
+	// the sample tables already map any time to a byte offset
+	@Override public SeekIndex buildSeekIndex() { return null; }
+	@Override public void setSeekIndex(SeekIndex index) { }
+}
@@ -0,0 +1,474 @@
+package com.axelby.podax.player;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+// reads the audio access units of an MP4/M4A file in order, or from any sample after a seek
+// the size and chunk offset tables of a multi-hour episode run to megabytes so they stay in the file
+// and are read a window at a time, only the sample-to-chunk table is loaded
+class MP4Demuxer {
+	// MPEG-4 audio, MPEG-2 AAC main, LC and SSR
+	private static final int[] AAC_OBJECT_TYPES = { 0x40, 0x66, 0x67, 0x68 };
+	private static final int[] AAC_SAMPLE_RATES = { 96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350 };
+
+	private final RandomAccessFile _file;
+	private final FileChannel _channel;
+	// set while the file is still downloading
+	private final ProgressiveSource _source;
+	private final ByteBuffer _header = ByteBuffer.allocate(16);
+
+	// audio track
+	private long _timescale = 0;
+	private long _duration = 0;
+	private int _sampleRate = 0;
+	private int _channels = 0;
+	private byte[] _codecConfig = null;
+	private int _sampleCount = 0;
+	private long _fixedSampleSize = 0;
+	private Table _sampleSizes = null;
+	private Table _chunkOffsets = null;
+	private Table _timeToSample = null;
+	private int[] _firstChunk = null;
+	private int[] _samplesPerChunk = null;
+
+	// read position
+	private int _sample = 0;
+	private int _chunk = 0;
+	private int _chunkEntry = 0;
+	private int _sampleInChunk = 0;
+	private long _offset = 0;
+	private int _timeEntry = 0;
+	private long _timeLeft = 0;
+	private long _time = 0;
+
+	// holds the last access unit read, grown when a bigger one comes along
+	private ByteBuffer _unit = ByteBuffer.allocate(2048);
+
+	MP4Demuxer(String filename) throws IOException {
+		_source = ProgressiveSource.get(filename);
+		_file = new RandomAccessFile(_source != null ? _source.getCacheFilename() : filename, "r");
+		_channel = _file.getChannel();
+		try {
+			long length = _source != null ? _source.getLength() : _channel.size();
+			if (length < 0)
+				throw new IOException("download of " + filename + " failed");
+			parseBoxes(0, length, null);
+			if (_codecConfig == null || _sampleCount == 0 || _chunkOffsets == null || _firstChunk == null || _timeToSample == null)
+				throw new IOException("no AAC audio track");
+			if (_timescale == 0)
+				_timescale = _sampleRate;
+			seekToSample(0);
+		} catch (IOException e) {
+			_file.close();
+			throw e;
+		}
+	}
+
+	public void close() {
+		try {
+			_file.close();
+		} catch (IOException ignored) { }
+	}
+
+	// AudioSpecificConfig from the esds box, what an AAC decoder needs before the first unit
+	public byte[] getCodecConfig() { return _codecConfig; }
+	public int getSampleRate() { return _sampleRate; }
+	public int getNumChannels() { return _channels; }
+	public int getSampleCount() { return _sampleCount; }
+	public float getDuration() { return (float) _duration / _timescale; }
+
+	// index of the next access unit
+	public int getSample() { return _sample; }
+	// start time of the next access unit in seconds
+	public float getTime() { return (float) _time / _timescale; }
+
+	// next access unit, positioned and limited to its bytes, or null at the end of the track
+	// the buffer is reused by the next call
+	public ByteBuffer readSample() throws IOException {
+		if (_sample >= _sampleCount)
+			return null;
+
+		int size = (int) getSampleSize(_sample);
+		if (_unit.capacity() < size)
+			_unit = ByteBuffer.allocate(size + size / 2);
+		_unit.clear();
+		_unit.limit(size);
+		readFully(_unit, _offset);
+		_unit.flip();
+
+		_offset += size;
+		++_sample;
+		if (++_sampleInChunk == _samplesPerChunk[_chunkEntry] && _sample < _sampleCount)
+			startChunk(_chunk + 1);
+		_time += _timeToSample.get(_timeEntry, 1);
+		if (--_timeLeft == 0 && _timeEntry + 1 < _timeToSample.count) {
+			++_timeEntry;
+			_timeLeft = _timeToSample.get(_timeEntry, 0);
+		}
+		return _unit;
+	}
+
+	// moves to the access unit playing at seconds and returns its start time in seconds
+	public float seek(float seconds) throws IOException {
+		long target = (long) (seconds * _timescale);
+		int sample = 0;
+		long time = 0;
+		for (int entry = 0; entry < _timeToSample.count; ++entry) {
+			long count = _timeToSample.get(entry, 0);
+			long delta = _timeToSample.get(entry, 1);
+			if (delta > 0 && time + count * delta > target) {
+				sample += (int) ((target - time) / delta);
+				break;
+			}
+			sample += count;
+			time += count * delta;
+		}
+		seekToSample(Math.max(0, Math.min(sample, _sampleCount - 1)));
+		return getTime();
+	}
+
+	// moves to sample, the tables are walked from the start since stts and stsc are a handful of entries
+	public void seekToSample(int sample) throws IOException {
+		_sample = sample;
+
+		_timeEntry = 0;
+		_time = 0;
+		long before = sample;
+		while (true) {
+			long count = _timeToSample.get(_timeEntry, 0);
+			if (before < count || _timeEntry + 1 == _timeToSample.count) {
+				_time += before * _timeToSample.get(_timeEntry, 1);
+				_timeLeft = count - before;
+				break;
+			}
+			_time += count * _timeToSample.get(_timeEntry, 1);
+			before -= count;
+			++_timeEntry;
+		}
+
+		// runs of chunks with the same number of samples each
+		int chunk = 0;
+		int entry = 0;
+		before = sample;
+		while (entry + 1 < _firstChunk.length) {
+			int nextRun = _firstChunk[entry + 1] - 1;
+			long samples = (long) (nextRun - chunk) * _samplesPerChunk[entry];
+			if (before < samples)
+				break;
+			before -= samples;
+			chunk = nextRun;
+			++entry;
+		}
+		chunk += (int) (before / _samplesPerChunk[entry]);
+		int inChunk = (int) (before % _samplesPerChunk[entry]);
+		startChunk(chunk);
+		for (int s = sample - inChunk; s < sample; ++s) {
+			_offset += getSampleSize(s);
+			++_sampleInChunk;
+		}
+	}
+
+	private void startChunk(int chunk) throws IOException {
+		if (chunk >= _chunkOffsets.count)
+			throw new IOException("chunk " + chunk + " is past the chunk offset table");
+		_chunk = chunk;
+		// stsc chunk numbers start at 1, reading moves forward so usually the entry is the current one or the next
+		if (_firstChunk[_chunkEntry] - 1 > chunk)
+			_chunkEntry = 0;
+		while (_chunkEntry + 1 < _firstChunk.length && _firstChunk[_chunkEntry + 1] - 1 <= chunk)
+			++_chunkEntry;
+		_sampleInChunk = 0;
+		_offset = _chunkOffsets.get(chunk, 0);
+	}
+
+	private long getSampleSize(int sample) throws IOException {
+		if (_fixedSampleSize != 0)
+			return _fixedSampleSize;
+		return _sampleSizes.get(sample, 0);
+	}
+
+	// walks the boxes in [start, end), descending into the containers on the way to the sample tables
+	// handler is the hdlr of the enclosing trak once it has been seen
+	private void parseBoxes(long start, long end, String handler) throws IOException {
+		long position = start;
+		while (position + 8 <= end) {
+			_header.clear();
+			_header.limit(8);
+			readFully(_header, position);
+			long size = _header.getInt(0) & 0xFFFFFFFFL;
+			String type = fourcc(_header, 4);
+			long headerSize = 8;
+			if (size == 1) {
+				_header.clear();
+				_header.limit(8);
+				readFully(_header, position + 8);
+				size = _header.getLong(0);
+				headerSize = 16;
+			} else if (size == 0) {
+				size = end - position;
+			}
+			if (size < headerSize || position + size > end)
+				break;
+			long body = position + headerSize;
+			long bodyEnd = position + size;
+
+			if (type.equals("moov") || type.equals("mdia") || type.equals("minf")) {
+				parseBoxes(body, bodyEnd, handler);
+			} else if (type.equals("trak")) {
+				// only the first audio track is used
+				if (_codecConfig == null)
+					parseTrack(body, bodyEnd);
+			} else if (type.equals("stbl") && "soun".equals(handler)) {
+				parseBoxes(body, bodyEnd, handler);
+			} else if ("soun".equals(handler)) {
+				parseSampleTable(type, body, bodyEnd);
+			}
+			position = bodyEnd;
+		}
+	}
+
+	private void parseTrack(long start, long end) throws IOException {
+		// hdlr comes after mdhd but the tables depend on it so find it first
+		String handler = findHandler(start, end);
+		if (!"soun".equals(handler))
+			return;
+		parseBoxes(start, end, handler);
+		if (_codecConfig == null) {
+			// not AAC, forget whatever tables were read
+			_sampleCount = 0;
+			_sampleSizes = null;
+			_chunkOffsets = null;
+			_timeToSample = null;
+			_firstChunk = null;
+		}
+	}
+
+	private String findHandler(long start, long end) throws IOException {
+		ByteBuffer box = findBox(start, end, "mdia");
+		if (box == null)
+			return null;
+		long mdia = box.getLong(0);
+		long mdiaEnd = box.getLong(8);
+		box = findBox(mdia, mdiaEnd, "hdlr");
+		if (box == null)
+			return null;
+		_header.clear();
+		_header.limit(4);
+		// version/flags and pre_defined come before the handler type
+		readFully(_header, box.getLong(0) + 8);
+		String handler = fourcc(_header, 0);
+
+		box = findBox(mdia, mdiaEnd, "mdhd");
+		if (box != null && "soun".equals(handler)) {
+			ByteBuffer mdhd = read(box.getLong(0), (int) Math.min(box.getLong(8) - box.getLong(0), 32));
+			if (mdhd.get(0) == 1) {
+				_timescale = mdhd.getInt(20) & 0xFFFFFFFFL;
+				_duration = mdhd.getLong(24);
+			} else {
+				_timescale = mdhd.getInt(12) & 0xFFFFFFFFL;
+				_duration = mdhd.getInt(16) & 0xFFFFFFFFL;
+			}
+		}
+		return handler;
+	}
+
+	// body start and end of the first box of type in [start, end), null if there isn't one
+	private ByteBuffer findBox(long start, long end, String type) throws IOException {
+		long position = start;
+		while (position + 8 <= end) {
+			ByteBuffer header = read(position, (int) Math.min(16, end - position));
+			long size = header.getInt(0) & 0xFFFFFFFFL;
+			long headerSize = 8;
+			if (size == 1 && header.limit() == 16) {
+				size = header.getLong(8);
+				headerSize = 16;
+			} else if (size == 0) {
+				size = end - position;
+			}
+			if (size < headerSize)
+				return null;
+			if (fourcc(header, 4).equals(type)) {
+				ByteBuffer result = ByteBuffer.allocate(16);
+				result.putLong(0, position + headerSize);
+				result.putLong(8, Math.min(position + size, end));
+				return result;
+			}
+			position += size;
+		}
+		return null;
+	}
+
+	private void parseSampleTable(String type, long body, long end) throws IOException {
+		if (type.equals("stsd")) {
+			parseSampleDescription(body, end);
+		} else if (type.equals("stts")) {
+			ByteBuffer b = read(body, 8);
+			_timeToSample = new Table(body + 8, b.getInt(4), 8, 4);
+		} else if (type.equals("stsz")) {
+			ByteBuffer b = read(body, 12);
+			_fixedSampleSize = b.getInt(4) & 0xFFFFFFFFL;
+			_sampleCount = b.getInt(8);
+			if (_fixedSampleSize == 0)
+				_sampleSizes = new Table(body + 12, _sampleCount, 4, 4);
+		} else if (type.equals("stco") || type.equals("co64")) {
+			ByteBuffer b = read(body, 8);
+			int width = type.equals("co64") ? 8 : 4;
+			_chunkOffsets = new Table(body + 8, b.getInt(4), width, width);
+		} else if (type.equals("stsc")) {
+			ByteBuffer b = read(body, 8);
+			int count = b.getInt(4);
+			b = read(body + 8, count * 12);
+			_firstChunk = new int[count];
+			_samplesPerChunk = new int[count];
+			for (int i = 0; i < count; ++i) {
+				_firstChunk[i] = b.getInt(i * 12);
+				_samplesPerChunk[i] = b.getInt(i * 12 + 4);
+			}
+		}
+	}
+
+	// mp4a sample entry holding an esds box with the decoder config
+	private void parseSampleDescription(long body, long end) throws IOException {
+		ByteBuffer entry = findBox(body + 8, end, "mp4a");
+		if (entry == null)
+			return;
+		long mp4a = entry.getLong(0);
+		ByteBuffer b = read(mp4a, 28);
+		_channels = b.getShort(16);
+		_sampleRate = b.getChar(24);
+		// QuickTime sound descriptions 1 and 2 have extra fields before the child boxes
+		int version = b.getShort(8);
+		long children = mp4a + 28 + (version == 1 ? 16 : version == 2 ? 36 : 0);
+
+		ByteBuffer esds = findBox(children, entry.getLong(8), "esds");
+		if (esds == null)
+			return;
+		long esdsStart = esds.getLong(0) + 4;
+		ByteBuffer descriptors = read(esdsStart, (int) Math.min(esds.getLong(8) - esdsStart, 1024));
+		parseDescriptors(descriptors);
+	}
+
+	// ES_Descriptor -> DecoderConfigDescriptor -> DecoderSpecificInfo
+	private void parseDescriptors(ByteBuffer b) {
+		int objectType = 0;
+		while (b.remaining() >= 2) {
+			int tag = b.get() & 0xFF;
+			int length = 0;
+			for (int i = 0; i < 4 && b.hasRemaining(); ++i) {
+				int c = b.get() & 0xFF;
+				length = (length << 7) | (c & 0x7F);
+				if ((c & 0x80) == 0)
+					break;
+			}
+			if (tag == 3) {
+				// ES_ID, then flags saying which optional fields follow
+				b.getShort();
+				int flags = b.get() & 0xFF;
+				if ((flags & 0x80) != 0)
+					b.getShort();
+				if ((flags & 0x40) != 0)
+					b.position(b.position() + (b.get() & 0xFF));
+				if ((flags & 0x20) != 0)
+					b.getShort();
+			} else if (tag == 4) {
+				objectType = b.get() & 0xFF;
+				// stream type, buffer size, max and average bitrate
+				b.position(b.position() + 12);
+			} else if (tag == 5) {
+				if (!isAAC(objectType) || length > b.remaining())
+					return;
+				_codecConfig = new byte[length];
+				b.get(_codecConfig);
+				parseAudioSpecificConfig(_codecConfig);
+				return;
+			} else {
+				b.position(Math.min(b.limit(), b.position() + length));
+			}
+		}
+	}
+
+	private static boolean isAAC(int objectType) {
+		for (int type : AAC_OBJECT_TYPES)
+			if (type == objectType)
+				return true;
+		return false;
+	}
+
+	// sample rate and channels from the config since the mp4a entry can't say more than 65535 Hz
+	private void parseAudioSpecificConfig(byte[] config) {
+		if (config.length < 2)
+			return;
+		int bits = ((config[0] & 0xFF) << 8) | (config[1] & 0xFF);
+		int rateIndex = (bits >> 7) & 0xF;
+		int channelConfig = (bits >> 3) & 0xF;
+		if (rateIndex < AAC_SAMPLE_RATES.length)
+			_sampleRate = AAC_SAMPLE_RATES[rateIndex];
+		if (channelConfig > 0 && channelConfig < 8)
+			_channels = channelConfig == 7 ? 8 : channelConfig;
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		readFully(b, position);
+		b.flip();
+		return b;
+	}
+
+	// fills b from position, waiting for the download if there is one
+	private void readFully(ByteBuffer b, long position) throws IOException {
+		if (_source != null && _source.awaitRange(position, b.remaining()) < b.remaining())
+			throw new IOException("download stopped before " + (position + b.remaining()));
+		while (b.hasRemaining()) {
+			int read = _channel.read(b, position);
+			if (read <= 0)
+				break;
+			position += read;
+		}
+		if (b.hasRemaining())
+			throw new IOException("unexpected end of file at " + position);
+	}
+
+	private static String fourcc(ByteBuffer b, int offset) {
+		char[] c = new char[4];
+		for (int i = 0; i < 4; ++i)
+			c[i] = (char) (b.get(offset + i) & 0xFF);
+		return new String(c);
+	}
+
+	// big endian table in the file, read through a window so a lookup near the last one doesn't touch the disk
+	private class Table {
+		private static final int WINDOW_ENTRIES = 1024;
+
+		final int count;
+		private final long _start;
+		private final int _entrySize;
+		private final int _fieldSize;
+		private final ByteBuffer _window;
+		private int _windowFirst = 0;
+		private int _windowCount = 0;
+
+		Table(long start, int count, int entrySize, int fieldSize) {
+			this.count = count;
+			_start = start;
+			_entrySize = entrySize;
+			_fieldSize = fieldSize;
+			_window = ByteBuffer.allocate(Math.min(count, WINDOW_ENTRIES) * entrySize);
+		}
+
+		long get(int index, int field) throws IOException {
+			if (index < _windowFirst || index >= _windowFirst + _windowCount) {
+				_windowFirst = index;
+				_windowCount = Math.min(count - index, WINDOW_ENTRIES);
+				_window.clear();
+				_window.limit(_windowCount * _entrySize);
+				readFully(_window, _start + (long) index * _entrySize);
+			}
+			int position = (index - _windowFirst) * _entrySize + field * _fieldSize;
+			if (_fieldSize == 8)
+				return _window.getLong(position);
+			return _window.getInt(position) & 0xFFFFFFFFL;
+		}
+	}
+}
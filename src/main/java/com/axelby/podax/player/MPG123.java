@@ -1,5 +1,7 @@
 package com.axelby.podax.player;
 
+import java.nio.ShortBuffer;
+
 public class MPG123 implements IMediaDecoder {
 	static {
 		System.loadLibrary("mpg123");
@@ -9,8 +11,10 @@ public class MPG123 implements IMediaDecoder {
 	private static native int init();
 	private static native String getErrorMessage(int error);
 	private static native long openFile(String filename);
+	private static native long openProgressive(String filename, ProgressiveSource source);
 	private static native void delete(long handle);
 	private static native int readSamples(long handle, short[] buffer, int offset, int numSamples);
+	private static native int readSamplesDirect(long handle, ShortBuffer buffer, int offset, int numSamples);
 	private static native int skipSamples(long handle, int numSamples);
 	private static native int seek(long handle, float offsetInSeconds);
 	private static native float getPosition(long handle);
@@ -20,9 +24,20 @@ public class MPG123 implements IMediaDecoder {
 	private static native long getNumFrames(long handle);
 	private static native float getDuration(long handle);
 	private static native int getFramesPerSecond(long handle);
+	private static native long[] buildIndex(long handle, int maxEntries);
+	private static native int setIndex(long handle, long step, long[] offsets);
+
+	// mpg123 doubles the frame step whenever the index fills up
+	private static final int SEEK_INDEX_ENTRIES = 8192;
 
 	long _handle = 0;
-	public MPG123(String filename) { _handle = openFile(filename); }
+	public MPG123(String filename) {
+		ProgressiveSource source = ProgressiveSource.get(filename);
+		if (source != null)
+			_handle = openProgressive(source.getCacheFilename(), source);
+		else
+			_handle = openFile(filename);
+	}
 
 	public void close() {
 		if (_handle != 0)
@@ -32,10 +47,39 @@ public class MPG123 implements IMediaDecoder {
 	public int readSamples(short[] buffer, int offset, int numSamples) {
 		return MPG123.readSamples(_handle, buffer, offset, numSamples);
 	}
+	public int readSamples(ShortBuffer buffer, int numSamples) {
+		if (!buffer.isDirect())
+			throw new IllegalArgumentException("buffer must be direct");
+		int read = MPG123.readSamplesDirect(_handle, buffer, buffer.position(), Math.min(numSamples, buffer.remaining()));
+		buffer.position(buffer.position() + read);
+		return read;
+	}
 	public int skipSamples(int numSamples) { return MPG123.skipSamples(_handle, numSamples); }
 	public int seek(float offset) { return MPG123.seek(_handle, offset); }
 	public float getPosition() { return MPG123.getPosition(_handle); }
 	public int getNumChannels() { return MPG123.getNumChannels(_handle); }
 	public int getRate() { return MPG123.getRate(_handle); }
 	public float getDuration() { return MPG123.getDuration(_handle); }
+
+	public SeekIndex buildSeekIndex() {
+		long[] index = MPG123.buildIndex(_handle, SEEK_INDEX_ENTRIES);
+		if (index == null)
+			return null;
+		long step = index[0];
+		long[] positions = new long[index.length - 1];
+		long[] offsets = new long[index.length - 1];
+		for (int i = 0; i < positions.length; ++i) {
+			positions[i] = i * step;
+			offsets[i] = index[i + 1];
+		}
+		return new SeekIndex(positions, offsets);
+	}
+
+	// mpg123 seeks through its own frame index so it only needs the offsets
+	public void setSeekIndex(SeekIndex index) {
+		if (_handle == 0 || index.size() < 2)
+			return;
+		long step = index.getPosition(1) - index.getPosition(0);
+		MPG123.setIndex(_handle, step, index.getOffsets());
+	}
 }
@@ -0,0 +1,154 @@
+package com.axelby.podax.player;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// platform AAC decoder, available from Jelly Bean
+// a unit can take a few calls to come out the other end so output buffers are copied out as they appear
+@TargetApi(16)
+public class MediaCodecAudioDecoder implements IAudioUnitDecoder {
+	private static final String MIME_AAC = "audio/mp4a-latm";
+	private static final long TIMEOUT_US = 10000;
+	// how long to wait for an input buffer or the last of the output before giving up, in timeouts
+	private static final int MAX_WAITS = 50;
+
+	private MediaCodec _codec = null;
+	private ByteBuffer[] _inputs;
+	private ByteBuffer[] _outputs;
+	private final MediaCodec.BufferInfo _info = new MediaCodec.BufferInfo();
+	private int _rate;
+	private int _channels;
+	private boolean _inputDone = false;
+	private boolean _outputDone = false;
+	// output buffer that didn't fit in the last out array
+	private int _pending = -1;
+	private int _pendingOffset = 0;
+	private int _pendingEnd = 0;
+
+	@Override
+	public boolean configure(byte[] codecConfig, int sampleRate, int numChannels) {
+		_rate = sampleRate;
+		_channels = numChannels;
+		MediaFormat format = MediaFormat.createAudioFormat(MIME_AAC, sampleRate, numChannels);
+		format.setByteBuffer("csd-0", ByteBuffer.wrap(codecConfig));
+		try {
+			_codec = MediaCodec.createDecoderByType(MIME_AAC);
+			_codec.configure(format, null, null, 0);
+			_codec.start();
+		} catch (IOException e) {
+			Log.e("Podax", "unable to create AAC decoder", e);
+			return false;
+		} catch (IllegalStateException e) {
+			Log.e("Podax", "unable to start AAC decoder", e);
+			return false;
+		}
+		_inputs = _codec.getInputBuffers();
+		_outputs = _codec.getOutputBuffers();
+		return true;
+	}
+
+	@Override
+	public int decode(ByteBuffer unit, short[] out) {
+		int written = drain(out, 0, 0);
+		if (!_inputDone) {
+			boolean queued = false;
+			for (int wait = 0; wait < MAX_WAITS && !queued; ++wait) {
+				int index = _codec.dequeueInputBuffer(TIMEOUT_US);
+				if (index >= 0) {
+					ByteBuffer input = _inputs[index];
+					input.clear();
+					if (unit == null) {
+						_codec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+						_inputDone = true;
+					} else {
+						int size = unit.remaining();
+						input.put(unit);
+						_codec.queueInputBuffer(index, 0, size, 0, 0);
+					}
+					queued = true;
+				} else {
+					// the codec may be waiting for its output to be taken
+					written = drain(out, written, 0);
+				}
+			}
+			if (!queued)
+				Log.w("Podax", "AAC decoder stalled, dropping a unit");
+		}
+		written = drain(out, written, 0);
+		// at the end keep waiting until the codec says it's done so the tail isn't cut off
+		for (int wait = 0; _inputDone && !_outputDone && written == 0 && wait < MAX_WAITS; ++wait)
+			written = drain(out, written, TIMEOUT_US);
+		return written;
+	}
+
+	// copies finished output into out from written, returns the new count
+	private int drain(short[] out, int written, long timeoutUs) {
+		while (written < out.length) {
+			if (_pending < 0) {
+				int index = _codec.dequeueOutputBuffer(_info, timeoutUs);
+				if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+					_outputs = _codec.getOutputBuffers();
+					continue;
+				}
+				if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+					MediaFormat format = _codec.getOutputFormat();
+					_rate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+					_channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+					continue;
+				}
+				if (index < 0)
+					return written;
+				if ((_info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0)
+					_outputDone = true;
+				_pending = index;
+				_pendingOffset = _info.offset;
+				_pendingEnd = _info.offset + _info.size;
+			}
+
+			ByteBuffer output = _outputs[_pending];
+			output.limit(_pendingEnd);
+			output.position(_pendingOffset);
+			ShortBuffer samples = output.slice().order(ByteOrder.nativeOrder()).asShortBuffer();
+			int count = Math.min(samples.remaining(), out.length - written);
+			samples.get(out, written, count);
+			written += count;
+			_pendingOffset += count * 2;
+			if (_pendingOffset >= _pendingEnd) {
+				_codec.releaseOutputBuffer(_pending, false);
+				_pending = -1;
+			}
+			timeoutUs = 0;
+		}
+		return written;
+	}
+
+	@Override
+	public void flush() {
+		// flushing hands every buffer back to the codec, including a pending output
+		_codec.flush();
+		_pending = -1;
+		_inputDone = false;
+		_outputDone = false;
+	}
+
+	@Override
+	public void release() {
+		if (_codec == null)
+			return;
+		try {
+			_codec.stop();
+		} catch (IllegalStateException ignored) { }
+		_codec.release();
+		_codec = null;
+	}
+
+	@Override public int getRate() { return _rate; }
+	@Override public int getNumChannels() { return _channels; }
+}
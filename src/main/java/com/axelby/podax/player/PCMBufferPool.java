@@ -0,0 +1,38 @@
+package com.axelby.podax.player;
+
+// a fixed set of PCM buffers that are allocated once and handed out repeatedly
+// so the playback loop doesn't create garbage on the audio thread
+public class PCMBufferPool {
+	private final short[][] _buffers;
+	private final int _bufferSize;
+	private int _available;
+
+	public PCMBufferPool(int count, int bufferSize) {
+		_bufferSize = bufferSize;
+		_buffers = new short[count][];
+		for (int i = 0; i < count; ++i)
+			_buffers[i] = new short[bufferSize];
+		_available = count;
+	}
+
+	public int getBufferSize() {
+		return _bufferSize;
+	}
+
+	// returns null if every buffer is in use
+	public synchronized short[] acquire() {
+		if (_available == 0)
+			return null;
+		short[] buffer = _buffers[--_available];
+		_buffers[_available] = null;
+		return buffer;
+	}
+
+	public synchronized void release(short[] buffer) {
+		if (buffer == null || buffer.length != _bufferSize)
+			throw new IllegalArgumentException("buffer does not belong to this pool");
+		if (_available == _buffers.length)
+			throw new IllegalStateException("buffer released twice");
+		_buffers[_available++] = buffer;
+	}
+}
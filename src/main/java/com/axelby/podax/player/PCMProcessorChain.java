@@ -0,0 +1,41 @@
+package com.axelby.podax.player;
+
+import java.util.ArrayList;
+
+// runs processors in the order they were added
+public class PCMProcessorChain implements IPCMProcessor {
+	private final ArrayList<IPCMProcessor> _processors = new ArrayList<IPCMProcessor>();
+	private int _sampleRate = 0;
+	private int _channels = 0;
+
+	public void add(IPCMProcessor processor) {
+		if (_sampleRate != 0)
+			processor.setFormat(_sampleRate, _channels);
+		_processors.add(processor);
+	}
+
+	public boolean isEmpty() {
+		return _processors.isEmpty();
+	}
+
+	@Override
+	public void setFormat(int sampleRate, int channels) {
+		_sampleRate = sampleRate;
+		_channels = channels;
+		for (int i = 0; i < _processors.size(); ++i)
+			_processors.get(i).setFormat(sampleRate, channels);
+	}
+
+	@Override
+	public int process(short[] buffer, int length) {
+		for (int i = 0; i < _processors.size() && length > 0; ++i)
+			length = _processors.get(i).process(buffer, length);
+		return length;
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < _processors.size(); ++i)
+			_processors.get(i).reset();
+	}
+}
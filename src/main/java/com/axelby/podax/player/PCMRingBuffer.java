@@ -0,0 +1,153 @@
+package com.axelby.podax.player;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free ring of interleaved PCM samples with exactly one producer thread and one consumer thread.
+// The producer only moves the write position and the consumer only moves the read position,
+// so volatile positions are enough to publish the samples between them.
+public class PCMRingBuffer {
+	private final short[] _buffer;
+	private final int _mask;
+
+	private volatile long _writePosition = 0;
+	private volatile long _readPosition = 0;
+	private volatile boolean _endOfStream = false;
+
+	private volatile Thread _waitingProducer = null;
+	private volatile Thread _waitingConsumer = null;
+
+	// consumer-side counters
+	private volatile int _underruns = 0;
+
+	// capacity is rounded up to a power of two
+	public PCMRingBuffer(int minCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+		_buffer = new short[capacity];
+		_mask = capacity - 1;
+	}
+
+	public int getCapacity() {
+		return _buffer.length;
+	}
+
+	public int available() {
+		return (int) (_writePosition - _readPosition);
+	}
+
+	public float getOccupancy() {
+		return (float) available() / _buffer.length;
+	}
+
+	public int getUnderrunCount() {
+		return _underruns;
+	}
+
+	/* producer side */
+
+	// copies as much of src as fits and returns the number of samples written
+	public int write(short[] src, int offset, int length) {
+		long write = _writePosition;
+		int free = _buffer.length - (int) (write - _readPosition);
+		int count = Math.min(length, free);
+		if (count <= 0)
+			return 0;
+
+		int start = (int) (write & _mask);
+		int firstPart = Math.min(count, _buffer.length - start);
+		System.arraycopy(src, offset, _buffer, start, firstPart);
+		System.arraycopy(src, offset + firstPart, _buffer, 0, count - firstPart);
+
+		_writePosition = write + count;
+		wake(_waitingConsumer);
+		return count;
+	}
+
+	// copies as much of src's remaining samples as fits and moves its position past them
+	public int write(ShortBuffer src) {
+		long write = _writePosition;
+		int free = _buffer.length - (int) (write - _readPosition);
+		int count = Math.min(src.remaining(), free);
+		if (count <= 0)
+			return 0;
+
+		int start = (int) (write & _mask);
+		int firstPart = Math.min(count, _buffer.length - start);
+		src.get(_buffer, start, firstPart);
+		src.get(_buffer, 0, count - firstPart);
+
+		_writePosition = write + count;
+		wake(_waitingConsumer);
+		return count;
+	}
+
+	public long getWritePosition() {
+		return _writePosition;
+	}
+
+	public void setEndOfStream(boolean endOfStream) {
+		_endOfStream = endOfStream;
+		wake(_waitingConsumer);
+	}
+
+	// parks the producer until the consumer frees space or the producer thread is unparked
+	// callers check why they woke up, a park can also return for no reason
+	public void awaitSpace() {
+		_waitingProducer = Thread.currentThread();
+		if (available() == _buffer.length)
+			LockSupport.park(this);
+		_waitingProducer = null;
+	}
+
+	/* consumer side */
+
+	public long getReadPosition() {
+		return _readPosition;
+	}
+
+	// copies up to length samples into dst and returns the number of samples read
+	public int read(short[] dst, int offset, int length) {
+		long read = _readPosition;
+		int count = Math.min(length, (int) (_writePosition - read));
+		if (count <= 0)
+			return 0;
+
+		int start = (int) (read & _mask);
+		int firstPart = Math.min(count, _buffer.length - start);
+		System.arraycopy(_buffer, start, dst, offset, firstPart);
+		System.arraycopy(_buffer, 0, dst, offset + firstPart, count - firstPart);
+
+		_readPosition = read + count;
+		wake(_waitingProducer);
+		return count;
+	}
+
+	// true once the producer has no more samples and everything written has been read
+	public boolean isDrained() {
+		return _endOfStream && available() == 0;
+	}
+
+	// drops everything written before position, used to throw away audio from before a seek
+	public void discardUpTo(long position) {
+		if (position > _readPosition)
+			_readPosition = position;
+		wake(_waitingProducer);
+	}
+
+	public void countUnderrun() {
+		_underruns = _underruns + 1;
+	}
+
+	// parks the consumer until the producer writes or maxNanos passes
+	public void awaitData(long maxNanos) {
+		_waitingConsumer = Thread.currentThread();
+		if (available() == 0 && !_endOfStream)
+			LockSupport.parkNanos(this, maxNanos);
+		_waitingConsumer = null;
+	}
+
+	private static void wake(Thread thread) {
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+}
@@ -0,0 +1,52 @@
+package com.axelby.podax.player;
+
+import android.annotation.TargetApi;
+import android.media.AudioTrack;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+// writes PCM from the playback loop to the AudioTrack
+// from Lollipop the samples go through a direct buffer, the track reads that in place where a short[] has to be pinned or copied by JNI
+class PCMTrackWriter {
+	// null when writing arrays
+	private final ByteBuffer _bytes;
+	private final ShortBuffer _shorts;
+
+	PCMTrackWriter(int maxSamples, boolean direct) {
+		if (direct) {
+			_bytes = ByteBuffer.allocateDirect(maxSamples * 2).order(ByteOrder.nativeOrder());
+			_shorts = _bytes.asShortBuffer();
+		} else {
+			_bytes = null;
+			_shorts = null;
+		}
+	}
+
+	static PCMTrackWriter create(int maxSamples) {
+		return new PCMTrackWriter(maxSamples, Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+	}
+
+	boolean isDirect() {
+		return _bytes != null;
+	}
+
+	// blocks until the samples are queued, returns the number written or an AudioTrack error code
+	int write(AudioTrack track, short[] samples, int count) {
+		if (_bytes == null)
+			return track.write(samples, 0, count);
+		return writeDirect(track, samples, count);
+	}
+
+	@TargetApi(21)
+	private int writeDirect(AudioTrack track, short[] samples, int count) {
+		_shorts.clear();
+		_shorts.put(samples, 0, count);
+		_bytes.clear();
+		_bytes.limit(count * 2);
+		int written = track.write(_bytes, count * 2, AudioTrack.WRITE_BLOCKING);
+		return written < 0 ? written : written / 2;
+	}
+}
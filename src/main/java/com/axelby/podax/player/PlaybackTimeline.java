@@ -0,0 +1,84 @@
+package com.axelby.podax.player;
+
+// maps frames played by the AudioTrack to a position in the episode
+// every rate change starts a segment at the frame where the track gets audio stretched at the new rate
+// written by the playback thread and read by anything that asks for the position
+class PlaybackTimeline {
+	private static final int CAPACITY = 16;
+
+	private final int _sampleRate;
+
+	// episode position where the first segment starts
+	private double _anchorPosition = 0;
+
+	private final long[] _startFrame = new long[CAPACITY];
+	private final float[] _rate = new float[CAPACITY];
+	private int _count = 0;
+
+	PlaybackTimeline(int sampleRate, float position, float rate) {
+		_sampleRate = sampleRate;
+		reset(0, position, rate);
+	}
+
+	// after a seek everything starts again from frame at one rate
+	public synchronized void reset(long frame, float position, float rate) {
+		_anchorPosition = position;
+		_startFrame[0] = frame;
+		_rate[0] = rate;
+		_count = 1;
+	}
+
+	// frame is where a new episode starts, segments after it are kept
+	public synchronized void rebase(long frame, float position) {
+		int first = find(frame);
+		_anchorPosition = position;
+		_count -= first;
+		System.arraycopy(_startFrame, first, _startFrame, 0, _count);
+		System.arraycopy(_rate, first, _rate, 0, _count);
+		_startFrame[0] = frame;
+	}
+
+	// audio from frame on is stretched at rate, playedFrame is the playback head
+	public synchronized void changeRate(long frame, float rate, long playedFrame) {
+		if (_startFrame[_count - 1] >= frame) {
+			_rate[_count - 1] = rate;
+			return;
+		}
+		if (_count == CAPACITY)
+			fold(playedFrame);
+		// still full so everything is unplayed, merge the two oldest
+		if (_count == CAPACITY)
+			fold(_startFrame[1]);
+		_startFrame[_count] = frame;
+		_rate[_count] = rate;
+		++_count;
+	}
+
+	// position in seconds once the track has played playedFrame frames and droppedFrames input frames were skipped
+	public synchronized float getPosition(long playedFrame, long droppedFrames) {
+		double position = _anchorPosition;
+		for (int i = 0; i < _count && _startFrame[i] < playedFrame; ++i) {
+			long end = i + 1 < _count ? Math.min(_startFrame[i + 1], playedFrame) : playedFrame;
+			position += (double) (end - _startFrame[i]) * _rate[i] / _sampleRate;
+		}
+		return (float) (position + (double) droppedFrames / _sampleRate);
+	}
+
+	// moves the anchor up to the segment playing at playedFrame
+	private void fold(long playedFrame) {
+		int first = find(playedFrame);
+		for (int i = 0; i < first; ++i)
+			_anchorPosition += (double) (_startFrame[i + 1] - _startFrame[i]) * _rate[i] / _sampleRate;
+		_count -= first;
+		System.arraycopy(_startFrame, first, _startFrame, 0, _count);
+		System.arraycopy(_rate, first, _rate, 0, _count);
+	}
+
+	// last segment starting at or before frame
+	private int find(long frame) {
+		int found = 0;
+		for (int i = 1; i < _count && _startFrame[i] <= frame; ++i)
+			found = i;
+		return found;
+	}
+}
@@ -0,0 +1,61 @@
+package com.axelby.podax.player;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// commands for the playback thread, posted from any thread and applied by the playback thread between buffers
+// posting unparks the playback thread so it doesn't poll, whether it's waiting on the ring or paused
+class PlayerCommandQueue {
+	static final int PLAY = 1;
+	static final int PAUSE = 2;
+	static final int SEEK = 3;
+	static final int RATE = 4;
+	static final int STOP = 5;
+
+	static class Command {
+		final int type;
+		final float value;
+		// System.nanoTime() when posted, to measure how long commands take to apply
+		final long postedAt;
+
+		Command(int type, float value) {
+			this.type = type;
+			this.value = value;
+			this.postedAt = System.nanoTime();
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Command> _commands = new ConcurrentLinkedQueue<Command>();
+	private volatile Thread _consumer = null;
+
+	// the playback thread, commands posted before it's set are applied when it starts
+	public void setConsumer(Thread consumer) {
+		_consumer = consumer;
+	}
+
+	public void post(int type) {
+		post(type, 0f);
+	}
+
+	public void post(int type, float value) {
+		_commands.add(new Command(type, value));
+		Thread consumer = _consumer;
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+	}
+
+	public boolean isEmpty() {
+		return _commands.isEmpty();
+	}
+
+	// next command or null, only called from the playback thread
+	public Command poll() {
+		return _commands.poll();
+	}
+
+	// parks the playback thread until a command is posted
+	public void await() {
+		while (_commands.isEmpty() && !Thread.currentThread().isInterrupted())
+			LockSupport.park(this);
+	}
+}
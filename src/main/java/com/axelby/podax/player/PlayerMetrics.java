@@ -0,0 +1,232 @@
+package com.axelby.podax.player;
+
+import android.os.Debug;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// timings and counters from the playback pipeline, kept for as long as the process lives
+// recorded by the playback and decode threads, read from anywhere
+public class PlayerMetrics {
+	// histogram buckets are powers of two microseconds, the last one holds everything longer
+	private static final int BUCKETS = 20;
+
+	public static class Histogram {
+		private final String _name;
+		private final long[] _counts = new long[BUCKETS];
+		private long _count = 0;
+		private long _totalNanos = 0;
+		private long _maxNanos = 0;
+
+		Histogram(String name) {
+			_name = name;
+		}
+
+		synchronized void record(long nanos) {
+			if (nanos < 0)
+				return;
+			long micros = nanos / 1000;
+			int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+			++_counts[bucket];
+			++_count;
+			_totalNanos += nanos;
+			if (nanos > _maxNanos)
+				_maxNanos = nanos;
+		}
+
+		public String getName() { return _name; }
+		public synchronized long getCount() { return _count; }
+		public synchronized long getMaxNanos() { return _maxNanos; }
+
+		public synchronized long getMeanNanos() {
+			return _count == 0 ? 0 : _totalNanos / _count;
+		}
+
+		// upper bound of the bucket that fraction of the samples fall in, or the max if that's lower
+		public synchronized long getPercentileNanos(float fraction) {
+			long wanted = (long) Math.ceil(_count * fraction);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS - 1; ++i) {
+				seen += _counts[i];
+				if (seen >= wanted)
+					return Math.min((1L << i) * 1000, _maxNanos);
+			}
+			return _maxNanos;
+		}
+
+		synchronized void reset() {
+			for (int i = 0; i < BUCKETS; ++i)
+				_counts[i] = 0;
+			_count = 0;
+			_totalNanos = 0;
+			_maxNanos = 0;
+		}
+
+		private synchronized void appendSummary(StringBuilder out) {
+			if (_count == 0) {
+				out.append(String.format(Locale.US, "%s: none\n", _name));
+				return;
+			}
+			out.append(String.format(Locale.US, "%s: %d, mean %.1f ms, p95 at most %.1f ms, max %.1f ms\n",
+					_name, _count, getMeanNanos() / 1e6, getPercentileNanos(0.95f) / 1e6, _maxNanos / 1e6));
+		}
+
+		private synchronized void appendBuckets(StringBuilder out) {
+			for (int i = 0; i < BUCKETS; ++i) {
+				if (_counts[i] == 0)
+					continue;
+				if (i == BUCKETS - 1)
+					out.append(String.format(Locale.US, "  >= %d us: %d\n", 1L << (i - 1), _counts[i]));
+				else
+					out.append(String.format(Locale.US, "  < %d us: %d\n", 1L << i, _counts[i]));
+			}
+		}
+	}
+
+	// cpu and wall time of a pipeline thread, added up across players
+	public static class ThreadTime {
+		private final String _name;
+		// only touched by the thread being measured
+		private long _lastCpu = -1;
+		private long _lastWall = 0;
+		private volatile long _cpuNanos = 0;
+		private volatile long _wallNanos = 0;
+
+		ThreadTime(String name) {
+			_name = name;
+		}
+
+		// called on the thread when it starts
+		void begin() {
+			_lastCpu = Debug.threadCpuTimeNanos();
+			_lastWall = System.nanoTime();
+		}
+
+		// called on the thread every so often and before it ends
+		void update() {
+			long cpu = Debug.threadCpuTimeNanos();
+			long wall = System.nanoTime();
+			// -1 where the platform can't measure thread cpu time
+			if (_lastCpu >= 0 && cpu >= 0) {
+				_cpuNanos += cpu - _lastCpu;
+				_wallNanos += wall - _lastWall;
+			}
+			_lastCpu = cpu;
+			_lastWall = wall;
+		}
+
+		public String getName() { return _name; }
+		public long getCpuNanos() { return _cpuNanos; }
+		public long getWallNanos() { return _wallNanos; }
+
+		void reset() {
+			_cpuNanos = 0;
+			_wallNanos = 0;
+		}
+
+		private void appendSummary(StringBuilder out) {
+			long wall = _wallNanos;
+			long cpu = _cpuNanos;
+			out.append(String.format(Locale.US, "%s cpu: %.1f s, %.1f%% of %.1f s running\n",
+					_name, cpu / 1e9, wall == 0 ? 0f : cpu * 100f / wall, wall / 1e9));
+		}
+	}
+
+	// from PlayerService.play() to the first buffer written to the AudioTrack
+	public static final Histogram firstAudio = new Histogram("time to first audio");
+	// from posting a seek to audio from the new position going to the AudioTrack
+	public static final Histogram seek = new Histogram("seek");
+	// from posting any command to the playback thread applying it
+	public static final Histogram command = new Histogram("command latency");
+	// one decoder read into the ring
+	public static final Histogram decode = new Histogram("decode per buffer");
+	// processors, gain and time-stretching for one buffer read from the ring
+	public static final Histogram stretch = new Histogram("process and stretch per buffer");
+
+	public static final ThreadTime playbackThread = new ThreadTime("playback thread");
+	public static final ThreadTime decodeThread = new ThreadTime("decode thread");
+
+	private static final AtomicLong _playRequestedAt = new AtomicLong(0);
+	private static final AtomicLong _underruns = new AtomicLong(0);
+
+	private PlayerMetrics() { }
+
+	// start timing to first audio, called when the user asks for playback
+	public static void playRequested() {
+		_playRequestedAt.set(System.nanoTime());
+	}
+
+	// playback was already going so there's no first audio to wait for
+	static void cancelPlayRequest() {
+		_playRequestedAt.set(0);
+	}
+
+	static void firstAudioWritten() {
+		long requestedAt = _playRequestedAt.getAndSet(0);
+		if (requestedAt != 0)
+			firstAudio.record(System.nanoTime() - requestedAt);
+	}
+
+	// the AudioTrack was about to run out because the ring had nothing decoded
+	static void underrun() {
+		_underruns.incrementAndGet();
+	}
+
+	public static long getUnderrunCount() {
+		return _underruns.get();
+	}
+
+	public static void reset() {
+		firstAudio.reset();
+		seek.reset();
+		command.reset();
+		decode.reset();
+		stretch.reset();
+		playbackThread.reset();
+		decodeThread.reset();
+		_underruns.set(0);
+	}
+
+	// one line per measurement
+	public static String getSummary() {
+		StringBuilder out = new StringBuilder();
+		appendSummary(out);
+		return out.toString();
+	}
+
+	private static void appendSummary(StringBuilder out) {
+		firstAudio.appendSummary(out);
+		seek.appendSummary(out);
+		command.appendSummary(out);
+		decode.appendSummary(out);
+		stretch.appendSummary(out);
+		out.append(String.format(Locale.US, "underruns: %d\n", _underruns.get()));
+		playbackThread.appendSummary(out);
+		decodeThread.appendSummary(out);
+	}
+
+	// the summary followed by every histogram's buckets
+	public static String getReport() {
+		StringBuilder out = new StringBuilder();
+		appendSummary(out);
+		for (Histogram histogram : new Histogram[] { firstAudio, seek, command, decode, stretch }) {
+			if (histogram.getCount() == 0)
+				continue;
+			out.append(histogram.getName()).append(":\n");
+			histogram.appendBuckets(out);
+		}
+		return out.toString();
+	}
+
+	public static void dump(File file) throws IOException {
+		FileWriter out = new FileWriter(file);
+		try {
+			out.write(getReport());
+		} finally {
+			out.close();
+		}
+	}
+}
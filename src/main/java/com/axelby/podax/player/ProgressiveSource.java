@@ -0,0 +1,391 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// downloads an episode into <filename>.partial while it's being played
+// decoders for filename read the partial file instead and wait in awaitRange until the bytes they need are in
+// a read far from where the download is moves the download there with a range request, it fills in the gaps afterwards
+// the partial file is renamed to filename once every byte is in so isDownloaded never sees an incomplete file
+public class ProgressiveSource implements Runnable {
+	public static final String PARTIAL_SUFFIX = ".partial";
+
+	public interface OnCompleteListener {
+		// called on the download thread after the file is renamed into place
+		void onComplete(String filename, long length);
+	}
+
+	private static final int BUFFER_SIZE = 32 * 1024;
+	// a read this close ahead of the download waits for it instead of moving it
+	private static final long CATCH_UP_BYTES = 512 * 1024;
+	private static final int MAX_RETRIES = 5;
+	private static final int TIMEOUT_MS = 15000;
+	// waits are in slices so an aborted read notices
+	private static final long WAIT_SLICE_MS = 250;
+
+	private static final HashMap<String, ProgressiveSource> _active = new HashMap<String, ProgressiveSource>();
+
+	private final String _url;
+	private final String _filename;
+	private final String _cacheFilename;
+	private final OnCompleteListener _listener;
+	private final RandomAccessFile _cache;
+
+	// content length, -1 until the first response
+	private long _length;
+	// downloaded ranges as sorted, non-touching [start, end) pairs
+	private final ArrayList<long[]> _ranges = new ArrayList<long[]>();
+	// where the current request is writing
+	private long _streamPosition = 0;
+	// a read that's waiting outside the catch up window, -1 if none
+	private long _wanted = -1;
+	private boolean _rangesSupported = true;
+	private boolean _complete = false;
+	private boolean _failed = false;
+	private volatile boolean _cancelled = false;
+	// bumped by abortReads so waiting readers give up
+	private int _abortGeneration = 0;
+	private int _stalls = 0;
+
+	private ProgressiveSource(String url, String filename, long length, OnCompleteListener listener) throws IOException {
+		_url = url;
+		_filename = filename;
+		_cacheFilename = filename + PARTIAL_SUFFIX;
+		_length = length > 0 ? length : -1;
+		_listener = listener;
+		// which ranges an old partial file holds isn't known so start over
+		File cacheFile = new File(_cacheFilename);
+		if (cacheFile.exists())
+			cacheFile.delete();
+		_cache = new RandomAccessFile(cacheFile, "rw");
+	}
+
+	// starts downloading url for filename unless it's already being streamed
+	// length is the size from the feed, 0 or less if it isn't known
+	public static ProgressiveSource start(String url, String filename, long length, OnCompleteListener listener) {
+		synchronized (ProgressiveSource.class) {
+			ProgressiveSource source = _active.get(filename);
+			if (source != null)
+				return source;
+			try {
+				source = new ProgressiveSource(url, filename, length, listener);
+			} catch (IOException e) {
+				Log.e("Podax", "unable to create cache file for " + filename, e);
+				return null;
+			}
+			_active.put(filename, source);
+			new Thread(source, "ProgressiveSource").start();
+			return source;
+		}
+	}
+
+	// the source streaming filename, null if it isn't being streamed
+	public static ProgressiveSource get(String filename) {
+		synchronized (ProgressiveSource.class) {
+			return _active.get(filename);
+		}
+	}
+
+	public static void cancel(String filename) {
+		ProgressiveSource source;
+		synchronized (ProgressiveSource.class) {
+			source = _active.remove(filename);
+		}
+		if (source != null)
+			source.cancel();
+	}
+
+	// makes reads that are waiting on this download return an error, for seeks and stops on the playback side
+	public synchronized void abortReads() {
+		++_abortGeneration;
+		notifyAll();
+	}
+
+	public String getFilename() { return _filename; }
+	public String getCacheFilename() { return _cacheFilename; }
+
+	public synchronized boolean isComplete() { return _complete; }
+
+	public synchronized long getDownloadedBytes() {
+		long total = 0;
+		for (long[] range : _ranges)
+			total += range[1] - range[0];
+		return total;
+	}
+
+	// times a read had to wait for the download
+	public synchronized int getStallCount() { return _stalls; }
+
+	// content length, waits for the first response if it isn't known yet, -1 if the download failed
+	public synchronized long getLength() {
+		int generation = _abortGeneration;
+		while (_length < 0 && !_failed && !_cancelled && generation == _abortGeneration) {
+			try {
+				wait(WAIT_SLICE_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+		return _length;
+	}
+
+	// waits until [position, position + length) is downloaded, or up to the end of the content
+	// returns the number of bytes readable at position, 0 at the end of the content and -1 if the read has to fail
+	// called by the decoders through JNI and by MP4Demuxer
+	public synchronized long awaitRange(long position, long length) {
+		int generation = _abortGeneration;
+		boolean stalled = false;
+		while (true) {
+			if (_cancelled || _failed || generation != _abortGeneration)
+				return -1;
+			if (_length >= 0) {
+				if (position >= _length)
+					return 0;
+				length = Math.min(length, _length - position);
+			}
+			long available = availableAt(position);
+			if (available >= length)
+				return available;
+
+			// the first missing byte is far from the download so move it
+			long missing = position + available;
+			if (_rangesSupported && (missing < _streamPosition || missing > _streamPosition + CATCH_UP_BYTES)) {
+				_wanted = missing;
+				notifyAll();
+			}
+			if (!stalled) {
+				++_stalls;
+				stalled = true;
+			}
+			try {
+				wait(WAIT_SLICE_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return -1;
+			}
+		}
+	}
+
+	private void cancel() {
+		synchronized (this) {
+			_cancelled = true;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void run() {
+		int failures = 0;
+		try {
+			while (!_cancelled) {
+				long start;
+				synchronized (this) {
+					start = nextStart();
+					if (start < 0) {
+						_complete = true;
+						break;
+					}
+					_wanted = -1;
+					_streamPosition = start;
+				}
+				try {
+					if (fetch(start)) {
+						failures = 0;
+						continue;
+					}
+				} catch (IOException e) {
+					Log.w("Podax", "streaming " + _url + " failed at " + start, e);
+				}
+				if (++failures > MAX_RETRIES)
+					break;
+				synchronized (this) {
+					if (!_cancelled)
+						wait(1000L << Math.min(failures, 4));
+				}
+			}
+		} catch (InterruptedException ignored) {
+		} finally {
+			finish();
+		}
+	}
+
+	// next byte to download, -1 if there's nothing left
+	private long nextStart() {
+		if (_wanted >= 0 && availableAt(_wanted) == 0)
+			return _wanted;
+		// without a length the end only shows up when a response runs out
+		if (_length < 0)
+			return firstGapFrom(0);
+		// keep going from the last request, then go back for what was skipped
+		long gap = firstGapFrom(_streamPosition);
+		if (gap < _length)
+			return gap;
+		gap = firstGapFrom(0);
+		return gap < _length ? gap : -1;
+	}
+
+	// downloads from start until the end, a gap that's already filled or a read wants a different spot
+	// returns true if any bytes arrived
+	private boolean fetch(long start) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(_url).openConnection();
+		connection.setConnectTimeout(TIMEOUT_MS);
+		connection.setReadTimeout(TIMEOUT_MS);
+		if (start > 0)
+			connection.setRequestProperty("Range", "bytes=" + start + "-");
+		InputStream in = null;
+		boolean received = false;
+		try {
+			int code = connection.getResponseCode();
+			long position;
+			if (code == HttpURLConnection.HTTP_PARTIAL) {
+				position = parseContentRangeStart(connection.getHeaderField("Content-Range"), start);
+			} else if (code == HttpURLConnection.HTTP_OK) {
+				// the server ignored the range so everything comes from the start
+				position = 0;
+				synchronized (this) {
+					if (start > 0)
+						_rangesSupported = false;
+					if (_length < 0 && connection.getContentLength() > 0)
+						_length = connection.getContentLength();
+				}
+			} else {
+				throw new IOException("HTTP " + code + " streaming " + _url);
+			}
+
+			in = connection.getInputStream();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				synchronized (this) {
+					if (_cancelled)
+						return received;
+					_cache.seek(position);
+					_cache.write(buffer, 0, read);
+					addRange(position, position + read);
+					position += read;
+					_streamPosition = position;
+					received = true;
+					notifyAll();
+
+					if (_length >= 0 && position >= _length)
+						return true;
+					// a read is waiting somewhere else, or this request ran into bytes from an earlier one
+					if (_wanted >= 0 && _rangesSupported)
+						return true;
+					if (_rangesSupported && availableAt(position) > 0)
+						return true;
+				}
+			}
+			synchronized (this) {
+				// a response without a length ends when the content does
+				if (_length < 0)
+					_length = position;
+			}
+			return received;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignored) { }
+			}
+			connection.disconnect();
+		}
+	}
+
+	// start of "bytes start-end/total", also picks up the total length
+	private long parseContentRangeStart(String contentRange, long requested) throws IOException {
+		if (contentRange == null || !contentRange.startsWith("bytes "))
+			return requested;
+		try {
+			int dash = contentRange.indexOf('-');
+			int slash = contentRange.indexOf('/');
+			long start = Long.parseLong(contentRange.substring(6, dash).trim());
+			if (slash > 0 && !contentRange.endsWith("*")) {
+				long total = Long.parseLong(contentRange.substring(slash + 1).trim());
+				synchronized (this) {
+					_length = total;
+				}
+			}
+			return start;
+		} catch (RuntimeException e) {
+			throw new IOException("bad Content-Range " + contentRange);
+		}
+	}
+
+	private void finish() {
+		boolean complete;
+		long length;
+		synchronized (this) {
+			complete = _complete && !_cancelled;
+			_failed = !complete;
+			length = _length;
+			notifyAll();
+		}
+		try {
+			_cache.close();
+		} catch (IOException ignored) { }
+
+		synchronized (ProgressiveSource.class) {
+			if (_active.get(_filename) == this)
+				_active.remove(_filename);
+		}
+
+		File cacheFile = new File(_cacheFilename);
+		// decoders that have the partial file open keep reading it after the rename
+		if (complete && cacheFile.renameTo(new File(_filename))) {
+			if (_listener != null)
+				_listener.onComplete(_filename, length);
+		} else {
+			cacheFile.delete();
+		}
+	}
+
+	// bytes downloaded contiguously from position
+	private long availableAt(long position) {
+		for (long[] range : _ranges) {
+			if (range[0] > position)
+				return 0;
+			if (position < range[1])
+				return range[1] - position;
+		}
+		return 0;
+	}
+
+	// first byte at or after position that isn't downloaded
+	private long firstGapFrom(long position) {
+		for (long[] range : _ranges) {
+			if (range[0] > position)
+				break;
+			if (position < range[1])
+				position = range[1];
+		}
+		return position;
+	}
+
+	private void addRange(long start, long end) {
+		int i = 0;
+		while (i < _ranges.size() && _ranges.get(i)[1] < start)
+			++i;
+		if (i == _ranges.size() || _ranges.get(i)[0] > end) {
+			_ranges.add(i, new long[]{start, end});
+			return;
+		}
+		long[] range = _ranges.get(i);
+		range[0] = Math.min(range[0], start);
+		range[1] = Math.max(range[1], end);
+		// swallow the ranges it now reaches
+		while (i + 1 < _ranges.size() && _ranges.get(i + 1)[0] <= range[1]) {
+			range[1] = Math.max(range[1], _ranges.get(i + 1)[1]);
+			_ranges.remove(i + 1);
+		}
+	}
+}
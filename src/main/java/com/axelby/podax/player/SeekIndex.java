@@ -0,0 +1,133 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+// sparse table of stream position -> byte offset so decoders can seek without scanning the file
+// built once after download and stored next to the media file
+public class SeekIndex {
+	public static final String FILE_SUFFIX = ".seek";
+
+	private static final int MAGIC = 0x50534958; // PSIX
+	private static final int VERSION = 1;
+
+	// decoder specific position of each entry -- frame number for MPG123, pcm sample for Vorbis
+	private final long[] _positions;
+	private final long[] _offsets;
+
+	public SeekIndex(long[] positions, long[] offsets) {
+		if (positions.length != offsets.length)
+			throw new IllegalArgumentException("positions and offsets must be the same length");
+		_positions = positions;
+		_offsets = offsets;
+	}
+
+	public int size() { return _positions.length; }
+	public long getPosition(int entry) { return _positions[entry]; }
+	public long getOffset(int entry) { return _offsets[entry]; }
+	public long[] getOffsets() { return _offsets; }
+
+	// last entry at or before position, -1 if position is before the first entry
+	public int find(long position) {
+		int low = 0;
+		int high = _positions.length - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (_positions[mid] <= position) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	public static File getIndexFile(String audioFile) {
+		return new File(audioFile + FILE_SUFFIX);
+	}
+
+	// walks the file with its decoder and stores the result next to it
+	public static boolean build(String audioFile) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(audioFile);
+		if (decoder == null)
+			return false;
+		try {
+			SeekIndex index = decoder.buildSeekIndex();
+			if (index == null || index.size() == 0)
+				return false;
+			index.save(audioFile);
+			return true;
+		} catch (IOException e) {
+			Log.e("Podax", "unable to save seek index", e);
+			return false;
+		} finally {
+			decoder.close();
+		}
+	}
+
+	// returns null if there is no index or the media file changed since it was built
+	public static SeekIndex load(String audioFile) {
+		File indexFile = getIndexFile(audioFile);
+		if (!indexFile.exists())
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			if (in.readLong() != new File(audioFile).length())
+				return null;
+
+			int count = in.readInt();
+			long[] positions = new long[count];
+			long[] offsets = new long[count];
+			for (int i = 0; i < count; ++i) {
+				positions[i] = in.readLong();
+				offsets[i] = in.readLong();
+			}
+			return new SeekIndex(positions, offsets);
+		} catch (IOException e) {
+			Log.e("Podax", "unable to read seek index", e);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+
+	public void save(String audioFile) throws IOException {
+		File indexFile = getIndexFile(audioFile);
+		File tempFile = new File(indexFile.getPath() + ".tmp");
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(new File(audioFile).length());
+			out.writeInt(_positions.length);
+			for (int i = 0; i < _positions.length; ++i) {
+				out.writeLong(_positions[i]);
+				out.writeLong(_offsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tempFile.renameTo(indexFile))
+			throw new IOException("unable to rename " + tempFile.getPath());
+	}
+}
@@ -0,0 +1,72 @@
+package com.axelby.podax.player;
+
+// drops long quiet stretches using an RMS gate with hysteresis
+// the first MIN_SILENCE_MS of every pause is kept so speech still has natural gaps
+public class SkipSilenceProcessor implements IPCMProcessor {
+	// RMS is measured over blocks of this length
+	private static final int BLOCK_MS = 10;
+	private static final int MIN_SILENCE_MS = 250;
+	// a block below CLOSE_LEVEL counts as quiet, audio resumes once a block goes above OPEN_LEVEL
+	private static final int CLOSE_LEVEL = 100;
+	private static final int OPEN_LEVEL = 200;
+
+	private int _channels = 1;
+	private int _blockFrames = 0;
+	private int _minSilenceFrames = 0;
+
+	private boolean _silent = false;
+	private int _quietFrames = 0;
+
+	@Override
+	public void setFormat(int sampleRate, int channels) {
+		_channels = channels;
+		_blockFrames = sampleRate * BLOCK_MS / 1000;
+		_minSilenceFrames = sampleRate * MIN_SILENCE_MS / 1000;
+	}
+
+	@Override
+	public int process(short[] buffer, int length) {
+		if (_blockFrames == 0)
+			return length;
+
+		long closeSquared = (long) CLOSE_LEVEL * CLOSE_LEVEL;
+		long openSquared = (long) OPEN_LEVEL * OPEN_LEVEL;
+		int blockSamples = _blockFrames * _channels;
+
+		int out = 0;
+		for (int in = 0; in < length; in += blockSamples) {
+			int samples = Math.min(blockSamples, length - in);
+
+			long sumSquares = 0;
+			for (int i = in; i < in + samples; ++i)
+				sumSquares += buffer[i] * buffer[i];
+			long meanSquare = sumSquares / samples;
+
+			if (_silent) {
+				if (meanSquare > openSquared) {
+					_silent = false;
+					_quietFrames = 0;
+				}
+			} else if (meanSquare < closeSquared) {
+				_quietFrames += samples / _channels;
+				if (_quietFrames > _minSilenceFrames)
+					_silent = true;
+			} else {
+				_quietFrames = 0;
+			}
+
+			if (!_silent) {
+				if (out != in)
+					System.arraycopy(buffer, in, buffer, out, samples);
+				out += samples;
+			}
+		}
+		return out;
+	}
+
+	@Override
+	public void reset() {
+		_silent = false;
+		_quietFrames = 0;
+	}
+}
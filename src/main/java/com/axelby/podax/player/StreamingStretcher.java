@@ -0,0 +1,224 @@
+package com.axelby.podax.player;
+
+// WSOLA time-stretcher that keeps its input history and overlap tail between calls
+// so decode chunks are stitched together as one continuous stream.
+// Chunk boundaries don't restart the overlap search and don't need a crossfade.
+public class StreamingStretcher implements ITimeStretcher {
+	// overlap-and-add window size in milliseconds, same as the native WSOLA
+	private static final int WINDOW_MS = 20;
+	// only every Nth frame is used when comparing candidate segments
+	private static final int DECIMATE = 5;
+
+	private final int _channels;
+	private final int _window;
+	private final int _overlap;
+	private final int _tolerance;
+	private final float[] _hann;
+	private final float[] _tail;
+
+	private float _speedRatio = 1f;
+
+	// buffered input, interleaved, and a mono mixdown used for the similarity search
+	private float[] _input;
+	private float[] _mono;
+	private int _inputFrames = 0;
+
+	// position in _input that the next segment should come from if there were no search
+	private double _nominal = 0;
+	// start of the segment most recently copied to the output
+	private int _prevMatch = 0;
+	private boolean _hasPrevious = false;
+
+	public StreamingStretcher(int sampleRate, int channels) {
+		if (sampleRate <= 0 || channels <= 0)
+			throw new IllegalArgumentException("sampleRate and channels must be positive");
+
+		_channels = channels;
+		_overlap = WINDOW_MS * sampleRate / 1000 / 2;
+		_window = _overlap * 2;
+		_tolerance = _overlap / 2;
+
+		_hann = new float[_window];
+		for (int i = 0; i < _window; ++i)
+			_hann[i] = (float) (0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / _window)));
+		_tail = new float[_overlap * channels];
+
+		ensureInputCapacity(4 * _window);
+	}
+
+	public float getSpeedRatio() {
+		return _speedRatio;
+	}
+
+	// takes effect on the next output segment without dropping buffered audio
+	@Override
+	public void setSpeedRatio(float speedRatio) {
+		if (speedRatio <= 0f)
+			throw new IllegalArgumentException("speedRatio must be positive");
+		_speedRatio = speedRatio;
+	}
+
+	// number of output samples that is always enough for one call with inputSamples of input at speedRatio
+	@Override
+	public int getMaxOutputSize(int inputSamples, float speedRatio) {
+		int inputFrames = inputSamples / _channels;
+		double analysisHop = _overlap * speedRatio;
+		int hops = (int) Math.ceil((inputFrames + _window + 2 * _tolerance + analysisHop) / analysisHop) + 1;
+		return hops * _overlap * _channels;
+	}
+
+	// forget all buffered audio, used after seeking
+	@Override
+	public void reset() {
+		_inputFrames = 0;
+		_nominal = 0;
+		_prevMatch = 0;
+		_hasPrevious = false;
+		for (int i = 0; i < _tail.length; ++i)
+			_tail[i] = 0f;
+	}
+
+	// Adds inputLength samples of interleaved PCM and writes every complete output segment to output.
+	// Output stops early if output doesn't have room for another segment; the input is kept for the next call.
+	// Returns the number of samples written.
+	@Override
+	public int process(short[] input, int inputLength, short[] output, int outputOffset) {
+		appendInput(input, inputLength);
+
+		int written = 0;
+		int segmentSamples = _overlap * _channels;
+		double analysisHop = _overlap * _speedRatio;
+
+		while (outputOffset + written + segmentSamples <= output.length) {
+			int match;
+			if (!_hasPrevious) {
+				match = (int) _nominal;
+				if (match + _window > _inputFrames)
+					break;
+			} else if (_speedRatio == 1f) {
+				// nothing to search for -- continue exactly where the last segment ended
+				match = _prevMatch + _overlap;
+				if (match + _window > _inputFrames)
+					break;
+				_nominal = match;
+			} else {
+				int natural = _prevMatch + _overlap;
+				int nominal = (int) _nominal;
+				int searchStart = Math.max(nominal - _tolerance, 0);
+				int searchEnd = nominal + _tolerance;
+				if (Math.max(searchEnd, natural) + _window > _inputFrames)
+					break;
+				match = findBestMatch(natural, searchStart, searchEnd);
+			}
+
+			overlapAdd(match, output, outputOffset + written);
+			written += segmentSamples;
+
+			_prevMatch = match;
+			_hasPrevious = true;
+			_nominal += analysisHop;
+		}
+
+		discardConsumedInput();
+		return written;
+	}
+
+	@Override
+	public void close() {
+		_input = null;
+		_mono = null;
+		_inputFrames = 0;
+	}
+
+	private void appendInput(short[] input, int inputLength) {
+		int frames = inputLength / _channels;
+		ensureInputCapacity(_inputFrames + frames);
+
+		int in = 0;
+		int out = _inputFrames * _channels;
+		for (int f = 0; f < frames; ++f) {
+			float mix = 0f;
+			for (int c = 0; c < _channels; ++c) {
+				float sample = input[in++];
+				_input[out++] = sample;
+				mix += sample;
+			}
+			_mono[_inputFrames + f] = mix;
+		}
+		_inputFrames += frames;
+	}
+
+	private void ensureInputCapacity(int frames) {
+		if (_mono != null && _mono.length >= frames)
+			return;
+
+		int capacity = _mono == null ? frames : Math.max(frames, _mono.length * 2);
+		float[] input = new float[capacity * _channels];
+		float[] mono = new float[capacity];
+		if (_mono != null) {
+			System.arraycopy(_input, 0, input, 0, _inputFrames * _channels);
+			System.arraycopy(_mono, 0, mono, 0, _inputFrames);
+		}
+		_input = input;
+		_mono = mono;
+	}
+
+	// picks the candidate in [searchStart, searchEnd] that looks most like the natural continuation
+	private int findBestMatch(int natural, int searchStart, int searchEnd) {
+		int best = (int) _nominal;
+		float bestValue = -Float.MAX_VALUE;
+		for (int candidate = searchStart; candidate <= searchEnd; ++candidate) {
+			float sum = 0f;
+			for (int k = 0; k < _window; k += DECIMATE)
+				sum += _mono[natural + k] * _mono[candidate + k];
+			if (sum > bestValue) {
+				bestValue = sum;
+				best = candidate;
+			}
+		}
+		return best;
+	}
+
+	// emits the stored tail plus the rising half of the new segment, then keeps the falling half as the next tail
+	private void overlapAdd(int match, short[] output, int outputOffset) {
+		int in = match * _channels;
+		int out = outputOffset;
+		int t = 0;
+		for (int i = 0; i < _overlap; ++i) {
+			float h = _hann[i];
+			for (int c = 0; c < _channels; ++c)
+				output[out++] = clip(_tail[t++] + _input[in++] * h);
+		}
+
+		t = 0;
+		for (int i = _overlap; i < _window; ++i) {
+			float h = _hann[i];
+			for (int c = 0; c < _channels; ++c)
+				_tail[t++] = _input[in++] * h;
+		}
+	}
+
+	// slides the buffered input down so only frames the next segment may use are kept
+	private void discardConsumedInput() {
+		int keepFrom = (int) _nominal - _tolerance;
+		if (_hasPrevious)
+			keepFrom = Math.min(keepFrom, _prevMatch + _overlap);
+		keepFrom = Math.min(Math.max(keepFrom, 0), _inputFrames);
+		if (keepFrom == 0)
+			return;
+
+		_inputFrames -= keepFrom;
+		System.arraycopy(_input, keepFrom * _channels, _input, 0, _inputFrames * _channels);
+		System.arraycopy(_mono, keepFrom, _mono, 0, _inputFrames);
+		_nominal -= keepFrom;
+		_prevMatch -= keepFrom;
+	}
+
+	private static short clip(float sample) {
+		if (sample > Short.MAX_VALUE)
+			return Short.MAX_VALUE;
+		if (sample < Short.MIN_VALUE)
+			return Short.MIN_VALUE;
+		return (short) sample;
+	}
+}
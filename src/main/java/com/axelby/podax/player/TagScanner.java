@@ -0,0 +1,513 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+// reads chapters and the offsets of embedded artwork from the tags at the start of a media file, without decoding it
+// MP3 uses ID3v2.3/2.4 CHAP frames, limited to the top level CTOC when there is one
+// Ogg Vorbis uses CHAPTERxxx and CHAPTERxxxNAME comments
+// only the tag region is mapped and pictures are recorded by offset so large artwork never reaches the heap
+public class TagScanner {
+	// biggest ID3 tag that will be mapped, anything past it is ignored
+	private static final int MAX_ID3_SIZE = 16 * 1024 * 1024;
+	// the Vorbis headers are in the first few pages unless a picture is embedded in the comments
+	private static final int MAX_OGG_HEADER_SIZE = 1024 * 1024;
+	// longer comments and text frames can't be chapter information
+	private static final int MAX_TEXT_LENGTH = 4096;
+	private static final int PICTURE_TYPE_FRONT_COVER = 3;
+
+	public static class Chapter {
+		private final long _startMs;
+		private long _endMs;
+		private String _title = null;
+		private long _artworkOffset = -1;
+		private int _artworkLength = 0;
+
+		Chapter(long startMs, long endMs) {
+			_startMs = startMs;
+			_endMs = endMs;
+		}
+
+		public long getStartMs() { return _startMs; }
+		// -1 if the tags don't say, the chapter runs until the next one starts
+		public long getEndMs() { return _endMs; }
+		// null if the chapter isn't named
+		public String getTitle() { return _title; }
+		// file offset of the chapter's picture, -1 if it has none
+		public long getArtworkOffset() { return _artworkOffset; }
+		public int getArtworkLength() { return _artworkLength; }
+	}
+
+	public static class Tags {
+		private final ArrayList<Chapter> _chapters = new ArrayList<Chapter>();
+		private long _artworkOffset = -1;
+		private int _artworkLength = 0;
+		private int _artworkType = -1;
+
+		// in order of start time
+		public ArrayList<Chapter> getChapters() { return _chapters; }
+		// file offset of the front cover, or of the first picture if there's no front cover, -1 if there's none
+		public long getArtworkOffset() { return _artworkOffset; }
+		public int getArtworkLength() { return _artworkLength; }
+
+		private void setArtwork(int type, long offset, int length) {
+			// keep looking for a front cover
+			if (_artworkOffset >= 0 && (_artworkType == PICTURE_TYPE_FRONT_COVER || type != PICTURE_TYPE_FRONT_COVER))
+				return;
+			_artworkType = type;
+			_artworkOffset = offset;
+			_artworkLength = length;
+		}
+	}
+
+	// format is the one detected when the file was downloaded, null to detect it now
+	// returns null if the file can't be read, formats without chapter support return empty tags
+	public static Tags scan(String filename, String format) {
+		if (format == null)
+			format = DecoderRegistry.detectFormat(filename);
+		Tags tags = new Tags();
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(filename, "r");
+			if (DecoderRegistry.FORMAT_MP3.equals(format)) {
+				ByteBuffer tag = mapID3(file);
+				if (tag != null)
+					new ID3Reader(tag, tags).read();
+			} else if (DecoderRegistry.FORMAT_OGG.equals(format)) {
+				readVorbisComments(map(file, Math.min(file.length(), MAX_OGG_HEADER_SIZE)), tags);
+			}
+			return tags;
+		} catch (IOException e) {
+			Log.e("Podax", "unable to scan tags of " + filename, e);
+			return null;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+
+	// the mapping stays valid after the file is closed
+	private static ByteBuffer map(RandomAccessFile file, long size) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+
+	// the whole ID3v2 tag including its header, null if the file doesn't start with one
+	private static ByteBuffer mapID3(RandomAccessFile file) throws IOException {
+		byte[] header = new byte[10];
+		if (file.length() < header.length)
+			return null;
+		file.readFully(header);
+		if (header[0] != 'I' || header[1] != 'D' || header[2] != '3')
+			return null;
+		long size = 10 + syncsafe(header[6], header[7], header[8], header[9]);
+		return map(file, Math.min(Math.min(size, MAX_ID3_SIZE), file.length()));
+	}
+
+	private static int syncsafe(byte b0, byte b1, byte b2, byte b3) {
+		return ((b0 & 0x7F) << 21) | ((b1 & 0x7F) << 14) | ((b2 & 0x7F) << 7) | (b3 & 0x7F);
+	}
+
+	// walks the frames of an ID3v2.3 or 2.4 tag, CHAP frames hold their own TIT2 and APIC frames
+	private static class ID3Reader {
+		private final ByteBuffer _tag;
+		private final Tags _tags;
+		private final int _version;
+		// by element id, in tag order
+		private final LinkedHashMap<String, Chapter> _chapters = new LinkedHashMap<String, Chapter>();
+		// element ids of the top level table of contents, null if there isn't one
+		private ArrayList<String> _toc = null;
+
+		ID3Reader(ByteBuffer tag, Tags tags) {
+			_tag = tag;
+			_tags = tags;
+			_version = tag.get(3);
+		}
+
+		public void read() {
+			// 2.2 predates chapters
+			if (_version != 3 && _version != 4)
+				return;
+			int flags = _tag.get(5) & 0xFF;
+			// 2.3 unsynchronises the whole tag, which moves every offset
+			if (_version == 3 && (flags & 0x80) != 0)
+				return;
+			int position = 10;
+			if ((flags & 0x40) != 0) {
+				if (_tag.limit() < 14)
+					return;
+				// the 2.3 extended header size leaves out its own size field
+				position += _version == 3 ? 4 + _tag.getInt(10) : syncsafe(_tag.get(10), _tag.get(11), _tag.get(12), _tag.get(13));
+			}
+			readFrames(position, _tag.limit(), null);
+
+			ArrayList<Chapter> chapters = _tags.getChapters();
+			if (_toc != null) {
+				for (String elementId : _toc) {
+					Chapter chapter = _chapters.get(elementId);
+					if (chapter != null)
+						chapters.add(chapter);
+				}
+			}
+			// a table of contents that doesn't point at any chapters is ignored
+			if (chapters.isEmpty())
+				chapters.addAll(_chapters.values());
+			sortChapters(chapters);
+		}
+
+		// frames in [position, end), chapter is the CHAP frame they're inside of, if any
+		private void readFrames(int position, int end, Chapter chapter) {
+			while (position >= 0 && position + 10 <= end) {
+				// the rest is padding
+				if (_tag.get(position) == 0)
+					break;
+				String id = latin1(position, position + 4);
+				int size = _version == 4
+						? syncsafe(_tag.get(position + 4), _tag.get(position + 5), _tag.get(position + 6), _tag.get(position + 7))
+						: _tag.getInt(position + 4);
+				int formatFlags = _tag.get(position + 9) & 0xFF;
+				int start = position + 10;
+				if (size < 0 || size > end - start)
+					break;
+				int next = start + size;
+
+				// compressed, encrypted and unsynchronised frames aren't worth decoding for this
+				boolean skip;
+				if (_version == 4) {
+					skip = (formatFlags & 0x0E) != 0;
+					if ((formatFlags & 0x40) != 0)
+						start += 1;
+					if ((formatFlags & 0x01) != 0)
+						start += 4;
+				} else {
+					skip = (formatFlags & 0xC0) != 0;
+					if ((formatFlags & 0x20) != 0)
+						start += 1;
+				}
+				if (!skip && start <= next)
+					readFrame(id, start, next, chapter);
+				position = next;
+			}
+		}
+
+		private void readFrame(String id, int start, int end, Chapter chapter) {
+			if (chapter == null && id.equals("CHAP"))
+				readChapter(start, end);
+			else if (chapter == null && id.equals("CTOC"))
+				readTableOfContents(start, end);
+			else if (chapter != null && id.equals("TIT2"))
+				chapter._title = readText(start, end);
+			else if (id.equals("APIC"))
+				readPicture(start, end, chapter);
+		}
+
+		// element id, start and end times, start and end byte offsets, then frames
+		private void readChapter(int start, int end) {
+			int idEnd = indexOfZero(start, end);
+			if (idEnd < 0 || idEnd + 17 > end)
+				return;
+			String elementId = latin1(start, idEnd);
+			int times = idEnd + 1;
+			long startMs = _tag.getInt(times) & 0xFFFFFFFFL;
+			long endMs = _tag.getInt(times + 4) & 0xFFFFFFFFL;
+			Chapter chapter = new Chapter(startMs, endMs > startMs ? endMs : -1);
+			readFrames(times + 16, end, chapter);
+			_chapters.put(elementId, chapter);
+		}
+
+		// element id, flags, entry count, entry ids, then frames
+		private void readTableOfContents(int start, int end) {
+			int idEnd = indexOfZero(start, end);
+			if (idEnd < 0 || idEnd + 3 > end)
+				return;
+			int flags = _tag.get(idEnd + 1) & 0xFF;
+			int count = _tag.get(idEnd + 2) & 0xFF;
+			// only the top level one, nested ones list sub-chapters
+			if ((flags & 0x02) == 0 || _toc != null)
+				return;
+			_toc = new ArrayList<String>(count);
+			int position = idEnd + 3;
+			for (int i = 0; i < count; ++i) {
+				int entryEnd = indexOfZero(position, end);
+				if (entryEnd < 0)
+					break;
+				_toc.add(latin1(position, entryEnd));
+				position = entryEnd + 1;
+			}
+		}
+
+		// encoding, MIME type, picture type, description, then the picture
+		private void readPicture(int start, int end, Chapter chapter) {
+			if (start >= end)
+				return;
+			int encoding = _tag.get(start);
+			int mimeEnd = indexOfZero(start + 1, end);
+			if (mimeEnd < 0 || mimeEnd + 2 > end)
+				return;
+			int type = _tag.get(mimeEnd + 1) & 0xFF;
+			int descriptionEnd = indexOfTerminator(mimeEnd + 2, end, encoding);
+			if (descriptionEnd < 0)
+				return;
+			int data = descriptionEnd + terminatorLength(encoding);
+			if (data >= end)
+				return;
+			if (chapter == null)
+				_tags.setArtwork(type, data, end - data);
+			else if (chapter._artworkOffset < 0) {
+				chapter._artworkOffset = data;
+				chapter._artworkLength = end - data;
+			}
+		}
+
+		// the first string of a text frame
+		private String readText(int start, int end) {
+			if (start >= end)
+				return null;
+			int encoding = _tag.get(start);
+			int textEnd = indexOfTerminator(start + 1, end, encoding);
+			if (textEnd < 0)
+				textEnd = end;
+			textEnd = Math.min(textEnd, start + 1 + MAX_TEXT_LENGTH);
+			String text = decode(start + 1, textEnd, encoding);
+			return text == null || text.length() == 0 ? null : text;
+		}
+
+		private String decode(int start, int end, int encoding) {
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; ++i)
+				bytes[i] = _tag.get(start + i);
+			try {
+				switch (encoding) {
+					case 1: return new String(bytes, "UTF-16");
+					case 2: return new String(bytes, "UTF-16BE");
+					case 3: return new String(bytes, "UTF-8");
+					default: return new String(bytes, "ISO-8859-1");
+				}
+			} catch (UnsupportedEncodingException e) {
+				return null;
+			}
+		}
+
+		private String latin1(int start, int end) {
+			return decode(start, end, 0);
+		}
+
+		private int indexOfZero(int start, int end) {
+			for (int i = start; i < end; ++i)
+				if (_tag.get(i) == 0)
+					return i;
+			return -1;
+		}
+
+		// UTF-16 strings end with two zero bytes on a character boundary
+		private int indexOfTerminator(int start, int end, int encoding) {
+			if (terminatorLength(encoding) == 1)
+				return indexOfZero(start, end);
+			for (int i = start; i + 1 < end; i += 2)
+				if (_tag.get(i) == 0 && _tag.get(i + 1) == 0)
+					return i;
+			return -1;
+		}
+
+		private static int terminatorLength(int encoding) {
+			return encoding == 1 || encoding == 2 ? 2 : 1;
+		}
+	}
+
+	// reads packets from Ogg pages in a buffer, skipping over data without copying it
+	private static class OggPacketReader {
+		private final ByteBuffer _buffer;
+		private int _nextPage = 0;
+		// position of the next lacing value and the end of the current page's lacing table
+		private int _lacing = 0;
+		private int _lacingEnd = 0;
+		// next byte of packet data
+		private int _data = 0;
+		// bytes left in the current segment and whether it's the last one of its packet
+		private int _remaining = 0;
+		private boolean _lastSegment = true;
+
+		OggPacketReader(ByteBuffer buffer) {
+			_buffer = buffer;
+		}
+
+		// skips the rest of the current packet, false if there isn't another one
+		public boolean nextPacket() {
+			skip(Long.MAX_VALUE);
+			return nextSegment();
+		}
+
+		// next byte of the current packet, -1 at the end of it or of the buffer
+		public int read() {
+			while (_remaining == 0) {
+				if (_lastSegment || !nextSegment())
+					return -1;
+			}
+			if (_data >= _buffer.limit())
+				return -1;
+			--_remaining;
+			return _buffer.get(_data++) & 0xFF;
+		}
+
+		// -1 if the packet ends first
+		public long readIntLE() {
+			long value = 0;
+			for (int i = 0; i < 4; ++i) {
+				int b = read();
+				if (b < 0)
+					return -1;
+				value |= (long) b << (8 * i);
+			}
+			return value;
+		}
+
+		// false if the packet ends first
+		public boolean read(byte[] bytes) {
+			for (int i = 0; i < bytes.length; ++i) {
+				int b = read();
+				if (b < 0)
+					return false;
+				bytes[i] = (byte) b;
+			}
+			return true;
+		}
+
+		public void skip(long count) {
+			while (count > 0) {
+				if (_remaining == 0) {
+					if (_lastSegment || !nextSegment())
+						return;
+					continue;
+				}
+				int step = (int) Math.min(count, _remaining);
+				_data += step;
+				_remaining -= step;
+				count -= step;
+			}
+		}
+
+		private boolean nextSegment() {
+			if (_lacing == _lacingEnd && !nextPage())
+				return false;
+			int size = _buffer.get(_lacing++) & 0xFF;
+			_remaining = size;
+			_lastSegment = size < 255;
+			return true;
+		}
+
+		private boolean nextPage() {
+			int page = _nextPage;
+			if (page + 27 > _buffer.limit())
+				return false;
+			if (_buffer.get(page) != 'O' || _buffer.get(page + 1) != 'g' || _buffer.get(page + 2) != 'g' || _buffer.get(page + 3) != 'S')
+				return false;
+			int segments = _buffer.get(page + 26) & 0xFF;
+			if (page + 27 + segments > _buffer.limit())
+				return false;
+			_lacing = page + 27;
+			_lacingEnd = _lacing + segments;
+			int size = 0;
+			for (int i = _lacing; i < _lacingEnd; ++i)
+				size += _buffer.get(i) & 0xFF;
+			_data = _lacingEnd;
+			_nextPage = _data + size;
+			return true;
+		}
+	}
+
+	// the comment header is the second packet: vendor string, then length prefixed KEY=value comments
+	private static void readVorbisComments(ByteBuffer buffer, Tags tags) {
+		OggPacketReader reader = new OggPacketReader(buffer);
+		if (!reader.nextPacket() || !reader.nextPacket())
+			return;
+		byte[] signature = new byte[7];
+		if (!reader.read(signature) || signature[0] != 3 || !"vorbis".equals(new String(signature, 1, 6)))
+			return;
+		long vendorLength = reader.readIntLE();
+		if (vendorLength < 0)
+			return;
+		reader.skip(vendorLength);
+		long count = reader.readIntLE();
+
+		HashMap<String, Long> starts = new HashMap<String, Long>();
+		HashMap<String, String> names = new HashMap<String, String>();
+		for (long i = 0; i < count; ++i) {
+			long length = reader.readIntLE();
+			if (length < 0)
+				break;
+			if (length > MAX_TEXT_LENGTH) {
+				reader.skip(length);
+				continue;
+			}
+			byte[] bytes = new byte[(int) length];
+			if (!reader.read(bytes))
+				break;
+			String comment;
+			try {
+				comment = new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				continue;
+			}
+			int equals = comment.indexOf('=');
+			if (equals < 0)
+				continue;
+			String key = comment.substring(0, equals).toUpperCase();
+			String value = comment.substring(equals + 1);
+			if (!key.startsWith("CHAPTER"))
+				continue;
+			if (key.endsWith("NAME")) {
+				names.put(key.substring(7, key.length() - 4), value);
+			} else {
+				long start = parseChapterTime(value);
+				if (start >= 0)
+					starts.put(key.substring(7), start);
+			}
+		}
+
+		ArrayList<Chapter> chapters = tags.getChapters();
+		for (String number : starts.keySet()) {
+			Chapter chapter = new Chapter(starts.get(number), -1);
+			String name = names.get(number);
+			if (name != null && name.length() > 0)
+				chapter._title = name;
+			chapters.add(chapter);
+		}
+		sortChapters(chapters);
+	}
+
+	// HH:MM:SS.sss, -1 if it isn't a time
+	private static long parseChapterTime(String value) {
+		String[] parts = value.trim().split(":");
+		if (parts.length != 3)
+			return -1;
+		try {
+			long hours = Long.parseLong(parts[0]);
+			long minutes = Long.parseLong(parts[1]);
+			double seconds = Double.parseDouble(parts[2]);
+			return (hours * 3600 + minutes * 60) * 1000 + Math.round(seconds * 1000);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void sortChapters(ArrayList<Chapter> chapters) {
+		Collections.sort(chapters, new Comparator<Chapter>() {
+			@Override
+			public int compare(Chapter a, Chapter b) {
+				return a._startMs < b._startMs ? -1 : (a._startMs == b._startMs ? 0 : 1);
+			}
+		});
+	}
+}
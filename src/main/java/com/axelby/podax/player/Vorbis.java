@@ -1,13 +1,17 @@
 package com.axelby.podax.player;
 
+import java.nio.ShortBuffer;
+
 public class Vorbis implements IMediaDecoder {
 	static {
 		System.loadLibrary("vorbis");
 	}
 
 	private static native long openFile(String filename);
+	private static native long openProgressive(String filename, ProgressiveSource source);
 	private static native void delete(long handle);
 	private static native int readSamples(long handle, short[] buffer, int offset, int numSamples);
+	private static native int readSamplesDirect(long handle, ShortBuffer buffer, int offset, int numSamples);
 	private static native int skipSamples(long handle, int numSamples);
 	private static native int isSeekable(long handle);
 	private static native int seek(long handle, float offset);
@@ -18,10 +22,23 @@ public class Vorbis implements IMediaDecoder {
 	private static native long getRawLength(long handle);
 	private static native long getPCMLength(long handle);
 	private static native long getTimeLength(long handle);
+	private static native long[] buildIndex(String filename, long interval);
+	private static native int seekIndexed(long handle, long byteOffset, long pcmTarget);
+
+	// seconds of audio between seek index entries, a seek decodes at most this much
+	private static final float SEEK_INDEX_INTERVAL = 2f;
 
 	long _handle = 0;
+	private final String _filename;
+	private SeekIndex _seekIndex = null;
+
 	public Vorbis(String filename) {
-		_handle = openFile(filename);
+		_filename = filename;
+		ProgressiveSource source = ProgressiveSource.get(filename);
+		if (source != null)
+			_handle = openProgressive(source.getCacheFilename(), source);
+		else
+			_handle = openFile(filename);
 	}
 
 	@Override
@@ -34,9 +51,25 @@ public class Vorbis implements IMediaDecoder {
 	public int readSamples(short[] buffer, int offset, int numSamples) {
 		return Vorbis.readSamples(_handle, buffer, offset, numSamples);
 	}
+	@Override
+	public int readSamples(ShortBuffer buffer, int numSamples) {
+		if (!buffer.isDirect())
+			throw new IllegalArgumentException("buffer must be direct");
+		int read = Vorbis.readSamplesDirect(_handle, buffer, buffer.position(), Math.min(numSamples, buffer.remaining()));
+		buffer.position(buffer.position() + read);
+		return read;
+	}
 	public int skipSamples(int numSamples) { return Vorbis.skipSamples(_handle, numSamples); }
 	public boolean isSeekable() { return Vorbis.isSeekable(_handle) != 0; }
-	@Override public int seek(float offset) { return Vorbis.seek(_handle, offset); }
+	@Override public int seek(float offset) {
+		if (_seekIndex != null) {
+			long target = (long) (offset * getRate());
+			int entry = _seekIndex.find(target);
+			if (entry >= 0)
+				return Vorbis.seekIndexed(_handle, _seekIndex.getOffset(entry), target);
+		}
+		return Vorbis.seek(_handle, offset);
+	}
 	@Override public float getPosition() {
 		return Vorbis.getPosition(_handle);
 	}
@@ -47,4 +80,23 @@ public class Vorbis implements IMediaDecoder {
 		return Vorbis.getRate(_handle);
 	}
 	@Override public float getDuration() { return Vorbis.getDuration(_handle); }
+
+	@Override
+	public SeekIndex buildSeekIndex() {
+		long[] pairs = Vorbis.buildIndex(_filename, (long) (SEEK_INDEX_INTERVAL * getRate()));
+		if (pairs == null)
+			return null;
+		long[] positions = new long[pairs.length / 2];
+		long[] offsets = new long[pairs.length / 2];
+		for (int i = 0; i < positions.length; ++i) {
+			positions[i] = pairs[i * 2];
+			offsets[i] = pairs[i * 2 + 1];
+		}
+		return new SeekIndex(positions, offsets);
+	}
+
+	@Override
+	public void setSeekIndex(SeekIndex index) {
+		_seekIndex = index;
+	}
 }
@@ -3,7 +3,7 @@ package com.axelby.podax.player;
 //	Slamnig Audio Utilities project
 //	Created: 2014/05/18 D.Slamnig
 
-public class WSOLA
+public class WSOLA implements ITimeStretcher
 {
 	public static class Error {
 		public static final int SUCCESS = 0;
@@ -25,11 +25,23 @@ public class WSOLA
 		}
 	}
 
+	// settings used by the ITimeStretcher methods
+	private int _sampleRate;
+	private boolean _stereo;
+	private float _speedRatio = 1f;
+	private final Error _processError = new Error();
+
 	public WSOLA() {
 		// initialize NDK part:
 		init();
 	}
 
+	public WSOLA(int sampleRate, int channels) {
+		this();
+		_sampleRate = sampleRate;
+		_stereo = channels == 2;
+	}
+
 	// wsolaStretch
 	//
 	// Checks parameters, allocates the output buffer and calls the NDK:
@@ -67,10 +79,7 @@ public class WSOLA
 		if (quality < 1)
 			quality = 1;
 
-		stretchSize = (int)Math.floor((float)plainSize / speedRatio + 0.5f);
-
-		if (stereo)
-			stretchSize = (stretchSize / 2) * 2;
+		stretchSize = getStretchedSize(plainSize, stereo, speedRatio);
 
 		if ((stretchBuffer = new short[stretchSize]) == null) {
 			if (err != null)
@@ -89,14 +98,103 @@ public class WSOLA
 		return stretchBuffer;
 	}
 
+	// stretchInto
+	//
+	// Same as stretch, but writes into a caller-owned buffer instead of allocating one.
+	// Use getStretchedSize to size the output buffer once and reuse it for every call.
+	//
+	// Parameters:
+	// -----------
+	// short[] audioBuffer - 16-bit input PCM audio data, stereo or mono, frame bounded.
+	// int audioLength - Number of samples in audioBuffer to process.
+	// short[] stretchBuffer - Output buffer.
+	// int stretchOffset - Index in stretchBuffer to start writing at.
+	// The remaining parameters are the same as stretch.
+	//
+	// Returns:
+	// --------
+	// On success, returns the number of samples written to stretchBuffer.
+	// On failure, returns a negative error code. The err parameter holds error information.
+	//
+	public int stretchInto(short[] audioBuffer, int audioLength, short[] stretchBuffer, int stretchOffset,
+						   int sampleRate, boolean stereo, float speedRatio, int quality, Error err) {
+		int stretchSize;
+		int errCode;
+
+		if (audioBuffer == null
+				|| stretchBuffer == null
+				|| audioLength <= 0
+				|| audioLength > audioBuffer.length
+				|| stretchOffset < 0
+				|| sampleRate <= 0
+				|| speedRatio <= 0.0f) {
+			if (err != null)
+				err.code = Error.ERR_INVALIDPARAMS;
+			return Error.ERR_INVALIDPARAMS;
+		}
+
+		if (quality < 1)
+			quality = 1;
+
+		stretchSize = getStretchedSize(audioLength, stereo, speedRatio);
+		if (stretchOffset + stretchSize > stretchBuffer.length) {
+			if (err != null)
+				err.code = Error.ERR_INVALIDPARAMS;
+			return Error.ERR_INVALIDPARAMS;
+		}
+
+		errCode = wsolaStretchIntoJNI(audioBuffer, audioLength, stretchBuffer, stretchOffset, stretchSize,
+				sampleRate, stereo, speedRatio, quality);
+
+		if (err != null)
+			err.code = errCode;
+
+		return errCode == Error.SUCCESS ? stretchSize : errCode;
+	}
+
+	@Override
+	public void setSpeedRatio(float speedRatio) {
+		_speedRatio = speedRatio;
+	}
+
+	@Override
+	public int getMaxOutputSize(int inputSamples, float speedRatio) {
+		return getStretchedSize(inputSamples, _stereo, speedRatio);
+	}
+
+	// each chunk is stretched on its own, the output is always input length / speedRatio
+	@Override
+	public int process(short[] input, int inputLength, short[] output, int outputOffset) {
+		int written = stretchInto(input, inputLength, output, outputOffset, _sampleRate, _stereo, _speedRatio, 1, _processError);
+		return written < 0 ? 0 : written;
+	}
+
+	@Override
+	public void reset() {
+		// no state is kept between chunks
+	}
+
+	// Number of output samples produced by stretching plainSize samples:
+	public static int getStretchedSize(int plainSize, boolean stereo, float speedRatio) {
+		int stretchSize = (int)Math.floor((float)plainSize / speedRatio + 0.5f);
+		if (stereo)
+			stretchSize = (stretchSize / 2) * 2;
+		return stretchSize;
+	}
+
 	// Initalizes the NDK part:
 	public native void init();
 	// Frees NDK allocated buffers - call when done using the library:
+	@Override
 	public native void close();
 
 	// NDK WSOLA time-stretch function:
 	private native int wsolaStretchJNI(short[] plainBuffer, short[] stretchBuffer,
 									   int sampleRate, boolean stereo, float speedRatio, int quality);
+	// NDK WSOLA time-stretch function working on array ranges, without copying the arrays:
+	private native int wsolaStretchIntoJNI(short[] plainBuffer, int plainSize,
+										   short[] stretchBuffer, int stretchOffset, int stretchSize,
+										   int sampleRate, boolean stereo, float speedRatio, int quality);
 
 	static {
 		System.loadLibrary("wsola");
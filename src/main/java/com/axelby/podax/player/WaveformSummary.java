@@ -0,0 +1,203 @@
+package com.axelby.podax.player;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// peak and RMS level of every 250ms of an episode, one byte each, stored next to the media file
+// the file is memory mapped when read so drawing a waveform never touches the decoder
+public class WaveformSummary {
+	public static final String FILE_SUFFIX = ".waveform";
+	public static final int INTERVAL_MS = 250;
+
+	private static final int MAGIC = 0x50574156; // PWAV
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+	// levels are stored in dB so quiet speech still shows up, anything below the floor is 0
+	private static final float FLOOR_DB = -60f;
+
+	// a speech onset is a block over the threshold after at least this much quiet
+	private static final int ONSET_LEVEL = levelFromDb(-35f);
+	private static final int ONSET_QUIET_BLOCKS = 600 / INTERVAL_MS;
+
+	private final MappedByteBuffer _data;
+	private final int _count;
+
+	private WaveformSummary(MappedByteBuffer data, int count) {
+		_data = data;
+		_count = count;
+	}
+
+	public int size() { return _count; }
+	public int getPeak(int block) { return _data.get(HEADER_SIZE + block * 2) & 0xFF; }
+	public int getRMS(int block) { return _data.get(HEADER_SIZE + block * 2 + 1) & 0xFF; }
+
+	// start of the first speech onset at or after positionMs, -1 if there isn't one
+	public int findOnsetAfter(int positionMs) {
+		int quiet = 0;
+		int start = Math.max(0, positionMs / INTERVAL_MS - ONSET_QUIET_BLOCKS);
+		for (int block = start; block < _count; ++block) {
+			if (getRMS(block) < ONSET_LEVEL) {
+				++quiet;
+				continue;
+			}
+			if (quiet >= ONSET_QUIET_BLOCKS && block * INTERVAL_MS >= positionMs)
+				return block * INTERVAL_MS;
+			quiet = 0;
+		}
+		return -1;
+	}
+
+	// start of the last speech onset at or before positionMs, -1 if there isn't one
+	public int findOnsetBefore(int positionMs) {
+		int last = Math.min(_count - 1, positionMs / INTERVAL_MS);
+		for (int block = last; block > 0; --block) {
+			if (getRMS(block) < ONSET_LEVEL)
+				continue;
+			int quiet = 0;
+			for (int b = block - 1; b >= 0 && quiet < ONSET_QUIET_BLOCKS && getRMS(b) < ONSET_LEVEL; --b)
+				++quiet;
+			if (quiet >= ONSET_QUIET_BLOCKS)
+				return block * INTERVAL_MS;
+		}
+		return -1;
+	}
+
+	public static File getSummaryFile(String audioFile) {
+		return new File(audioFile + FILE_SUFFIX);
+	}
+
+	// decodes the whole file once and stores its summary next to it
+	public static boolean build(String audioFile) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(audioFile);
+		if (decoder == null)
+			return false;
+
+		File summaryFile = getSummaryFile(audioFile);
+		File tempFile = new File(summaryFile.getPath() + ".tmp");
+		try {
+			int channels = decoder.getNumChannels();
+			int blockSamples = decoder.getRate() * INTERVAL_MS / 1000 * channels;
+			short[] buffer = new short[blockSamples];
+
+			// the block count isn't known until the end so it is written over the placeholder afterwards
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			int count = 0;
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(new File(audioFile).length());
+				out.writeInt(INTERVAL_MS);
+				out.writeInt(0);
+
+				int filled = 0;
+				int read;
+				while ((read = decoder.readSamples(buffer, filled, blockSamples - filled)) > 0) {
+					if (Thread.currentThread().isInterrupted())
+						return false;
+					filled += read;
+					if (filled < blockSamples)
+						continue;
+					writeBlock(out, buffer, filled);
+					++count;
+					filled = 0;
+				}
+				if (filled > 0) {
+					writeBlock(out, buffer, filled);
+					++count;
+				}
+			} finally {
+				out.close();
+			}
+
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+			try {
+				file.seek(HEADER_SIZE - 4);
+				file.writeInt(count);
+			} finally {
+				file.close();
+			}
+
+			if (!tempFile.renameTo(summaryFile)) {
+				Log.e("Podax", "unable to rename waveform summary");
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			Log.e("Podax", "unable to save waveform summary", e);
+			return false;
+		} finally {
+			decoder.close();
+			tempFile.delete();
+		}
+	}
+
+	private static void writeBlock(DataOutputStream out, short[] buffer, int length) throws IOException {
+		int peak = 0;
+		long sumSquares = 0;
+		for (int i = 0; i < length; ++i) {
+			int sample = buffer[i];
+			int magnitude = sample < 0 ? -sample : sample;
+			if (magnitude > peak)
+				peak = magnitude;
+			sumSquares += sample * sample;
+		}
+		double rms = Math.sqrt((double) sumSquares / length);
+		out.writeByte(levelFromDb(toDb(peak)));
+		out.writeByte(levelFromDb(toDb(rms)));
+	}
+
+	private static float toDb(double magnitude) {
+		if (magnitude <= 0)
+			return FLOOR_DB;
+		return (float) (20.0 * Math.log10(magnitude / 32768.0));
+	}
+
+	private static int levelFromDb(float db) {
+		if (db <= FLOOR_DB)
+			return 0;
+		if (db >= 0)
+			return 255;
+		return Math.round((db - FLOOR_DB) * 255f / -FLOOR_DB);
+	}
+
+	// maps the summary for an episode, null if it hasn't been built or the media file changed since
+	public static WaveformSummary open(String audioFile) {
+		File summaryFile = getSummaryFile(audioFile);
+		if (!summaryFile.exists())
+			return null;
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(summaryFile, "r");
+			if (file.length() < HEADER_SIZE)
+				return null;
+			// the mapping stays valid after the file is closed
+			MappedByteBuffer data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+				return null;
+			if (data.getLong(8) != new File(audioFile).length() || data.getInt(16) != INTERVAL_MS)
+				return null;
+			int count = data.getInt(20);
+			if (count < 0 || HEADER_SIZE + (long) count * 2 > file.length())
+				return null;
+			return new WaveformSummary(data, count);
+		} catch (IOException e) {
+			Log.e("Podax", "unable to read waveform summary", e);
+			return null;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ignored) { }
+			}
+		}
+	}
+}
@@ -8,6 +8,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import com.axelby.podax.R;
+import com.axelby.podax.player.PlayerMetrics;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -31,15 +32,18 @@ public class LogViewerFragment extends Fragment {
 		super.onActivityCreated(savedInstanceState);
 
 		File file = new File(getActivity().getExternalFilesDir(null), "podax.log");
-		StringBuilder text = new StringBuilder();
+		// player timings since the app started go above the newest log lines
+		StringBuilder text = new StringBuilder(PlayerMetrics.getReport());
+		text.append('\n');
+		int logStart = text.length();
 		BufferedReader br = null;
 		try {
 			br = new BufferedReader(new FileReader(file));
 			String line;
 
 			while ((line = br.readLine()) != null) {
-				text.insert(0, '\n');
-				text.insert(0, line);
+				text.insert(logStart, '\n');
+				text.insert(logStart, line);
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
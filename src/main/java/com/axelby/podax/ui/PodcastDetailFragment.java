@@ -8,6 +8,7 @@ import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -16,6 +17,7 @@ import android.text.Html;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.View.OnLongClickListener;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.ImageButton;
@@ -30,6 +32,7 @@ import com.axelby.podax.FlattrHelper;
 import com.axelby.podax.FlattrHelper.NoAppSecretFlattrException;
 import com.axelby.podax.Helper;
 import com.axelby.podax.IgnoreTagHandler;
+import com.axelby.podax.PlaybackPosition;
 import com.axelby.podax.PlayerService;
 import com.axelby.podax.PlayerStatus;
 import com.axelby.podax.PodcastCursor;
@@ -37,6 +40,7 @@ import com.axelby.podax.PodcastProvider;
 import com.axelby.podax.R;
 import com.axelby.podax.SubscriptionCursor;
 import com.axelby.podax.URLImageGetter;
+import com.axelby.podax.player.WaveformSummary;
 
 import org.shredzone.flattr4j.exception.FlattrException;
 import org.shredzone.flattr4j.exception.ForbiddenException;
@@ -47,6 +51,21 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 	private static final int CURSOR_ACTIVE = 2;
 	long _podcastId;
 	boolean _uiInitialized = false;
+	int _durationMs = 0;
+
+	// the database only gets the position every so often, the live one is read from the player
+	private Handler _handler = new Handler();
+	private Runnable _positionUpdater = new Runnable() {
+		@Override
+		public void run() {
+			if (_uiInitialized) {
+				int position = PlaybackPosition.get(_podcastId, -1);
+				if (position != -1)
+					showPosition(position);
+			}
+			_handler.postDelayed(this, 1000);
+		}
+	};
 	ImageView _subscriptionImage;
 	TextView _titleView;
 	TextView _subscriptionTitleView;
@@ -60,6 +79,7 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 	ImageButton _skipToEndButton;
 	SeekBar _seekbar;
 	boolean _seekbar_dragging = false;
+	WaveformView _waveform;
 	Button _paymentButton;
 	TextView _position;
 	TextView _duration;
@@ -104,6 +124,7 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 		_forwardButton = (ImageButton) activity.findViewById(R.id.forward_btn);
 		_skipToEndButton = (ImageButton) activity.findViewById(R.id.skiptoend_btn);
 		_seekbar = (SeekBar) activity.findViewById(R.id.seekbar);
+		_waveform = (WaveformView) activity.findViewById(R.id.waveform);
 		_position = (TextView) activity.findViewById(R.id.position);
 		_duration = (TextView) activity.findViewById(R.id.duration);
 		_paymentButton = (Button) activity.findViewById(R.id.payment);
@@ -123,7 +144,7 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 					return;
 				}
 				PodcastCursor p = new PodcastCursor(c);
-				if (p.isDownloaded(activity))
+				if (p.isDownloaded(activity) || PlayerService.canStream(activity))
 					PlayerService.play(activity, _podcastId);
 				else
 					Toast.makeText(activity, R.string.podcast_not_downloaded, Toast.LENGTH_LONG).show();
@@ -137,6 +158,14 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 			}
 		});
 
+		// holding the skip buttons moves by chapter instead
+		_forwardButton.setOnLongClickListener(new OnLongClickListener() {
+			public boolean onLongClick(View v) {
+				PodcastProvider.skipChapter(activity, _podcastId, true);
+				return true;
+			}
+		});
+
 		_skipToEndButton.setOnClickListener(new OnClickListener() {
 			public void onClick(View v) {
 				PodcastProvider.skipToEnd(activity, _podcastId);
@@ -159,6 +188,12 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 			}
 		});
 
+		_waveform.setOnPositionSelectedListener(new WaveformView.OnPositionSelectedListener() {
+			public void onPositionSelected(int positionMs) {
+				PodcastProvider.movePositionTo(activity, _podcastId, positionMs);
+			}
+		});
+
 		_queueButton.setOnClickListener(new OnClickListener() {
 			public void onClick(View v) {
 				Uri podcastUri = ContentUris.withAppendedId(PodcastProvider.URI, _podcastId);
@@ -188,6 +223,13 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 				PodcastProvider.movePositionBy(activity, _podcastId, -15);
 			}
 		});
+
+		_rewindButton.setOnLongClickListener(new OnLongClickListener() {
+			public boolean onLongClick(View v) {
+				PodcastProvider.skipChapter(activity, _podcastId, false);
+				return true;
+			}
+		});
 		_paymentButton.setOnClickListener(new OnClickListener() {
 			public void onClick(View v) {
 				new AsyncTask<Long, Void, Void>() {
@@ -265,6 +307,7 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 
 		_seekbar.setMax(podcast.getDuration());
 		_seekbar.setProgress(podcast.getLastPosition());
+		loadWaveform(podcast);
 
 		_position.setText(Helper.getTimeString(podcast.getLastPosition()));
 		_duration.setText("-" + Helper.getTimeString(podcast.getDuration() - podcast.getLastPosition()));
@@ -283,12 +326,39 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 		}
 	}
 
-	private void updateControls(PodcastCursor podcast) {
+	private void loadWaveform(final PodcastCursor podcast) {
+		_waveform.setSummary(null, 0);
+		final long podcastId = podcast.getId();
+		final String filename = podcast.getFilename(getActivity());
+		final int duration = podcast.getDuration();
+		new AsyncTask<Void, Void, WaveformSummary>() {
+			@Override
+			protected WaveformSummary doInBackground(Void... params) {
+				return WaveformSummary.open(filename);
+			}
+
+			@Override
+			protected void onPostExecute(WaveformSummary summary) {
+				// the fragment may have moved on to another podcast
+				if (getActivity() == null || podcastId != _podcastId)
+					return;
+				_waveform.setSummary(summary, duration);
+			}
+		}.execute();
+	}
+
+	private void showPosition(int position) {
 		if (!_seekbar_dragging) {
-			_position.setText(Helper.getTimeString(podcast.getLastPosition()));
-			_duration.setText("-" + Helper.getTimeString(podcast.getDuration() - podcast.getLastPosition()));
-			_seekbar.setProgress(podcast.getLastPosition());
+			_position.setText(Helper.getTimeString(position));
+			_duration.setText("-" + Helper.getTimeString(_durationMs - position));
+			_seekbar.setProgress(position);
 		}
+		_waveform.setPosition(position);
+	}
+
+	private void updateControls(PodcastCursor podcast) {
+		_durationMs = podcast.getDuration();
+		showPosition(PlaybackPosition.get(podcast.getId(), podcast.getLastPosition()));
 
 		PlayerStatus status = PlayerStatus.getCurrentState(getActivity());
 		boolean isPlaying = status.isPlaying() && status.getPodcastId() == _podcastId;
@@ -355,6 +425,7 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 	@Override
 	public void onResume() {
 		super.onResume();
+		_handler.post(_positionUpdater);
 
 		new AsyncTask<Void, Void, Void>() {
 			@Override
@@ -364,4 +435,10 @@ public class PodcastDetailFragment extends Fragment implements LoaderManager.Loa
 			}
 		}.execute();
 	}
+
+	@Override
+	public void onPause() {
+		super.onPause();
+		_handler.removeCallbacks(_positionUpdater);
+	}
 }
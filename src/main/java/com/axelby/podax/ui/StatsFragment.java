@@ -9,6 +9,7 @@ import android.widget.TextView;
 
 import com.axelby.podax.R;
 import com.axelby.podax.Stats;
+import com.axelby.podax.player.PlayerMetrics;
 
 // todo: fragment doesn't update when stats change
 public class StatsFragment extends Fragment {
@@ -25,5 +26,7 @@ public class StatsFragment extends Fragment {
 		listenTime.setText(Stats.getTimeString(getActivity()));
 		TextView completions = (TextView) getActivity().findViewById(R.id.completions);
 		completions.setText(String.valueOf(Stats.getCompletions(getActivity())));
+		TextView playerMetrics = (TextView) getActivity().findViewById(R.id.player_metrics);
+		playerMetrics.setText(PlayerMetrics.getSummary());
 	}
 }
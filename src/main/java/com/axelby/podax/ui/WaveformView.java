@@ -0,0 +1,120 @@
+package com.axelby.podax.ui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.axelby.podax.R;
+import com.axelby.podax.player.WaveformSummary;
+
+// draws an episode's waveform summary, tapping it picks the nearest speech onset
+public class WaveformView extends View {
+
+	public interface OnPositionSelectedListener {
+		void onPositionSelected(int positionMs);
+	}
+
+	private WaveformSummary _summary = null;
+	private int _duration = 0;
+	private int _position = 0;
+	private OnPositionSelectedListener _listener = null;
+
+	private final Paint _playedPaint = new Paint();
+	private final Paint _remainingPaint = new Paint();
+	private final Paint _rmsPaint = new Paint();
+
+	public WaveformView(Context context) {
+		super(context);
+		init();
+	}
+
+	public WaveformView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		init();
+	}
+
+	public WaveformView(Context context, AttributeSet attrs, int defStyle) {
+		super(context, attrs, defStyle);
+		init();
+	}
+
+	private void init() {
+		_playedPaint.setColor(getResources().getColor(R.color.podaxColor));
+		_remainingPaint.setColor(0xff9d9e9d);
+		_rmsPaint.setColor(0x40000000);
+	}
+
+	public void setSummary(WaveformSummary summary, int duration) {
+		_summary = summary;
+		_duration = duration;
+		setVisibility(summary == null ? GONE : VISIBLE);
+		invalidate();
+	}
+
+	public void setPosition(int positionMs) {
+		if (positionMs == _position)
+			return;
+		_position = positionMs;
+		invalidate();
+	}
+
+	public void setOnPositionSelectedListener(OnPositionSelectedListener listener) {
+		_listener = listener;
+	}
+
+	@Override
+	public boolean onTouchEvent(MotionEvent event) {
+		if (_summary == null || _listener == null || getWidth() == 0)
+			return super.onTouchEvent(event);
+		if (event.getAction() != MotionEvent.ACTION_UP)
+			return true;
+
+		int touched = (int) ((long) Math.max(0, Math.min(event.getX(), getWidth())) * getDuration() / getWidth());
+		// land where the speech starts rather than in the middle of a word
+		int onset = _summary.findOnsetBefore(touched);
+		int window = getDuration() / getWidth() * 8;
+		if (onset == -1 || touched - onset > window)
+			onset = touched;
+		_listener.onPositionSelected(onset);
+		return true;
+	}
+
+	private int getDuration() {
+		if (_duration > 0)
+			return _duration;
+		return _summary.size() * WaveformSummary.INTERVAL_MS;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (_summary == null || _summary.size() == 0)
+			return;
+
+		int width = getWidth();
+		int height = getHeight();
+		float middle = height / 2f;
+		int count = _summary.size();
+		int playedBlocks = _position / WaveformSummary.INTERVAL_MS;
+
+		// each column shows the loudest block it covers, only the mapped bytes for that range are read
+		for (int x = 0; x < width; ++x) {
+			int first = (int) ((long) x * count / width);
+			int last = Math.max(first + 1, (int) ((long) (x + 1) * count / width));
+			int peak = 0;
+			int rms = 0;
+			for (int block = first; block < last && block < count; ++block) {
+				peak = Math.max(peak, _summary.getPeak(block));
+				rms = Math.max(rms, _summary.getRMS(block));
+			}
+
+			float peakHeight = middle * peak / 255f;
+			float rmsHeight = middle * rms / 255f;
+			canvas.drawLine(x, middle - peakHeight, x, middle + peakHeight, first < playedBlocks ? _playedPaint : _remainingPaint);
+			canvas.drawLine(x, middle - rmsHeight, x, middle + rmsHeight, _rmsPaint);
+		}
+	}
+}
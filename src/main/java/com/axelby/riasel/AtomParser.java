@@ -12,6 +12,7 @@ public class AtomParser {
 	public static void process(XmlPullParser parser, FeedParser feedParser) throws XmlPullParserException, IOException {
 
 		Feed feed = new Feed();
+		DateParser dates = new DateParser();
 
 		for (int eventType = parser.getEventType(); eventType != XmlPullParser.END_DOCUMENT; eventType = parser.next()) {
 			if (eventType == XmlPullParser.START_TAG) {
@@ -20,7 +21,7 @@ public class AtomParser {
 				else if (isAtomElement(parser, "icon"))
 					feed.setThumbnail(parser.nextText());
 				else if (isAtomElement(parser, "updated"))
-					feed.setLastBuildDate(Utils.parseDate(parser.nextText()));
+					feed.setLastBuildDate(dates.parse(parser.nextText()));
 				else if (isAtomElement(parser, "entry"))
 					break;
 			}
@@ -31,10 +32,10 @@ public class AtomParser {
 		if (feedParser.shouldStopProcessing())
 			return;
 
-		parseEntries(parser, feedParser);
+		parseEntries(parser, feedParser, dates);
 	}
 
-	private static void parseEntries(XmlPullParser parser, FeedParser feedParser) throws XmlPullParserException, IOException {
+	private static void parseEntries(XmlPullParser parser, FeedParser feedParser, DateParser dates) throws XmlPullParserException, IOException {
 		FeedItem item = null;
 
 		// grab podcasts from item tags
@@ -62,12 +63,12 @@ public class AtomParser {
 				else if (isAtomElement(parser, "content"))
 					item.setDescription(parser.nextText());
 				else if (isAtomElement(parser, "published"))
-					item.setPublicationDate(Utils.parseDate(parser.nextText()));
+					item.setPublicationDate(dates.parse(parser.nextText()));
 				else if (isAtomElement(parser, "updated") && item.getPublicationDate() == null)
-					item.setPublicationDate(Utils.parseDate(parser.nextText()));
+					item.setPublicationDate(dates.parse(parser.nextText()));
 			} else if (eventType == XmlPullParser.END_TAG) {
 				if (isAtomElement(parser, "entry")) {
-					if (feedParser.getOnFeedItemHandler() != null)
+					if (!feedParser.isKnownItem(item) && feedParser.getOnFeedItemHandler() != null)
 						feedParser.getOnFeedItemHandler().OnFeedItem(feedParser, item);
 					if (feedParser.shouldStopProcessing())
 						return;
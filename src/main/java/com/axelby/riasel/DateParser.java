@@ -0,0 +1,368 @@
+package com.axelby.riasel;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// parses feed dates by hand instead of trying SimpleDateFormats until one fits
+// RFC 822/1123 ("Tue, 02 Jan 2014 03:04:05 GMT") and ISO 8601 ("2014-01-02T03:04:05.123+01:00")
+// a date without a zone is taken to be UTC, fields past their range roll over like a lenient SimpleDateFormat
+// not thread safe, use one per feed so each feed's dates try the form that worked last time first
+class DateParser {
+	private static final int FORM_NONE = 0;
+	private static final int FORM_ISO = 1;
+	private static final int FORM_RFC822 = 2;
+	private static final int FORM_FORMATS = 3;
+
+	private static final long NOT_PARSED = Long.MIN_VALUE;
+	private static final int NOT_A_ZONE = Integer.MIN_VALUE;
+
+	private static final String[] MONTHS = {
+			"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+	};
+
+	// zones that show up in feeds and their offsets in minutes, the same ones SimpleDateFormat gives them
+	// names that aren't here are left to SimpleDateFormat
+	private static final String[] ZONE_NAMES = {
+			"GMT", "UT", "UTC", "Z",
+			"EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT",
+			"BST", "CET", "CEST", "EET", "EEST", "JST", "AEST", "AEDT",
+	};
+	private static final int[] ZONE_OFFSETS = {
+			0, 0, 0, 0,
+			-5 * 60, -4 * 60, -6 * 60, -5 * 60, -7 * 60, -6 * 60, -8 * 60, -7 * 60,
+			60, 60, 2 * 60, 2 * 60, 3 * 60, 9 * 60, 10 * 60, 11 * 60,
+	};
+
+	// what Utils.parseDate used to try for RFC 822 dates, now only for zone names and day and month names
+	// the hand parser doesn't know, in English first and then in the device's language
+	private static final String[] FORMAT_PATTERNS = {
+			"EEE, d MMM yy HH:mm:ss z",
+			"EEE, d MMM yy HH:mm z",
+			"EEE, d MMM yyyy HH:mm:ss z",
+			"EEE, d MMM yyyy HH:mm z",
+			"EEE d MMM yy HH:mm:ss z",
+			"EEE d MMM yy HH:mm z",
+			"EEE d MMM yyyy HH:mm:ss z",
+			"EEE d MMM yyyy HH:mm z",
+			"d MMM yy HH:mm z",
+			"d MMM yy HH:mm:ss z",
+			"d MMM yyyy HH:mm z",
+			"d MMM yyyy HH:mm:ss z",
+	};
+
+	private int _lastForm = FORM_NONE;
+	private SimpleDateFormat[] _formats = null;
+
+	// set for the date being parsed
+	private String _text;
+	private int _pos;
+
+	// null if it isn't a date in a form feeds use
+	public Date parse(String text) {
+		if (text == null)
+			return null;
+		_text = text;
+		_pos = 0;
+
+		long millis = NOT_PARSED;
+		if (_lastForm != FORM_NONE)
+			millis = parseForm(_lastForm);
+		for (int form = FORM_ISO; millis == NOT_PARSED && form <= FORM_FORMATS; ++form) {
+			if (form != _lastForm) {
+				millis = parseForm(form);
+				if (millis != NOT_PARSED)
+					_lastForm = form;
+			}
+		}
+		_text = null;
+		return millis == NOT_PARSED ? null : new Date(millis);
+	}
+
+	// milliseconds since the epoch, NOT_PARSED if the text isn't in that form
+	private long parseForm(int form) {
+		_pos = 0;
+		skipSpaces();
+		switch (form) {
+			case FORM_ISO: return parseISO();
+			case FORM_RFC822: return parseRFC822();
+			case FORM_FORMATS: return parseWithFormats();
+			default: return NOT_PARSED;
+		}
+	}
+
+	// yyyy-MM-dd[(T| )HH:mm[:ss[.fraction]]][zone]
+	private long parseISO() {
+		int year = readNumber(4, 4);
+		if (year < 0 || !skip('-'))
+			return NOT_PARSED;
+		int month = readNumber(2, 2);
+		if (month < 0 || !skip('-'))
+			return NOT_PARSED;
+		int day = readNumber(2, 2);
+		if (day < 0)
+			return NOT_PARSED;
+
+		int hour = 0, minute = 0, second = 0, millis = 0;
+		if (skip('T') || skip('t') || (peek() == ' ' && isDigit(_pos + 1) && skip(' '))) {
+			hour = readNumber(2, 2);
+			if (hour < 0 || !skip(':'))
+				return NOT_PARSED;
+			minute = readNumber(2, 2);
+			if (minute < 0)
+				return NOT_PARSED;
+			if (skip(':')) {
+				second = readNumber(2, 2);
+				if (second < 0)
+					return NOT_PARSED;
+				if (skip('.') || skip(','))
+					millis = readFraction();
+			}
+		}
+
+		int offset = 0;
+		if (_pos < _text.length()) {
+			offset = readZone();
+			if (offset == NOT_A_ZONE)
+				return NOT_PARSED;
+		}
+		return toMillis(year, month, day, hour, minute, second, millis, offset);
+	}
+
+	// [dayname[,]] d MMM yy[yy] HH:mm[:ss] [zone]
+	private long parseRFC822() {
+		if (isLetter(_pos)) {
+			while (isLetter(_pos))
+				++_pos;
+			skip('.');
+			skip(',');
+			skipSpaces();
+		}
+
+		int day = readNumber(1, 2);
+		if (day < 0 || !skipSeparator())
+			return NOT_PARSED;
+		int month = readMonth();
+		if (month < 1 || !skipSeparator())
+			return NOT_PARSED;
+		int yearStart = _pos;
+		int year = readNumber(2, 4);
+		if (year < 0 || _pos - yearStart == 3)
+			return NOT_PARSED;
+		if (_pos - yearStart == 2)
+			year = expandYear(year);
+		skipSpaces();
+
+		int hour = readNumber(1, 2);
+		if (hour < 0 || !skip(':'))
+			return NOT_PARSED;
+		int minute = readNumber(2, 2);
+		if (minute < 0)
+			return NOT_PARSED;
+		int second = 0;
+		if (skip(':')) {
+			second = readNumber(2, 2);
+			if (second < 0)
+				return NOT_PARSED;
+		}
+		skipSpaces();
+
+		int offset = 0;
+		if (_pos < _text.length()) {
+			offset = readZone();
+			if (offset == NOT_A_ZONE)
+				return NOT_PARSED;
+		}
+		return toMillis(year, month, day, hour, minute, second, 0, offset);
+	}
+
+	// SimpleDateFormat knows many more zone names and every language's day and month names
+	private long parseWithFormats() {
+		if (_formats == null) {
+			boolean english = Locale.getDefault().getLanguage().equals(Locale.ENGLISH.getLanguage());
+			int count = english ? FORMAT_PATTERNS.length : FORMAT_PATTERNS.length * 2;
+			_formats = new SimpleDateFormat[count];
+			for (int i = 0; i < count; ++i) {
+				Locale locale = i < FORMAT_PATTERNS.length ? Locale.US : Locale.getDefault();
+				_formats[i] = new SimpleDateFormat(FORMAT_PATTERNS[i % FORMAT_PATTERNS.length], locale);
+				_formats[i].setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+		}
+		String text = _text.trim();
+		// always in order, yy has to be tried before yyyy or yyyy reads 14 as the year 14
+		for (SimpleDateFormat format : _formats) {
+			Date date = format.parse(text, new ParsePosition(0));
+			if (date != null)
+				return date.getTime();
+		}
+		return NOT_PARSED;
+	}
+
+	// a zone name, Z, or a numeric offset with or without a colon or a GMT in front of it
+	// returns the offset in minutes, NOT_A_ZONE if it isn't a zone this parser knows
+	private int readZone() {
+		int start = _pos;
+		while (isLetter(_pos))
+			++_pos;
+		int offset = 0;
+		if (_pos > start) {
+			int length = _pos - start;
+			boolean found = false;
+			for (int i = 0; i < ZONE_NAMES.length && !found; ++i) {
+				if (ZONE_NAMES[i].length() == length && _text.regionMatches(true, start, ZONE_NAMES[i], 0, length)) {
+					offset = ZONE_OFFSETS[i];
+					found = true;
+				}
+			}
+			// an id like Europe/Berlin or a name that needs SimpleDateFormat
+			if (!found || isLetter(_pos) || peek() == '/')
+				return NOT_A_ZONE;
+			// GMT+01:00
+			if (peek() != '+' && peek() != '-')
+				return offset;
+		}
+
+		char sign = peek();
+		if (sign != '+' && sign != '-')
+			return NOT_A_ZONE;
+		++_pos;
+		int digitsStart = _pos;
+		int hours = readNumber(1, 2);
+		if (hours < 0)
+			return NOT_A_ZONE;
+		int minutes = 0;
+		if (skip(':')) {
+			minutes = readNumber(2, 2);
+		} else if (_pos - digitsStart == 2 && isDigit(_pos)) {
+			minutes = readNumber(2, 2);
+		} else if (_pos - digitsStart == 1 && isDigit(_pos)) {
+			// +100 is +01:00
+			_pos = digitsStart;
+			int hhmm = readNumber(3, 3);
+			hours = hhmm / 100;
+			minutes = hhmm % 100;
+		}
+		if (minutes < 0 || minutes > 59 || hours > 18)
+			return NOT_A_ZONE;
+		int zoneOffset = hours * 60 + minutes;
+		return offset + (sign == '-' ? -zoneOffset : zoneOffset);
+	}
+
+	// 1 to 12 from an English month name or abbreviation, -1 if it isn't one
+	private int readMonth() {
+		int start = _pos;
+		while (isLetter(_pos))
+			++_pos;
+		if (_pos - start < 3)
+			return -1;
+		for (int i = 0; i < MONTHS.length; ++i)
+			if (_text.regionMatches(true, start, MONTHS[i], 0, 3))
+				return i + 1;
+		return -1;
+	}
+
+	// the way SimpleDateFormat does it, within 80 years before and 20 years after now
+	private static int expandYear(int twoDigitYear) {
+		int now = 1970 + (int) (System.currentTimeMillis() / (365.2425 * 24 * 60 * 60 * 1000));
+		int year = (now / 100) * 100 + twoDigitYear;
+		if (year >= now + 20)
+			year -= 100;
+		else if (year < now - 80)
+			year += 100;
+		return year;
+	}
+
+	// digits after the decimal point as milliseconds
+	private int readFraction() {
+		int millis = 0;
+		int digits = 0;
+		while (isDigit(_pos)) {
+			if (digits < 3)
+				millis = millis * 10 + (_text.charAt(_pos) - '0');
+			++digits;
+			++_pos;
+		}
+		for (; digits < 3; ++digits)
+			millis *= 10;
+		return millis;
+	}
+
+	// between minDigits and maxDigits digits, -1 if there aren't enough
+	private int readNumber(int minDigits, int maxDigits) {
+		int value = 0;
+		int digits = 0;
+		while (digits < maxDigits && isDigit(_pos)) {
+			value = value * 10 + (_text.charAt(_pos) - '0');
+			++digits;
+			++_pos;
+		}
+		return digits < minDigits ? -1 : value;
+	}
+
+	// days, hours, minutes and seconds past their range carry into the next field
+	private static long toMillis(int year, int month, int day, int hour, int minute, int second, int millis, int offsetMinutes) {
+		// month 0 is December of the year before, 13 is January of the year after
+		int monthIndex = month - 1;
+		int yearCarry = monthIndex >= 0 ? monthIndex / 12 : (monthIndex - 11) / 12;
+		year += yearCarry;
+		month = monthIndex - yearCarry * 12 + 1;
+
+		long days = daysFromCivil(year, month, 1) + day - 1;
+		long seconds = days * 86400 + hour * 3600 + minute * 60 + second - offsetMinutes * 60;
+		return seconds * 1000 + millis;
+	}
+
+	// days since 1970-01-01 in the proleptic Gregorian calendar
+	private static long daysFromCivil(int year, int month, int day) {
+		if (month <= 2)
+			--year;
+		long era = (year >= 0 ? year : year - 399) / 400;
+		long yearOfEra = year - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	private boolean skipSeparator() {
+		if (!skip('-') && !isSpace(_pos))
+			return false;
+		skipSpaces();
+		return true;
+	}
+
+	private void skipSpaces() {
+		while (isSpace(_pos))
+			++_pos;
+	}
+
+	private boolean skip(char c) {
+		if (peek() != c)
+			return false;
+		++_pos;
+		return true;
+	}
+
+	private char peek() {
+		return _pos < _text.length() ? _text.charAt(_pos) : '\0';
+	}
+
+	private boolean isDigit(int pos) {
+		if (pos >= _text.length())
+			return false;
+		char c = _text.charAt(pos);
+		return c >= '0' && c <= '9';
+	}
+
+	private boolean isLetter(int pos) {
+		if (pos >= _text.length())
+			return false;
+		char c = _text.charAt(pos);
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private boolean isSpace(int pos) {
+		return pos < _text.length() && Character.isWhitespace(_text.charAt(pos));
+	}
+}
@@ -1,6 +1,8 @@
 package com.axelby.riasel;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -24,10 +26,22 @@ public class FeedParser {
 		}
 	}
 
+	// this many known items in a row and the rest of the feed is assumed to be known too
+	private static final int KNOWN_ITEMS_TO_STOP = 3;
+
 	private FeedInfoHandler _feedInfoHandler;
 	private FeedItemHandler _feedItemHandler;
 	private boolean _stopProcessing = false;
 
+	private Date _watermarkDate = null;
+	private String _watermarkMediaURL = null;
+	private int _knownRun = 0;
+	private Date _previousDate = null;
+	private boolean _newestFirst = true;
+	private boolean _stoppedAtWatermark = false;
+	// items skipped for their date, they're handed over after all if the feed turns out not to be newest first
+	private ArrayList<FeedItem> _skippedByDate = new ArrayList<FeedItem>();
+
 	public FeedParser() {
 	}
 
@@ -51,6 +65,55 @@ public class FeedParser {
 		_stopProcessing = true;
 	}
 
+	// the newest item already seen, items published before it aren't handed to the item handler
+	// parsing stops after a few of them in a row unless the feed turns out not to be newest first
+	public void setKnownItemWatermark(Date newestKnownDate, String newestKnownMediaURL) {
+		// a date in the future would make every item look known, only the media url can be trusted then
+		if (newestKnownDate != null && newestKnownDate.after(new Date()))
+			newestKnownDate = null;
+		_watermarkDate = newestKnownDate;
+		_watermarkMediaURL = newestKnownMediaURL;
+	}
+
+	// whether parsing stopped early because the rest of the feed was known
+	public boolean stoppedAtWatermark() {
+		return _stoppedAtWatermark;
+	}
+
+	// called by the parsers for each item in feed order
+	boolean isKnownItem(FeedItem item) {
+		if (_watermarkDate == null && _watermarkMediaURL == null)
+			return false;
+
+		// an item newer than the one before it means known items can be followed by new ones
+		Date date = item.getPublicationDate();
+		if (_newestFirst && (date == null || (_previousDate != null && date.after(_previousDate)))) {
+			_newestFirst = false;
+			// their dates don't say anything any more, the handler gets them before this item
+			if (_feedItemHandler != null)
+				for (FeedItem skipped : _skippedByDate)
+					_feedItemHandler.OnFeedItem(this, skipped);
+			_skippedByDate.clear();
+		}
+		if (date != null)
+			_previousDate = date;
+
+		boolean knownByURL = _watermarkMediaURL != null && _watermarkMediaURL.equals(item.getMediaURL());
+		// once the feed isn't newest first only the media url says an item is known
+		boolean knownByDate = _newestFirst && _watermarkDate != null && date != null && date.before(_watermarkDate);
+		if (!knownByURL && !knownByDate) {
+			_knownRun = 0;
+			return false;
+		}
+		if (!knownByURL)
+			_skippedByDate.add(item);
+		if (_newestFirst && ++_knownRun >= KNOWN_ITEMS_TO_STOP) {
+			_stoppedAtWatermark = true;
+			stopProcessing();
+		}
+		return true;
+	}
+
 	public void parseFeed(XmlPullParser parser) throws XmlPullParserException, IOException, UnknownFeedException {
 		// make sure this is an RSS document
 		int eventType = parser.getEventType();
@@ -15,6 +15,7 @@ public class RSSParser {
 
 	static void process(XmlPullParser parser, FeedParser feedParser) throws XmlPullParserException, IOException {
 		Feed feed = new Feed();
+		DateParser dates = new DateParser();
 		boolean in_image = false;
 
 		// look for subscription details, stop at item tag
@@ -47,11 +48,11 @@ public class RSSParser {
 				} else if (parser.getDepth() != 3) {
 					continue;
 				} else if (name.equalsIgnoreCase("pubDate")) {
-					Date date = Utils.parseDate(parser.nextText());
+					Date date = dates.parse(parser.nextText());
 					if (date != null)
 						feed.setPubDate(date);
 				} else if (name.equalsIgnoreCase("lastBuildDate")) {
-					Date date = Utils.parseDate(parser.nextText());
+					Date date = dates.parse(parser.nextText());
 					if (date != null)
 						feed.setLastBuildDate(date);
 				} else if (name.equalsIgnoreCase("title") && namespace.equals("")) {
@@ -69,10 +70,10 @@ public class RSSParser {
 		if (feedParser.shouldStopProcessing())
 			return;
 
-		parseRSSItems(parser, feedParser);
+		parseRSSItems(parser, feedParser, dates);
 	}
 
-	private static void parseRSSItems(XmlPullParser parser, FeedParser feedParser) throws XmlPullParserException, IOException {
+	private static void parseRSSItems(XmlPullParser parser, FeedParser feedParser, DateParser dates) throws XmlPullParserException, IOException {
 		FeedItem item = null;
 
 		// grab podcasts from item tags
@@ -96,7 +97,7 @@ public class RSSParser {
 				} else if (namespace.equals("") && name.equalsIgnoreCase("description")) {
 					item.setDescription(parser.nextText());
 				} else if (name.equalsIgnoreCase("pubDate")) {
-					item.setPublicationDate(Utils.parseDate(parser.nextText()));
+					item.setPublicationDate(dates.parse(parser.nextText()));
 				} else if (name.equalsIgnoreCase("enclosure")) {
 					item.setMediaURL(parser.getAttributeValue(null, "url"));
 					try {
@@ -108,7 +109,7 @@ public class RSSParser {
 			} else if (eventType == XmlPullParser.END_TAG) {
 				String name = parser.getName();
 				if (name.equalsIgnoreCase("item")) {
-					if (feedParser.getOnFeedItemHandler() != null)
+					if (!feedParser.isKnownItem(item) && feedParser.getOnFeedItemHandler() != null)
 						feedParser.getOnFeedItemHandler().OnFeedItem(feedParser, item);
 					if (feedParser.shouldStopProcessing())
 						return;
@@ -0,0 +1,14 @@
+/* host stand-in for the NDK log header, messages go to stderr */
+#ifndef PODAX_HOST_ANDROID_LOG_H
+#define PODAX_HOST_ANDROID_LOG_H
+
+#include <stdio.h>
+
+#define ANDROID_LOG_INFO 4
+#define ANDROID_LOG_WARN 5
+#define ANDROID_LOG_ERROR 6
+
+#define __android_log_write(prio, tag, text) fprintf(stderr, "%s: %s\n", (tag), (text))
+#define __android_log_print(prio, tag, ...) (fprintf(stderr, "%s: ", (tag)), fprintf(stderr, __VA_ARGS__), fputc('\n', stderr))
+
+#endif
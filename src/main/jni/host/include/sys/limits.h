@@ -0,0 +1,7 @@
+/* host stand-in for bionic's sys/limits.h */
+#ifndef PODAX_HOST_SYS_LIMITS_H
+#define PODAX_HOST_SYS_LIMITS_H
+
+#include <limits.h>
+
+#endif
@@ -0,0 +1,4 @@
+/* Tremor's os.h redefines LITTLE_ENDIAN as 1 after glibc has set BYTE_ORDER to 1234 */
+#include <endian.h>
+#undef BYTE_ORDER
+#define BYTE_ORDER 1
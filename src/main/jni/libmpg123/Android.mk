@@ -8,6 +8,7 @@ LOCAL_LDLIBS     := -llog
 
 ifeq ($(TARGET_ARCH),arm)
 LOCAL_CFLAGS     := -DACCURATE_ROUNDING \
+					-DFRAME_INDEX \
 					-DOPT_ARM \
 					-DREAL_IS_FIXED \
 					-DNO_REAL \
@@ -19,6 +20,7 @@ LOCAL_CFLAGS     := -DACCURATE_ROUNDING \
 endif
 ifeq ($(TARGET_ARCH),x86)
 LOCAL_CFLAGS     := -DACCURATE_ROUNDING \
+					-DFRAME_INDEX \
 					-DHAVE_STRERROR \
 					-DOPT_SSE \
 					-DREAL_IS_FLOAT \
@@ -1,7 +1,9 @@
 #include "mpg123.h"
 #include <jni.h>
 #include <fcntl.h>
+#include <string.h>
 #include <android/log.h>
+#include "../podax_progressive.h"
 
 typedef struct _MP3File
 {
@@ -45,6 +47,48 @@ JNIEXPORT jstring JNICALL Java_com_axelby_podax_player_MPG123_getErrorMessage
 	return (*env)->NewStringUTF(env, mpg123_plain_strerror(error));
 }
 
+// reads the output format once the stream is open, frees mp3 and returns 0 if it can't be decoded
+static jlong mp3file_start(MP3File* mp3)
+{
+    mpg123_handle *mh = mp3->handle;
+    int encoding;
+    if (mpg123_getformat(mh, &mp3->rate, &mp3->channels, &encoding) == MPG123_OK)
+    {
+        if(encoding == MPG123_ENC_SIGNED_16)
+        {
+            // Signed 16 is the default output format anyway;
+            // it would actually by only different if we forced it.
+            // So this check is here just for this explanation.
+
+            // Ensure that this output format will not change
+            // (it could, when we allow it).
+            mpg123_format_none(mh);
+            mpg123_format(mh, mp3->rate, mp3->channels, encoding);
+
+            mp3->buffer_size = mpg123_outblock(mh);
+            mp3->buffer = (unsigned char*)malloc(mp3->buffer_size);
+
+            mp3->num_samples = mpg123_length(mh);
+			mp3->samples_per_frame = mpg123_spf(mh);
+			mp3->secs_per_frame = mpg123_tpf(mh);
+
+            if (mp3->num_samples == MPG123_ERR || mp3->samples_per_frame < 0)
+                mp3->num_frames = 0;
+            else
+                mp3->num_frames = mp3->num_samples / mp3->samples_per_frame;
+
+			if (mp3->num_samples == MPG123_ERR || mp3->samples_per_frame < 0 || mp3->secs_per_frame < 0)
+				mp3->duration = 0;
+			else
+				mp3->duration = mp3->num_samples / mp3->samples_per_frame * mp3->secs_per_frame;
+
+            return (jlong)mp3;
+        }
+    }
+    mp3file_delete(mp3);
+    return 0;
+}
+
 JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_MPG123_openFile
 	(JNIEnv *env, jclass c, jstring filename)
 {
@@ -58,42 +102,7 @@ JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_MPG123_openFile
         (*env)->ReleaseStringUTFChars(env, filename, fileString);
 
         if (err == MPG123_OK)
-        {
-            int encoding;
-            if (mpg123_getformat(mh, &mp3->rate, &mp3->channels, &encoding) == MPG123_OK)
-            {
-                if(encoding == MPG123_ENC_SIGNED_16)
-                {
-                    // Signed 16 is the default output format anyway;
-                    // it would actually by only different if we forced it.
-                    // So this check is here just for this explanation.
-
-                    // Ensure that this output format will not change
-                    // (it could, when we allow it).
-                    mpg123_format_none(mh);
-                    mpg123_format(mh, mp3->rate, mp3->channels, encoding);
-
-                    mp3->buffer_size = mpg123_outblock(mh);
-                    mp3->buffer = (unsigned char*)malloc(mp3->buffer_size);
-
-                    mp3->num_samples = mpg123_length(mh);
-					mp3->samples_per_frame = mpg123_spf(mh);
-					mp3->secs_per_frame = mpg123_tpf(mh);
-
-                    if (mp3->num_samples == MPG123_ERR || mp3->samples_per_frame < 0)
-                        mp3->num_frames = 0;
-                    else
-                        mp3->num_frames = mp3->num_samples / mp3->samples_per_frame;
-
-					if (mp3->num_samples == MPG123_ERR || mp3->samples_per_frame < 0 || mp3->secs_per_frame < 0)
-						mp3->duration = 0;
-					else
-						mp3->duration = mp3->num_samples / mp3->samples_per_frame * mp3->secs_per_frame;
-
-                    return (jlong)mp3;
-                }
-            }
-        }
+            return mp3file_start(mp3);
         mp3file_delete(mp3);
     } else {
 		__android_log_write(ANDROID_LOG_INFO, "podax-jni", mpg123_plain_strerror(err));
@@ -101,6 +110,49 @@ JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_MPG123_openFile
     return 0;
 }
 
+static ssize_t progressive_read_handle(void* handle, void* buffer, size_t count)
+{
+	return progressive_read((ProgressiveFile*)handle, buffer, count);
+}
+
+static off_t progressive_seek_handle(void* handle, off_t offset, int whence)
+{
+	return progressive_seek((ProgressiveFile*)handle, offset, whence);
+}
+
+static void progressive_close_handle(void* handle)
+{
+	progressive_close((ProgressiveFile*)handle);
+}
+
+// the file is still downloading, reads wait on source for the bytes they need
+JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_MPG123_openProgressive
+	(JNIEnv *env, jclass c, jstring filename, jobject source)
+{
+    int err = MPG123_OK;
+    mpg123_handle *mh = mpg123_new(NULL, &err);
+    if (err != MPG123_OK || mh == NULL)
+    {
+		__android_log_write(ANDROID_LOG_INFO, "podax-jni", mpg123_plain_strerror(err));
+        return 0;
+    }
+
+    ProgressiveFile* file = progressive_open(env, filename, source);
+    if (file == NULL)
+    {
+        mpg123_delete(mh);
+        return 0;
+    }
+
+    MP3File* mp3 = mp3file_init(mh);
+    mpg123_replace_reader_handle(mh, progressive_read_handle, progressive_seek_handle, progressive_close_handle);
+    // from here closing the handle closes file too
+    if (mpg123_open_handle(mh, file) == MPG123_OK)
+        return mp3file_start(mp3);
+    mp3file_delete(mp3);
+    return 0;
+}
+
 JNIEXPORT void JNICALL Java_com_axelby_podax_player_MPG123_delete
 	(JNIEnv *env, jclass c, jlong handle)
 {
@@ -130,11 +182,11 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_readSamples
     short* target = buffer + offset;
 
 	int idx = 0;
-    while (idx != numSamples)
+    while (idx < numSamples)
     {
         if (mp3->leftSamples > 0) {
             short* src = ((short*)mp3->buffer) + mp3->offset;
-            while (idx < numSamples && mp3->offset < mp3->buffer_size / 2) {
+            while (idx < numSamples && mp3->leftSamples > 0) {
                 *target = *src;
 				mp3->leftSamples--;
 				mp3->offset++;
@@ -143,13 +195,51 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_readSamples
 				idx++;
 			}
         } else if (readBuffer(mp3) == 0) {
-			(*env)->ReleasePrimitiveArrayCritical(env, obj_buffer, buffer, 0);
-			return 0;
+			// the end of the stream, what was read before it is still returned
+			break;
 		}
     }
 
 	(*env)->ReleasePrimitiveArrayCritical(env, obj_buffer, buffer, 0);
-    return idx > numSamples ? 0 : idx;
+    return idx;
+}
+
+// decodes into a direct buffer, whole blocks go straight into it without the intermediate buffer
+JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_readSamplesDirect
+	(JNIEnv *env, jclass c, jlong handle, jobject obj_buffer, jint offset, jint numSamples)
+{
+	MP3File *mp3 = (MP3File *)handle;
+	short* target = (short*)(*env)->GetDirectBufferAddress(env, obj_buffer);
+	if (target == NULL)
+		return 0;
+	target += offset;
+
+	int idx = 0;
+	while (idx < numSamples)
+	{
+		if (mp3->leftSamples > 0) {
+			int count = mp3->leftSamples;
+			if (count > numSamples - idx)
+				count = numSamples - idx;
+			memcpy(target + idx, ((short*)mp3->buffer) + mp3->offset, count * 2);
+			mp3->leftSamples -= count;
+			mp3->offset += count;
+			idx += count;
+		} else if (numSamples - idx >= mp3->buffer_size / 2) {
+			size_t done = 0;
+			int err = mpg123_read(mp3->handle, (unsigned char*)(target + idx), mp3->buffer_size, &done);
+			idx += done / 2;
+			if (err != MPG123_OK) {
+				if (err != MPG123_DONE)
+					__android_log_write(ANDROID_LOG_ERROR, "podax-jni", mpg123_strerror(mp3->handle));
+				break;
+			}
+		} else if (readBuffer(mp3) == 0) {
+			break;
+		}
+	}
+
+	return idx;
 }
 
 JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_skipSamples
@@ -157,19 +247,19 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_skipSamples
 {
     MP3File *mp3 = (MP3File *)handle;
     int idx = 0;
-    while (idx != numSamples)
+    while (idx < numSamples)
     {
         if (mp3->leftSamples > 0) {
-           while(idx < numSamples && mp3->offset < mp3->buffer_size / 2) {
+           while(idx < numSamples && mp3->leftSamples > 0) {
 			   mp3->leftSamples--;
 			   mp3->offset++;
 			   idx++;
 		   }
 		} else if (readBuffer(mp3) == 0)
-			return 0;
+			break;
     }
 
-    return idx > numSamples ? 0 : idx;
+    return idx;
 }
 
 JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_seek
@@ -179,6 +269,53 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_seek
     return mpg123_seek(mp3->handle, (int) (seconds / mp3->secs_per_frame * mp3->samples_per_frame), SEEK_SET);
 }
 
+// walks the whole file and returns the frame step followed by the byte offset of every step-th frame
+JNIEXPORT jlongArray JNICALL Java_com_axelby_podax_player_MPG123_buildIndex
+	(JNIEnv *env, jclass c, jlong handle, jint maxEntries)
+{
+    MP3File *mp3 = (MP3File *)handle;
+    off_t *offsets;
+    off_t step;
+    size_t fill, i;
+
+    mpg123_param(mp3->handle, MPG123_INDEX_SIZE, maxEntries, 0);
+    if (mpg123_scan(mp3->handle) != MPG123_OK)
+        return NULL;
+    if (mpg123_index(mp3->handle, &offsets, &step, &fill) != MPG123_OK || fill == 0)
+        return NULL;
+
+    jlongArray result = (*env)->NewLongArray(env, fill + 1);
+    jlong *resultData = (jlong *)(*env)->GetPrimitiveArrayCritical(env, result, 0);
+    resultData[0] = step;
+    for (i = 0; i < fill; i++)
+        resultData[i + 1] = offsets[i];
+    (*env)->ReleasePrimitiveArrayCritical(env, result, resultData, 0);
+
+    mpg123_seek(mp3->handle, 0, SEEK_SET);
+    mp3->leftSamples = 0;
+    mp3->offset = 0;
+    return result;
+}
+
+// replaces the index mpg123 builds while decoding so seeks can jump straight to the nearest frame
+JNIEXPORT jint JNICALL Java_com_axelby_podax_player_MPG123_setIndex
+	(JNIEnv *env, jclass c, jlong handle, jlong step, jlongArray obj_offsets)
+{
+    MP3File *mp3 = (MP3File *)handle;
+    jsize fill = (*env)->GetArrayLength(env, obj_offsets);
+    off_t *offsets = (off_t *)malloc(fill * sizeof(off_t));
+    jsize i;
+
+    jlong *offsetData = (*env)->GetLongArrayElements(env, obj_offsets, 0);
+    for (i = 0; i < fill; i++)
+        offsets[i] = (off_t)offsetData[i];
+    (*env)->ReleaseLongArrayElements(env, obj_offsets, offsetData, JNI_ABORT);
+
+    int err = mpg123_set_index(mp3->handle, offsets, (off_t)step, fill);
+    free(offsets);
+    return err;
+}
+
 JNIEXPORT float JNICALL Java_com_axelby_podax_player_MPG123_getPosition
 	(JNIEnv *env, jclass c, jlong handle)
 {
@@ -5,6 +5,7 @@
 #include <stdlib.h>
 #include <stdio.h>
 #include <android/log.h>
+#include "../podax_progressive.h"
 
 typedef struct
 {
@@ -17,6 +18,22 @@ typedef struct
 
 static char buffer[10000];
 
+// keeps the stream details once ogg is open
+static jlong oggfile_start(OggVorbis_File* ogg) {
+	vorbis_info *info = ov_info(ogg, -1);
+	int channels = info->channels;
+	int rate = info->rate;
+	float length = (float)ov_time_total(ogg, -1) / 1000.0f;
+
+	OggFile* oggFile = (OggFile*) malloc(sizeof(OggFile));
+	oggFile->ogg = ogg;
+	oggFile->channels = channels;
+	oggFile->rate = rate;
+	oggFile->length = length;
+
+	return (jlong)oggFile;
+}
+
 JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_Vorbis_openFile
 		(JNIEnv* env, jclass c, jstring obj_filename) {
 	OggVorbis_File* ogg = (OggVorbis_File*) malloc(sizeof(OggVorbis_File));
@@ -39,18 +56,57 @@ JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_Vorbis_openFile
 		return 0;
 	}
 
-	vorbis_info *info = ov_info(ogg, -1);
-	int channels = info->channels;
-	int rate = info->rate;
-	float length = (float)ov_time_total(ogg, -1) / 1000.0f;
+	return oggfile_start(ogg);
+}
 
-	OggFile* oggFile = (OggFile*) malloc(sizeof(OggFile));
-	oggFile->ogg = ogg;
-	oggFile->channels = channels;
-	oggFile->rate = rate;
-	oggFile->length = length;
+static size_t progressive_read_callback(void* ptr, size_t size, size_t nmemb, void* datasource) {
+	ssize_t read = progressive_read((ProgressiveFile*)datasource, ptr, size * nmemb);
+	// errno is set when it fails, which is how vorbisfile tells an error from the end
+	if (read <= 0)
+		return 0;
+	return read / size;
+}
+
+static int progressive_seek_callback(void* datasource, ogg_int64_t offset, int whence) {
+	return progressive_seek((ProgressiveFile*)datasource, (off_t)offset, whence) < 0 ? -1 : 0;
+}
+
+static int progressive_close_callback(void* datasource) {
+	progressive_close((ProgressiveFile*)datasource);
+	return 0;
+}
+
+static long progressive_tell_callback(void* datasource) {
+	return (long)((ProgressiveFile*)datasource)->position;
+}
+
+// the file is still downloading, reads wait on source for the bytes they need
+JNIEXPORT jlong JNICALL Java_com_axelby_podax_player_Vorbis_openProgressive
+		(JNIEnv* env, jclass c, jstring obj_filename, jobject source) {
+	ProgressiveFile* file = progressive_open(env, obj_filename, source);
+	if (file == NULL)
+	{
+		__android_log_write(ANDROID_LOG_INFO, "mp3decoders-jni", "didn't open partial file");
+		return 0;
+	}
+
+	ov_callbacks callbacks = {
+		progressive_read_callback,
+		progressive_seek_callback,
+		progressive_close_callback,
+		progressive_tell_callback
+	};
+	OggVorbis_File* ogg = (OggVorbis_File*) malloc(sizeof(OggVorbis_File));
+	// vorbisfile closes the datasource itself only once it's open
+	if (ov_open_callbacks(file, ogg, NULL, 0, callbacks) != 0)
+	{
+		__android_log_write(ANDROID_LOG_INFO, "mp3decoders-jni", "failed to ov_open partial file");
+		progressive_close(file);
+		free(ogg);
+		return 0;
+	}
 
-	return (jlong)oggFile;	
+	return oggfile_start(ogg);
 }
 
 JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_getNumChannels
@@ -113,6 +169,32 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_readSamples
 	return read / 2;
 }
 
+// ov_read writes straight into the direct buffer
+JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_readSamplesDirect
+		(JNIEnv* env, jclass c, jlong handle, jobject obj_samples, jint offset, jint numSamples) {
+	short* samples = (short*)(*env)->GetDirectBufferAddress(env, obj_samples);
+	if (samples == NULL)
+		return 0;
+
+	OggFile* file = (OggFile*)handle;
+	int toRead = 2 * numSamples;
+	int read = 0;
+
+	samples += offset;
+
+	while (read != toRead)
+	{
+		int ret = ov_read(file->ogg, (char*)samples + read, toRead - read, &file->bitstream);
+		if (ret == OV_HOLE)
+			continue;
+		if (ret == OV_EBADLINK || ret == OV_EINVAL || ret == 0)
+			break;
+		read+=ret;
+	}
+
+	return read / 2;
+}
+
 JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_skipSamples
 		(JNIEnv* env, jclass c, jlong handle, jint numSamples) {
 	OggFile* file = (OggFile*)handle;
@@ -158,6 +240,94 @@ JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_seek
 	return ov_time_seek(file->ogg, (ogg_int64_t)(time * 1000.f));
 }
 
+// reads the pages of the file without decoding and returns pairs of
+// (first pcm sample in page, byte offset of page), at most one pair per interval samples
+JNIEXPORT jlongArray JNICALL Java_com_axelby_podax_player_Vorbis_buildIndex
+		(JNIEnv* env, jclass c, jstring obj_filename, jlong interval) {
+	char* filename = (char*)(*env)->GetStringUTFChars(env, obj_filename, 0);
+	FILE* file = fopen(filename, "rb");
+	(*env)->ReleaseStringUTFChars(env, obj_filename, filename);
+	if (file == 0)
+		return NULL;
+
+	ogg_sync_state sync;
+	ogg_page page;
+	ogg_sync_init(&sync);
+
+	size_t capacity = 256;
+	size_t count = 0;
+	jlong* entries = (jlong*) malloc(capacity * 2 * sizeof(jlong));
+	ogg_int64_t offset = 0;
+	ogg_int64_t pageStart = 0;
+	ogg_int64_t nextEntry = 0;
+
+	for (;;) {
+		long ret = ogg_sync_pageseek(&sync, &page);
+		if (ret == 0) {
+			char* data = ogg_sync_buffer(&sync, 4096);
+			size_t bytes = fread(data, 1, 4096, file);
+			if (bytes == 0)
+				break;
+			ogg_sync_wrote(&sync, bytes);
+			continue;
+		}
+		if (ret < 0) {
+			// skipped garbage between pages
+			offset -= ret;
+			continue;
+		}
+
+		ogg_int64_t granule = ogg_page_granulepos(&page);
+		if (granule >= 0) {
+			if (pageStart >= nextEntry) {
+				if (count == capacity) {
+					capacity *= 2;
+					entries = (jlong*) realloc(entries, capacity * 2 * sizeof(jlong));
+				}
+				entries[count * 2] = pageStart;
+				entries[count * 2 + 1] = offset;
+				count++;
+				nextEntry = pageStart + interval;
+			}
+			// audio in the following page starts where this one ends
+			pageStart = granule;
+		}
+		offset += ret;
+	}
+
+	ogg_sync_clear(&sync);
+	fclose(file);
+
+	jlongArray result = (*env)->NewLongArray(env, count * 2);
+	(*env)->SetLongArrayRegion(env, result, 0, count * 2, entries);
+	free(entries);
+	return result;
+}
+
+// jumps to a page from the seek index and decodes forward to the exact sample
+JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_seekIndexed
+		(JNIEnv* env, jclass c, jlong handle, jlong byteOffset, jlong pcmTarget) {
+	OggFile* file = (OggFile*)handle;
+	int ret = ov_raw_seek(file->ogg, byteOffset);
+	if (ret != 0)
+		return ret;
+
+	ogg_int64_t pcm = ov_pcm_tell(file->ogg);
+	int frameBytes = 2 * file->channels;
+	while (pcm < pcmTarget) {
+		long toRead = (long)(pcmTarget - pcm) * frameBytes;
+		if (toRead > sizeof(buffer))
+			toRead = sizeof(buffer) / frameBytes * frameBytes;
+		ret = ov_read(file->ogg, buffer, toRead, &file->bitstream);
+		if (ret == OV_HOLE)
+			continue;
+		if (ret <= 0)
+			break;
+		pcm += ret / frameBytes;
+	}
+	return 0;
+}
+
 /*
 JNIEXPORT jint JNICALL Java_com_axelby_podax_player_Vorbis_openStream
 		(JNIEnv *env, jclass c, jbyteArray bytes)
@@ -0,0 +1,118 @@
+#ifndef PODAX_PROGRESSIVE_H
+#define PODAX_PROGRESSIVE_H
+
+// reading a file that's still being downloaded by a com.axelby.podax.player.ProgressiveSource
+// every read asks the source to wait until the bytes are in, which happens on the decoding thread
+
+#include <jni.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/types.h>
+
+typedef struct
+{
+	int fd;
+	off_t position;
+	JavaVM* vm;
+	jobject source;
+	jmethodID awaitRange;
+	jmethodID getLength;
+} ProgressiveFile;
+
+static ProgressiveFile* progressive_open(JNIEnv* env, jstring obj_filename, jobject source)
+{
+	jclass sourceClass = (*env)->GetObjectClass(env, source);
+	jmethodID awaitRange = (*env)->GetMethodID(env, sourceClass, "awaitRange", "(JJ)J");
+	jmethodID getLength = (*env)->GetMethodID(env, sourceClass, "getLength", "()J");
+	if (awaitRange == NULL || getLength == NULL)
+		return NULL;
+
+	const char* filename = (*env)->GetStringUTFChars(env, obj_filename, NULL);
+	int fd = open(filename, O_RDONLY);
+	(*env)->ReleaseStringUTFChars(env, obj_filename, filename);
+	if (fd < 0)
+		return NULL;
+
+	ProgressiveFile* file = (ProgressiveFile*) malloc(sizeof(ProgressiveFile));
+	memset(file, 0, sizeof(ProgressiveFile));
+	file->fd = fd;
+	(*env)->GetJavaVM(env, &file->vm);
+	file->source = (*env)->NewGlobalRef(env, source);
+	file->awaitRange = awaitRange;
+	file->getLength = getLength;
+	return file;
+}
+
+// calls a long method on the source from whichever Java thread is decoding, -1 if it threw
+static jlong progressive_call(ProgressiveFile* file, jmethodID method, jlong position, jlong length)
+{
+	JNIEnv* env;
+	if ((*file->vm)->GetEnv(file->vm, (void**) &env, JNI_VERSION_1_4) != JNI_OK)
+		return -1;
+	jlong result = method == file->awaitRange
+			? (*env)->CallLongMethod(env, file->source, method, position, length)
+			: (*env)->CallLongMethod(env, file->source, method);
+	if ((*env)->ExceptionCheck(env)) {
+		(*env)->ExceptionClear(env);
+		return -1;
+	}
+	return result;
+}
+
+static ssize_t progressive_read(ProgressiveFile* file, void* buffer, size_t count)
+{
+	jlong available = progressive_call(file, file->awaitRange, (jlong) file->position, (jlong) count);
+	if (available < 0) {
+		errno = EIO;
+		return -1;
+	}
+	if (available == 0)
+		return 0;
+	if ((size_t) available < count)
+		count = (size_t) available;
+	ssize_t read = pread(file->fd, buffer, count, file->position);
+	if (read > 0)
+		file->position += read;
+	return read;
+}
+
+// SEEK_END is relative to the full length from the server, not how much of the file exists
+static off_t progressive_seek(ProgressiveFile* file, off_t offset, int whence)
+{
+	off_t position;
+	if (whence == SEEK_SET) {
+		position = offset;
+	} else if (whence == SEEK_CUR) {
+		position = file->position + offset;
+	} else if (whence == SEEK_END) {
+		jlong length = progressive_call(file, file->getLength, 0, 0);
+		if (length < 0) {
+			errno = EIO;
+			return -1;
+		}
+		position = (off_t) length + offset;
+	} else {
+		errno = EINVAL;
+		return -1;
+	}
+	if (position < 0) {
+		errno = EINVAL;
+		return -1;
+	}
+	file->position = position;
+	return position;
+}
+
+static void progressive_close(ProgressiveFile* file)
+{
+	JNIEnv* env;
+	if ((*file->vm)->GetEnv(file->vm, (void**) &env, JNI_VERSION_1_4) == JNI_OK)
+		(*env)->DeleteGlobalRef(env, file->source);
+	close(file->fd);
+	free(file);
+}
+
+#endif
@@ -47,3 +47,32 @@ Java_com_axelby_podax_player_WSOLA_wsolaStretchJNI(JNIEnv* env, jobject thiz,
 	
 	return errCode;
 }
+
+// Stretches plainSize samples of plainBuffer into stretchBuffer starting at stretchOffset.
+// The arrays are pinned rather than copied so the caller can reuse them for every chunk.
+JNIEXPORT jint JNICALL
+Java_com_axelby_podax_player_WSOLA_wsolaStretchIntoJNI(JNIEnv* env, jobject thiz,
+	jshortArray plainBuffer, jint plainSize,
+	jshortArray stretchBuffer, jint stretchOffset, jint stretchSize,
+	jint sampleRate, jboolean stereo, jfloat speedRatio, jint quality)
+{
+	short *inBuf, *outBuf;
+	int errCode = ERR_INVALIDPARAMS;
+
+	if (plainSize > (*env)->GetArrayLength(env, plainBuffer)
+		|| stretchOffset + stretchSize > (*env)->GetArrayLength(env, stretchBuffer))
+		return ERR_INVALIDPARAMS;
+
+	if ((inBuf = (*env)->GetPrimitiveArrayCritical(env, plainBuffer, NULL)) != NULL) {
+		if ((outBuf = (*env)->GetPrimitiveArrayCritical(env, stretchBuffer, NULL)) != NULL) {
+			errCode = WSOLA_TimeStretch(inBuf, plainSize, outBuf + stretchOffset, stretchSize,
+									sampleRate, stereo, speedRatio, quality);
+
+			(*env)->ReleasePrimitiveArrayCritical(env, stretchBuffer, outBuf, 0);
+		}
+		// input is never modified, so don't copy it back
+		(*env)->ReleasePrimitiveArrayCritical(env, plainBuffer, inBuf, JNI_ABORT);
+	}
+
+	return errCode;
+}
@@ -0,0 +1,377 @@
+package com.axelby.podax;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeedRefreshEngineTest {
+	private static final int FEEDS = 300;
+	private static final int HOSTS = 12;
+	private static final int ITEMS_PER_FEED = 40;
+	private static final int FEEDS_AT_ONCE = 6;
+	private static final int FEEDS_PER_HOST = 2;
+	// before the headers and between each chunk of the body
+	private static final int LATENCY_MS = 15;
+	private static final int CHUNKS = 4;
+
+	private HttpServer _server;
+	private ExecutorService _serverThreads;
+	private final AtomicInteger _inFlight = new AtomicInteger(0);
+	private final AtomicInteger _maxInFlight = new AtomicInteger(0);
+	private final HashMap<String, AtomicInteger> _hostInFlight = new HashMap<String, AtomicInteger>();
+	private final AtomicInteger _maxHostInFlight = new AtomicInteger(0);
+
+	// a few hundred feeds spread over a dozen hosts, all of them on one port
+	@Before
+	public void setUp() throws IOException {
+		for (int i = 0; i < HOSTS; ++i)
+			_hostInFlight.put("host" + i, new AtomicInteger(0));
+
+		_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		_server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				sleep(LATENCY_MS);
+				byte[] body = feedBody(ITEMS_PER_FEED);
+				// no length so the body is chunked and arrives a piece at a time
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream output = exchange.getResponseBody();
+				int chunk = body.length / CHUNKS + 1;
+				for (int offset = 0; offset < body.length; offset += chunk) {
+					output.write(body, offset, Math.min(chunk, body.length - offset));
+					output.flush();
+					sleep(LATENCY_MS);
+				}
+				output.close();
+			}
+		});
+		_serverThreads = Executors.newCachedThreadPool();
+		_server.setExecutor(_serverThreads);
+		_server.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop(0);
+		_serverThreads.shutdownNow();
+	}
+
+	private static void raise(AtomicInteger max, int value) {
+		int current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value)) { }
+	}
+
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static byte[] feedBody(int items) {
+		StringBuilder xml = new StringBuilder("<rss><channel><title>feed</title>");
+		for (int i = 0; i < items; ++i)
+			xml.append("<item><title>episode ").append(i).append("</title><enclosure url=\"http://example.com/")
+					.append(i).append(".mp3\"/></item>");
+		xml.append("</channel></rss>");
+		return xml.toString().getBytes();
+	}
+
+	// counts the items the way a parser walks the body, a piece at a time as it arrives
+	private static int countItems(InputStream body) throws IOException {
+		byte[] tag = "<item>".getBytes();
+		int matched = 0;
+		int items = 0;
+		int b;
+		while ((b = body.read()) != -1) {
+			matched = b == tag[matched] ? matched + 1 : (b == tag[0] ? 1 : 0);
+			if (matched == tag.length) {
+				++items;
+				matched = 0;
+			}
+		}
+		return items;
+	}
+
+	private class HttpJob extends FeedRefreshEngine.Job {
+		private final URL _url;
+		private final FeedRefreshEngine _engine;
+		private final ConcurrentHashMap<Integer, Integer> _written;
+		private final Set<String> _parseThreads;
+		private final Set<String> _writeThreads;
+		private final int _id;
+
+		HttpJob(FeedRefreshEngine engine, int id, ConcurrentHashMap<Integer, Integer> written,
+				Set<String> parseThreads, Set<String> writeThreads) throws IOException {
+			super("host" + (id % HOSTS));
+			_engine = engine;
+			_id = id;
+			_url = new URL("http://127.0.0.1:" + _server.getAddress().getPort() + "/feed" + id);
+			_written = written;
+			_parseThreads = parseThreads;
+			_writeThreads = writeThreads;
+		}
+
+		// a feed counts as in flight from connecting until the engine closes its body
+		@Override
+		InputStream fetch() throws IOException {
+			final AtomicInteger hostCount = _hostInFlight.get(host);
+			raise(_maxInFlight, _inFlight.incrementAndGet());
+			raise(_maxHostInFlight, hostCount.incrementAndGet());
+			HttpURLConnection connection = (HttpURLConnection) _url.openConnection();
+			return new FilterInputStream(connection.getInputStream()) {
+				private boolean _closed = false;
+
+				@Override
+				public void close() throws IOException {
+					if (!_closed) {
+						_closed = true;
+						hostCount.decrementAndGet();
+						_inFlight.decrementAndGet();
+					}
+					super.close();
+				}
+			};
+		}
+
+		@Override
+		void parse(InputStream body) {
+			_parseThreads.add(Thread.currentThread().getName());
+			final int items;
+			try {
+				items = countItems(body);
+			} catch (IOException e) {
+				return;
+			}
+			_engine.getWriter().execute(new Runnable() {
+				@Override
+				public void run() {
+					_writeThreads.add(Thread.currentThread().getName());
+					_written.put(_id, items);
+				}
+			});
+		}
+	}
+
+	@Test
+	public void refreshesManyFeedsWithinTheLimits() throws IOException {
+		FeedRefreshEngine engine = new FeedRefreshEngine(FEEDS_AT_ONCE, FEEDS_PER_HOST, 3, 60000, 10000);
+		ConcurrentHashMap<Integer, Integer> written = new ConcurrentHashMap<Integer, Integer>();
+		Set<String> parseThreads = Collections.synchronizedSet(new HashSet<String>());
+		Set<String> writeThreads = Collections.synchronizedSet(new HashSet<String>());
+		for (int i = 0; i < FEEDS; ++i)
+			engine.add(new HttpJob(engine, i, written, parseThreads, writeThreads));
+
+		long start = System.nanoTime();
+		engine.run();
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+		assertEquals(FEEDS, written.size());
+		for (int items : written.values())
+			assertEquals(ITEMS_PER_FEED, items);
+
+		assertTrue("at most " + FEEDS_AT_ONCE + " feeds at once, saw " + _maxInFlight.get(), _maxInFlight.get() <= FEEDS_AT_ONCE);
+		assertTrue("at most " + FEEDS_PER_HOST + " feeds per host, saw " + _maxHostInFlight.get(), _maxHostInFlight.get() <= FEEDS_PER_HOST);
+		assertTrue("feeds should be fetched in parallel", _maxInFlight.get() > 1);
+
+		for (String name : parseThreads)
+			assertTrue("parsed on " + name, name.startsWith("feed parse"));
+		assertEquals(1, writeThreads.size());
+		assertTrue(writeThreads.iterator().next().startsWith("feed writer"));
+
+		long serialMs = (long) FEEDS * LATENCY_MS * (CHUNKS + 1);
+		System.out.println("refreshed " + FEEDS + " feeds in " + elapsedMs + " ms, at least " + serialMs + " ms one at a time");
+		assertTrue("took " + elapsedMs + " ms", elapsedMs < serialMs / 2);
+	}
+
+	@Test
+	public void stopsStartingFeedsAtTheDeadline() {
+		final AtomicInteger parsed = new AtomicInteger(0);
+		FeedRefreshEngine engine = new FeedRefreshEngine(2, 2, 1, 300, 200);
+		for (int i = 0; i < 40; ++i) {
+			engine.add(new FeedRefreshEngine.Job("slow") {
+				@Override
+				InputStream fetch() throws IOException {
+					sleep(100);
+					return new ByteArrayInputStream(feedBody(1));
+				}
+
+				@Override
+				void parse(InputStream body) {
+					parsed.incrementAndGet();
+				}
+			});
+		}
+
+		long start = System.nanoTime();
+		engine.run();
+		long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("took " + elapsedMs + " ms", elapsedMs < 1000);
+		assertTrue(parsed.get() > 0);
+		assertTrue(parsed.get() < 40);
+	}
+
+	// a parse that ignores being interrupted and only finishes after everything has shut down
+	@Test
+	public void lateWritesStillHappen() throws InterruptedException {
+		final CountDownLatch wrote = new CountDownLatch(1);
+		final AtomicReference<String> writeThread = new AtomicReference<String>();
+		final AtomicReference<String> parseThread = new AtomicReference<String>();
+		final FeedRefreshEngine engine = new FeedRefreshEngine(1, 1, 1, 100, 100);
+		engine.add(new FeedRefreshEngine.Job("stubborn") {
+			@Override
+			InputStream fetch() throws IOException {
+				return new ByteArrayInputStream(feedBody(1));
+			}
+
+			@Override
+			void parse(InputStream body) {
+				parseThread.set(Thread.currentThread().getName());
+				long until = System.currentTimeMillis() + 600;
+				while (System.currentTimeMillis() < until) {
+					try {
+						Thread.sleep(until - System.currentTimeMillis());
+					} catch (InterruptedException ignored) {
+					}
+				}
+				engine.getWriter().execute(new Runnable() {
+					@Override
+					public void run() {
+						writeThread.set(Thread.currentThread().getName());
+						wrote.countDown();
+					}
+				});
+			}
+		});
+
+		engine.run();
+		assertEquals(1, wrote.getCount());
+		assertTrue(wrote.await(2, TimeUnit.SECONDS));
+		assertEquals(parseThread.get(), writeThread.get());
+	}
+
+	// a parser that has what it needs closes the body and the rest isn't downloaded
+	@Test
+	public void closingTheBodyStopsTheDownload() {
+		final AtomicLong served = new AtomicLong(0);
+		final AtomicInteger closed = new AtomicInteger(0);
+		final long size = 64L * 1024 * 1024;
+		FeedRefreshEngine engine = new FeedRefreshEngine(1, 1, 1, 10000, 1000);
+		engine.add(new FeedRefreshEngine.Job("big") {
+			@Override
+			InputStream fetch() throws IOException {
+				return new InputStream() {
+					@Override
+					public int read() {
+						return served.getAndIncrement() < size ? 'x' : -1;
+					}
+
+					@Override
+					public int read(byte[] buffer, int offset, int count) {
+						long left = size - served.get();
+						if (left <= 0)
+							return -1;
+						int read = (int) Math.min(count, left);
+						served.addAndGet(read);
+						return read;
+					}
+
+					@Override
+					public void close() {
+						closed.incrementAndGet();
+					}
+				};
+			}
+
+			@Override
+			void parse(InputStream body) {
+				try {
+					body.read(new byte[100]);
+					body.close();
+				} catch (IOException ignored) {
+				}
+			}
+		});
+
+		engine.run();
+		assertEquals(1, closed.get());
+		assertTrue("read " + served.get() + " bytes", served.get() < 1024 * 1024);
+	}
+
+	@Test
+	public void pipeHandsOverBytesThenTheError() throws IOException, InterruptedException {
+		final FeedRefreshEngine.Pipe pipe = new FeedRefreshEngine.Pipe(16);
+		final byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; ++i)
+			data[i] = (byte) i;
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					assertTrue(pipe.write(data, 0, data.length));
+					pipe.fail(new IOException("connection reset"));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		writer.start();
+
+		byte[] read = new byte[data.length];
+		int total = 0;
+		IOException error = null;
+		try {
+			while (total < read.length)
+				total += pipe.read(read, total, Math.min(7, read.length - total));
+			pipe.read();
+		} catch (IOException e) {
+			error = e;
+		}
+		writer.join();
+
+		assertEquals(data.length, total);
+		for (int i = 0; i < data.length; ++i)
+			assertEquals(data[i], read[i]);
+		assertTrue(error != null);
+		assertEquals("connection reset", error.getMessage());
+	}
+
+	@Test
+	public void pipeWriterStopsOnceTheReaderCloses() throws IOException {
+		FeedRefreshEngine.Pipe pipe = new FeedRefreshEngine.Pipe(16);
+		assertTrue(pipe.write(new byte[10], 0, 10));
+		pipe.close();
+		assertFalse(pipe.write(new byte[100], 0, 100));
+	}
+}
@@ -0,0 +1,41 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+// counts the bytes the calling thread allocates, for checking the audio path doesn't create garbage
+final class Allocations {
+	private Allocations() { }
+
+	// skips the test on a JVM that can't count allocations per thread
+	static void assumeSupported() {
+		Assume.assumeTrue("this JVM doesn't count allocations per thread",
+				ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).isThreadAllocatedMemorySupported());
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	// bytes allocated by running body runs times, after running it as many times first to get buffers sized and code compiled
+	static long measure(Runnable body, int runs) {
+		for (int i = 0; i < runs; ++i)
+			body.run();
+
+		// what asking for the count allocates itself, the smallest of a few tries
+		// since one of them can catch a one-off allocation and push the result below 0
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 10; ++i) {
+			long start = allocatedBytes();
+			overhead = Math.min(overhead, allocatedBytes() - start);
+		}
+
+		long before = allocatedBytes();
+		for (int i = 0; i < runs; ++i)
+			body.run();
+		return allocatedBytes() - before - overhead;
+	}
+}
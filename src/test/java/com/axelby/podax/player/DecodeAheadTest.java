@@ -0,0 +1,197 @@
+package com.axelby.podax.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeAheadTest {
+	private static final int RATE = 44100;
+	private static final int CHANNELS = 2;
+
+	// decodes a ramp, the sample value is the frame number so positions can be checked after a seek
+	private static class RampDecoder implements IMediaDecoder {
+		private final long _frames;
+		private volatile long _frame = 0;
+		volatile int reads = 0;
+
+		RampDecoder(float seconds) {
+			_frames = (long) (seconds * RATE);
+		}
+
+		@Override public void close() { }
+
+		@Override
+		public int readSamples(short[] buffer, int offset, int numSamples) {
+			++reads;
+			int count = (int) Math.min(numSamples / CHANNELS, _frames - _frame) * CHANNELS;
+			for (int i = 0; i < count; ++i)
+				buffer[offset + i] = (short) (_frame + i / CHANNELS);
+			_frame += count / CHANNELS;
+			return count;
+		}
+
+		@Override
+		public int readSamples(ShortBuffer buffer, int numSamples) {
+			short[] samples = new short[numSamples];
+			int count = readSamples(samples, 0, numSamples);
+			buffer.put(samples, 0, count);
+			return count;
+		}
+
+		@Override public int skipSamples(int numSamples) { return 0; }
+
+		@Override
+		public int seek(float offsetInSeconds) {
+			_frame = Math.min((long) (offsetInSeconds * RATE), _frames);
+			return 0;
+		}
+
+		@Override public float getPosition() { return (float) _frame / RATE; }
+		@Override public int getNumChannels() { return CHANNELS; }
+		@Override public int getRate() { return RATE; }
+		@Override public float getDuration() { return (float) _frames / RATE; }
+		@Override public SeekIndex buildSeekIndex() { return null; }
+		@Override public void setSeekIndex(SeekIndex index) { }
+	}
+
+	private final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+	private PCMRingBuffer _ring;
+	private DecodeAhead _decodeAhead;
+	private Thread _thread;
+
+	@Before
+	public void setUp() {
+		_ring = new PCMRingBuffer(AudioPlayer.PCM_CHUNK_SIZE * 4);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (_decodeAhead != null) {
+			_decodeAhead.stop();
+			_thread.join(1000);
+			assertTrue("decode thread didn't stop", !_thread.isAlive());
+		}
+	}
+
+	private void start(IMediaDecoder decoder) {
+		_decodeAhead = new DecodeAhead("episode.mp3", decoder, _ring);
+		_thread = _decodeAhead.start();
+	}
+
+	private void awaitParked() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (_thread.getState() != Thread.State.WAITING) {
+			assertTrue("decode thread never parked, state " + _thread.getState(), System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	private long getWaitedCount() {
+		return _threads.getThreadInfo(_thread.getId()).getWaitedCount();
+	}
+
+	// nothing reads while paused, the decoder shouldn't wake up until something does
+	@Test
+	public void pausedDecoderStaysParked() throws InterruptedException {
+		RampDecoder decoder = new RampDecoder(600);
+		start(decoder);
+		awaitParked();
+		assertEquals(_ring.getCapacity(), _ring.available());
+
+		long waited = getWaitedCount();
+		int reads = decoder.reads;
+		Thread.sleep(500);
+		assertEquals("wakeups while paused", 0, getWaitedCount() - waited);
+		assertEquals(reads, decoder.reads);
+		assertEquals(Thread.State.WAITING, _thread.getState());
+
+		// reading frees space and wakes it again
+		short[] out = new short[_ring.getCapacity()];
+		_ring.read(out, 0, out.length);
+		long deadline = System.currentTimeMillis() + 1000;
+		while (_ring.available() < _ring.getCapacity() && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		assertEquals(_ring.getCapacity(), _ring.available());
+	}
+
+	@Test
+	public void endOfStreamStaysParked() throws InterruptedException {
+		RampDecoder decoder = new RampDecoder(0.01f);
+		start(decoder);
+		long deadline = System.currentTimeMillis() + 1000;
+		while (!_ring.isDrained()) {
+			_ring.discardUpTo(_ring.getWritePosition());
+			assertTrue("never reached the end of the stream", System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		awaitParked();
+
+		long waited = getWaitedCount();
+		int reads = decoder.reads;
+		Thread.sleep(500);
+		assertEquals("wakeups after the end of the stream", 0, getWaitedCount() - waited);
+		assertEquals(reads, decoder.reads);
+
+		// a seek back still goes through
+		_decodeAhead.seek(0);
+		_ring.discardUpTo(_decodeAhead.getSeekPosition());
+		deadline = System.currentTimeMillis() + 1000;
+		while (_ring.available() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		short[] out = new short[2];
+		assertEquals(2, _ring.read(out, 0, 2));
+		assertEquals(0, out[0]);
+	}
+
+	@Test
+	public void seekWhilePausedIsQuick() throws InterruptedException {
+		start(new RampDecoder(600));
+		awaitParked();
+
+		final int seeks = 200;
+		long worst = 0;
+		long total = 0;
+		for (int i = 0; i < seeks; ++i) {
+			long start = System.nanoTime();
+			_decodeAhead.seek((i % 10) + 0.5f);
+			long elapsed = System.nanoTime() - start;
+			total += elapsed;
+			worst = Math.max(worst, elapsed);
+			_ring.discardUpTo(_decodeAhead.getSeekPosition());
+		}
+		System.out.println(String.format("seek while paused: mean %.3f ms, worst %.3f ms over %d seeks",
+				total / 1e6 / seeks, worst / 1e6, seeks));
+		// the old 1 ms poll put every seek at a millisecond or more
+		assertTrue("mean seek latency " + total / seeks + " ns", total / seeks < 1000 * 1000);
+
+		// audio after the seek starts at the requested position
+		_decodeAhead.seek(2);
+		_ring.discardUpTo(_decodeAhead.getSeekPosition());
+		long deadline = System.currentTimeMillis() + 1000;
+		while (_ring.available() == 0 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		short[] out = new short[2];
+		assertEquals(2, _ring.read(out, 0, 2));
+		assertEquals((short) (2 * RATE), out[0]);
+	}
+
+	@Test
+	public void stopWakesParkedThread() throws InterruptedException {
+		start(new RampDecoder(600));
+		awaitParked();
+		long start = System.nanoTime();
+		_decodeAhead.stop();
+		_thread.join(1000);
+		long elapsed = System.nanoTime() - start;
+		assertTrue(!_thread.isAlive());
+		assertTrue("stop took " + elapsed + " ns", elapsed < 50 * 1000 * 1000);
+		_decodeAhead = null;
+	}
+}
@@ -0,0 +1,291 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+// Decode throughput, per-call overhead, seek latency and memory per open handle for MPG123 and Vorbis.
+// Runs on the test thread only, nothing else decodes while it measures.
+// Needs the host-built decoders from src/main/jni/host and a directory of .mp3 and .ogg episodes:
+//   make -C src/main/jni/host
+//   ./gradlew test -PbenchmarkCorpus=/path/to/episodes
+// and is skipped otherwise.
+public class DecoderBenchmark {
+	private static final String CORPUS_PROPERTY = "podax.benchmark.corpus";
+	// caps how much of each file a throughput pass decodes
+	private static final String SECONDS_PROPERTY = "podax.benchmark.seconds";
+
+	// samples per readSamples call, PCM_CHUNK_SIZE is what the player uses
+	private static final int[] BUFFER_SIZES = {256, 1024, 4096, AudioPlayer.PCM_CHUNK_SIZE, 16384, 65536};
+	private static final float WARMUP_SECONDS = 10;
+	private static final float[] SEEK_FRACTIONS = {0.1f, 0.5f, 0.9f};
+	private static final int SEEK_REPEATS = 5;
+	private static final int HANDLES_FOR_MEMORY = 16;
+	private static final int EMPTY_CALLS = 200000;
+
+	private static File[] _corpus;
+	private static float _maxSeconds;
+
+	@BeforeClass
+	public static void setUpClass() {
+		String corpus = System.getProperty(CORPUS_PROPERTY);
+		Assume.assumeTrue("set " + CORPUS_PROPERTY + " to run the decoder benchmark", corpus != null);
+		_corpus = new File(corpus).listFiles();
+		Assume.assumeTrue(corpus + " isn't a directory", _corpus != null);
+		Arrays.sort(_corpus);
+		_maxSeconds = Float.parseFloat(System.getProperty(SECONDS_PROPERTY, "300"));
+	}
+
+	private interface Opener {
+		IMediaDecoder open(String filename);
+	}
+
+	private static final Opener MPG123_OPENER = new Opener() {
+		@Override
+		public IMediaDecoder open(String filename) {
+			MPG123 decoder = new MPG123(filename);
+			return decoder._handle == 0 ? null : decoder;
+		}
+	};
+
+	private static final Opener VORBIS_OPENER = new Opener() {
+		@Override
+		public IMediaDecoder open(String filename) {
+			Vorbis decoder = new Vorbis(filename);
+			return decoder._handle == 0 ? null : decoder;
+		}
+	};
+
+	@Test
+	public void mpg123() {
+		run("mpg123", ".mp3");
+	}
+
+	@Test
+	public void vorbis() {
+		run("vorbis", ".ogg");
+	}
+
+	private void run(String library, String extension) {
+		ArrayList<File> files = new ArrayList<File>();
+		for (File file : _corpus)
+			if (file.getName().toLowerCase(Locale.US).endsWith(extension))
+				files.add(file);
+		Assume.assumeTrue("no " + extension + " files in the corpus", !files.isEmpty());
+		try {
+			System.loadLibrary(library);
+		} catch (UnsatisfiedLinkError e) {
+			Assume.assumeNoException("build the host decoders with make -C src/main/jni/host", e);
+		}
+
+		Opener opener = library.equals("mpg123") ? MPG123_OPENER : VORBIS_OPENER;
+		for (File file : files)
+			benchmark(library, opener, file);
+	}
+
+	private void benchmark(String name, Opener opener, File file) {
+		String filename = file.getAbsolutePath();
+		IMediaDecoder probe = opener.open(filename);
+		assertTrue("couldn't open " + filename, probe != null);
+		float duration = probe.getDuration();
+		int rate = probe.getRate();
+		int channels = probe.getNumChannels();
+		probe.close();
+
+		System.out.println(String.format(Locale.US, "%s %s: %.0f s, %d Hz, %d channels, %d kB, %.0f kbps",
+				name, file.getName(), duration, rate, channels, file.length() / 1024,
+				file.length() * 8 / 1000f / duration));
+
+		float seconds = Math.min(duration, _maxSeconds);
+		decode(opener, filename, AudioPlayer.PCM_CHUNK_SIZE, WARMUP_SECONDS, false);
+
+		for (int size : BUFFER_SIZES) {
+			Throughput result = decode(opener, filename, size, seconds, false);
+			System.out.println(String.format(Locale.US, "  %6d samples per call: %6.1fx realtime, %8.1f us per call, %5.1f ns per sample",
+					size, result.realtime(), result.nanosPerCall() / 1000, result.nanosPerCall() / size));
+		}
+		Throughput direct = decode(opener, filename, AudioPlayer.PCM_CHUNK_SIZE, seconds, true);
+		System.out.println(String.format(Locale.US, "  %6d samples per call into a direct buffer: %6.1fx realtime, %8.1f us per call",
+				AudioPlayer.PCM_CHUNK_SIZE, direct.realtime(), direct.nanosPerCall() / 1000));
+
+		System.out.println(String.format(Locale.US, "  per-call overhead: %.2f us crossing into the decoder and pinning the buffer",
+				emptyCallNanos(opener, filename) / 1000));
+
+		seekLatency(opener, filename, duration, rate, channels);
+		memoryPerHandle(opener, filename);
+	}
+
+	private static class Throughput {
+		long nanos;
+		long calls;
+		long samples;
+		int rate;
+		int channels;
+
+		double realtime() {
+			return (double) samples / channels / rate / (nanos / 1e9);
+		}
+
+		double nanosPerCall() {
+			return (double) nanos / calls;
+		}
+	}
+
+	private Throughput decode(Opener opener, String filename, int bufferSize, float seconds, boolean direct) {
+		IMediaDecoder decoder = opener.open(filename);
+		Throughput result = new Throughput();
+		result.rate = decoder.getRate();
+		result.channels = decoder.getNumChannels();
+		long limit = (long) (seconds * result.rate) * result.channels;
+		short[] buffer = new short[bufferSize];
+		ShortBuffer directBuffer = ByteBuffer.allocateDirect(bufferSize * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+		try {
+			while (result.samples < limit) {
+				int read;
+				long start = System.nanoTime();
+				if (direct) {
+					directBuffer.clear();
+					read = decoder.readSamples(directBuffer, bufferSize);
+				} else {
+					read = decoder.readSamples(buffer, 0, bufferSize);
+				}
+				result.nanos += System.nanoTime() - start;
+				if (read <= 0)
+					break;
+				++result.calls;
+				result.samples += read;
+			}
+		} finally {
+			decoder.close();
+		}
+		return result;
+	}
+
+	// a call asking for no samples returns right away, so this is what every call pays before decoding anything
+	private double emptyCallNanos(Opener opener, String filename) {
+		IMediaDecoder decoder = opener.open(filename);
+		short[] buffer = new short[AudioPlayer.PCM_CHUNK_SIZE];
+		try {
+			for (int i = 0; i < EMPTY_CALLS / 10; ++i)
+				decoder.readSamples(buffer, 0, 0);
+			long start = System.nanoTime();
+			for (int i = 0; i < EMPTY_CALLS; ++i)
+				decoder.readSamples(buffer, 0, 0);
+			return (double) (System.nanoTime() - start) / EMPTY_CALLS;
+		} finally {
+			decoder.close();
+		}
+	}
+
+	// time from asking for a position to having the first audio from it
+	// cold is a freshly opened handle, the way a player starts mid-episode
+	// indexed has the seek index set, built separately and not counted
+	private void seekLatency(Opener opener, String filename, float duration, int rate, int channels) {
+		short[] buffer = new short[AudioPlayer.PCM_CHUNK_SIZE];
+
+		IMediaDecoder indexer = opener.open(filename);
+		long indexStart = System.nanoTime();
+		SeekIndex index = indexer.buildSeekIndex();
+		long indexNanos = System.nanoTime() - indexStart;
+		indexer.close();
+		System.out.println(String.format(Locale.US, "  seek index: %d entries, built in %.1f ms",
+				index == null ? 0 : index.size(), indexNanos / 1e6));
+
+		for (float fraction : SEEK_FRACTIONS) {
+			float target = duration * fraction;
+			long[] cold = new long[SEEK_REPEATS];
+			long[] indexed = new long[SEEK_REPEATS];
+			float coldError = 0;
+			float indexedError = 0;
+			for (int i = 0; i < SEEK_REPEATS; ++i) {
+				IMediaDecoder decoder = opener.open(filename);
+				long start = System.nanoTime();
+				decoder.seek(target);
+				decoder.readSamples(buffer, 0, buffer.length);
+				cold[i] = System.nanoTime() - start;
+				coldError = Math.abs(decoder.getPosition() - (float) buffer.length / channels / rate - target);
+				decoder.close();
+
+				decoder = opener.open(filename);
+				if (index != null)
+					decoder.setSeekIndex(index);
+				start = System.nanoTime();
+				decoder.seek(target);
+				decoder.readSamples(buffer, 0, buffer.length);
+				indexed[i] = System.nanoTime() - start;
+				indexedError = Math.abs(decoder.getPosition() - (float) buffer.length / channels / rate - target);
+				decoder.close();
+			}
+			System.out.println(String.format(Locale.US,
+					"  seek to %2.0f%%: cold median %7.2f ms max %7.2f ms, indexed median %7.2f ms max %7.2f ms, landed within %.3f s / %.3f s",
+					fraction * 100, median(cold) / 1e6, max(cold) / 1e6, median(indexed) / 1e6, max(indexed) / 1e6,
+					coldError, indexedError));
+		}
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static long max(long[] values) {
+		long max = 0;
+		for (long value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+
+	// native allocations don't show up on the java heap so this goes by the process's resident size
+	// each handle decodes a chunk first, the decoders allocate their buffers on the first read
+	private void memoryPerHandle(Opener opener, String filename) {
+		long before = residentKilobytes();
+		if (before < 0) {
+			System.out.println("  memory per handle: no /proc/self/status here");
+			return;
+		}
+		short[] buffer = new short[AudioPlayer.PCM_CHUNK_SIZE];
+		IMediaDecoder[] decoders = new IMediaDecoder[HANDLES_FOR_MEMORY];
+		for (int i = 0; i < decoders.length; ++i) {
+			decoders[i] = opener.open(filename);
+			decoders[i].readSamples(buffer, 0, buffer.length);
+		}
+		long after = residentKilobytes();
+		for (IMediaDecoder decoder : decoders)
+			decoder.close();
+		System.out.println(String.format(Locale.US, "  memory per open handle: about %d kB resident",
+				(after - before) / HANDLES_FOR_MEMORY));
+	}
+
+	private static long residentKilobytes() {
+		File status = new File("/proc/self/status");
+		if (!status.exists())
+			return -1;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(status));
+			String line;
+			while ((line = reader.readLine()) != null)
+				if (line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", ""));
+		} catch (IOException ignored) {
+		} finally {
+			if (reader != null)
+				try { reader.close(); } catch (IOException ignored) { }
+		}
+		return -1;
+	}
+}
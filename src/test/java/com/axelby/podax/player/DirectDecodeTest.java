@@ -0,0 +1,119 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// decoding into a direct buffer has to give the same audio as decoding into an array
+// the native decoder needs the host build from make -C src/main/jni/host and is skipped otherwise
+public class DirectDecodeTest {
+	private static final String FIXTURE = "speech-vbr.mp3";
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private String copyFixture() throws IOException {
+		try {
+			System.loadLibrary("mpg123");
+		} catch (UnsatisfiedLinkError e) {
+			Assume.assumeNoException("build the host libraries with make -C src/main/jni/host", e);
+		}
+
+		File copy = new File(_folder.getRoot(), FIXTURE);
+		InputStream in = getClass().getResourceAsStream(FIXTURE);
+		assertNotNull(FIXTURE + " is missing from the test resources", in);
+		OutputStream out = new FileOutputStream(copy);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+		} finally {
+			out.close();
+			in.close();
+		}
+		return copy.getPath();
+	}
+
+	private static short[] decodeToArray(String audio, int chunkSize) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(audio);
+		assertNotNull(decoder);
+		try {
+			short[] samples = new short[(int) ((decoder.getDuration() + 1) * decoder.getRate() * decoder.getNumChannels())];
+			int read = 0;
+			while (read < samples.length) {
+				int count = decoder.readSamples(samples, read, Math.min(chunkSize, samples.length - read));
+				if (count <= 0)
+					break;
+				read += count;
+			}
+			return Arrays.copyOf(samples, read);
+		} finally {
+			decoder.close();
+		}
+	}
+
+	// the way DecodeAhead reads, one direct buffer refilled from the start every time
+	private static short[] decodeToBuffer(String audio, int chunkSize) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(audio);
+		assertNotNull(decoder);
+		try {
+			ShortBuffer buffer = ByteBuffer.allocateDirect(chunkSize * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+			short[] samples = new short[(int) ((decoder.getDuration() + 1) * decoder.getRate() * decoder.getNumChannels())];
+			int read = 0;
+			while (read < samples.length) {
+				buffer.clear();
+				int count = decoder.readSamples(buffer, Math.min(chunkSize, samples.length - read));
+				if (count <= 0)
+					break;
+				assertEquals(count, buffer.position());
+				buffer.flip();
+				buffer.get(samples, read, count);
+				read += count;
+			}
+			return Arrays.copyOf(samples, read);
+		} finally {
+			decoder.close();
+		}
+	}
+
+	@Test
+	public void mp3DecodesTheSameIntoBothBuffers() throws IOException {
+		String audio = copyFixture();
+		short[] expected = decodeToArray(audio, AudioPlayer.PCM_CHUNK_SIZE);
+		assertTrue(expected.length > 0);
+		// small reads come from the decoder's own buffer, large ones go straight into the caller's
+		for (int chunkSize : new int[]{AudioPlayer.PCM_CHUNK_SIZE, 333, 64 * 1024})
+			assertArrayEquals("read " + chunkSize + " at a time", expected, decodeToBuffer(audio, chunkSize));
+	}
+
+	@Test
+	public void rejectsAHeapBuffer() throws IOException {
+		String audio = copyFixture();
+		IMediaDecoder decoder = AudioPlayer.loadFile(audio);
+		assertNotNull(decoder);
+		try {
+			decoder.readSamples(ShortBuffer.allocate(100), 100);
+			org.junit.Assert.fail();
+		} catch (IllegalArgumentException expected) {
+		} finally {
+			decoder.close();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DroppedFramesTest {
+	@Test
+	public void countsDropsOnceThePlaybackHeadPassesThem() {
+		DroppedFrames dropped = new DroppedFrames();
+		dropped.add(1000, 500);
+		dropped.add(3000, 200);
+		assertEquals(0, dropped.getPlayed());
+		dropped.advance(999);
+		assertEquals(0, dropped.getPlayed());
+		dropped.advance(1000);
+		assertEquals(500, dropped.getPlayed());
+		dropped.advance(2999);
+		assertEquals(500, dropped.getPlayed());
+		dropped.advance(5000);
+		assertEquals(700, dropped.getPlayed());
+	}
+
+	@Test
+	public void dropsAtTheSameFrameAddUp() {
+		DroppedFrames dropped = new DroppedFrames();
+		// several chunks in a row came out empty so nothing was written between them
+		for (int i = 0; i < 1000; ++i)
+			dropped.add(4000, 2560);
+		dropped.advance(4000);
+		assertEquals(1000 * 2560, dropped.getPlayed());
+	}
+
+	@Test
+	public void foldsTheOldestDropWhenFull() {
+		DroppedFrames dropped = new DroppedFrames();
+		for (int i = 1; i <= 100; ++i)
+			dropped.add(i * 1000, 10);
+		// nothing is lost, the oldest drops were just counted early
+		dropped.advance(100 * 1000);
+		assertEquals(1000, dropped.getPlayed());
+	}
+
+	@Test
+	public void clearingKeepsPendingDrops() {
+		DroppedFrames dropped = new DroppedFrames();
+		dropped.add(1000, 50);
+		dropped.add(2000, 70);
+		dropped.advance(1500);
+		dropped.clearPlayed();
+		assertEquals(0, dropped.getPlayed());
+		dropped.advance(2000);
+		assertEquals(70, dropped.getPlayed());
+
+		dropped.add(3000, 20);
+		dropped.reset();
+		dropped.advance(4000);
+		assertEquals(0, dropped.getPlayed());
+	}
+}
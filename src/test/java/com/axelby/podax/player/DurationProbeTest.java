@@ -0,0 +1,168 @@
+package com.axelby.podax.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+// the probe against headers put together here, so the duration each one claims is known
+public class DurationProbeTest {
+	// MPEG1 layer III, 128 kbps, 44100 Hz, joint stereo
+	private static final byte[] FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x40};
+	private static final int FRAME_SIZE = 144 * 128000 / 44100;
+	private static final int SAMPLES_PER_FRAME = 1152;
+	private static final float DELTA = 0.001f;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private File write(byte[]... parts) throws IOException {
+		File file = _folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		for (byte[] part : parts)
+			out.write(part);
+		out.close();
+		return file;
+	}
+
+	// frames of silence, the first one carrying the given header at the given offset
+	private static byte[] frames(int count, String vbrTag, int tagOffset, int frameCount) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < count; ++i) {
+			byte[] frame = new byte[FRAME_SIZE];
+			System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+			out.write(frame);
+		}
+		byte[] all = bytes.toByteArray();
+		if (vbrTag != null) {
+			System.arraycopy(vbrTag.getBytes("US-ASCII"), 0, all, tagOffset, 4);
+			if (vbrTag.equals("VBRI"))
+				writeInt(all, tagOffset + 14, frameCount);
+			else {
+				// only the frame count flag
+				writeInt(all, tagOffset + 4, 1);
+				writeInt(all, tagOffset + 8, frameCount);
+			}
+		}
+		return all;
+	}
+
+	private static void writeInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) (value >> 24);
+		data[offset + 1] = (byte) (value >> 16);
+		data[offset + 2] = (byte) (value >> 8);
+		data[offset + 3] = (byte) value;
+	}
+
+	// an ID3v2.3 tag with a TLEN frame and some padding
+	private static byte[] id3WithLength(String milliseconds, int padding) throws IOException {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(frames);
+		out.writeBytes("TLEN");
+		out.writeInt(1 + milliseconds.length());
+		out.writeShort(0);
+		out.writeByte(0);
+		out.writeBytes(milliseconds);
+		out.write(new byte[padding]);
+
+		ByteArrayOutputStream tag = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(tag);
+		header.writeBytes("ID3");
+		header.write(new byte[]{3, 0, 0});
+		int size = frames.size();
+		header.write(new byte[]{(byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F), (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+		header.write(frames.toByteArray());
+		return tag.toByteArray();
+	}
+
+	private static float probe(File file) {
+		return DurationProbe.probe(file.getPath());
+	}
+
+	@Test
+	public void xingFrameCount() throws IOException {
+		// the frame count wins over both the file size and TLEN
+		File file = write(id3WithLength("999000", 100), frames(20, "Xing", 4 + 32, 5000));
+		assertEquals(5000f * SAMPLES_PER_FRAME / 44100, probe(file), DELTA);
+
+		file = write(frames(20, "Info", 4 + 32, 300));
+		assertEquals(300f * SAMPLES_PER_FRAME / 44100, probe(file), DELTA);
+	}
+
+	@Test
+	public void vbriFrameCount() throws IOException {
+		File file = write(frames(20, "VBRI", 4 + 32, 7000));
+		assertEquals(7000f * SAMPLES_PER_FRAME / 44100, probe(file), DELTA);
+	}
+
+	@Test
+	public void tlenWithoutAVBRHeader() throws IOException {
+		File file = write(id3WithLength("123456", 0), frames(20, null, 0, 0));
+		assertEquals(123.456f, probe(file), DELTA);
+	}
+
+	// the audio after the tag at the first frame's bitrate
+	@Test
+	public void constantBitrateEstimate() throws IOException {
+		File file = write(frames(50, null, 0, 0));
+		assertEquals(50f * FRAME_SIZE * 8 / 128000, probe(file), DELTA);
+
+		// junk between the tag and the first frame isn't counted
+		file = write(id3WithLength("", 0), new byte[]{1, 2, 3}, frames(50, null, 0, 0));
+		assertEquals(50f * FRAME_SIZE * 8 / 128000, probe(file), DELTA);
+	}
+
+	// an Ogg page with one packet
+	private static byte[] oggPage(long granule, byte[] packet) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeBytes("OggS");
+		out.writeByte(0);
+		out.writeByte(0);
+		for (int i = 0; i < 8; ++i)
+			out.writeByte((int) (granule >> (8 * i)));
+		out.write(new byte[12]);
+		out.writeByte(1);
+		out.writeByte(packet.length);
+		out.write(packet);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] vorbisIdentification(int rate) throws IOException {
+		byte[] packet = new byte[30];
+		packet[0] = 1;
+		System.arraycopy("vorbis".getBytes("US-ASCII"), 0, packet, 1, 6);
+		packet[11] = 2;
+		for (int i = 0; i < 4; ++i)
+			packet[12 + i] = (byte) (rate >> (8 * i));
+		return packet;
+	}
+
+	@Test
+	public void oggLastGranule() throws IOException {
+		File file = write(oggPage(0, vorbisIdentification(48000)),
+				oggPage(48000, new byte[200]), oggPage(48000 * 95 / 2, new byte[200]));
+		assertEquals(47.5f, probe(file), DELTA);
+
+		// the granule position is a 64 bit number
+		long granule = 0x100000000L + 12345;
+		file = write(oggPage(0, vorbisIdentification(22050)), oggPage(granule, new byte[10]));
+		assertEquals((float) granule / 22050, probe(file), 0.01f);
+	}
+
+	@Test
+	public void nothingToGoOn() throws IOException {
+		assertEquals(0f, probe(write(new byte[1000])), 0f);
+		assertEquals(0f, probe(new File(_folder.getRoot(), "missing")), 0f);
+		// a tag without TLEN and no frames after it
+		assertEquals(0f, probe(write(id3WithLength("", 0))), 0f);
+	}
+}
@@ -0,0 +1,132 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JavaWSOLATest {
+	private static final int[] RATES = {22050, 44100, 48000};
+	private static final float[] SPEEDS = {0.75f, 1.5f, 2.5f};
+
+	// signal to noise ratio of actual against expected in dB, infinite when they're the same
+	static double snr(short[] expected, short[] actual) {
+		double signal = 0;
+		double noise = 0;
+		for (int i = 0; i < expected.length; ++i) {
+			signal += (double) expected[i] * expected[i];
+			double error = expected[i] - actual[i];
+			noise += error * error;
+		}
+		return noise == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(signal / noise);
+	}
+
+	// the same chunk through both engines, the Java one is a port and should only differ by float rounding
+	@Test
+	public void matchesTheNativeEngine() {
+		try {
+			System.loadLibrary("wsola");
+		} catch (UnsatisfiedLinkError e) {
+			Assume.assumeNoException("build the host libraries with make -C src/main/jni/host", e);
+		}
+
+		for (int rate : RATES) {
+			for (int channels = 1; channels <= 2; ++channels) {
+				short[] chunk = Arrays.copyOf(StretchBenchmark.speechLike(1, channels, rate), AudioPlayer.PCM_CHUNK_SIZE);
+				for (float speed : SPEEDS) {
+					WSOLA wsola = new WSOLA();
+					short[] expected = wsola.stretch(chunk, rate, channels == 2, speed, 1, null);
+					wsola.close();
+					short[] actual = new JavaWSOLA().stretch(chunk, rate, channels == 2, speed, 1, null);
+
+					String what = rate + " Hz, " + channels + " channels, " + speed + "x";
+					assertEquals(what, expected.length, actual.length);
+					for (int i = 0; i < expected.length; ++i)
+						assertTrue(what + " sample " + i, Math.abs(expected[i] - actual[i]) <= 1);
+					assertTrue(what, snr(expected, actual) > 60);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void normalSpeedIsACopy() {
+		short[] input = WSOLATest.tone(2560, 2, 440, 44100);
+		short[] output = new JavaWSOLA().stretch(input, 44100, true, 1f, 1, null);
+		assertTrue(Arrays.equals(input, output));
+	}
+
+	// slowed down and sped back up it's the same length and the same tone
+	@Test
+	public void roundTripKeepsLengthAndPitch() {
+		for (int rate : RATES) {
+			short[] input = WSOLATest.tone(rate / 2, 2, 440, rate);
+			JavaWSOLA wsola = new JavaWSOLA();
+			short[] slow = wsola.stretch(input, rate, true, 0.8f, 1, null);
+			short[] back = wsola.stretch(slow, rate, true, 1.25f, 1, null);
+
+			assertTrue(rate + " Hz came back " + back.length + " long", Math.abs(back.length - input.length) <= 4);
+			int crossings = 0;
+			for (int i = 2; i < back.length; i += 2)
+				if ((back[i - 2] < 0) != (back[i] < 0))
+					++crossings;
+			float frequency = crossings / 2f / ((float) back.length / 2 / rate);
+			assertTrue(rate + " Hz came back at " + frequency + " Hz", Math.abs(frequency - 440) < 440 * 0.03);
+		}
+	}
+
+	@Test
+	public void stretchIntoWritesOnlyItsRange() {
+		short[] input = WSOLATest.tone(2560, 2, 440, 44100);
+		int size = JavaWSOLA.getStretchedSize(input.length, true, 1.5f);
+		short[] output = new short[size + 200];
+		Arrays.fill(output, (short) 12345);
+
+		WSOLA.Error error = new WSOLA.Error();
+		int written = new JavaWSOLA().stretchInto(input, input.length, output, 100, 44100, true, 1.5f, 1, error);
+		assertEquals(WSOLA.Error.SUCCESS, error.code);
+		assertEquals(size, written);
+		for (int i = 0; i < 100; ++i)
+			assertEquals(12345, output[i]);
+		for (int i = 100 + size; i < output.length; ++i)
+			assertEquals(12345, output[i]);
+	}
+
+	@Test
+	public void rejectsBadParameters() {
+		JavaWSOLA wsola = new JavaWSOLA();
+		short[] input = new short[1000];
+		WSOLA.Error error = new WSOLA.Error();
+		assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, wsola.stretchInto(input, input.length, new short[10], 0, 44100, false, 1.5f, 1, error));
+		assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, error.code);
+		assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, wsola.stretchInto(input, 2000, new short[2000], 0, 44100, false, 1.5f, 1, null));
+		assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, wsola.stretchInto(input, input.length, new short[2000], 0, 44100, false, 0f, 1, null));
+		assertEquals(null, wsola.stretch(new short[0], 44100, false, 1.5f, 1, error));
+	}
+
+	@Test
+	public void isSelectableAtRuntime() {
+		assertTrue(AudioPlayer.createStretcher(AudioPlayer.STRETCH_ENGINE_JAVA, 44100, 2) instanceof JavaWSOLA);
+	}
+
+	@Test
+	public void stretchingAChunkAllocatesNothing() {
+		Allocations.assumeSupported();
+		final JavaWSOLA wsola = new JavaWSOLA(44100, 2);
+		final short[] input = WSOLATest.tone(AudioPlayer.PCM_CHUNK_SIZE / 2, 2, 440, 44100);
+		final short[] output = new short[wsola.getMaxOutputSize(input.length, 0.5f)];
+		for (float speed : SPEEDS) {
+			wsola.setSpeedRatio(speed);
+			long allocated = Allocations.measure(new Runnable() {
+				@Override
+				public void run() {
+					wsola.process(input, input.length, output, 0);
+				}
+			}, 50);
+			assertEquals("allocated at " + speed + "x", 0, allocated);
+		}
+	}
+}
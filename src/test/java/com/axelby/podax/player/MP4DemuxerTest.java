@@ -0,0 +1,363 @@
+package com.axelby.podax.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// the demuxer against MP4 files put together here box by box, so every offset, size and time is known
+public class MP4DemuxerTest {
+	private static final int RATE = 44100;
+	// AAC LC, 44100 Hz, stereo
+	private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+	// 2000 units of 1024 samples and then 1000 of 960, so stts has two entries
+	private static final int LONG_UNITS = 2000;
+	private static final int SHORT_UNITS = 1000;
+	private static final int SAMPLE_COUNT = LONG_UNITS + SHORT_UNITS;
+	// stsc runs: chunks 1-3 hold 5 units, 4-99 hold 13 and from 100 on 7
+	private static final int[][] CHUNK_RUNS = {{1, 5}, {4, 13}, {100, 7}};
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	// the size of unit i, each unit starts with its index
+	private static int unitSize(int i) {
+		return 10 + (i * 7) % 50;
+	}
+
+	private static long unitStart(int i) {
+		return i <= LONG_UNITS ? (long) i * 1024 : (long) LONG_UNITS * 1024 + (long) (i - LONG_UNITS) * 960;
+	}
+
+	private static int samplesInChunk(int chunk) {
+		int samples = 0;
+		for (int[] run : CHUNK_RUNS)
+			if (chunk + 1 >= run[0])
+				samples = run[1];
+		return samples;
+	}
+
+	private static class Box {
+		private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(_bytes);
+		private final String _type;
+		private final boolean _largeSize;
+
+		Box(String type) {
+			this(type, false);
+		}
+
+		Box(String type, boolean largeSize) {
+			_type = type;
+			_largeSize = largeSize;
+		}
+
+		Box fullBox(int version) throws IOException {
+			out.writeInt(version << 24);
+			return this;
+		}
+
+		Box add(byte[] child) throws IOException {
+			out.write(child);
+			return this;
+		}
+
+		byte[] get() throws IOException {
+			ByteArrayOutputStream whole = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(whole);
+			if (_largeSize) {
+				header.writeInt(1);
+				header.writeBytes(_type);
+				header.writeLong(16 + _bytes.size());
+			} else {
+				header.writeInt(8 + _bytes.size());
+				header.writeBytes(_type);
+			}
+			header.write(_bytes.toByteArray());
+			return whole.toByteArray();
+		}
+	}
+
+	// how the test file is laid out
+	private static class Layout {
+		boolean co64 = false;
+		int mdhdVersion = 0;
+		// 0 for a size per unit
+		int fixedSize = 0;
+		int objectType = 0x40;
+		// a video track ahead of the audio one
+		boolean videoFirst = true;
+	}
+
+	private File write(Layout layout) throws IOException {
+		byte[] ftyp = new Box("ftyp").add("M4A \0\0\0\0M4A mp42".getBytes("US-ASCII")).get();
+
+		// units with a few junk bytes between chunks so offsets have to come from the table
+		ArrayList<Long> chunkOffsets = new ArrayList<Long>();
+		Box mdat = new Box("mdat", layout.co64);
+		long mdatBody = ftyp.length + (layout.co64 ? 16 : 8);
+		int unit = 0;
+		for (int chunk = 0; unit < SAMPLE_COUNT; ++chunk) {
+			mdat.out.write(new byte[]{(byte) 0xEE, (byte) 0xEE, (byte) 0xEE});
+			chunkOffsets.add(mdatBody + mdat.out.size());
+			for (int i = 0; i < samplesInChunk(chunk) && unit < SAMPLE_COUNT; ++i, ++unit) {
+				int size = layout.fixedSize != 0 ? layout.fixedSize : unitSize(unit);
+				mdat.out.writeInt(unit);
+				mdat.out.write(new byte[size - 4]);
+			}
+		}
+
+		byte[] moov = new Box("moov")
+				.add(layout.videoFirst ? videoTrack() : new byte[0])
+				.add(audioTrack(layout, chunkOffsets))
+				.get();
+		File file = _folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(ftyp);
+		out.write(mdat.get());
+		out.write(moov);
+		out.close();
+		return file;
+	}
+
+	private static byte[] handler(String type) throws IOException {
+		Box hdlr = new Box("hdlr").fullBox(0);
+		hdlr.out.writeInt(0);
+		hdlr.out.writeBytes(type);
+		hdlr.out.write(new byte[13]);
+		return hdlr.get();
+	}
+
+	private static byte[] videoTrack() throws IOException {
+		Box stsz = new Box("stsz").fullBox(0);
+		stsz.out.writeInt(100);
+		stsz.out.writeInt(1);
+		Box stbl = new Box("stbl").add(stsz.get());
+		Box mdia = new Box("mdia").add(handler("vide")).add(new Box("minf").add(stbl.get()).get());
+		return new Box("trak").add(mdia.get()).get();
+	}
+
+	private static byte[] audioTrack(Layout layout, ArrayList<Long> chunkOffsets) throws IOException {
+		Box mdhd = new Box("mdhd").fullBox(layout.mdhdVersion);
+		long duration = unitStart(SAMPLE_COUNT);
+		if (layout.mdhdVersion == 1) {
+			mdhd.out.writeLong(0);
+			mdhd.out.writeLong(0);
+			mdhd.out.writeInt(RATE);
+			mdhd.out.writeLong(duration);
+		} else {
+			mdhd.out.writeInt(0);
+			mdhd.out.writeInt(0);
+			mdhd.out.writeInt(RATE);
+			mdhd.out.writeInt((int) duration);
+		}
+		mdhd.out.writeInt(0);
+
+		// ES_Descriptor holding a DecoderConfigDescriptor holding the AudioSpecificConfig
+		ByteArrayOutputStream descriptors = new ByteArrayOutputStream();
+		DataOutputStream d = new DataOutputStream(descriptors);
+		d.write(new byte[]{3, 25, 0, 1, 0});
+		d.write(new byte[]{4, 17, (byte) layout.objectType, 0x15, 0, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0});
+		d.write(new byte[]{5, 2});
+		d.write(AUDIO_SPECIFIC_CONFIG);
+		d.write(new byte[]{6, 1, 2});
+		Box esds = new Box("esds").fullBox(0).add(descriptors.toByteArray());
+
+		Box mp4a = new Box("mp4a");
+		mp4a.out.write(new byte[6]);
+		mp4a.out.writeShort(1);
+		mp4a.out.write(new byte[8]);
+		mp4a.out.writeShort(2);
+		mp4a.out.writeShort(16);
+		mp4a.out.writeInt(0);
+		mp4a.out.writeInt(RATE << 16);
+		mp4a.add(esds.get());
+		Box stsd = new Box("stsd").fullBox(0);
+		stsd.out.writeInt(1);
+		stsd.add(mp4a.get());
+
+		Box stts = new Box("stts").fullBox(0);
+		stts.out.writeInt(2);
+		stts.out.writeInt(LONG_UNITS);
+		stts.out.writeInt(1024);
+		stts.out.writeInt(SHORT_UNITS);
+		stts.out.writeInt(960);
+
+		Box stsc = new Box("stsc").fullBox(0);
+		stsc.out.writeInt(CHUNK_RUNS.length);
+		for (int[] run : CHUNK_RUNS) {
+			stsc.out.writeInt(run[0]);
+			stsc.out.writeInt(run[1]);
+			stsc.out.writeInt(1);
+		}
+
+		Box stsz = new Box("stsz").fullBox(0);
+		stsz.out.writeInt(layout.fixedSize);
+		stsz.out.writeInt(SAMPLE_COUNT);
+		if (layout.fixedSize == 0)
+			for (int i = 0; i < SAMPLE_COUNT; ++i)
+				stsz.out.writeInt(unitSize(i));
+
+		Box stco = new Box(layout.co64 ? "co64" : "stco").fullBox(0);
+		stco.out.writeInt(chunkOffsets.size());
+		for (long offset : chunkOffsets) {
+			if (layout.co64)
+				stco.out.writeLong(offset);
+			else
+				stco.out.writeInt((int) offset);
+		}
+
+		Box stbl = new Box("stbl").add(stsd.get()).add(stts.get()).add(stsc.get()).add(stsz.get()).add(stco.get());
+		Box minf = new Box("minf").add(new Box("smhd").fullBox(0).add(new byte[4]).get()).add(stbl.get());
+		Box mdia = new Box("mdia").add(mdhd.get()).add(handler("soun")).add(minf.get());
+		return new Box("trak").add(mdia.get()).get();
+	}
+
+	private static void assertReadsFrom(MP4Demuxer demuxer, int first, int count) throws IOException {
+		for (int i = first; i < first + count && i < SAMPLE_COUNT; ++i) {
+			assertEquals(i, demuxer.getSample());
+			assertEquals("time of " + i, (float) unitStart(i) / RATE, demuxer.getTime(), 1e-4f);
+			ByteBuffer unit = demuxer.readSample();
+			assertEquals("size of " + i, unitSize(i), unit.remaining());
+			assertEquals(i, unit.getInt(unit.position()));
+		}
+	}
+
+	@Test
+	public void readsTheTrackDescription() throws IOException {
+		MP4Demuxer demuxer = new MP4Demuxer(write(new Layout()).getPath());
+		try {
+			assertArrayEquals(AUDIO_SPECIFIC_CONFIG, demuxer.getCodecConfig());
+			assertEquals(RATE, demuxer.getSampleRate());
+			assertEquals(2, demuxer.getNumChannels());
+			assertEquals(SAMPLE_COUNT, demuxer.getSampleCount());
+			assertEquals((float) unitStart(SAMPLE_COUNT) / RATE, demuxer.getDuration(), 1e-4f);
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	// every unit in order, through three stsc runs and across the table windows
+	@Test
+	public void readsEveryUnitInOrder() throws IOException {
+		for (boolean co64 : new boolean[]{false, true}) {
+			Layout layout = new Layout();
+			layout.co64 = co64;
+			layout.mdhdVersion = co64 ? 1 : 0;
+			MP4Demuxer demuxer = new MP4Demuxer(write(layout).getPath());
+			try {
+				assertReadsFrom(demuxer, 0, SAMPLE_COUNT);
+				assertNull(demuxer.readSample());
+				assertEquals((float) unitStart(SAMPLE_COUNT) / RATE, demuxer.getDuration(), 1e-4f);
+			} finally {
+				demuxer.close();
+			}
+		}
+	}
+
+	@Test
+	public void readsFixedSizeUnits() throws IOException {
+		Layout layout = new Layout();
+		layout.fixedSize = 24;
+		MP4Demuxer demuxer = new MP4Demuxer(write(layout).getPath());
+		try {
+			for (int i = 0; i < SAMPLE_COUNT; ++i) {
+				ByteBuffer unit = demuxer.readSample();
+				assertEquals(24, unit.remaining());
+				assertEquals(i, unit.getInt(unit.position()));
+			}
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	// jumping around forces the size and offset tables to reload their windows backwards and forwards
+	@Test
+	public void seeksToAnyUnit() throws IOException {
+		MP4Demuxer demuxer = new MP4Demuxer(write(new Layout()).getPath());
+		try {
+			int[] targets = {0, 1, 4, 5, 14, 15, 16, 1262, 1263, 1264, 2999, 1024, 1023, 2048, 7, 2000, 1999, 2001};
+			for (int target : targets) {
+				demuxer.seekToSample(target);
+				assertReadsFrom(demuxer, target, 30);
+			}
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	// a seek lands on the unit playing at that time, through both stts entries
+	@Test
+	public void seeksToTheUnitPlayingAtATime() throws IOException {
+		MP4Demuxer demuxer = new MP4Demuxer(write(new Layout()).getPath());
+		try {
+			for (float seconds = 0; seconds < demuxer.getDuration(); seconds += 0.77f) {
+				long target = (long) (seconds * RATE);
+				int expected = target < unitStart(LONG_UNITS)
+						? (int) (target / 1024)
+						: LONG_UNITS + (int) ((target - unitStart(LONG_UNITS)) / 960);
+				float landed = demuxer.seek(seconds);
+				assertEquals(seconds + " s", expected, demuxer.getSample());
+				assertEquals((float) unitStart(expected) / RATE, landed, 1e-4f);
+				assertTrue(landed <= seconds + 1e-4f);
+				assertReadsFrom(demuxer, expected, 3);
+			}
+
+			// past the end stays on the last unit
+			demuxer.seek(demuxer.getDuration() + 10);
+			assertEquals(SAMPLE_COUNT - 1, demuxer.getSample());
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	@Test
+	public void usesTheAudioTrackWhenItIsFirst() throws IOException {
+		Layout layout = new Layout();
+		layout.videoFirst = false;
+		MP4Demuxer demuxer = new MP4Demuxer(write(layout).getPath());
+		try {
+			assertReadsFrom(demuxer, 0, 100);
+		} finally {
+			demuxer.close();
+		}
+	}
+
+	@Test
+	public void rejectsAudioThatIsntAAC() throws IOException {
+		Layout layout = new Layout();
+		// MPEG-1 audio
+		layout.objectType = 0x6B;
+		try {
+			new MP4Demuxer(write(layout).getPath()).close();
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void rejectsAFileThatIsntMP4() throws IOException {
+		File file = _folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[4096]);
+		out.close();
+		try {
+			new MP4Demuxer(file.getPath()).close();
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+}
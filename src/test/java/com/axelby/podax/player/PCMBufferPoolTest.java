@@ -0,0 +1,81 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PCMBufferPoolTest {
+	@Test
+	public void handsOutEveryBufferOnce() {
+		PCMBufferPool pool = new PCMBufferPool(3, 128);
+		assertEquals(128, pool.getBufferSize());
+
+		IdentityHashMap<short[], Boolean> seen = new IdentityHashMap<short[], Boolean>();
+		for (int i = 0; i < 3; ++i) {
+			short[] buffer = pool.acquire();
+			assertEquals(128, buffer.length);
+			seen.put(buffer, true);
+		}
+		assertEquals(3, seen.size());
+		assertNull(pool.acquire());
+	}
+
+	@Test
+	public void releasedBuffersComeBack() {
+		PCMBufferPool pool = new PCMBufferPool(2, 64);
+		short[] first = pool.acquire();
+		short[] second = pool.acquire();
+		pool.release(first);
+		assertTrue(pool.acquire() == first);
+		pool.release(second);
+		assertTrue(pool.acquire() == second);
+	}
+
+	@Test
+	public void rejectsBuffersFromElsewhere() {
+		PCMBufferPool pool = new PCMBufferPool(1, 64);
+		try {
+			pool.release(new short[32]);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			pool.release(null);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void rejectsReleasingTwice() {
+		PCMBufferPool pool = new PCMBufferPool(1, 64);
+		short[] buffer = pool.acquire();
+		pool.release(buffer);
+		try {
+			pool.release(buffer);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+	}
+
+	@Test
+	public void steadyStateAllocatesNothing() {
+		Allocations.assumeSupported();
+		final PCMBufferPool pool = new PCMBufferPool(4, AudioPlayer.PCM_CHUNK_SIZE);
+		long allocated = Allocations.measure(new Runnable() {
+			@Override
+			public void run() {
+				short[] decoded = pool.acquire();
+				short[] stretched = pool.acquire();
+				pool.release(decoded);
+				pool.release(stretched);
+			}
+		}, 10000);
+		assertEquals(0, allocated);
+	}
+}
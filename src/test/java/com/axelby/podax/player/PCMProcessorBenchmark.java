@@ -0,0 +1,79 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Locale;
+
+// time each processor adds to every decoded buffer, the playback loop pays it once per chunk
+//   ./gradlew test -Pbenchmark
+public class PCMProcessorBenchmark {
+	private static final int RATE = 44100;
+	private static final int CHANNELS = 2;
+	private static final int SECONDS = 30;
+	private static final int RUNS = 5;
+
+	private static short[] _speech;
+	private static short[] _silence;
+
+	@BeforeClass
+	public static void setUpClass() {
+		Assume.assumeTrue("run with -Pbenchmark", Boolean.getBoolean("podax.benchmark"));
+		_speech = StretchBenchmark.speechLike(SECONDS, CHANNELS, RATE);
+		_silence = new short[_speech.length];
+	}
+
+	// best time per buffer over RUNS passes through the whole signal
+	private static double nanosPerBuffer(IPCMProcessor processor, short[] input) {
+		int chunkSize = AudioPlayer.PCM_CHUNK_SIZE;
+		short[] buffer = new short[chunkSize];
+		int buffers = input.length / chunkSize;
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; ++run) {
+			processor.reset();
+			long elapsed = 0;
+			for (int position = 0; position + chunkSize <= input.length; position += chunkSize) {
+				System.arraycopy(input, position, buffer, 0, chunkSize);
+				long start = System.nanoTime();
+				processor.process(buffer, chunkSize);
+				elapsed += System.nanoTime() - start;
+			}
+			best = Math.min(best, elapsed);
+		}
+		return (double) best / buffers;
+	}
+
+	private static IPCMProcessor skipSilence() {
+		SkipSilenceProcessor processor = new SkipSilenceProcessor();
+		processor.setFormat(RATE, CHANNELS);
+		return processor;
+	}
+
+	private static IPCMProcessor gain() {
+		GainProcessor processor = new GainProcessor();
+		processor.setGain(-3f);
+		return processor;
+	}
+
+	@Test
+	public void costPerBuffer() {
+		PCMProcessorChain chain = new PCMProcessorChain();
+		chain.setFormat(RATE, CHANNELS);
+		chain.add(gain());
+		chain.add(skipSilence());
+
+		double bufferMicros = AudioPlayer.PCM_CHUNK_SIZE * 1e6 / CHANNELS / RATE;
+		System.out.println(String.format(Locale.US, "processors, %d s of %d Hz stereo in %d sample buffers (%.0f us of audio each), best of %d",
+				SECONDS, RATE, AudioPlayer.PCM_CHUNK_SIZE, bufferMicros, RUNS));
+		report("skip silence, speech", nanosPerBuffer(skipSilence(), _speech), bufferMicros);
+		report("skip silence, silence", nanosPerBuffer(skipSilence(), _silence), bufferMicros);
+		report("gain", nanosPerBuffer(gain(), _speech), bufferMicros);
+		report("gain + skip silence", nanosPerBuffer(chain, _speech), bufferMicros);
+	}
+
+	private static void report(String name, double nanos, double bufferMicros) {
+		System.out.println(String.format(Locale.US, "  %-22s %7.2f us per buffer, %.3f%% of its playing time",
+				name, nanos / 1000, nanos / 1000 / bufferMicros * 100));
+	}
+}
@@ -0,0 +1,58 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PCMProcessorChainTest {
+	private static class Recorder implements IPCMProcessor {
+		private final ArrayList<String> _calls;
+		private final String _name;
+		private final int _keep;
+
+		Recorder(ArrayList<String> calls, String name, int keep) {
+			_calls = calls;
+			_name = name;
+			_keep = keep;
+		}
+
+		@Override
+		public void setFormat(int sampleRate, int channels) {
+			_calls.add(_name + " format " + sampleRate + " " + channels);
+		}
+
+		@Override
+		public int process(short[] buffer, int length) {
+			_calls.add(_name + " " + length);
+			return Math.min(length, _keep);
+		}
+
+		@Override
+		public void reset() {
+			_calls.add(_name + " reset");
+		}
+	}
+
+	@Test
+	public void chainRunsProcessorsInOrder() {
+		ArrayList<String> calls = new ArrayList<String>();
+		PCMProcessorChain chain = new PCMProcessorChain();
+		assertTrue(chain.isEmpty());
+		chain.add(new Recorder(calls, "first", 300));
+		chain.setFormat(44100, 2);
+		// added after the format is known so it gets it straight away
+		chain.add(new Recorder(calls, "second", 0));
+		chain.add(new Recorder(calls, "third", 1000));
+
+		assertEquals(0, chain.process(new short[1000], 1000));
+		chain.reset();
+		assertEquals(Arrays.asList(
+				"first format 44100 2", "second format 44100 2", "third format 44100 2",
+				"first 1000", "second 300",
+				"first reset", "second reset", "third reset"), calls);
+	}
+}
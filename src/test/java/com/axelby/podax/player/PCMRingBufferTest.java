@@ -0,0 +1,216 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PCMRingBufferTest {
+	private static short[] ramp(int start, int length) {
+		short[] samples = new short[length];
+		for (int i = 0; i < length; ++i)
+			samples[i] = (short) (start + i);
+		return samples;
+	}
+
+	@Test
+	public void capacityIsAPowerOfTwo() {
+		assertEquals(1024, new PCMRingBuffer(1000).getCapacity());
+		assertEquals(1024, new PCMRingBuffer(1024).getCapacity());
+		assertEquals(2048, new PCMRingBuffer(1025).getCapacity());
+		assertEquals(2, new PCMRingBuffer(0).getCapacity());
+	}
+
+	@Test
+	public void samplesComeOutInOrderAcrossTheWrap() {
+		PCMRingBuffer ring = new PCMRingBuffer(16);
+		short[] out = new short[16];
+		int next = 0;
+		int expected = 0;
+		// odd sizes so the positions wrap at every offset
+		for (int round = 0; round < 100; ++round) {
+			int length = 1 + round % 7;
+			assertEquals(length, ring.write(ramp(next, length), 0, length));
+			next += length;
+			int read = ring.read(out, 0, 1 + round % 5);
+			for (int i = 0; i < read; ++i)
+				assertEquals((short) expected++, out[i]);
+			// keep it from filling up
+			while (ring.available() > 8) {
+				read = ring.read(out, 0, 4);
+				for (int i = 0; i < read; ++i)
+					assertEquals((short) expected++, out[i]);
+			}
+		}
+		assertEquals(next - expected, ring.available());
+		assertEquals(next, ring.getWritePosition());
+		assertEquals(expected, ring.getReadPosition());
+	}
+
+	@Test
+	public void writesOnlyWhatFits() {
+		PCMRingBuffer ring = new PCMRingBuffer(8);
+		assertEquals(8, ring.write(ramp(0, 12), 0, 12));
+		assertEquals(1f, ring.getOccupancy(), 0);
+		assertEquals(0, ring.write(ramp(0, 1), 0, 1));
+
+		short[] out = new short[12];
+		assertEquals(8, ring.read(out, 0, 12));
+		assertEquals(7, out[7]);
+		assertEquals(0, ring.read(out, 0, 12));
+	}
+
+	@Test
+	public void writesFromAShortBuffer() {
+		PCMRingBuffer ring = new PCMRingBuffer(8);
+		short[] out = new short[8];
+		ring.write(ramp(0, 5), 0, 5);
+		ring.read(out, 0, 5);
+
+		// starts at 5 so it wraps
+		ShortBuffer source = ShortBuffer.wrap(ramp(100, 10));
+		assertEquals(8, ring.write(source));
+		assertEquals(8, source.position());
+		assertEquals(8, ring.read(out, 0, 8));
+		for (int i = 0; i < 8; ++i)
+			assertEquals(100 + i, out[i]);
+		assertEquals(2, ring.write(source));
+		assertEquals(0, source.remaining());
+	}
+
+	@Test
+	public void drainedOnlyAtEndOfStreamWithNothingLeft() {
+		PCMRingBuffer ring = new PCMRingBuffer(8);
+		ring.write(ramp(0, 4), 0, 4);
+		ring.setEndOfStream(true);
+		assertFalse(ring.isDrained());
+		ring.read(new short[4], 0, 4);
+		assertTrue(ring.isDrained());
+		ring.setEndOfStream(false);
+		assertFalse(ring.isDrained());
+	}
+
+	@Test
+	public void discardSkipsAheadButNotBack() {
+		PCMRingBuffer ring = new PCMRingBuffer(16);
+		ring.write(ramp(0, 10), 0, 10);
+		ring.discardUpTo(6);
+		short[] out = new short[1];
+		ring.read(out, 0, 1);
+		assertEquals(6, out[0]);
+		ring.discardUpTo(2);
+		assertEquals(7, ring.getReadPosition());
+	}
+
+	@Test
+	public void awaitDataTimesOutWhenEmpty() {
+		PCMRingBuffer ring = new PCMRingBuffer(8);
+		long start = System.nanoTime();
+		ring.awaitData(20000000L);
+		assertTrue(System.nanoTime() - start >= 15000000L);
+	}
+
+	@Test
+	public void awaitDataReturnsAtOnceAtEndOfStream() {
+		PCMRingBuffer ring = new PCMRingBuffer(8);
+		ring.setEndOfStream(true);
+		long start = System.nanoTime();
+		ring.awaitData(5000000000L);
+		assertTrue(System.nanoTime() - start < 1000000000L);
+	}
+
+	@Test
+	public void readingWakesAFullProducer() throws InterruptedException {
+		final PCMRingBuffer ring = new PCMRingBuffer(8);
+		ring.write(ramp(0, 8), 0, 8);
+		final AtomicReference<Long> wokeAfter = new AtomicReference<Long>();
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				while (ring.available() == ring.getCapacity())
+					ring.awaitSpace();
+				wokeAfter.set(System.nanoTime() - start);
+			}
+		});
+		producer.start();
+		Thread.sleep(100);
+		assertTrue(producer.isAlive());
+		ring.read(new short[1], 0, 1);
+		producer.join(1000);
+		assertFalse(producer.isAlive());
+		assertTrue(wokeAfter.get() >= 90000000L);
+	}
+
+	// one thread writing and one reading, the way DecodeAhead and the playback loop share it
+	@Test
+	public void producerAndConsumerThreadsAgree() throws InterruptedException {
+		final PCMRingBuffer ring = new PCMRingBuffer(4096);
+		final int total = 5000000;
+		final AtomicReference<String> failure = new AtomicReference<String>();
+
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(4);
+				short[] chunk = new short[3000];
+				int next = 0;
+				while (next < total) {
+					int length = Math.min(1 + random.nextInt(chunk.length), total - next);
+					for (int i = 0; i < length; ++i)
+						chunk[i] = (short) (next + i);
+					int offset = 0;
+					while (offset < length) {
+						int written = ring.write(chunk, offset, length - offset);
+						if (written == 0)
+							ring.awaitSpace();
+						offset += written;
+					}
+					next += length;
+				}
+				ring.setEndOfStream(true);
+			}
+		});
+		producer.start();
+
+		Random random = new Random(5);
+		short[] out = new short[2048];
+		int expected = 0;
+		while (!ring.isDrained()) {
+			int read = ring.read(out, 0, 1 + random.nextInt(out.length));
+			if (read == 0)
+				ring.awaitData(10000000L);
+			for (int i = 0; i < read && failure.get() == null; ++i)
+				if (out[i] != (short) expected++)
+					failure.set("sample " + (expected - 1) + " was " + out[i]);
+		}
+		producer.join(5000);
+		assertEquals(null, failure.get());
+		assertEquals(total, expected);
+	}
+
+	@Test
+	public void readingAndWritingAllocateNothing() {
+		Allocations.assumeSupported();
+		final PCMRingBuffer ring = new PCMRingBuffer(AudioPlayer.PCM_CHUNK_SIZE * 4);
+		final short[] chunk = ramp(0, AudioPlayer.PCM_CHUNK_SIZE);
+		final short[] out = new short[AudioPlayer.PCM_CHUNK_SIZE];
+		final ShortBuffer direct = ShortBuffer.wrap(chunk);
+		long allocated = Allocations.measure(new Runnable() {
+			@Override
+			public void run() {
+				ring.write(chunk, 0, chunk.length);
+				direct.clear();
+				ring.write(direct);
+				ring.read(out, 0, out.length);
+				ring.read(out, 0, out.length);
+			}
+		}, 10000);
+		assertEquals(0, allocated);
+	}
+}
@@ -0,0 +1,120 @@
+package com.axelby.podax.player;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PCMTrackWriterTest {
+	// keeps everything written to it, as samples
+	private static class RecordingTrack extends AudioTrack {
+		short[] received = new short[0];
+		int arrayWrites = 0;
+		int bufferWrites = 0;
+		// returned from writes instead of the size when not 0
+		int result = 0;
+
+		RecordingTrack() {
+			super(AudioManager.STREAM_MUSIC, 44100, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT, 8192, AudioTrack.MODE_STREAM);
+		}
+
+		@Override
+		public int write(short[] audioData, int offsetInShorts, int sizeInShorts) {
+			++arrayWrites;
+			append(Arrays.copyOfRange(audioData, offsetInShorts, offsetInShorts + sizeInShorts));
+			return result != 0 ? result : sizeInShorts;
+		}
+
+		@Override
+		public int write(ByteBuffer audioData, int sizeInBytes, int writeMode) {
+			++bufferWrites;
+			assertTrue(audioData.isDirect());
+			assertEquals(ByteOrder.nativeOrder(), audioData.order());
+			assertEquals(AudioTrack.WRITE_BLOCKING, writeMode);
+			assertEquals(sizeInBytes, audioData.remaining());
+			short[] samples = new short[sizeInBytes / 2];
+			audioData.asShortBuffer().get(samples);
+			// the track moves the position past what it took
+			audioData.position(audioData.position() + sizeInBytes);
+			append(samples);
+			return result != 0 ? result : sizeInBytes;
+		}
+
+		private void append(short[] samples) {
+			short[] all = Arrays.copyOf(received, received.length + samples.length);
+			System.arraycopy(samples, 0, all, received.length, samples.length);
+			received = all;
+		}
+	}
+
+	private static void writeInChunks(PCMTrackWriter writer, AudioTrack track, short[] input) {
+		short[] chunk = new short[AudioPlayer.PCM_CHUNK_SIZE];
+		int[] sizes = {AudioPlayer.PCM_CHUNK_SIZE, 37, 2, 4000};
+		for (int position = 0, i = 0; position < input.length; ++i) {
+			int count = Math.min(sizes[i % sizes.length], input.length - position);
+			System.arraycopy(input, position, chunk, 0, count);
+			assertEquals(count, writer.write(track, chunk, count));
+			position += count;
+		}
+	}
+
+	// the same samples reach the track whichever way they're written
+	@Test
+	public void bothPathsDeliverTheSameSamples() {
+		short[] input = StretchBenchmark.speechLike(2, 2, 44100);
+
+		RecordingTrack arrays = new RecordingTrack();
+		PCMTrackWriter arrayWriter = new PCMTrackWriter(AudioPlayer.PCM_CHUNK_SIZE, false);
+		assertFalse(arrayWriter.isDirect());
+		writeInChunks(arrayWriter, arrays, input);
+		assertEquals(0, arrays.bufferWrites);
+
+		RecordingTrack buffers = new RecordingTrack();
+		PCMTrackWriter bufferWriter = new PCMTrackWriter(AudioPlayer.PCM_CHUNK_SIZE, true);
+		assertTrue(bufferWriter.isDirect());
+		writeInChunks(bufferWriter, buffers, input);
+		assertEquals(0, buffers.arrayWrites);
+
+		assertArrayEquals(input, arrays.received);
+		assertArrayEquals(input, buffers.received);
+	}
+
+	@Test
+	public void errorsComeBackUnchanged() {
+		RecordingTrack track = new RecordingTrack();
+		track.result = -3;
+		short[] samples = new short[100];
+		assertEquals(-3, new PCMTrackWriter(100, true).write(track, samples, 100));
+		assertEquals(-3, new PCMTrackWriter(100, false).write(track, samples, 100));
+
+		// a short write is counted in samples
+		track.result = 60;
+		assertEquals(30, new PCMTrackWriter(100, true).write(track, samples, 100));
+	}
+
+	@Test
+	public void directWritesAllocateNothing() {
+		Allocations.assumeSupported();
+		final AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, 44100, AudioFormat.CHANNEL_OUT_STEREO,
+				AudioFormat.ENCODING_PCM_16BIT, 8192, AudioTrack.MODE_STREAM);
+		final PCMTrackWriter writer = new PCMTrackWriter(AudioPlayer.PCM_CHUNK_SIZE, true);
+		final short[] chunk = StretchBenchmark.speechLike(1, 2, 44100);
+		long allocated = Allocations.measure(new Runnable() {
+			@Override
+			public void run() {
+				writer.write(track, chunk, AudioPlayer.PCM_CHUNK_SIZE);
+			}
+		}, 50000);
+		assertEquals(0, allocated);
+	}
+}
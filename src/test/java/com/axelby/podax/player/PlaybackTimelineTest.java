@@ -0,0 +1,113 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlaybackTimelineTest {
+	private static final int RATE = 44100;
+	// a millisecond
+	private static final float DELTA = 0.001f;
+
+	@Test
+	public void countsFromTheStartingPosition() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 30f, 1f);
+		assertEquals(30f, timeline.getPosition(0, 0), DELTA);
+		assertEquals(32f, timeline.getPosition(2 * RATE, 0), DELTA);
+
+		// each frame played covers more of the episode when it's sped up
+		timeline = new PlaybackTimeline(RATE, 30f, 1.5f);
+		assertEquals(33f, timeline.getPosition(2 * RATE, 0), DELTA);
+	}
+
+	// the track still has audio stretched at the old rate to play when the rate changes
+	@Test
+	public void aRateChangeStartsWhenItsAudioIsPlayed() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		timeline.changeRate(3 * RATE, 2f, RATE);
+
+		assertEquals(2f, timeline.getPosition(2 * RATE, 0), DELTA);
+		assertEquals(3f, timeline.getPosition(3 * RATE, 0), DELTA);
+		assertEquals(5f, timeline.getPosition(4 * RATE, 0), DELTA);
+	}
+
+	@Test
+	public void aSecondChangeAtTheSameFrameReplacesTheFirst() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		timeline.changeRate(RATE, 2f, 0);
+		timeline.changeRate(RATE, 0.5f, 0);
+		assertEquals(1.5f, timeline.getPosition(2 * RATE, 0), DELTA);
+	}
+
+	@Test
+	public void aSeekStartsOver() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		timeline.changeRate(RATE, 2f, 0);
+		// the track keeps counting frames through a seek
+		timeline.reset(5 * RATE, 100f, 1.5f);
+		assertEquals(100f, timeline.getPosition(5 * RATE, 0), DELTA);
+		assertEquals(103f, timeline.getPosition(7 * RATE, 0), DELTA);
+	}
+
+	// the next episode's audio follows the last one's on the same track
+	@Test
+	public void rebaseKeepsLaterRateChanges() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 50f, 1f);
+		timeline.changeRate(2 * RATE, 1.5f, 0);
+		timeline.changeRate(6 * RATE, 2f, 0);
+		timeline.rebase(4 * RATE, 0f);
+
+		assertEquals(0f, timeline.getPosition(4 * RATE, 0), DELTA);
+		assertEquals(3f, timeline.getPosition(6 * RATE, 0), DELTA);
+		assertEquals(5f, timeline.getPosition(7 * RATE, 0), DELTA);
+	}
+
+	@Test
+	public void manyRateChangesKeepTheTotal() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		float expected = 0;
+		long played = 0;
+		for (int i = 1; i <= 100; ++i) {
+			float rate = i % 2 == 0 ? 1f : 2f;
+			// a second of audio at the previous rate
+			expected += i % 2 == 0 ? 2f : 1f;
+			timeline.changeRate(i * RATE, rate, played);
+			// the playback head lags a few changes behind
+			played = Math.max(0, (i - 5) * RATE);
+		}
+		expected += 1f;
+		assertEquals(expected, timeline.getPosition(101 * RATE, 0), DELTA);
+	}
+
+	// more changes than it has room for before any of them are played
+	@Test
+	public void unplayedChangesStillAddUpWhenFull() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		for (int i = 1; i <= 40; ++i)
+			timeline.changeRate(i * RATE, 1f, 0);
+		timeline.changeRate(41 * RATE, 2f, 0);
+		assertEquals(43f, timeline.getPosition(42 * RATE, 0), DELTA);
+	}
+
+	@Test
+	public void droppedFramesMoveThePositionAhead() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 10f, 1.5f);
+		// skip silence cut four seconds of input before the stretcher
+		assertEquals(17f, timeline.getPosition(2 * RATE, 4 * RATE), DELTA);
+	}
+
+	// the way AudioPlayer puts them together, drops only count once the track plays past them
+	@Test
+	public void dropsCountOncePlayed() {
+		PlaybackTimeline timeline = new PlaybackTimeline(RATE, 0f, 1f);
+		DroppedFrames dropped = new DroppedFrames();
+		dropped.add(2 * RATE, 3 * RATE);
+
+		dropped.advance(RATE);
+		assertEquals(1f, timeline.getPosition(RATE, dropped.getPlayed()), DELTA);
+		dropped.advance(2 * RATE);
+		assertEquals(5f, timeline.getPosition(2 * RATE, dropped.getPlayed()), DELTA);
+		dropped.advance(3 * RATE);
+		assertEquals(6f, timeline.getPosition(3 * RATE, dropped.getPlayed()), DELTA);
+	}
+}
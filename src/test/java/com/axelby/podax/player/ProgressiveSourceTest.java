@@ -0,0 +1,259 @@
+package com.axelby.podax.player;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressiveSourceTest {
+	private static final int SIZE = 2 * 1024 * 1024;
+	// the stub sends this much and then waits, about 1.6 MB a second
+	private static final int CHUNK = 16 * 1024;
+	private static final int CHUNK_DELAY_MS = 10;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private final byte[] _content = new byte[SIZE];
+	private HttpServer _server;
+	private ExecutorService _serverThreads;
+	private final List<Long> _requestStarts = Collections.synchronizedList(new ArrayList<Long>());
+	private volatile boolean _honorRanges = true;
+	private volatile boolean _sendLength = true;
+	// the first response is cut off after this many bytes, 0 to send it all
+	private volatile int _dropFirstAfter = 0;
+
+	@Before
+	public void setUp() throws IOException {
+		new Random(18).nextBytes(_content);
+		_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		_server.createContext("/episode.mp3", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				long start = 0;
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				if (range != null && range.startsWith("bytes="))
+					start = Long.parseLong(range.substring(6, range.indexOf('-')));
+				_requestStarts.add(start);
+				if (!_honorRanges)
+					start = 0;
+
+				long length = SIZE - start;
+				if (start > 0)
+					exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE);
+				exchange.sendResponseHeaders(start > 0 ? 206 : 200, _sendLength ? length : 0);
+
+				int limit = SIZE;
+				if (_dropFirstAfter > 0 && _requestStarts.size() == 1)
+					limit = _dropFirstAfter;
+				OutputStream output = exchange.getResponseBody();
+				try {
+					for (int position = (int) start; position < limit; position += CHUNK) {
+						output.write(_content, position, Math.min(CHUNK, limit - position));
+						output.flush();
+						Thread.sleep(CHUNK_DELAY_MS);
+					}
+					if (limit < SIZE) {
+						exchange.close();
+						return;
+					}
+					output.close();
+				} catch (IOException ignored) {
+					// the source moved on to another range
+				} catch (InterruptedException ignored) {
+				}
+			}
+		});
+		_serverThreads = Executors.newCachedThreadPool();
+		_server.setExecutor(_serverThreads);
+		_server.start();
+	}
+
+	@After
+	public void tearDown() {
+		_server.stop(0);
+		_serverThreads.shutdownNow();
+	}
+
+	private String url() {
+		return "http://127.0.0.1:" + _server.getAddress().getPort() + "/episode.mp3";
+	}
+
+	private static class Completion implements ProgressiveSource.OnCompleteListener {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicLong length = new AtomicLong(-1);
+
+		@Override
+		public void onComplete(String filename, long length) {
+			this.length.set(length);
+			done.countDown();
+		}
+	}
+
+	private byte[] read(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		FileInputStream input = new FileInputStream(file);
+		try {
+			int total = 0;
+			while (total < data.length)
+				total += input.read(data, total, data.length - total);
+		} finally {
+			input.close();
+		}
+		return data;
+	}
+
+	private void assertCompleted(String filename, Completion completion) throws Exception {
+		assertTrue("download didn't finish", completion.done.await(20, TimeUnit.SECONDS));
+		assertEquals(SIZE, completion.length.get());
+		assertFalse(new File(filename + ProgressiveSource.PARTIAL_SUFFIX).exists());
+		assertArrayEquals(_content, read(new File(filename)));
+		assertEquals(null, ProgressiveSource.get(filename));
+	}
+
+	// the start of the episode is readable long before the rest has arrived
+	@Test
+	public void startsPlayingBeforeTheDownloadFinishes() throws Exception {
+		String filename = new File(_folder.getRoot(), "start.mp3").getAbsolutePath();
+		Completion completion = new Completion();
+		long started = System.nanoTime();
+		ProgressiveSource source = ProgressiveSource.start(url(), filename, SIZE, completion);
+		assertTrue(source != null);
+		assertTrue(source == ProgressiveSource.get(filename));
+
+		assertTrue(source.awaitRange(0, 64 * 1024) >= 64 * 1024);
+		long firstBytesMs = (System.nanoTime() - started) / 1000000;
+		assertFalse(source.isComplete());
+		assertEquals(SIZE, source.getLength());
+
+		assertCompleted(filename, completion);
+		long totalMs = (System.nanoTime() - started) / 1000000;
+		assertTrue("first bytes after " + firstBytesMs + " ms of " + totalMs, firstBytesMs * 4 < totalMs);
+		assertEquals(1, _requestStarts.size());
+	}
+
+	// a read far ahead of the download moves it there instead of waiting, the gap is filled in afterwards
+	@Test
+	public void farReadRequestsThatRange() throws Exception {
+		String filename = new File(_folder.getRoot(), "seek.mp3").getAbsolutePath();
+		Completion completion = new Completion();
+		ProgressiveSource source = ProgressiveSource.start(url(), filename, SIZE, completion);
+		assertTrue(source.awaitRange(0, 1024) > 0);
+
+		long target = SIZE * 3 / 4;
+		long started = System.nanoTime();
+		assertTrue(source.awaitRange(target, 4096) >= 4096);
+		long waitedMs = (System.nanoTime() - started) / 1000000;
+		// getting there by downloading everything before it takes over a second
+		assertTrue("waited " + waitedMs + " ms", waitedMs < 500);
+		assertTrue(_requestStarts.contains(target));
+
+		assertCompleted(filename, completion);
+		// the skipped part came from another range request, not a restart
+		assertFalse(_requestStarts.subList(1, _requestStarts.size()).contains(0L));
+	}
+
+	// a server that ignores ranges sends the whole file again, the far read waits for it to get there
+	@Test
+	public void serverIgnoringRangesFallsBackToDownloadingInOrder() throws Exception {
+		_honorRanges = false;
+		String filename = new File(_folder.getRoot(), "norange.mp3").getAbsolutePath();
+		Completion completion = new Completion();
+		ProgressiveSource source = ProgressiveSource.start(url(), filename, SIZE, completion);
+		assertTrue(source.awaitRange(0, 1024) > 0);
+
+		long target = SIZE * 3 / 4;
+		assertTrue(source.awaitRange(target, 4096) >= 4096);
+		assertTrue(source.getStallCount() > 0);
+
+		assertCompleted(filename, completion);
+		// one try at a range, then no more once the server showed it doesn't do them
+		assertEquals(2, _requestStarts.size());
+	}
+
+	// without a length from the feed or the server the end shows up when the response runs out
+	@Test
+	public void unknownLengthEndsWithTheResponse() throws Exception {
+		_sendLength = false;
+		String filename = new File(_folder.getRoot(), "chunked.mp3").getAbsolutePath();
+		Completion completion = new Completion();
+		ProgressiveSource.start(url(), filename, 0, completion);
+		assertCompleted(filename, completion);
+	}
+
+	// a connection that drops partway picks up where it left off
+	@Test
+	public void droppedConnectionResumes() throws Exception {
+		_dropFirstAfter = SIZE / 4;
+		String filename = new File(_folder.getRoot(), "dropped.mp3").getAbsolutePath();
+		Completion completion = new Completion();
+		ProgressiveSource.start(url(), filename, SIZE, completion);
+		assertCompleted(filename, completion);
+		assertTrue(_requestStarts.size() >= 2);
+		assertTrue(_requestStarts.get(1) > 0);
+	}
+
+	// a seek or stop on the playback side shouldn't wait for the download
+	@Test
+	public void abortReadsReleasesWaitingReads() throws Exception {
+		String filename = new File(_folder.getRoot(), "abort.mp3").getAbsolutePath();
+		String otherFilename = new File(_folder.getRoot(), "other.mp3").getAbsolutePath();
+		final ProgressiveSource source = ProgressiveSource.start(url(), filename, SIZE, null);
+		final ProgressiveSource other = ProgressiveSource.start(url(), otherFilename, SIZE, null);
+		final AtomicLong result = new AtomicLong(Long.MIN_VALUE);
+		final AtomicLong otherResult = new AtomicLong(Long.MIN_VALUE);
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				// the whole file is more than the stub sends in a second
+				result.set(source.awaitRange(0, SIZE));
+			}
+		});
+		Thread otherReader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				otherResult.set(other.awaitRange(0, SIZE));
+			}
+		});
+		reader.start();
+		otherReader.start();
+		Thread.sleep(100);
+		source.abortReads();
+		reader.join(2000);
+		assertFalse(reader.isAlive());
+		assertEquals(-1, result.get());
+
+		// only the source it was called on gives up
+		assertTrue(otherReader.isAlive());
+		otherReader.join(5000);
+		assertFalse(otherReader.isAlive());
+		assertEquals(SIZE, otherResult.get());
+		ProgressiveSource.cancel(filename);
+		ProgressiveSource.cancel(otherFilename);
+	}
+}
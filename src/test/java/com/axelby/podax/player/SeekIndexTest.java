@@ -0,0 +1,224 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SeekIndexTest {
+	// 20 seconds of speech-like mono audio at 22050 Hz, VBR from lame -V 7
+	private static final String FIXTURE = "speech-vbr.mp3";
+	private static final float[] TARGETS = {0.5f, 3.3f, 7.77f, 12f, 18.25f};
+	// an MPEG-1 layer III frame, MPEG-2 frames are half that
+	private static final int MAX_FRAME_SAMPLES = 1152;
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	private static SeekIndex every(int step, int count) {
+		long[] positions = new long[count];
+		long[] offsets = new long[count];
+		for (int i = 0; i < count; ++i) {
+			positions[i] = (long) i * step;
+			offsets[i] = 1000 + (long) i * step * 417;
+		}
+		return new SeekIndex(positions, offsets);
+	}
+
+	@Test
+	public void findsTheLastEntryAtOrBefore() {
+		SeekIndex index = every(16, 100);
+		assertEquals(0, index.find(0));
+		assertEquals(0, index.find(15));
+		assertEquals(1, index.find(16));
+		assertEquals(50, index.find(50 * 16 + 3));
+		assertEquals(99, index.find(99 * 16));
+		assertEquals(99, index.find(Long.MAX_VALUE));
+
+		SeekIndex late = new SeekIndex(new long[]{10, 20}, new long[]{0, 1});
+		assertEquals(-1, late.find(9));
+		assertEquals(-1, new SeekIndex(new long[0], new long[0]).find(5));
+	}
+
+	@Test
+	public void rejectsMismatchedTables() {
+		try {
+			new SeekIndex(new long[2], new long[3]);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void savesAndLoadsNextToTheMediaFile() throws IOException {
+		File audio = _folder.newFile("episode.mp3");
+		writeBytes(audio, 5000);
+		SeekIndex saved = every(4, 1000);
+		saved.save(audio.getPath());
+
+		assertTrue(SeekIndex.getIndexFile(audio.getPath()).exists());
+		assertTrue(!new File(SeekIndex.getIndexFile(audio.getPath()).getPath() + ".tmp").exists());
+		SeekIndex loaded = SeekIndex.load(audio.getPath());
+		assertNotNull(loaded);
+		assertEquals(saved.size(), loaded.size());
+		for (int i = 0; i < saved.size(); ++i) {
+			assertEquals(saved.getPosition(i), loaded.getPosition(i));
+			assertEquals(saved.getOffset(i), loaded.getOffset(i));
+		}
+	}
+
+	@Test
+	public void ignoresAnIndexForADifferentFile() throws IOException {
+		File audio = _folder.newFile("episode.mp3");
+		writeBytes(audio, 5000);
+		every(4, 10).save(audio.getPath());
+		// re-downloaded and it came out a different size
+		writeBytes(audio, 6000);
+		assertNull(SeekIndex.load(audio.getPath()));
+
+		assertNull(SeekIndex.load(_folder.newFile("unindexed.mp3").getPath()));
+	}
+
+	@Test
+	public void ignoresAnIndexItDidntWrite() throws IOException {
+		File audio = _folder.newFile("episode.mp3");
+		writeBytes(audio, 5000);
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(SeekIndex.getIndexFile(audio.getPath())));
+		out.writeInt(0x12345678);
+		out.writeInt(1);
+		out.close();
+		assertNull(SeekIndex.load(audio.getPath()));
+	}
+
+	@Test
+	public void buildsAnIndexForAnMP3() throws IOException {
+		String audio = copyFixture();
+		assertTrue(SeekIndex.build(audio));
+		SeekIndex index = SeekIndex.load(audio);
+		assertNotNull(index);
+		assertTrue(index.size() > 10);
+		for (int i = 1; i < index.size(); ++i) {
+			assertTrue(index.getPosition(i) > index.getPosition(i - 1));
+			assertTrue(index.getOffset(i) > index.getOffset(i - 1));
+		}
+		assertTrue(index.getOffset(index.size() - 1) < new File(audio).length());
+	}
+
+	// seeking through the index has to land on the same samples decoding from the start gets to
+	@Test
+	public void indexedSeeksLandOnTheTarget() throws IOException {
+		String audio = copyFixture();
+		short[] whole = decodeAll(audio);
+		assertTrue(SeekIndex.build(audio));
+
+		for (float target : TARGETS) {
+			IMediaDecoder decoder = AudioPlayer.loadFile(audio);
+			assertNotNull(decoder);
+			short[] after = new short[8192];
+			int rate;
+			try {
+				rate = decoder.getRate();
+				assertEquals(0, decoder.seek(target) < 0 ? -1 : 0);
+				int read = 0;
+				while (read < after.length) {
+					int count = decoder.readSamples(after, read, after.length - read);
+					if (count <= 0)
+						break;
+					read += count;
+				}
+				assertEquals(after.length, read);
+			} finally {
+				decoder.close();
+			}
+
+			// without gapless decoding mpg123 seeks to the start of the frame holding the target
+			int expected = Math.round(target * rate);
+			int landed = locate(whole, after, expected - rate / 10, expected + rate / 10);
+			assertTrue(target + " s landed at " + landed + " not " + expected, landed <= expected && expected - landed < MAX_FRAME_SAMPLES);
+			// the synthesis filter starts from a different state so it can be off by rounding
+			for (int i = MAX_FRAME_SAMPLES; i < after.length; ++i)
+				assertTrue(target + " s sample " + i, Math.abs(whole[landed + i] - after[i]) <= 1);
+		}
+	}
+
+	private static void writeBytes(File file, int length) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		out.write(new byte[length]);
+		out.close();
+	}
+
+	// the native decoder needs the host build, the test is skipped without it
+	private String copyFixture() throws IOException {
+		try {
+			System.loadLibrary("mpg123");
+		} catch (UnsatisfiedLinkError e) {
+			Assume.assumeNoException("build the host libraries with make -C src/main/jni/host", e);
+		}
+
+		File copy = new File(_folder.getRoot(), FIXTURE);
+		InputStream in = getClass().getResourceAsStream(FIXTURE);
+		assertNotNull(FIXTURE + " is missing from the test resources", in);
+		OutputStream out = new FileOutputStream(copy);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+		} finally {
+			out.close();
+			in.close();
+		}
+		return copy.getPath();
+	}
+
+	private static short[] decodeAll(String audio) {
+		IMediaDecoder decoder = AudioPlayer.loadFile(audio);
+		assertNotNull(decoder);
+		try {
+			short[] samples = new short[(int) ((decoder.getDuration() + 1) * decoder.getRate() * decoder.getNumChannels())];
+			int read = 0;
+			while (read < samples.length) {
+				int count = decoder.readSamples(samples, read, Math.min(AudioPlayer.PCM_CHUNK_SIZE, samples.length - read));
+				if (count <= 0)
+					break;
+				read += count;
+			}
+			return Arrays.copyOf(samples, read);
+		} finally {
+			decoder.close();
+		}
+	}
+
+	// where in whole the samples best match, skipping the first frame so decoder warm-up doesn't count
+	private static int locate(short[] whole, short[] samples, int from, int to) {
+		int skip = MAX_FRAME_SAMPLES;
+		int best = -1;
+		double bestError = Double.MAX_VALUE;
+		for (int start = Math.max(0, from); start <= to && start + samples.length <= whole.length; ++start) {
+			double error = 0;
+			for (int i = skip; i < samples.length && error < bestError; ++i) {
+				double difference = whole[start + i] - samples[i];
+				error += difference * difference;
+			}
+			if (error < bestError) {
+				bestError = error;
+				best = start;
+			}
+		}
+		return best;
+	}
+}
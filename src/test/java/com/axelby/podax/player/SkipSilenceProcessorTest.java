@@ -0,0 +1,163 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SkipSilenceProcessorTest {
+	private static final int RATE = 44100;
+	private static final int CHANNELS = 2;
+	// the processor's RMS block, 10 ms
+	private static final int BLOCK_FRAMES = RATE / 100;
+	// the start of every pause that's kept, 250 ms
+	private static final int KEPT_FRAMES = RATE / 4;
+
+	// builds a signal out of sections, each a level and a length in frames
+	private static class Signal {
+		private final ArrayList<short[]> _sections = new ArrayList<short[]>();
+
+		Signal tone(int frames) {
+			_sections.add(WSOLATest.tone(frames, CHANNELS, 440, RATE));
+			return this;
+		}
+
+		Signal silence(int frames) {
+			_sections.add(new short[frames * CHANNELS]);
+			return this;
+		}
+
+		// a square wave with an RMS of exactly level
+		Signal hum(int frames, int level) {
+			short[] samples = new short[frames * CHANNELS];
+			for (int i = 0; i < samples.length; ++i)
+				samples[i] = (short) ((i / CHANNELS / 50) % 2 == 0 ? level : -level);
+			_sections.add(samples);
+			return this;
+		}
+
+		short[] get() {
+			int length = 0;
+			for (short[] section : _sections)
+				length += section.length;
+			short[] samples = new short[length];
+			int position = 0;
+			for (short[] section : _sections) {
+				System.arraycopy(section, 0, samples, position, section.length);
+				position += section.length;
+			}
+			return samples;
+		}
+	}
+
+	private static SkipSilenceProcessor processor() {
+		SkipSilenceProcessor processor = new SkipSilenceProcessor();
+		processor.setFormat(RATE, CHANNELS);
+		return processor;
+	}
+
+	// runs the signal through in chunks and returns what's left
+	private static short[] process(IPCMProcessor processor, short[] input, int chunkSize) {
+		short[] output = new short[input.length];
+		short[] chunk = new short[chunkSize];
+		int written = 0;
+		for (int position = 0; position < input.length; position += chunkSize) {
+			int length = Math.min(chunkSize, input.length - position);
+			System.arraycopy(input, position, chunk, 0, length);
+			int kept = processor.process(chunk, length);
+			assertTrue(kept <= length);
+			System.arraycopy(chunk, 0, output, written, kept);
+			written += kept;
+		}
+		return Arrays.copyOf(output, written);
+	}
+
+	@Test
+	public void dropsAllButTheStartOfALongPause() {
+		short[] input = new Signal().tone(RATE).silence(2 * RATE).tone(RATE).get();
+		short[] output = process(processor(), input, BLOCK_FRAMES * CHANNELS);
+		assertEquals((2 * RATE + KEPT_FRAMES) * CHANNELS, output.length);
+
+		// the audio on either side of the pause is untouched
+		short[] before = Arrays.copyOfRange(input, 0, (RATE + KEPT_FRAMES) * CHANNELS);
+		short[] after = Arrays.copyOfRange(input, 3 * RATE * CHANNELS, input.length);
+		assertTrue(Arrays.equals(before, Arrays.copyOfRange(output, 0, before.length)));
+		assertTrue(Arrays.equals(after, Arrays.copyOfRange(output, before.length, output.length)));
+	}
+
+	@Test
+	public void keepsShortPauses() {
+		short[] input = new Signal().tone(RATE).silence(RATE / 5).tone(RATE).silence(RATE / 5).tone(RATE).get();
+		short[] output = process(processor(), input, AudioPlayer.PCM_CHUNK_SIZE);
+		assertTrue(Arrays.equals(input, output));
+	}
+
+	// player-sized chunks don't line up with the RMS blocks, that only moves the cut by a block
+	@Test
+	public void chunkSizeOnlyMovesTheCutByABlock() {
+		short[] input = new Signal().tone(RATE).silence(3 * RATE).tone(RATE).silence(RATE).tone(RATE / 2).get();
+		int expected = (int) ((2.5 * RATE + 2 * KEPT_FRAMES) * CHANNELS);
+		for (int chunkSize : new int[]{AudioPlayer.PCM_CHUNK_SIZE, 1000, 77 * CHANNELS}) {
+			short[] output = process(processor(), input, chunkSize);
+			assertTrue(chunkSize + " kept " + output.length + " not " + expected,
+					Math.abs(output.length - expected) <= 2 * 2 * BLOCK_FRAMES * CHANNELS);
+		}
+	}
+
+	// a level between the two thresholds neither starts nor ends a pause
+	@Test
+	public void hysteresisHoldsTheCurrentState() {
+		SkipSilenceProcessor processor = processor();
+		short[] input = new Signal().tone(RATE).hum(2 * RATE, 150).tone(RATE).get();
+		assertTrue(Arrays.equals(input, process(processor, input, BLOCK_FRAMES * CHANNELS)));
+
+		processor = processor();
+		input = new Signal().tone(RATE).silence(RATE).hum(2 * RATE, 150).tone(RATE).get();
+		assertEquals((2 * RATE + KEPT_FRAMES) * CHANNELS, process(processor, input, BLOCK_FRAMES * CHANNELS).length);
+
+		// loud enough to open it again
+		processor = processor();
+		input = new Signal().tone(RATE).silence(RATE).hum(RATE, 250).get();
+		assertEquals((2 * RATE + KEPT_FRAMES) * CHANNELS, process(processor, input, BLOCK_FRAMES * CHANNELS).length);
+	}
+
+	@Test
+	public void resetForgetsThePause() {
+		SkipSilenceProcessor processor = processor();
+		short[] silence = new short[RATE * CHANNELS];
+		assertEquals(KEPT_FRAMES * CHANNELS, process(processor, silence, BLOCK_FRAMES * CHANNELS).length);
+		assertEquals(0, process(processor, silence, BLOCK_FRAMES * CHANNELS).length);
+		processor.reset();
+		assertEquals(KEPT_FRAMES * CHANNELS, process(processor, silence, BLOCK_FRAMES * CHANNELS).length);
+	}
+
+	@Test
+	public void passesEverythingThroughUntilItKnowsTheFormat() {
+		short[] silence = new short[RATE * CHANNELS];
+		assertEquals(silence.length, new SkipSilenceProcessor().process(silence, silence.length));
+	}
+
+	@Test
+	public void skippingAllocatesNothing() {
+		Allocations.assumeSupported();
+		final SkipSilenceProcessor processor = processor();
+		short[] speech = new Signal().tone(RATE / 2).silence(RATE).get();
+		final short[][] chunks = new short[speech.length / AudioPlayer.PCM_CHUNK_SIZE][];
+		for (int i = 0; i < chunks.length; ++i)
+			chunks[i] = Arrays.copyOfRange(speech, i * AudioPlayer.PCM_CHUNK_SIZE, (i + 1) * AudioPlayer.PCM_CHUNK_SIZE);
+		final short[] buffer = new short[AudioPlayer.PCM_CHUNK_SIZE];
+		long allocated = Allocations.measure(new Runnable() {
+			@Override
+			public void run() {
+				for (short[] chunk : chunks) {
+					System.arraycopy(chunk, 0, buffer, 0, buffer.length);
+					processor.process(buffer, buffer.length);
+				}
+			}
+		}, 200);
+		assertEquals(0, allocated);
+	}
+}
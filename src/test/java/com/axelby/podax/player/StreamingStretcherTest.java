@@ -0,0 +1,169 @@
+package com.axelby.podax.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamingStretcherTest {
+	private static final int RATE = 44100;
+
+	// runs input through in chunks of the given sizes, cycling through them, and returns all of the output
+	private static short[] stretch(StreamingStretcher stretcher, short[] input, int channels, int... chunkFrames) {
+		short[] output = new short[stretcher.getMaxOutputSize(input.length, stretcher.getSpeedRatio()) * 2];
+		short[] chunk = new short[0];
+		int written = 0;
+		int position = 0;
+		for (int i = 0; position < input.length; ++i) {
+			int length = Math.min(chunkFrames[i % chunkFrames.length] * channels, input.length - position);
+			if (chunk.length < length)
+				chunk = new short[length];
+			System.arraycopy(input, position, chunk, 0, length);
+			position += length;
+			written += stretcher.process(chunk, length, output, written);
+		}
+		return Arrays.copyOf(output, written);
+	}
+
+	// zero crossings per second of the first channel
+	private static float frequency(short[] samples, int channels) {
+		int crossings = 0;
+		for (int i = channels; i < samples.length; i += channels)
+			if ((samples[i - channels] < 0) != (samples[i] < 0))
+				++crossings;
+		return crossings / 2f / ((float) samples.length / channels / RATE);
+	}
+
+	@Test
+	public void normalSpeedPassesAudioThrough() {
+		StreamingStretcher stretcher = new StreamingStretcher(RATE, 2);
+		short[] input = WSOLATest.tone(RATE, 2, 440, RATE);
+		short[] output = stretch(stretcher, input, 2, 2560);
+
+		// the first half window fades in, after that the windows add back up to the input
+		int overlap = 20 * RATE / 1000 / 2;
+		assertTrue(output.length > input.length - 4 * overlap * 2);
+		for (int i = overlap * 2; i < output.length; ++i)
+			assertTrue("sample " + i + " is " + output[i] + " not " + input[i], Math.abs(output[i] - input[i]) <= 1);
+	}
+
+	// how the input is split into chunks makes no difference to the output, there are no seams at chunk boundaries
+	@Test
+	public void chunkBoundariesDontChangeTheOutput() {
+		short[] input = WSOLATest.tone(3 * RATE, 2, 220, RATE);
+		for (float speed : new float[]{0.8f, 1.5f, 2.5f}) {
+			StreamingStretcher whole = new StreamingStretcher(RATE, 2);
+			whole.setSpeedRatio(speed);
+			short[] expected = stretch(whole, input, 2, input.length / 2);
+
+			StreamingStretcher chunked = new StreamingStretcher(RATE, 2);
+			chunked.setSpeedRatio(speed);
+			short[] actual = stretch(chunked, input, 2, 2560, 37, 1000, 4096, 1);
+
+			assertEquals("length at " + speed + "x", expected.length, actual.length);
+			for (int i = 0; i < expected.length; ++i)
+				assertEquals("sample " + i + " at " + speed + "x", expected[i], actual[i]);
+		}
+	}
+
+	@Test
+	public void outputLengthFollowsTheSpeed() {
+		short[] input = WSOLATest.tone(10 * RATE, 1, 300, RATE);
+		int window = 20 * RATE / 1000;
+		for (float speed : new float[]{0.5f, 1f, 1.5f, 2f, 2.5f}) {
+			StreamingStretcher stretcher = new StreamingStretcher(RATE, 1);
+			stretcher.setSpeedRatio(speed);
+			short[] output = stretch(stretcher, input, 1, 2560);
+			float expected = input.length / speed;
+			// what's held back waiting for more input is at most a couple of windows
+			assertTrue(speed + "x gave " + output.length + " for " + expected,
+					Math.abs(output.length - expected) < 3 * window * Math.max(1, speed));
+		}
+	}
+
+	@Test
+	public void pitchStaysTheSame() {
+		short[] input = WSOLATest.tone(5 * RATE, 2, 440, RATE);
+		for (float speed : new float[]{0.75f, 1.5f, 2.5f}) {
+			StreamingStretcher stretcher = new StreamingStretcher(RATE, 2);
+			stretcher.setSpeedRatio(speed);
+			float frequency = frequency(stretch(stretcher, input, 2, 2560), 2);
+			assertTrue(speed + "x came out at " + frequency + " Hz", Math.abs(frequency - 440) < 440 * 0.03);
+		}
+	}
+
+	@Test
+	public void speedChangesKeepBufferedAudio() {
+		StreamingStretcher stretcher = new StreamingStretcher(RATE, 1);
+		short[] chunk = WSOLATest.tone(2560, 1, 440, RATE);
+		short[] output = new short[stretcher.getMaxOutputSize(chunk.length, 0.5f)];
+		int total = 0;
+		for (int i = 0; i < 50; ++i) {
+			stretcher.setSpeedRatio(i % 2 == 0 ? 1.5f : 2f);
+			total += stretcher.process(chunk, chunk.length, output, 0);
+		}
+		float expected = 50 * 2560 / 1.75f;
+		assertTrue(total + " for " + expected, Math.abs(total - expected) < expected * 0.05);
+	}
+
+	@Test
+	public void resetForgetsBufferedAudio() {
+		StreamingStretcher stretcher = new StreamingStretcher(RATE, 1);
+		stretcher.setSpeedRatio(1.5f);
+		short[] loud = WSOLATest.tone(2560, 1, 440, RATE);
+		short[] output = new short[stretcher.getMaxOutputSize(loud.length, 1.5f)];
+		stretcher.process(loud, loud.length, output, 0);
+
+		stretcher.reset();
+		short[] silence = new short[4 * 2560];
+		int written = stretcher.process(silence, silence.length, output, 0);
+		assertTrue(written > 0);
+		for (int i = 0; i < written; ++i)
+			assertEquals(0, output[i]);
+	}
+
+	@Test
+	public void stopsWhenTheOutputIsFull() {
+		StreamingStretcher stretcher = new StreamingStretcher(RATE, 1);
+		short[] input = WSOLATest.tone(RATE, 1, 440, RATE);
+		short[] small = new short[1000];
+		int written = stretcher.process(input, input.length, small, 0);
+		assertTrue(written <= small.length);
+		// the rest is still there for the next call
+		short[] rest = new short[input.length * 2];
+		assertTrue(stretcher.process(input, 0, rest, 0) > input.length / 2);
+	}
+
+	@Test
+	public void rejectsBadSettings() {
+		try {
+			new StreamingStretcher(0, 2);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			new StreamingStretcher(RATE, 2).setSpeedRatio(0);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void steadyStateAllocatesNothing() {
+		Allocations.assumeSupported();
+		final StreamingStretcher stretcher = new StreamingStretcher(RATE, 2);
+		stretcher.setSpeedRatio(1.5f);
+		final short[] chunk = WSOLATest.tone(AudioPlayer.PCM_CHUNK_SIZE / 2, 2, 440, RATE);
+		final short[] output = new short[stretcher.getMaxOutputSize(chunk.length, 0.5f)];
+		long allocated = Allocations.measure(new Runnable() {
+			@Override
+			public void run() {
+				stretcher.process(chunk, chunk.length, output, 0);
+			}
+		}, 500);
+		assertEquals(0, allocated);
+	}
+}
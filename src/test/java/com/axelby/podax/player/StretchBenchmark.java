@@ -0,0 +1,182 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+// CPU spent per second of stretched output for each time-stretch engine, fed the way AudioPlayer feeds them,
+// and how the pure Java port compares with the native engine it was ported from.
+// The native engine needs the host build from make -C src/main/jni/host and is left out without it.
+//   ./gradlew test -Pbenchmark
+public class StretchBenchmark {
+	private static final int RATE = 44100;
+	private static final int CHANNELS = 2;
+	private static final int SECONDS = 60;
+	private static final float[] SPEEDS = {1.0f, 1.5f, 2.5f};
+	private static final int RUNS = 3;
+	// for comparing the Java port with the native engine
+	private static final int[] RATES = {22050, 44100, 48000};
+	private static final int COMPARE_SECONDS = 20;
+	private static final float COMPARE_SPEED = 1.5f;
+
+	private static short[] _speech;
+	private static boolean _haveNative;
+	private final ThreadMXBean _threads = ManagementFactory.getThreadMXBean();
+
+	@BeforeClass
+	public static void setUpClass() {
+		Assume.assumeTrue("run with -Pbenchmark", Boolean.getBoolean("podax.benchmark"));
+		_speech = speechLike(SECONDS, CHANNELS, RATE);
+		try {
+			System.loadLibrary("wsola");
+			_haveNative = true;
+		} catch (UnsatisfiedLinkError e) {
+			System.out.println("no host build of the native stretcher, make -C src/main/jni/host to include it");
+		}
+	}
+
+	// voiced stretches with a wandering pitch, broken up by pauses and noisy consonants, so the search has something to find
+	static short[] speechLike(int seconds, int channels, int rate) {
+		Random random = new Random(2);
+		short[] samples = new short[seconds * rate * channels];
+		double phase = 0;
+		for (int i = 0; i < seconds * rate; ++i) {
+			double t = (double) i / rate;
+			double pitch = 120 + 40 * Math.sin(2 * Math.PI * 0.7 * t);
+			phase += 2 * Math.PI * pitch / rate;
+			double syllable = Math.max(0, Math.sin(2 * Math.PI * 4 * t));
+			double voiced = 0;
+			for (int h = 1; h <= 6; ++h)
+				voiced += Math.sin(h * phase) / h;
+			double value = syllable * (6000 * voiced + 800 * random.nextGaussian());
+			for (int c = 0; c < channels; ++c)
+				samples[i * channels + c] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+		}
+		return samples;
+	}
+
+	private static class Result {
+		long cpuNanos;
+		long outputSamples;
+
+		double cpuMsPerOutputSecond() {
+			return cpuNanos / 1e6 / ((double) outputSamples / CHANNELS / RATE);
+		}
+	}
+
+	// decode-sized chunks into one reused output buffer, the way the playback loop does it
+	private Result run(ITimeStretcher stretcher, float speed) {
+		stretcher.setSpeedRatio(speed);
+		int chunkSize = AudioPlayer.PCM_CHUNK_SIZE;
+		short[] chunk = new short[chunkSize];
+		short[] output = new short[stretcher.getMaxOutputSize(chunkSize, speed)];
+		Result result = new Result();
+		long start = _threads.getCurrentThreadCpuTime();
+		for (int position = 0; position + chunkSize <= _speech.length; position += chunkSize) {
+			System.arraycopy(_speech, position, chunk, 0, chunkSize);
+			result.outputSamples += stretcher.process(chunk, chunkSize, output, 0);
+		}
+		result.cpuNanos = _threads.getCurrentThreadCpuTime() - start;
+		return result;
+	}
+
+	private Result best(String engine, float speed) {
+		Result best = null;
+		for (int i = 0; i < RUNS; ++i) {
+			ITimeStretcher stretcher = AudioPlayer.createStretcher(engine, RATE, CHANNELS);
+			try {
+				Result result = run(stretcher, speed);
+				if (best == null || result.cpuNanos < best.cpuNanos)
+					best = result;
+			} finally {
+				stretcher.close();
+			}
+		}
+		return best;
+	}
+
+	@Test
+	public void cpuPerSecondOfOutput() {
+		System.out.println(String.format(Locale.US, "time-stretch, %d s of %d Hz stereo in %d sample chunks, best of %d",
+				SECONDS, RATE, AudioPlayer.PCM_CHUNK_SIZE, RUNS));
+		for (float speed : SPEEDS) {
+			report(AudioPlayer.STRETCH_ENGINE_STREAMING, speed);
+			if (_haveNative)
+				report(AudioPlayer.STRETCH_ENGINE_NATIVE, speed);
+		}
+	}
+
+	private void report(String engine, float speed) {
+		Result result = best(engine, speed);
+		System.out.println(String.format(Locale.US, "  %-9s %.1fx: %7.2f ms CPU per second of output, %6.0fx realtime",
+				engine, speed, result.cpuMsPerOutputSecond(), 1000 / result.cpuMsPerOutputSecond()));
+	}
+
+	private static class Comparison {
+		long nanos;
+		long allocatedBytes;
+		short[] output;
+	}
+
+	// the whole signal in player-sized chunks, keeping everything that comes out
+	private static Comparison stretchAll(ITimeStretcher stretcher, short[] input) {
+		stretcher.setSpeedRatio(COMPARE_SPEED);
+		int chunkSize = AudioPlayer.PCM_CHUNK_SIZE;
+		short[] chunk = new short[chunkSize];
+		Comparison result = new Comparison();
+		result.output = new short[stretcher.getMaxOutputSize(input.length, COMPARE_SPEED)];
+		int written = 0;
+		// a chunk first so buffers the engine keeps are already allocated
+		System.arraycopy(input, 0, chunk, 0, chunkSize);
+		stretcher.process(chunk, chunkSize, new short[stretcher.getMaxOutputSize(chunkSize, COMPARE_SPEED)], 0);
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long allocatedBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long start = System.nanoTime();
+		for (int position = 0; position + chunkSize <= input.length; position += chunkSize) {
+			System.arraycopy(input, position, chunk, 0, chunkSize);
+			written += stretcher.process(chunk, chunkSize, result.output, written);
+		}
+		result.nanos = System.nanoTime() - start;
+		result.allocatedBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+		result.output = Arrays.copyOf(result.output, written);
+		return result;
+	}
+
+	@Test
+	public void javaAgainstNative() {
+		Assume.assumeTrue("the comparison needs the native stretcher", _haveNative);
+		System.out.println(String.format(Locale.US, "java port against native, %d s at %.1fx in %d sample chunks",
+				COMPARE_SECONDS, COMPARE_SPEED, AudioPlayer.PCM_CHUNK_SIZE));
+		for (int channels = 1; channels <= 2; ++channels) {
+			for (int rate : RATES) {
+				short[] input = speechLike(COMPARE_SECONDS, channels, rate);
+				double seconds = (double) input.length / channels / rate;
+
+				ITimeStretcher nativeEngine = new WSOLA(rate, channels);
+				Comparison expected = stretchAll(nativeEngine, input);
+				nativeEngine.close();
+				// once to get the Java engine compiled
+				stretchAll(new JavaWSOLA(rate, channels), input);
+				Comparison actual = stretchAll(new JavaWSOLA(rate, channels), input);
+
+				System.out.println(String.format(Locale.US,
+						"  %s %5d Hz: java %5.1f M samples/s, native %5.1f M samples/s, java allocates %d bytes/s, %s",
+						channels == 1 ? "mono  " : "stereo", rate,
+						input.length / (actual.nanos / 1e9) / 1e6, input.length / (expected.nanos / 1e9) / 1e6,
+						(long) (actual.allocatedBytes / seconds),
+						formatSnr(JavaWSOLATest.snr(expected.output, actual.output))));
+			}
+		}
+	}
+
+	private static String formatSnr(double snr) {
+		return Double.isInfinite(snr) ? "identical to native" : String.format(Locale.US, "%.1f dB SNR against native", snr);
+	}
+}
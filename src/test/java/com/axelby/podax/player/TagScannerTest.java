@@ -0,0 +1,326 @@
+package com.axelby.podax.player;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+// the scanner against tags put together here frame by frame, so every time, title and picture offset is known
+public class TagScannerTest {
+	private static final byte[] COVER = {1, 2, 3, 4, 5, 6, 7, 8};
+	private static final byte[] BACK_COVER = {9, 9, 9};
+	private static final byte[] CHAPTER_ART = {42, 43, 44, 45, 46};
+
+	@Rule
+	public TemporaryFolder _folder = new TemporaryFolder();
+
+	// an ID3v2 frame, sizes are syncsafe in 2.4
+	private static class Frame {
+		private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(_bytes);
+		private final String _id;
+
+		Frame(String id) {
+			_id = id;
+		}
+
+		Frame add(byte[] child) throws IOException {
+			out.write(child);
+			return this;
+		}
+
+		byte[] get(int version) throws IOException {
+			ByteArrayOutputStream whole = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(whole);
+			header.writeBytes(_id);
+			writeSize(header, _bytes.size(), version);
+			header.writeShort(0);
+			header.write(_bytes.toByteArray());
+			return whole.toByteArray();
+		}
+	}
+
+	private static void writeSize(DataOutputStream out, int size, int version) throws IOException {
+		if (version == 4)
+			out.write(new byte[]{(byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F), (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+		else
+			out.writeInt(size);
+	}
+
+	private static byte[] tag(int version, int flags, byte[]... frames) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (byte[] frame : frames)
+			body.write(frame);
+		// padding
+		body.write(new byte[64]);
+
+		ByteArrayOutputStream whole = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(whole);
+		out.writeBytes("ID3");
+		out.writeByte(version);
+		out.writeByte(0);
+		out.writeByte(flags);
+		writeSize(out, body.size(), 4);
+		out.write(body.toByteArray());
+		return whole.toByteArray();
+	}
+
+	private static byte[] title(String text, int version) throws IOException {
+		Frame frame = new Frame("TIT2");
+		frame.out.writeByte(3);
+		frame.out.write(text.getBytes("UTF-8"));
+		return frame.get(version);
+	}
+
+	private static byte[] utf16Title(String text, int version) throws IOException {
+		Frame frame = new Frame("TIT2");
+		frame.out.writeByte(1);
+		// getBytes("UTF-16") starts with a byte order mark
+		frame.out.write(text.getBytes("UTF-16"));
+		frame.out.writeShort(0);
+		return frame.get(version);
+	}
+
+	private static byte[] picture(int type, byte[] data, int version) throws IOException {
+		Frame frame = new Frame("APIC");
+		frame.out.writeByte(0);
+		frame.out.write("image/png\0".getBytes("ISO-8859-1"));
+		frame.out.writeByte(type);
+		frame.out.write("cover\0".getBytes("ISO-8859-1"));
+		frame.out.write(data);
+		return frame.get(version);
+	}
+
+	private static byte[] chapter(String elementId, int startMs, int endMs, int version, byte[]... subFrames) throws IOException {
+		Frame frame = new Frame("CHAP");
+		frame.out.write((elementId + "\0").getBytes("ISO-8859-1"));
+		frame.out.writeInt(startMs);
+		frame.out.writeInt(endMs);
+		frame.out.writeInt(-1);
+		frame.out.writeInt(-1);
+		for (byte[] sub : subFrames)
+			frame.add(sub);
+		return frame.get(version);
+	}
+
+	private static byte[] tableOfContents(String elementId, boolean topLevel, int version, String... entries) throws IOException {
+		Frame frame = new Frame("CTOC");
+		frame.out.write((elementId + "\0").getBytes("ISO-8859-1"));
+		frame.out.writeByte(topLevel ? 0x03 : 0x01);
+		frame.out.writeByte(entries.length);
+		for (String entry : entries)
+			frame.out.write((entry + "\0").getBytes("ISO-8859-1"));
+		return frame.get(version);
+	}
+
+	private File write(byte[]... parts) throws IOException {
+		File file = _folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		for (byte[] part : parts)
+			out.write(part);
+		// a bit of audio after the tag
+		out.write(new byte[]{(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x40});
+		out.write(new byte[413]);
+		out.close();
+		return file;
+	}
+
+	private static byte[] readAt(File file, long offset, int length) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] bytes = new byte[length];
+			in.seek(offset);
+			in.readFully(bytes);
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static TagScanner.Tags scan(File file) {
+		TagScanner.Tags tags = TagScanner.scan(file.getPath(), DecoderRegistry.FORMAT_MP3);
+		assertNotNull(tags);
+		return tags;
+	}
+
+	@Test
+	public void id3v24ChaptersFollowTheTableOfContents() throws IOException {
+		int v = 4;
+		File file = write(tag(v, 0,
+				title("Episode", v),
+				// listed out of order and with a chapter the table doesn't mention
+				chapter("ch2", 60000, 0, v, title("Second", v)),
+				chapter("ch1", 0, 60000, v, title("First", v), picture(0, CHAPTER_ART, v)),
+				chapter("extra", 30000, 40000, v, title("Not listed", v)),
+				tableOfContents("sub", false, v, "extra"),
+				tableOfContents("toc", true, v, "ch1", "ch2"),
+				picture(4, BACK_COVER, v),
+				picture(3, COVER, v)));
+
+		TagScanner.Tags tags = scan(file);
+		ArrayList<TagScanner.Chapter> chapters = tags.getChapters();
+		assertEquals(2, chapters.size());
+
+		assertEquals(0, chapters.get(0).getStartMs());
+		assertEquals(60000, chapters.get(0).getEndMs());
+		assertEquals("First", chapters.get(0).getTitle());
+		assertArrayEquals(CHAPTER_ART, readAt(file, chapters.get(0).getArtworkOffset(), chapters.get(0).getArtworkLength()));
+
+		assertEquals(60000, chapters.get(1).getStartMs());
+		// an end time of 0 means it isn't known
+		assertEquals(-1, chapters.get(1).getEndMs());
+		assertEquals("Second", chapters.get(1).getTitle());
+		assertEquals(-1, chapters.get(1).getArtworkOffset());
+
+		// the front cover wins even though another picture comes first
+		assertArrayEquals(COVER, readAt(file, tags.getArtworkOffset(), tags.getArtworkLength()));
+	}
+
+	@Test
+	public void id3v23ChaptersWithoutATableAreSorted() throws IOException {
+		int v = 3;
+		File file = write(tag(v, 0,
+				chapter("c", 120000, 180000, v, utf16Title("Dritter Teil \u00fc", v)),
+				chapter("a", 0, 60000, v),
+				chapter("b", 60000, 120000, v, title("Middle", v)),
+				picture(0, BACK_COVER, v)));
+
+		TagScanner.Tags tags = scan(file);
+		ArrayList<TagScanner.Chapter> chapters = tags.getChapters();
+		assertEquals(3, chapters.size());
+		assertEquals(0, chapters.get(0).getStartMs());
+		assertNull(chapters.get(0).getTitle());
+		assertEquals("Middle", chapters.get(1).getTitle());
+		assertEquals("Dritter Teil \u00fc", chapters.get(2).getTitle());
+		assertEquals(180000, chapters.get(2).getEndMs());
+
+		// without a front cover the first picture is used
+		assertArrayEquals(BACK_COVER, readAt(file, tags.getArtworkOffset(), tags.getArtworkLength()));
+	}
+
+	@Test
+	public void unreadableTagsHaveNoChapters() throws IOException {
+		// 2.3 unsynchronisation moves every offset
+		File file = write(tag(3, 0x80, chapter("a", 0, 1000, 3)));
+		assertEquals(0, scan(file).getChapters().size());
+
+		// 2.2 predates chapters
+		file = write(tag(2, 0));
+		assertEquals(0, scan(file).getChapters().size());
+
+		// a frame claiming to be bigger than the tag ends the walk
+		byte[] broken = tag(4, 0, chapter("a", 0, 1000, 4), chapter("b", 1000, 2000, 4));
+		broken[10 + 4] = 0x7F;
+		assertEquals(0, scan(write(broken)).getChapters().size());
+
+		// no tag at all
+		file = write();
+		TagScanner.Tags tags = scan(file);
+		assertEquals(0, tags.getChapters().size());
+		assertEquals(-1, tags.getArtworkOffset());
+	}
+
+	@Test
+	public void missingFile() {
+		assertNull(TagScanner.scan(new File(_folder.getRoot(), "missing").getPath(), DecoderRegistry.FORMAT_MP3));
+	}
+
+	// a page holding the given lacing values and data
+	private static byte[] oggPage(int[] lacing, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeBytes("OggS");
+		out.write(new byte[22]);
+		out.writeByte(lacing.length);
+		for (int value : lacing)
+			out.writeByte(value);
+		out.write(data);
+		return bytes.toByteArray();
+	}
+
+	private static void writeIntLE(DataOutputStream out, int value) throws IOException {
+		out.writeByte(value);
+		out.writeByte(value >> 8);
+		out.writeByte(value >> 16);
+		out.writeByte(value >> 24);
+	}
+
+	private static byte[] vorbisComments(String... comments) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(3);
+		out.writeBytes("vorbis");
+		byte[] vendor = "podax test".getBytes("UTF-8");
+		writeIntLE(out, vendor.length);
+		out.write(vendor);
+		writeIntLE(out, comments.length);
+		for (String comment : comments) {
+			byte[] utf8 = comment.getBytes("UTF-8");
+			writeIntLE(out, utf8.length);
+			out.write(utf8);
+		}
+		out.writeByte(1);
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void vorbisChapterComments() throws IOException {
+		byte[] identification = new byte[30];
+		identification[0] = 1;
+		System.arraycopy("vorbis".getBytes("US-ASCII"), 0, identification, 1, 6);
+
+		StringBuilder longComment = new StringBuilder("DESCRIPTION=");
+		for (int i = 0; i < 600; ++i)
+			longComment.append('x');
+		byte[] comments = vorbisComments(
+				"TITLE=Episode",
+				"CHAPTER002=00:01:30.500",
+				"chapter002name=Zw\u00f6lf",
+				longComment.toString(),
+				"CHAPTER001=00:00:00.000",
+				"CHAPTER001NAME=Intro",
+				"CHAPTER003=not a time",
+				"CHAPTER004=01:00:00");
+
+		// the comment packet is split across two pages, 255 lacing values mean it goes on
+		int firstPart = 2 * 255;
+		byte[] head = new byte[firstPart];
+		byte[] rest = new byte[comments.length - firstPart];
+		System.arraycopy(comments, 0, head, 0, firstPart);
+		System.arraycopy(comments, firstPart, rest, 0, rest.length);
+		int[] restLacing = new int[rest.length / 255 + 1];
+		for (int i = 0; i < restLacing.length; ++i)
+			restLacing[i] = Math.min(255, rest.length - i * 255);
+
+		File file = _folder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(oggPage(new int[]{identification.length}, identification));
+		out.write(oggPage(new int[]{255, 255}, head));
+		out.write(oggPage(restLacing, rest));
+		out.close();
+
+		TagScanner.Tags tags = TagScanner.scan(file.getPath(), DecoderRegistry.FORMAT_OGG);
+		assertNotNull(tags);
+		ArrayList<TagScanner.Chapter> chapters = tags.getChapters();
+		assertEquals(3, chapters.size());
+		assertEquals(0, chapters.get(0).getStartMs());
+		assertEquals("Intro", chapters.get(0).getTitle());
+		assertEquals(90500, chapters.get(1).getStartMs());
+		assertEquals("Zw\u00f6lf", chapters.get(1).getTitle());
+		assertEquals(3600000, chapters.get(2).getStartMs());
+		assertNull(chapters.get(2).getTitle());
+		assertEquals(-1, chapters.get(2).getEndMs());
+	}
+}
@@ -0,0 +1,104 @@
+package com.axelby.podax.player;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// the native stretcher, needs the host build from make -C src/main/jni/host and is skipped otherwise
+public class WSOLATest {
+	private static final int RATE = 44100;
+
+	@BeforeClass
+	public static void setUpClass() {
+		try {
+			System.loadLibrary("wsola");
+		} catch (UnsatisfiedLinkError e) {
+			Assume.assumeNoException("build the host libraries with make -C src/main/jni/host", e);
+		}
+	}
+
+	static short[] tone(int frames, int channels, float frequency, int rate) {
+		short[] samples = new short[frames * channels];
+		for (int i = 0; i < frames; ++i)
+			for (int c = 0; c < channels; ++c)
+				samples[i * channels + c] = (short) (8000 * Math.sin(2 * Math.PI * frequency * i / rate + c));
+		return samples;
+	}
+
+	@Test
+	public void stretchIntoWritesOnlyItsRange() {
+		WSOLA wsola = new WSOLA();
+		try {
+			short[] input = tone(AudioPlayer.PCM_CHUNK_SIZE / 2, 2, 440, RATE);
+			int size = WSOLA.getStretchedSize(input.length, true, 1.5f);
+			short[] output = new short[size + 200];
+			java.util.Arrays.fill(output, (short) 12345);
+
+			WSOLA.Error error = new WSOLA.Error();
+			int written = wsola.stretchInto(input, input.length, output, 100, RATE, true, 1.5f, 1, error);
+			assertEquals(WSOLA.Error.SUCCESS, error.code);
+			assertEquals(size, written);
+			for (int i = 0; i < 100; ++i)
+				assertEquals(12345, output[i]);
+			for (int i = 100 + size; i < output.length; ++i)
+				assertEquals(12345, output[i]);
+		} finally {
+			wsola.close();
+		}
+	}
+
+	@Test
+	public void stretchIntoMatchesStretch() {
+		WSOLA wsola = new WSOLA();
+		try {
+			short[] input = tone(AudioPlayer.PCM_CHUNK_SIZE / 2, 2, 300, RATE);
+			short[] expected = wsola.stretch(input, RATE, true, 1.75f, 1, null);
+			short[] output = new short[expected.length];
+			wsola.stretchInto(input, input.length, output, 0, RATE, true, 1.75f, 1, null);
+			for (int i = 0; i < expected.length; ++i)
+				assertEquals(expected[i], output[i]);
+		} finally {
+			wsola.close();
+		}
+	}
+
+	@Test
+	public void rejectsAnOutputBufferThatsTooSmall() {
+		WSOLA wsola = new WSOLA();
+		try {
+			short[] input = tone(1000, 1, 440, RATE);
+			WSOLA.Error error = new WSOLA.Error();
+			int result = wsola.stretchInto(input, input.length, new short[10], 0, RATE, false, 1.5f, 1, error);
+			assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, result);
+			assertEquals(WSOLA.Error.ERR_INVALIDPARAMS, error.code);
+		} finally {
+			wsola.close();
+		}
+	}
+
+	// the playback loop stretches every chunk, none of them should leave garbage behind
+	@Test
+	public void stretchingAChunkAllocatesNothing() {
+		Allocations.assumeSupported();
+		final WSOLA wsola = new WSOLA(RATE, 2);
+		try {
+			final short[] input = tone(AudioPlayer.PCM_CHUNK_SIZE / 2, 2, 440, RATE);
+			final short[] output = new short[wsola.getMaxOutputSize(input.length, 0.5f)];
+			for (final float speed : new float[]{0.75f, 1.5f, 2f}) {
+				wsola.setSpeedRatio(speed);
+				long allocated = Allocations.measure(new Runnable() {
+					@Override
+					public void run() {
+						assertTrue(wsola.process(input, input.length, output, 0) > 0);
+					}
+				}, 50);
+				assertEquals("allocated at " + speed + "x", 0, allocated);
+			}
+		} finally {
+			wsola.close();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.axelby.riasel;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Locale;
+
+// time to parse the item dates of a feed, the SimpleDateFormat cascade against DateParser
+//   ./gradlew test -Pbenchmark
+public class DateParserBenchmark {
+	private static final int ITEMS_PER_FEED = 200;
+	private static final int RUNS = 5;
+
+	// a date each from real feeds, every feed sticks to its own form
+	private static final String[] CORPUS = {
+			"Tue, 13 Jan 2015 08:00:00 +0000",
+			"Wed, 14 Jan 2015 05:00:00 -0000",
+			"Mon, 12 Jan 2015 17:30:00 GMT",
+			"Thu, 15 Jan 2015 11:00:00 EST",
+			"Fri, 9 Jan 2015 14:22:31 PST",
+			"Sun, 11 Jan 2015 23:59 GMT",
+			"15 Jan 2015 06:00:00 +0100",
+			"Thu, 15 Jan 15 12:00:00 GMT",
+			"Sat, 10 Jan 2015 09:15:00 CET",
+			"Thu, 15 Jan 2015 12:00:00 NZDT",
+			"2015-01-15T12:00:00Z",
+			"2015-01-14T20:45:12.000Z",
+			"2015-01-13T09:00:00+0100",
+			"2015-01-12T18:30:00.250-0800",
+	};
+
+	@BeforeClass
+	public static void setUpClass() {
+		Assume.assumeTrue("run with -Pbenchmark", Boolean.getBoolean("podax.benchmark"));
+	}
+
+	// a feed's worth of dates in the sample's form
+	private static String[] feedOf(String sample) {
+		String[] dates = new String[ITEMS_PER_FEED];
+		for (int i = 0; i < ITEMS_PER_FEED; ++i)
+			dates[i] = sample;
+		return dates;
+	}
+
+	private interface Parser {
+		// called once per feed, the way RSSParser makes one DateParser per feed
+		void startFeed();
+		Date parse(String text);
+	}
+
+	// best time per date over RUNS passes through every feed
+	private static double nanosPerDate(Parser parser, String[][] feeds) {
+		int dates = 0;
+		for (String[] feed : feeds)
+			dates += feed.length;
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; ++run) {
+			long start = System.nanoTime();
+			for (String[] feed : feeds) {
+				parser.startFeed();
+				for (String text : feed)
+					if (parser.parse(text) == null)
+						throw new AssertionError("couldn't parse " + text);
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return (double) best / dates;
+	}
+
+	@Test
+	public void feedDates() {
+		String[][] feeds = new String[CORPUS.length][];
+		for (int i = 0; i < CORPUS.length; ++i)
+			feeds[i] = feedOf(CORPUS[i]);
+
+		Parser legacy = new Parser() {
+			@Override
+			public void startFeed() {
+			}
+
+			@Override
+			public Date parse(String text) {
+				return DateParserTest.legacyParse(text);
+			}
+		};
+		Parser handParsed = new Parser() {
+			private DateParser _dates;
+
+			@Override
+			public void startFeed() {
+				_dates = new DateParser();
+			}
+
+			@Override
+			public Date parse(String text) {
+				return _dates.parse(text);
+			}
+		};
+
+		System.out.println(String.format(Locale.US, "date parsing, %d feeds of %d items, best of %d",
+				feeds.length, ITEMS_PER_FEED, RUNS));
+		// let the JIT compile both before anything is timed
+		nanosPerDate(legacy, feeds);
+		nanosPerDate(handParsed, feeds);
+		double legacyNanos = nanosPerDate(legacy, feeds);
+		double handNanos = nanosPerDate(handParsed, feeds);
+		System.out.println(String.format(Locale.US, "  %-24s %8.2f us per date", "SimpleDateFormat cascade", legacyNanos / 1000));
+		System.out.println(String.format(Locale.US, "  %-24s %8.2f us per date, %.1fx", "DateParser", handNanos / 1000, legacyNanos / handNanos));
+
+		// one feed at a time, to see which forms the cascade is slowest on
+		for (String[] feed : feeds) {
+			double legacyFeed = nanosPerDate(legacy, new String[][]{feed});
+			double handFeed = nanosPerDate(handParsed, new String[][]{feed});
+			System.out.println(String.format(Locale.US, "  %-34s %8.2f us, %6.2f us",
+					feed[0], legacyFeed / 1000, handFeed / 1000));
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.axelby.riasel;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DateParserTest {
+	// Thu, 15 Jan 2015 12:00:00 GMT
+	private static final long NOON_UTC = 1421323200000L;
+	private static final long HOUR = 60 * 60 * 1000;
+
+	// the SimpleDateFormat cascade Utils.parseDate used before DateParser
+	private static final String[] LEGACY_PATTERNS = {
+			"yyyy-MM-dd'T'HH:mm:ss'Z'",
+			"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'",
+			"yyyy-MM-dd'T'HH:mm:ssZ",
+			"yyyy-MM-dd'T'HH:mm:ss.SSSZ",
+			"EEE, d MMM yy HH:mm:ss z",
+			"EEE, d MMM yy HH:mm z",
+			"EEE, d MMM yyyy HH:mm:ss z",
+			"EEE, d MMM yyyy HH:mm z",
+			"EEE d MMM yy HH:mm:ss z",
+			"EEE d MMM yy HH:mm z",
+			"EEE d MMM yyyy HH:mm:ss z",
+			"EEE d MMM yyyy HH:mm z",
+			"d MMM yy HH:mm z",
+			"d MMM yy HH:mm:ss z",
+			"d MMM yyyy HH:mm z",
+			"d MMM yyyy HH:mm:ss z",
+	};
+
+	static Date legacyParse(String text) {
+		for (String pattern : LEGACY_PATTERNS) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			try {
+				return format.parse(text);
+			} catch (ParseException ignored) {
+			}
+		}
+		return null;
+	}
+
+	private static long parse(String text) {
+		Date date = new DateParser().parse(text);
+		assertNotNull(text, date);
+		return date.getTime();
+	}
+
+	private static void assertOffset(String zone, double hoursAheadOfUTC) {
+		String text = "Thu, 15 Jan 2015 12:00:00 " + zone;
+		assertEquals(text, NOON_UTC - (long) (hoursAheadOfUTC * HOUR), parse(text));
+	}
+
+	@Test
+	public void rfc822Forms() {
+		assertEquals(NOON_UTC, parse("Thu, 15 Jan 2015 12:00:00 GMT"));
+		assertEquals(NOON_UTC, parse("Thu, 15 Jan 2015 12:00 GMT"));
+		assertEquals(NOON_UTC, parse("Thu 15 Jan 2015 12:00:00 GMT"));
+		assertEquals(NOON_UTC, parse("15 Jan 2015 12:00:00 GMT"));
+		assertEquals(NOON_UTC, parse("Thu, 15 Jan 15 12:00:00 GMT"));
+		assertEquals(NOON_UTC, parse("Thursday, 15 January 2015 12:00:00 GMT"));
+		assertEquals(NOON_UTC, parse("  Thu, 15 Jan 2015 12:00:00 GMT  "));
+		// no zone is UTC
+		assertEquals(NOON_UTC, parse("Thu, 15 Jan 2015 12:00:00"));
+	}
+
+	@Test
+	public void rfc822ZoneNames() {
+		assertOffset("GMT", 0);
+		assertOffset("UT", 0);
+		assertOffset("UTC", 0);
+		assertOffset("Z", 0);
+		assertOffset("EST", -5);
+		assertOffset("EDT", -4);
+		assertOffset("CST", -6);
+		assertOffset("CDT", -5);
+		assertOffset("MST", -7);
+		assertOffset("MDT", -6);
+		assertOffset("PST", -8);
+		assertOffset("PDT", -7);
+		assertOffset("BST", 1);
+		assertOffset("CET", 1);
+		assertOffset("CEST", 2);
+		assertOffset("EET", 2);
+		assertOffset("EEST", 3);
+		assertOffset("JST", 9);
+		assertOffset("AEST", 10);
+		assertOffset("AEDT", 11);
+	}
+
+	@Test
+	public void zoneNamesLeftToSimpleDateFormat() {
+		assertOffset("NZDT", 13);
+		assertOffset("NZST", 12);
+		assertOffset("AKST", -9);
+		assertOffset("AKDT", -8);
+		assertOffset("HKT", 8);
+		assertOffset("SGT", 8);
+		assertOffset("ADT", -3);
+		// Atlantic, not the legacy Alaska id
+		assertOffset("AST", -4);
+		assertOffset("MSK", 3);
+		assertOffset("WIB", 7);
+		assertOffset("KST", 9);
+		assertOffset("IDT", 3);
+		assertOffset("ICT", 7);
+		assertOffset("BRT", -3);
+	}
+
+	@Test
+	public void unknownZonesAreNotGuessed() {
+		DateParser parser = new DateParser();
+		assertNull(parser.parse("Thu, 15 Jan 2015 12:00:00 Europe/Berlin"));
+		assertNull(parser.parse("Thu, 15 Jan 2015 12:00:00 A"));
+		assertNull(parser.parse("Thu, 15 Jan 2015 12:00:00 XYZ"));
+	}
+
+	@Test
+	public void numericZones() {
+		assertOffset("+0100", 1);
+		assertOffset("-0530", -5.5);
+		assertOffset("+01:00", 1);
+		assertOffset("GMT+01:00", 1);
+		assertOffset("GMT-0800", -8);
+	}
+
+	@Test
+	public void iso8601Forms() {
+		assertEquals(NOON_UTC, parse("2015-01-15T12:00:00Z"));
+		assertEquals(NOON_UTC + 123, parse("2015-01-15T12:00:00.123Z"));
+		assertEquals(NOON_UTC + 500, parse("2015-01-15T12:00:00.5Z"));
+		assertEquals(NOON_UTC + 123, parse("2015-01-15T12:00:00.123456Z"));
+		assertEquals(NOON_UTC - HOUR, parse("2015-01-15T12:00:00+01:00"));
+		assertEquals(NOON_UTC - HOUR, parse("2015-01-15T12:00:00+0100"));
+		assertEquals(NOON_UTC + 8 * HOUR, parse("2015-01-15T12:00:00-08"));
+		assertEquals(NOON_UTC, parse("2015-01-15T12:00:00"));
+		assertEquals(NOON_UTC, parse("2015-01-15 12:00:00Z"));
+		assertEquals(NOON_UTC - 12 * HOUR, parse("2015-01-15"));
+	}
+
+	@Test
+	public void outOfRangeFieldsRollOver() {
+		// the 32nd of January is the 1st of February
+		assertEquals(parse("Sun, 01 Feb 2015 12:00:00 GMT"), parse("Sat, 32 Jan 2015 12:00:00 GMT"));
+		assertEquals(parse("Sun, 01 Mar 2015 12:00:00 GMT"), parse("Sat, 29 Feb 2015 12:00:00 GMT"));
+		assertEquals(parse("2016-01-01T00:00:00Z"), parse("2015-12-31T24:00:00Z"));
+		assertEquals(parse("2016-01-15T12:00:00Z"), parse("2015-13-15T12:00:00Z"));
+		assertEquals(parse("2014-12-15T12:00:00Z"), parse("2015-00-15T12:00:00Z"));
+	}
+
+	@Test
+	public void notDates() {
+		DateParser parser = new DateParser();
+		assertNull(parser.parse(null));
+		assertNull(parser.parse(""));
+		assertNull(parser.parse("garbage"));
+		assertNull(parser.parse("Thu, 15 Foo 2015 12:00:00 GMT"));
+		assertNull(parser.parse("2015-1-15"));
+	}
+
+	@Test
+	public void oneParserHandlesMixedForms() {
+		DateParser parser = new DateParser();
+		assertEquals(NOON_UTC, parser.parse("2015-01-15T12:00:00Z").getTime());
+		assertEquals(NOON_UTC, parser.parse("Thu, 15 Jan 2015 12:00:00 GMT").getTime());
+		assertEquals(NOON_UTC - 13 * HOUR, parser.parse("Thu, 15 Jan 2015 12:00:00 NZDT").getTime());
+		assertEquals(NOON_UTC, parser.parse("2015-01-15T12:00:00Z").getTime());
+	}
+
+	// dates the old cascade parsed come out the same
+	@Test
+	public void matchesLegacyCascade() {
+		String[] days = {"Thu, ", "Thu ", ""};
+		String[] dates = {"15 Jan 2015", "1 Feb 15", "32 Jan 2015", "29 Feb 2012", "31 Dec 99", "5 May 1985"};
+		String[] times = {"12:00:00", "23:59", "00:00:59", "24:00:00"};
+		String[] zones = {"GMT", "UT", "EST", "PDT", "+0100", "-0930", "NZDT", "AST", "CEST", "HKT", "JST", "GMT+02:00"};
+		int compared = 0;
+		for (String day : days) {
+			for (String date : dates) {
+				for (String time : times) {
+					for (String zone : zones) {
+						String text = day + date + " " + time + " " + zone;
+						Date legacy = legacyParse(text);
+						if (legacy == null)
+							continue;
+						assertEquals(text, legacy, new DateParser().parse(text));
+						++compared;
+					}
+				}
+			}
+		}
+
+		String[] isoDates = {
+				"2015-01-15T12:00:00Z", "2015-01-15T12:00:00.123Z", "2015-01-15T12:00:00+0100",
+				"2015-01-15T12:00:00.250-0800", "1999-12-31T23:59:59Z", "2015-01-32T12:00:00Z",
+		};
+		for (String text : isoDates) {
+			Date legacy = legacyParse(text);
+			assertNotNull(text, legacy);
+			assertEquals(text, legacy, new DateParser().parse(text));
+			++compared;
+		}
+		assertEquals(true, compared > 100);
+	}
+}
@@ -0,0 +1,135 @@
+package com.axelby.riasel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// the known-item rules, fed the way RSSParser and AtomParser feed them
+public class FeedParserTest {
+	private static final long DAY = 24 * 60 * 60 * 1000;
+	// Thu, 15 Jan 2015 12:00:00 GMT
+	private static final long WATERMARK = 1421323200000L;
+
+	private FeedParser _parser;
+	// media urls of the items that reached the handler, in order
+	private ArrayList<String> _handled;
+
+	@Before
+	public void setUp() {
+		_parser = new FeedParser();
+		_handled = new ArrayList<String>();
+		_parser.setOnFeedItemHandler(new FeedParser.FeedItemHandler() {
+			@Override
+			public void OnFeedItem(FeedParser feedParser, FeedItem item) {
+				_handled.add(item.getMediaURL());
+			}
+		});
+	}
+
+	private static FeedItem item(String mediaURL, Long daysAfterWatermark) {
+		FeedItem item = new FeedItem();
+		item.setMediaURL(mediaURL);
+		if (daysAfterWatermark != null)
+			item.setPublicationDate(new Date(WATERMARK + daysAfterWatermark * DAY));
+		return item;
+	}
+
+	// what the parsers do at the end of each item, returns false once they'd stop
+	private boolean feed(FeedItem item) {
+		if (!_parser.isKnownItem(item) && _parser.getOnFeedItemHandler() != null)
+			_parser.getOnFeedItemHandler().OnFeedItem(_parser, item);
+		return !_parser.shouldStopProcessing();
+	}
+
+	private void feedAll(FeedItem... items) {
+		for (FeedItem item : items)
+			if (!feed(item))
+				return;
+	}
+
+	@Test
+	public void everythingIsNewWithoutAWatermark() {
+		feedAll(item("a", 2L), item("b", -1L), item("c", -2L), item("d", -3L));
+		assertEquals(4, _handled.size());
+		assertFalse(_parser.stoppedAtWatermark());
+	}
+
+	@Test
+	public void stopsAfterARunOfKnownItems() {
+		_parser.setKnownItemWatermark(new Date(WATERMARK), "w");
+		feedAll(item("new2", 2L), item("new1", 1L), item("w", 0L), item("old1", -1L), item("old2", -2L), item("old3", -3L));
+		assertEquals(2, _handled.size());
+		assertEquals("new2", _handled.get(0));
+		assertEquals("new1", _handled.get(1));
+		assertTrue(_parser.stoppedAtWatermark());
+	}
+
+	@Test
+	public void skipsTheWatermarkEvenIfItsDateChanged() {
+		_parser.setKnownItemWatermark(new Date(WATERMARK), "w");
+		feedAll(item("new", 2L), item("w", 1L));
+		assertEquals(1, _handled.size());
+		assertFalse(_parser.stoppedAtWatermark());
+	}
+
+	@Test
+	public void aNewItemEndsTheRun() {
+		_parser.setKnownItemWatermark(new Date(WATERMARK), "w");
+		// the watermark is listed before an item with the same date
+		feedAll(item("w", 0L), item("same", 0L), item("old1", -1L), item("old2", -2L));
+		assertEquals(1, _handled.size());
+		assertFalse(_parser.stoppedAtWatermark());
+
+		feed(item("old3", -3L));
+		assertTrue(_parser.stoppedAtWatermark());
+	}
+
+	// a back-dated episode further down means the feed isn't newest first
+	@Test
+	public void olderItemsAreHandedOverOnceTheOrderBreaks() {
+		_parser.setKnownItemWatermark(new Date(WATERMARK), "w");
+		feedAll(item("new", 1L), item("old1", -1L), item("old2", -2L), item("newer", 3L), item("old3", -3L), item("w", 0L));
+		assertFalse(_parser.stoppedAtWatermark());
+		// skipped items come before the one that broke the order, the watermark is still known
+		assertEquals(5, _handled.size());
+		assertEquals("new", _handled.get(0));
+		assertEquals("old1", _handled.get(1));
+		assertEquals("old2", _handled.get(2));
+		assertEquals("newer", _handled.get(3));
+		assertEquals("old3", _handled.get(4));
+	}
+
+	@Test
+	public void anUndatedItemBreaksTheOrder() {
+		_parser.setKnownItemWatermark(new Date(WATERMARK), "w");
+		feedAll(item("old1", -1L), item("undated", null), item("old2", -2L), item("old3", -3L), item("old4", -4L));
+		assertFalse(_parser.stoppedAtWatermark());
+		assertEquals(5, _handled.size());
+		assertEquals("old1", _handled.get(0));
+		assertEquals("undated", _handled.get(1));
+	}
+
+	@Test
+	public void aWatermarkInTheFutureOnlyMatchesByURL() {
+		_parser.setKnownItemWatermark(new Date(System.currentTimeMillis() + 365 * DAY), "w");
+		feedAll(item("a", 3L), item("b", 2L), item("c", 1L), item("w", 0L), item("d", -1L));
+		assertFalse(_parser.stoppedAtWatermark());
+		assertEquals(4, _handled.size());
+		assertFalse(_handled.contains("w"));
+	}
+
+	// without a date the watermark episode alone can't start a run that stops
+	@Test
+	public void aURLOnlyWatermarkNeverStops() {
+		_parser.setKnownItemWatermark(null, "w");
+		feedAll(item("new", 1L), item("w", 0L), item("old1", -1L), item("old2", -2L));
+		assertFalse(_parser.stoppedAtWatermark());
+		assertEquals(3, _handled.size());
+	}
+}